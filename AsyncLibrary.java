@@ -0,0 +1,227 @@
+import java.io.File;
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.TimeUnit;
+import java.util.function.Supplier;
+
+/**
+ * Versão assíncrona das operações da biblioteca, para quem não pode esperar pelas escritas em disco,
+ * como a thread da interface gráfica.
+ * <p>
+ * Cada operação é executada numa thread de I/O dedicada e devolve logo um CompletableFuture.
+ * A thread é só uma, por isso as operações são aplicadas pela ordem em que foram pedidas.
+ * Para servir muitos utilizadores ao mesmo tempo, {@link #concurrent} executa cada operação na sua própria thread.
+ * Um erro de escrita completa o future com um UncheckedIOException que envolve o IOException original.
+ */
+public class AsyncLibrary {
+
+    private final LibraryService library;
+    private final ExecutorService io;
+
+    /**
+     * Operação da biblioteca que pode lançar IOException.
+     *
+     * @param <T> O tipo do resultado da operação.
+     */
+    @FunctionalInterface
+    private interface IoOperation<T> {
+        T run() throws IOException;
+    }
+
+    /**
+     * Construtor da classe AsyncLibrary.
+     *
+     * @param library A biblioteca cujas operações são executadas na thread de I/O.
+     */
+    public AsyncLibrary(LibraryService library) {
+        this(library, Executors.newSingleThreadExecutor(task -> {
+            Thread thread = new Thread(task, "library-io");
+            thread.setDaemon(true);  // close() espera pelas operações pendentes antes de a aplicação terminar
+            return thread;
+        }));
+    }
+
+    private AsyncLibrary(LibraryService library, ExecutorService io) {
+        this.library = library;
+        this.io = io;
+    }
+
+    /**
+     * Cria uma AsyncLibrary partilhada por muitos utilizadores, em que cada operação corre numa virtual thread
+     * própria (ou, sem virtual threads, numa pool de threads normais), por isso uma operação à espera do disco
+     * não atrasa as outras. As operações deixam de ser aplicadas pela ordem em que foram pedidas: quem precisa
+     * dessa ordem, como um utilizador que requisita e depois devolve o mesmo livro, espera pelo future da primeira.
+     *
+     * @param library A biblioteca partilhada.
+     * @param platformThreads Número de threads da pool usada sem virtual threads.
+     * @return A AsyncLibrary criada.
+     */
+    public static AsyncLibrary concurrent(LibraryService library, int platformThreads) {
+        return new AsyncLibrary(library, LibraryThreads.newRequestExecutor("library-request", platformThreads));
+    }
+
+    /**
+     * Adiciona um novo livro à biblioteca na thread de I/O.
+     *
+     * @param author Nome do autor do livro.
+     * @param title Título do livro.
+     * @return Um future com o resultado, completado quando o livro estiver adicionado e guardado.
+     */
+    public CompletableFuture<LibraryResult> addBook(String author, String title) {
+        return submit(() -> library.addBook(author, title));
+    }
+
+    /**
+     * Remove um livro da biblioteca na thread de I/O.
+     *
+     * @param author Nome do autor do livro.
+     * @param title Título do livro.
+     * @return Um future com o resultado, completado quando a remoção estiver guardada.
+     */
+    public CompletableFuture<LibraryResult> removeBook(String author, String title) {
+        return submit(() -> library.removeBook(author, title));
+    }
+
+    /**
+     * Requisita um livro da biblioteca na thread de I/O.
+     *
+     * @param author Nome do autor do livro.
+     * @param title Título do livro.
+     * @return Um future com o resultado, completado quando a requisição estiver guardada.
+     */
+    public CompletableFuture<LibraryResult> requestBook(String author, String title) {
+        return submit(() -> library.requestBook(author, title));
+    }
+
+    /**
+     * Requisita um livro da biblioteca em nome de um requisitante, na thread de I/O.
+     *
+     * @param author Nome do autor do livro.
+     * @param title Título do livro.
+     * @param borrower Identificador de quem requisita o livro.
+     * @return Um future com o resultado, completado quando a requisição estiver guardada.
+     */
+    public CompletableFuture<LibraryResult> requestBook(String author, String title, String borrower) {
+        return submit(() -> library.requestBook(author, title, borrower));
+    }
+
+    /**
+     * Devolve um livro à biblioteca na thread de I/O.
+     *
+     * @param author Nome do autor do livro.
+     * @param title Título do livro.
+     * @return Um future com o resultado, completado quando a devolução estiver guardada.
+     */
+    public CompletableFuture<LibraryResult> returnBook(String author, String title) {
+        return submit(() -> library.returnBook(author, title));
+    }
+
+    /**
+     * Requisita ou reserva um livro da biblioteca em nome de um requisitante, na thread de I/O.
+     *
+     * @param author Nome do autor do livro.
+     * @param title Título do livro.
+     * @param borrower Identificador de quem requisita o livro.
+     * @return Um future com o resultado, {@link LibraryResult#ON_HOLD} se o pedido ficou na fila.
+     */
+    public CompletableFuture<LibraryResult> holdBook(String author, String title, String borrower) {
+        return submit(() -> library.holdBook(author, title, borrower));
+    }
+
+    /**
+     * Altera o número de exemplares de um livro na thread de I/O.
+     *
+     * @param author Nome do autor do livro.
+     * @param title Título do livro.
+     * @param copies O novo número de exemplares.
+     * @return Um future com o resultado, completado quando os exemplares estiverem guardados.
+     */
+    public CompletableFuture<LibraryResult> setCopies(String author, String title, int copies) {
+        return submit(() -> library.setCopies(author, title, copies));
+    }
+
+    /**
+     * Obtém os livros de um autor na thread de I/O, depois das operações pedidas antes.
+     *
+     * @param author Nome do autor.
+     * @return Um future com os livros do autor, vazio se o autor não existir.
+     */
+    public CompletableFuture<Book[]> getBooksByAuthor(String author) {
+        return query(() -> library.getBooksByAuthor(author));
+    }
+
+    /**
+     * Executa uma consulta na thread de I/O, para quem não pode esperar por ela, como a thread da interface gráfica
+     * com uma biblioteca num servidor ou fora do heap, ou a primeira pesquisa, que indexa o catálogo.
+     *
+     * @param query A consulta a executar.
+     * @param <T> O tipo do resultado da consulta.
+     * @return Um future com o resultado da consulta.
+     */
+    public <T> CompletableFuture<T> query(Supplier<T> query) {
+        return CompletableFuture.supplyAsync(query, io);
+    }
+
+    /**
+     * Importa os livros de um ficheiro CSV ou JSON na thread de I/O, em lotes guardados com uma escrita cada.
+     * As operações pedidas depois só são aplicadas quando a importação terminar.
+     *
+     * @param file O ficheiro a importar.
+     * @param progress Recebe o progresso no fim de cada lote, na thread de I/O.
+     * @return Um future com o resultado, completado quando todos os lotes estiverem guardados.
+     */
+    public CompletableFuture<CatalogTransfer.Report> importBooks(File file, CatalogTransfer.Progress progress) {
+        return submit(() -> CatalogTransfer.importBooks(library, file, progress));
+    }
+
+    /**
+     * Exporta os livros da biblioteca para um ficheiro CSV ou JSON na thread de I/O.
+     *
+     * @param file O ficheiro a escrever.
+     * @param progress Recebe o progresso durante a escrita, na thread de I/O.
+     * @return Um future com o resultado, completado quando o ficheiro estiver escrito.
+     */
+    public CompletableFuture<CatalogTransfer.Report> exportBooks(File file, CatalogTransfer.Progress progress) {
+        return submit(() -> CatalogTransfer.exportBooks(library, file, progress));
+    }
+
+    /**
+     * Deixa de aceitar operações e espera que as pendentes terminem, sem fechar a biblioteca.
+     */
+    public void shutdown() {
+        io.shutdown();
+        try {
+            while (!io.awaitTermination(1, TimeUnit.SECONDS)) {
+                LibraryLog.log(LibraryLog.Level.INFO, "À espera das operações pendentes...");
+            }
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+    }
+
+    /**
+     * Deixa de aceitar operações, espera que as pendentes terminem e fecha a biblioteca.
+     *
+     * @throws IOException Se ocorrer um erro ao fechar os ficheiros da biblioteca.
+     */
+    public void close() throws IOException {
+        shutdown();
+        library.close();
+    }
+
+    /**
+     * Agenda uma operação na thread de I/O.
+     */
+    private <T> CompletableFuture<T> submit(IoOperation<T> operation) {
+        return CompletableFuture.supplyAsync(() -> {
+            try {
+                return operation.run();
+            } catch (IOException e) {
+                throw new UncheckedIOException(e);
+            }
+        }, io);
+    }
+}
@@ -0,0 +1,73 @@
+import java.util.Arrays;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+
+/**
+ * Dicionário que atribui a cada nome de autor um identificador numérico denso (0, 1, 2, ...).
+ * <p>
+ * Cada nome é guardado uma só vez, por isso os livros de modo compacto (CompactBook) guardam apenas o id do autor,
+ * em vez de uma referência para uma String que pode estar repetida em cada livro lido.
+ * Os ids nunca são reutilizados: um autor que fica sem livros mantém o seu, para o caso de voltar a aparecer.
+ * <p>
+ * Acrescentar nomes é sincronizado; procurar um nome ou obter o nome de um id não usa locks, porque os ids
+ * nunca mudam e o array de nomes só é substituído por uma cópia maior.
+ */
+public class AuthorDictionary {
+
+    private final Map<String, Integer> ids = new ConcurrentHashMap<>();  // Id de cada nome
+    private volatile String[] names = new String[16];                    // Nome de cada id
+    private volatile int size;
+
+    /**
+     * Retorna o id de um autor, atribuindo um novo se o nome ainda não existir.
+     *
+     * @param author Nome do autor.
+     * @return O id do autor.
+     */
+    public synchronized int intern(String author) {
+        Integer existing = ids.get(author);
+        if (existing != null) {
+            return existing;
+        }
+        String[] current = names;
+        if (size == current.length) {
+            current = Arrays.copyOf(current, size * 2);
+        }
+        int id = size;
+        current[id] = author;
+        names = current;
+        ids.put(author, id);
+        size = id + 1;
+        return id;
+    }
+
+    /**
+     * Procura o id de um autor, sem o acrescentar.
+     *
+     * @param author Nome do autor.
+     * @return O id do autor ou -1 se não existir.
+     */
+    public int find(String author) {
+        Integer id = ids.get(author);
+        return id == null ? -1 : id;
+    }
+
+    /**
+     * Retorna o nome de um autor.
+     *
+     * @param id O id do autor, retornado por {@link #intern}.
+     * @return O nome do autor.
+     */
+    public String name(int id) {
+        return names[id];
+    }
+
+    /**
+     * Retorna o número de autores no dicionário.
+     *
+     * @return O número de autores.
+     */
+    public int size() {
+        return size;
+    }
+}
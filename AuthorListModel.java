@@ -0,0 +1,62 @@
+import java.io.Serial;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * Modelo da lista de autores da interface gráfica, mantido pelos avisos da biblioteca.
+ * Tal como na biblioteca, um autor novo fica no fim da lista e um autor sem livros sai da lista.
+ * Requisitar ou devolver livros não altera a lista.
+ */
+public class AuthorListModel extends CatalogListModel<String> {
+
+    @Serial
+    private static final long serialVersionUID = 1L;
+
+    private final List<String> authors = new ArrayList<>();
+    private final Map<String, Integer> bookCounts = new HashMap<>();  // Número de livros de cada autor da lista
+
+    @Override
+    public int getSize() {
+        return authors.size();
+    }
+
+    @Override
+    public String getElementAt(int index) {
+        return authors.get(index);
+    }
+
+    @Override
+    protected void applyBookAdded(Book book) {
+        Integer count = bookCounts.get(book.getAuthor());
+        if (count == null) {
+            authors.add(book.getAuthor());
+            rowAppended(authors.size() - 1);
+            count = 0;
+        }
+        bookCounts.put(book.getAuthor(), count + 1);
+    }
+
+    @Override
+    protected void applyBookRemoved(Book book) {
+        Integer count = bookCounts.get(book.getAuthor());
+        if (count == null) {
+            return;
+        }
+        if (count > 1) {
+            bookCounts.put(book.getAuthor(), count - 1);
+            return;
+        }
+
+        // O autor ficou sem livros; é raro, por isso a procura da sua posição pode ser linear
+        bookCounts.remove(book.getAuthor());
+        int index = authors.indexOf(book.getAuthor());
+        authors.remove(index);
+        rowRemoved(index);
+    }
+
+    @Override
+    protected void applyAvailabilityChanged(Book book) {
+    }
+}
@@ -0,0 +1,136 @@
+import java.util.concurrent.atomic.AtomicLongArray;
+
+/**
+ * Classe que guarda a disponibilidade dos livros num conjunto de bits, um bit por livro.
+ * Cada livro da biblioteca tem um identificador numérico denso que é a posição do seu bit.
+ * Requisitar ou devolver um livro é uma única operação compare-and-set sobre a palavra de 64 bits que o contém,
+ * e contar ou listar os livros disponíveis percorre palavras em vez de objetos Book.
+ */
+public class AvailabilityBitmap {
+
+    /**
+     * Palavras de 64 bits com a disponibilidade de cada livro (bit a 1 = disponível).
+     * Só é substituída por uma maior em {@link #ensureCapacity}, que a biblioteca chama com o lock de escrita.
+     */
+    private volatile AtomicLongArray words;
+
+    /**
+     * Construtor da classe AvailabilityBitmap.
+     *
+     * @param capacity Número inicial de livros que o conjunto consegue guardar.
+     */
+    public AvailabilityBitmap(int capacity) {
+        words = new AtomicLongArray(Math.max(1, (capacity + 63) >>> 6));
+    }
+
+    /**
+     * Retorna o número de livros que o conjunto consegue guardar sem crescer.
+     *
+     * @return A capacidade em bits.
+     */
+    public int capacity() {
+        return words.length() << 6;
+    }
+
+    /**
+     * Garante que o conjunto tem espaço para um dado número de livros, duplicando a capacidade quando necessário.
+     * Não pode ser chamado ao mesmo tempo que outras alterações ao conjunto.
+     *
+     * @param bits Número de livros que têm de caber no conjunto.
+     */
+    public void ensureCapacity(int bits) {
+        AtomicLongArray current = words;
+        int needed = (bits + 63) >>> 6;
+        if (needed <= current.length()) {
+            return;
+        }
+        AtomicLongArray grown = new AtomicLongArray(Math.max(needed, current.length() * 2));
+        for (int i = 0; i < current.length(); i++) {
+            grown.set(i, current.get(i));
+        }
+        words = grown;
+    }
+
+    /**
+     * Verifica se um livro está disponível.
+     *
+     * @param id O identificador do livro.
+     * @return true se o livro estiver disponível, false caso contrário.
+     */
+    public boolean get(int id) {
+        return (words.get(id >>> 6) & (1L << id)) != 0;
+    }
+
+    /**
+     * Define a disponibilidade de um livro.
+     *
+     * @param id O identificador do livro.
+     * @param available A disponibilidade do livro.
+     */
+    public void set(int id, boolean available) {
+        compareAndSet(id, !available, available);
+    }
+
+    /**
+     * Altera a disponibilidade de um livro apenas se esta tiver o valor esperado.
+     * Só repete o compare-and-set quando outro bit da mesma palavra mudou entretanto.
+     *
+     * @param id O identificador do livro.
+     * @param expected A disponibilidade esperada.
+     * @param available A nova disponibilidade.
+     * @return true se a disponibilidade foi alterada, false se não tinha o valor esperado.
+     */
+    public boolean compareAndSet(int id, boolean expected, boolean available) {
+        AtomicLongArray current = words;
+        int word = id >>> 6;
+        long mask = 1L << id;
+        while (true) {
+            long old = current.get(word);
+            if (((old & mask) != 0) != expected) {
+                return false;
+            }
+            long updated = available ? old | mask : old & ~mask;
+            if (current.compareAndSet(word, old, updated)) {
+                return true;
+            }
+        }
+    }
+
+    /**
+     * Conta os livros disponíveis, somando os bits a 1 de cada palavra.
+     *
+     * @return O número de livros disponíveis.
+     */
+    public int count() {
+        AtomicLongArray current = words;
+        int count = 0;
+        for (int i = 0; i < current.length(); i++) {
+            count += Long.bitCount(current.get(i));
+        }
+        return count;
+    }
+
+    /**
+     * Procura o próximo livro disponível a partir de um identificador.
+     *
+     * @param from O identificador onde começa a procura.
+     * @return O identificador do próximo livro disponível, ou -1 se não existir.
+     */
+    public int nextAvailable(int from) {
+        AtomicLongArray current = words;
+        int word = from >>> 6;
+        if (word >= current.length()) {
+            return -1;
+        }
+        long bits = current.get(word) & (-1L << from);
+        while (true) {
+            if (bits != 0) {
+                return (word << 6) + Long.numberOfTrailingZeros(bits);
+            }
+            if (++word == current.length()) {
+                return -1;
+            }
+            bits = current.get(word);
+        }
+    }
+}
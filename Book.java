@@ -1,9 +1,22 @@
+import java.lang.invoke.MethodHandles;
+import java.lang.invoke.VarHandle;
+
 /**
  * Classe que representa um livro na biblioteca.
  * Contém atributos como título, autor e disponibilidade do livro.
  */
 public class Book {
 
+    private static final VarHandle IS_AVAILABLE;
+
+    static {
+        try {
+            IS_AVAILABLE = MethodHandles.lookup().findVarHandle(Book.class, "isAvailable", boolean.class);
+        } catch (ReflectiveOperationException e) {
+            throw new ExceptionInInitializerError(e);
+        }
+    }
+
     /**
      * Atributo que guarda o título do livro.
      */
@@ -17,8 +30,26 @@ public class Book {
     /**
      * Atributo que indica se o livro está disponível para empréstimo.
      * (true = disponível, false = indisponível)
+     * É alterado com compare-and-set (através de um VarHandle, sem um AtomicBoolean por livro) para que várias
+     * threads não possam requisitar o mesmo livro ao mesmo tempo.
+     * Enquanto o livro pertence a uma biblioteca, a disponibilidade fica no AvailabilityBitmap desta.
+     */
+    private volatile boolean isAvailable;
+
+    /**
+     * Conjunto de bits da biblioteca onde está a disponibilidade do livro, ou null se o livro não pertencer a nenhuma.
+     */
+    private volatile AvailabilityBitmap bitmap;
+
+    /**
+     * Identificador numérico do livro na biblioteca (posição do seu bit), ou -1 se não pertencer a nenhuma.
      */
-    private boolean isAvailable;
+    private int id = -1;
+
+    /**
+     * Posição do livro na BookList do seu autor, mantida pela própria lista, ou -1 se não estiver em nenhuma.
+     */
+    int slot = -1;
 
     /**
      * Construtor que inicializa o título e a disponibilidade do livro.
@@ -56,7 +87,8 @@ public class Book {
      * @return true se o livro estiver disponível, false caso contrário.
      */
     public boolean isAvailable() {
-        return isAvailable;
+        AvailabilityBitmap current = bitmap;
+        return current != null ? current.get(id) : isAvailable;
     }
 
     /**
@@ -74,7 +106,71 @@ public class Book {
      * @param available A disponibilidade do livro (true = disponível, false = indisponível).
      */
     public void setAvailable(boolean available) {
-        isAvailable = available;
+        AvailabilityBitmap current = bitmap;
+        if (current != null) {
+            current.set(id, available);
+        } else {
+            isAvailable = available;
+        }
+    }
+
+    /**
+     * Método que altera a disponibilidade do livro apenas se esta tiver o valor esperado.
+     * A verificação e a alteração são feitas numa só operação atómica.
+     *
+     * @param expected A disponibilidade esperada.
+     * @param available A nova disponibilidade do livro.
+     * @return true se a disponibilidade foi alterada, false se não tinha o valor esperado.
+     */
+    public boolean compareAndSetAvailable(boolean expected, boolean available) {
+        AvailabilityBitmap current = bitmap;
+        if (current != null) {
+            return current.compareAndSet(id, expected, available);
+        }
+        return IS_AVAILABLE.compareAndSet(this, expected, available);
+    }
+
+    /**
+     * Verifica se o livro tem um título, sem criar objetos nos livros que guardam o título de forma compacta.
+     *
+     * @param title O título a comparar.
+     * @return true se o título do livro for igual.
+     */
+    boolean hasTitle(String title) {
+        return title.equals(getTitle());
+    }
+
+    /**
+     * Método que retorna o identificador numérico do livro na biblioteca.
+     *
+     * @return O identificador do livro, ou -1 se não pertencer a nenhuma biblioteca.
+     */
+    public int getId() {
+        return id;
+    }
+
+    /**
+     * Associa o livro a uma posição do conjunto de bits de disponibilidade de uma biblioteca,
+     * copiando para lá a disponibilidade atual.
+     *
+     * @param bitmap O conjunto de bits da biblioteca.
+     * @param id O identificador atribuído ao livro.
+     */
+    void bind(AvailabilityBitmap bitmap, int id) {
+        bitmap.set(id, isAvailable);
+        this.id = id;
+        this.bitmap = bitmap;
+    }
+
+    /**
+     * Desassocia o livro da biblioteca, voltando a guardar a disponibilidade no próprio livro.
+     */
+    void unbind() {
+        AvailabilityBitmap current = bitmap;
+        if (current != null) {
+            isAvailable = current.get(id);
+            bitmap = null;
+        }
     }
 
     /**
@@ -85,6 +181,6 @@ public class Book {
      */
     @Override
     public String toString() {
-        return title + " - " + (isAvailable() ? "Disponível" : "Indisponível");
+        return getTitle() + " - " + (isAvailable() ? "Disponível" : "Indisponível");
     }
 }
@@ -0,0 +1,140 @@
+import java.util.Arrays;
+
+/**
+ * Classe que guarda os livros de um autor numa lista que cresce por duplicação da capacidade.
+ * Acrescentar um livro não copia a lista (exceto quando esta duplica), e remover um livro apenas deixa
+ * uma posição vazia ("tombstone") no seu lugar, mantendo a ordem dos restantes. Quando as posições vazias
+ * passam a ser metade da lista, esta é compactada de uma só vez.
+ * <p>
+ * Cada livro guarda a sua posição na lista ({@link Book#slot}), para ser removido sem procurar.
+ */
+public class BookList {
+
+    /**
+     * Número mínimo de posições vazias antes de compactar, para listas pequenas não compactarem a cada remoção.
+     */
+    private static final int MIN_TOMBSTONES_TO_COMPACT = 8;
+
+    private Book[] slots;    // Livros, com null nas posições de livros removidos
+    private int used;        // Número de posições usadas (livros e posições vazias)
+    private int tombstones;  // Número de posições vazias
+
+    /**
+     * Construtor da classe BookList, para uma lista vazia.
+     */
+    public BookList() {
+        this(new Book[4], 0);
+    }
+
+    /**
+     * Construtor da classe BookList a partir de livros já lidos.
+     *
+     * @param books Array com os livros; passa a ser usado pela lista.
+     * @param count Número de livros no array.
+     */
+    public BookList(Book[] books, int count) {
+        this.slots = books.length == 0 ? new Book[4] : books;
+        this.used = count;
+        for (int i = 0; i < count; i++) {
+            books[i].slot = i;
+        }
+    }
+
+    /**
+     * Retorna o número de livros da lista.
+     *
+     * @return O número de livros.
+     */
+    public int size() {
+        return used - tombstones;
+    }
+
+    /**
+     * Acrescenta um livro no fim da lista, duplicando a capacidade quando necessário.
+     *
+     * @param book O livro a acrescentar.
+     */
+    public void add(Book book) {
+        if (used == slots.length) {
+            slots = Arrays.copyOf(slots, slots.length * 2);
+        }
+        book.slot = used;
+        slots[used++] = book;
+    }
+
+    /**
+     * Remove um livro da lista, deixando uma posição vazia no seu lugar.
+     *
+     * @param book O livro a remover.
+     * @return true se o livro estava na lista, false caso contrário.
+     */
+    public boolean remove(Book book) {
+        int slot = book.slot;
+        if (slot < 0 || slot >= used || slots[slot] != book) {
+            return false;
+        }
+        slots[slot] = null;
+        book.slot = -1;
+        tombstones++;
+
+        if (tombstones >= MIN_TOMBSTONES_TO_COMPACT && tombstones * 2 >= used) {
+            compact();
+        }
+        return true;
+    }
+
+    /**
+     * Procura o primeiro livro da lista com um dado título.
+     *
+     * @param title O título a procurar.
+     * @return O livro encontrado ou null se não existir.
+     */
+    public Book findByTitle(String title) {
+        for (int i = 0; i < used; i++) {
+            if (slots[i] != null && slots[i].hasTitle(title)) {
+                return slots[i];
+            }
+        }
+        return null;
+    }
+
+    /**
+     * Retorna os livros da lista, pela ordem em que foram acrescentados.
+     *
+     * @return Um novo array com os livros.
+     */
+    public Book[] toArray() {
+        if (tombstones == 0) {
+            return Arrays.copyOf(slots, used);
+        }
+        Book[] result = new Book[size()];
+        int count = 0;
+        for (int i = 0; i < used; i++) {
+            if (slots[i] != null) {
+                result[count++] = slots[i];
+            }
+        }
+        return result;
+    }
+
+    /**
+     * Junta os livros no início da lista, eliminando as posições vazias e reduzindo a capacidade se sobrar muita.
+     */
+    public void compact() {
+        int count = 0;
+        for (int i = 0; i < used; i++) {
+            if (slots[i] != null) {
+                slots[count] = slots[i];
+                slots[count].slot = count;
+                count++;
+            }
+        }
+        Arrays.fill(slots, count, used, null);
+        used = count;
+        tombstones = 0;
+
+        if (slots.length > 16 && count < slots.length / 4) {
+            slots = Arrays.copyOf(slots, Math.max(16, count * 2));
+        }
+    }
+}
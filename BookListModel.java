@@ -0,0 +1,186 @@
+import java.io.Serial;
+import java.util.Arrays;
+import java.util.IdentityHashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * Modelo da lista de livros da interface gráfica: os livros de um autor ou os resultados de uma pesquisa.
+ * <p>
+ * As linhas são os próprios objetos Book da biblioteca, sem cópias; a JList só pede as linhas visíveis.
+ * Depois de mostrar um autor, os avisos da biblioteca acrescentam, retiram ou redesenham apenas as linhas afetadas,
+ * por isso requisitar ou devolver um livro muda uma só linha em vez de reconstruir a lista.
+ * <p>
+ * Enquanto uma operação sobre um livro não termina, a linha pode mostrar o estado esperado (atualização otimista);
+ * se a operação falhar, a linha mostra o motivo até à operação seguinte sobre o mesmo livro.
+ */
+public class BookListModel extends CatalogListModel<Book> {
+
+    @Serial
+    private static final long serialVersionUID = 1L;
+
+    private Book[] rows = new Book[16];
+    private int size;
+    private final Map<Book, Integer> rowOf = new IdentityHashMap<>();  // Posição de cada livro na lista
+    private String author;  // Autor cujos livros são mostrados, ou null para resultados de pesquisa
+
+    private final Map<Book, String> pending = new IdentityHashMap<>();  // Estado esperado dos livros com operações por terminar
+    private final Map<Book, String> failed = new IdentityHashMap<>();   // Motivo da última operação falhada de cada livro
+
+    @Override
+    public int getSize() {
+        return size;
+    }
+
+    @Override
+    public Book getElementAt(int index) {
+        return rows[index];
+    }
+
+    /**
+     * Mostra os livros de um autor; a partir daí, os livros novos do autor são acrescentados no fim.
+     *
+     * @param author Nome do autor.
+     * @param books Os livros atuais do autor, pela ordem da biblioteca.
+     */
+    public void showAuthor(String author, Book[] books) {
+        this.author = author;
+        replace(books, books.length);
+    }
+
+    /**
+     * Mostra uma lista de livros, como os resultados de uma pesquisa. Os livros novos não são acrescentados.
+     *
+     * @param books Os livros a mostrar.
+     */
+    public void showBooks(List<Book> books) {
+        this.author = null;
+        replace(books.toArray(new Book[0]), books.size());
+    }
+
+    /**
+     * Esvazia a lista.
+     */
+    public void clear() {
+        this.author = null;
+        replace(new Book[0], 0);
+    }
+
+    /**
+     * Marca um livro como tendo uma operação por terminar, mostrando o estado esperado em vez do atual.
+     *
+     * @param book O livro.
+     * @param expected O estado esperado, como "Indisponível (a requisitar...)".
+     */
+    public void setPending(Book book, String expected) {
+        failed.remove(book);
+        pending.put(book, expected);
+        bookChanged(book);
+    }
+
+    /**
+     * Marca um livro cuja última operação falhou.
+     *
+     * @param book O livro.
+     * @param reason O motivo da falha.
+     */
+    public void setFailed(Book book, String reason) {
+        pending.remove(book);
+        failed.put(book, reason);
+        bookChanged(book);
+    }
+
+    /**
+     * Retira a marca de operação por terminar ou falhada de um livro, que volta a mostrar o seu estado atual.
+     *
+     * @param book O livro.
+     */
+    public void clearStatus(Book book) {
+        if (pending.remove(book) != null | failed.remove(book) != null) {
+            bookChanged(book);
+        }
+    }
+
+    /**
+     * Retorna o estado esperado de um livro com uma operação por terminar.
+     *
+     * @param book O livro.
+     * @return O estado esperado, ou null se não houver operação por terminar.
+     */
+    public String getPending(Book book) {
+        return pending.get(book);
+    }
+
+    /**
+     * Retorna o motivo da última operação falhada sobre um livro.
+     *
+     * @param book O livro.
+     * @return O motivo da falha, ou null se a última operação não falhou.
+     */
+    public String getFailure(Book book) {
+        return failed.get(book);
+    }
+
+    @Override
+    protected void applyBookAdded(Book book) {
+        // Um aviso anterior à última substituição pode referir um livro que já está na lista
+        if (author == null || !author.equals(book.getAuthor()) || rowOf.containsKey(book)) {
+            return;
+        }
+        if (size == rows.length) {
+            rows = Arrays.copyOf(rows, Math.max(16, size * 2));
+        }
+        rows[size] = book;
+        rowOf.put(book, size);
+        rowAppended(size++);
+    }
+
+    @Override
+    protected void applyBookRemoved(Book book) {
+        pending.remove(book);
+        failed.remove(book);
+        Integer index = rowOf.remove(book);
+        if (index == null) {
+            return;
+        }
+        System.arraycopy(rows, index + 1, rows, index, size - index - 1);
+        rows[--size] = null;
+        for (int i = index; i < size; i++) {
+            rowOf.put(rows[i], i);
+        }
+        rowRemoved(index);
+    }
+
+    @Override
+    protected void applyAvailabilityChanged(Book book) {
+        bookChanged(book);
+    }
+
+    /**
+     * Avisa que a linha de um livro mudou, se o livro estiver na lista.
+     */
+    private void bookChanged(Book book) {
+        Integer index = rowOf.get(book);
+        if (index != null) {
+            rowChanged(index);
+        }
+    }
+
+    /**
+     * Substitui todas as linhas da lista, avisando primeiro que a lista ficou vazia e depois que foi preenchida.
+     */
+    private void replace(Book[] books, int count) {
+        int oldSize = size;
+        Arrays.fill(rows, 0, size, null);
+        size = 0;
+        rowOf.clear();
+        rowsCleared(oldSize);
+
+        rows = books.length == 0 ? new Book[16] : books;
+        size = count;
+        for (int i = 0; i < count; i++) {
+            rowOf.put(rows[i], i);
+        }
+        rowsFilled(size);
+    }
+}
@@ -0,0 +1,404 @@
+import java.io.IOException;
+import java.lang.management.ManagementFactory;
+import java.util.Collection;
+import java.util.HashMap;
+import java.util.Map;
+import javax.management.JMException;
+import javax.management.ObjectName;
+
+/**
+ * Biblioteca que guarda numa cache limitada os livros de cada autor pedido, à frente de outra LibraryService,
+ * para catálogos em que obter os livros de um autor é caro: fora do heap (OffHeapLibrary, que cria uma vista por
+ * livro) ou num servidor (RemoteLibrary). As restantes operações passam diretamente para a biblioteca.
+ * <p>
+ * A cache é um LRU segmentado com um limite de peso, em livros: um autor pedido pela primeira vez entra no segmento
+ * de experiência e só passa ao segmento protegido, com até 80% do peso, se for pedido outra vez. Os despejos saem
+ * primeiro do fim do segmento de experiência, por isso uma sequência de autores pedidos uma só vez (a cauda longa)
+ * não expulsa os autores mais procurados. Um autor com mais livros do que o peso máximo não é guardado.
+ * <p>
+ * Cada entrada guarda também, criado na primeira procura por título ({@link #findBook}), um mapa dos livros
+ * do autor pelo título, que sai da cache com a entrada.
+ * <p>
+ * A cache regista-se como LibraryListener da biblioteca e retira um autor sempre que um livro seu é adicionado,
+ * removido, requisitado ou devolvido. Um pedido que falhou na cache só guarda o resultado se nenhum aviso do mesmo
+ * autor tiver chegado entretanto, por isso nunca fica guardada uma lista anterior à última alteração.
+ * As contagens de acertos, falhas, despejos e invalidações estão disponíveis por JMX, depois de {@link #register}.
+ * Todas as operações da cache usam um só lock, mantido apenas durante alterações em tempo constante.
+ */
+public class CachedLibrary implements LibraryService, CachedLibraryMXBean, LibraryListener {
+
+    /**
+     * Peso máximo da cache, em livros, por omissão.
+     */
+    public static final long DEFAULT_MAX_WEIGHT = 100_000;
+
+    private static final int VERSION_STRIPES = 1024;  // Contadores de avisos, repartidos pelos autores
+
+    /**
+     * Livros de um autor guardados na cache, num dos dois segmentos.
+     */
+    private static final class Entry {
+        final String author;
+        final Book[] books;
+        final long weight;
+        volatile Map<String, Book> byTitle;  // Criado na primeira procura por título
+        boolean isProtected;
+        Entry previous;
+        Entry next;
+
+        Entry(String author, Book[] books) {
+            this.author = author;
+            this.books = books;
+            this.weight = books.length + 1L;
+        }
+    }
+
+    /**
+     * Lista duplamente ligada de um segmento, do mais recente (head) para o mais antigo (tail).
+     */
+    private static final class Segment {
+        Entry head;
+        Entry tail;
+        long weight;
+
+        void addFirst(Entry entry) {
+            entry.previous = null;
+            entry.next = head;
+            if (head != null) {
+                head.previous = entry;
+            } else {
+                tail = entry;
+            }
+            head = entry;
+            weight += entry.weight;
+        }
+
+        void remove(Entry entry) {
+            if (entry.previous != null) {
+                entry.previous.next = entry.next;
+            } else {
+                head = entry.next;
+            }
+            if (entry.next != null) {
+                entry.next.previous = entry.previous;
+            } else {
+                tail = entry.previous;
+            }
+            entry.previous = null;
+            entry.next = null;
+            weight -= entry.weight;
+        }
+    }
+
+    private final LibraryService library;
+    private final long maxWeight;
+    private final long maxProtectedWeight;
+    private final Map<String, Entry> entries = new HashMap<>();
+    private final Segment probation = new Segment();
+    private final Segment protectedSegment = new Segment();
+    private final long[] versions = new long[VERSION_STRIPES];  // Incrementados em cada aviso dos autores da posição
+    private long hits;
+    private long misses;
+    private long evictions;
+    private long invalidations;
+    private ObjectName objectName;  // Nome com que foi registado por JMX, ou null
+    private volatile boolean subscribed;  // Falso enquanto a biblioteca repete os livros existentes, no construtor
+
+    /**
+     * Construtor da classe CachedLibrary, com o peso máximo por omissão.
+     *
+     * @param library A biblioteca cujos livros são guardados na cache.
+     */
+    public CachedLibrary(LibraryService library) {
+        this(library, DEFAULT_MAX_WEIGHT);
+    }
+
+    /**
+     * Construtor da classe CachedLibrary.
+     * <p>
+     * A cache regista-se como LibraryListener da biblioteca, que lhe repete um {@link LibraryListener#bookAdded}
+     * por cada livro existente; num RemoteLibrary, o primeiro registo subscreve ainda os avisos do servidor e copia
+     * o catálogo. Por isso criar a cache demora tempo proporcional ao catálogo, uma só vez. Os avisos recebidos antes
+     * de o construtor terminar são ignorados: a cache ainda está vazia e nenhum pedido pode estar em curso, por isso
+     * não há nada a invalidar, e não contam como invalidações.
+     *
+     * @param library A biblioteca cujos livros são guardados na cache.
+     * @param maxWeight Peso máximo da cache: o número de livros guardados, mais um por autor.
+     */
+    public CachedLibrary(LibraryService library, long maxWeight) {
+        if (maxWeight < 1) {
+            throw new IllegalArgumentException("Peso máximo inválido: " + maxWeight);
+        }
+        this.library = library;
+        this.maxWeight = maxWeight;
+        this.maxProtectedWeight = maxWeight * 4 / 5;
+        library.addListener(this);
+        subscribed = true;
+    }
+
+    @Override
+    public String[] getAuthors() {
+        return library.getAuthors();
+    }
+
+    /**
+     * Retorna a lista de livros de um autor, da cache ou, se não estiver lá, da biblioteca.
+     *
+     * @param author Nome do autor.
+     * @return Uma cópia do array de livros do autor, vazio se o autor não existir.
+     */
+    @Override
+    public Book[] getBooksByAuthor(String author) {
+        return lookup(author).books.clone();
+    }
+
+    /**
+     * Procura um livro de um autor pelo título, na lista de livros do autor guardada na cache.
+     * O mapa por título é criado fora do lock da cache; duas procuras ao mesmo tempo podem criá-lo as duas,
+     * com o mesmo conteúdo.
+     *
+     * @param author Nome do autor.
+     * @param title Título do livro.
+     * @return O livro, ou null se não existir.
+     */
+    public Book findBook(String author, String title) {
+        Entry entry = lookup(author);
+        Map<String, Book> byTitle = entry.byTitle;
+        if (byTitle == null) {
+            byTitle = new HashMap<>(entry.books.length * 2);
+            for (Book book : entry.books) {
+                byTitle.putIfAbsent(book.getTitle(), book);
+            }
+            entry.byTitle = byTitle;
+        }
+        return byTitle.get(title);
+    }
+
+    @Override
+    public LibraryResult addBook(String author, String title) throws IOException {
+        return library.addBook(author, title);
+    }
+
+    @Override
+    public void addBooks(Collection<Book> newBooks) throws IOException {
+        library.addBooks(newBooks);
+    }
+
+    @Override
+    public int addNewBooks(Collection<Book> newBooks) throws IOException {
+        return library.addNewBooks(newBooks);
+    }
+
+    @Override
+    public LibraryResult removeBook(String author, String title) throws IOException {
+        return library.removeBook(author, title);
+    }
+
+    @Override
+    public LibraryResult requestBook(String author, String title) throws IOException {
+        return library.requestBook(author, title);
+    }
+
+    @Override
+    public LibraryResult requestBook(String author, String title, String borrower) throws IOException {
+        return library.requestBook(author, title, borrower);
+    }
+
+    @Override
+    public LibraryResult returnBook(String author, String title) throws IOException {
+        return library.returnBook(author, title);
+    }
+
+    @Override
+    public LibraryResult holdBook(String author, String title, String borrower) throws IOException {
+        return library.holdBook(author, title, borrower);
+    }
+
+    @Override
+    public LibraryResult setCopies(String author, String title, int copies) throws IOException {
+        return library.setCopies(author, title, copies);
+    }
+
+    @Override
+    public void addListener(LibraryListener listener) {
+        library.addListener(listener);
+    }
+
+    @Override
+    public void removeListener(LibraryListener listener) {
+        library.removeListener(listener);
+    }
+
+    @Override
+    public void bookAdded(Book book) {
+        if (subscribed) {
+            invalidate(book.getAuthor());
+        }
+    }
+
+    @Override
+    public void bookRemoved(Book book) {
+        invalidate(book.getAuthor());
+    }
+
+    @Override
+    public void availabilityChanged(Book book) {
+        invalidate(book.getAuthor());
+    }
+
+    /**
+     * Retira um autor da cache; o próximo pedido dos seus livros vai à biblioteca.
+     *
+     * @param author Nome do autor.
+     */
+    public synchronized void invalidate(String author) {
+        versions[stripe(author)]++;
+        Entry entry = entries.remove(author);
+        if (entry != null) {
+            segmentOf(entry).remove(entry);
+            invalidations++;
+        }
+    }
+
+    @Override
+    public synchronized long getHits() {
+        return hits;
+    }
+
+    @Override
+    public synchronized long getMisses() {
+        return misses;
+    }
+
+    @Override
+    public synchronized double getHitRate() {
+        return hits + misses > 0 ? hits / (double) (hits + misses) : 0;
+    }
+
+    @Override
+    public synchronized long getEvictions() {
+        return evictions;
+    }
+
+    @Override
+    public synchronized long getInvalidations() {
+        return invalidations;
+    }
+
+    @Override
+    public synchronized int getSize() {
+        return entries.size();
+    }
+
+    @Override
+    public synchronized long getWeight() {
+        return probation.weight + protectedSegment.weight;
+    }
+
+    @Override
+    public long getMaxWeight() {
+        return maxWeight;
+    }
+
+    /**
+     * Regista a cache no servidor JMX da plataforma, como "fundamentos.library:type=CachedLibrary,name=...".
+     *
+     * @param name Nome que distingue esta biblioteca das outras do mesmo processo.
+     * @throws JMException Se o nome for inválido ou já estiver registado.
+     */
+    public synchronized void register(String name) throws JMException {
+        ObjectName registered = new ObjectName("fundamentos.library:type=CachedLibrary,name=" + ObjectName.quote(name));
+        ManagementFactory.getPlatformMBeanServer().registerMBean(this, registered);
+        objectName = registered;
+    }
+
+    /**
+     * Deixa de seguir as alterações da biblioteca, retira o registo JMX e fecha a biblioteca.
+     *
+     * @throws IOException Se ocorrer um erro ao fechar a biblioteca.
+     */
+    @Override
+    public void close() throws IOException {
+        library.removeListener(this);
+        synchronized (this) {
+            if (objectName != null) {
+                try {
+                    ManagementFactory.getPlatformMBeanServer().unregisterMBean(objectName);
+                } catch (JMException e) {
+                    // Já não está registado
+                }
+                objectName = null;
+            }
+        }
+        library.close();
+    }
+
+    /**
+     * Obtém a entrada de um autor da cache ou, se não estiver lá, pede os livros à biblioteca fora do lock
+     * e guarda-os, se nenhum aviso do autor tiver chegado entretanto.
+     */
+    private Entry lookup(String author) {
+        long version;
+        synchronized (this) {
+            Entry entry = entries.get(author);
+            if (entry != null) {
+                hits++;
+                touch(entry);
+                return entry;
+            }
+            misses++;
+            version = versions[stripe(author)];
+        }
+
+        Entry loaded = new Entry(author, library.getBooksByAuthor(author));
+        synchronized (this) {
+            if (versions[stripe(author)] == version && loaded.weight <= maxWeight && !entries.containsKey(author)) {
+                entries.put(author, loaded);
+                probation.addFirst(loaded);
+                evict();
+            }
+        }
+        return loaded;
+    }
+
+    /**
+     * Marca um acerto: uma entrada em experiência passa ao segmento protegido, e as mais antigas
+     * do segmento protegido que deixem de caber voltam ao início do segmento de experiência.
+     */
+    private void touch(Entry entry) {
+        if (entry.isProtected) {
+            protectedSegment.remove(entry);
+            protectedSegment.addFirst(entry);
+            return;
+        }
+        probation.remove(entry);
+        entry.isProtected = true;
+        protectedSegment.addFirst(entry);
+        while (protectedSegment.weight > maxProtectedWeight && protectedSegment.tail != entry) {
+            Entry demoted = protectedSegment.tail;
+            protectedSegment.remove(demoted);
+            demoted.isProtected = false;
+            probation.addFirst(demoted);
+        }
+    }
+
+    /**
+     * Retira as entradas mais antigas, primeiro do segmento de experiência, até o peso caber no máximo.
+     */
+    private void evict() {
+        while (probation.weight + protectedSegment.weight > maxWeight) {
+            Entry victim = probation.tail != null ? probation.tail : protectedSegment.tail;
+            segmentOf(victim).remove(victim);
+            entries.remove(victim.author);
+            evictions++;
+        }
+    }
+
+    private Segment segmentOf(Entry entry) {
+        return entry.isProtected ? protectedSegment : probation;
+    }
+
+    private static int stripe(String author) {
+        return (author.hashCode() & 0x7fffffff) % VERSION_STRIPES;
+    }
+}
@@ -0,0 +1,62 @@
+/**
+ * Interface de gestão (JMX) da cache de livros por autor de uma CachedLibrary, visível em "fundamentos.library"
+ * junto das métricas da biblioteca.
+ */
+public interface CachedLibraryMXBean {
+
+    /**
+     * Retorna o número de pesquisas respondidas pela cache.
+     *
+     * @return O número de acertos.
+     */
+    long getHits();
+
+    /**
+     * Retorna o número de pesquisas que tiveram de ir à biblioteca.
+     *
+     * @return O número de falhas.
+     */
+    long getMisses();
+
+    /**
+     * Retorna a fração das pesquisas respondidas pela cache.
+     *
+     * @return A taxa de acertos, entre 0 e 1.
+     */
+    double getHitRate();
+
+    /**
+     * Retorna o número de autores retirados da cache para dar lugar a outros.
+     *
+     * @return O número de despejos.
+     */
+    long getEvictions();
+
+    /**
+     * Retorna o número de autores retirados da cache por os seus livros terem mudado.
+     *
+     * @return O número de invalidações.
+     */
+    long getInvalidations();
+
+    /**
+     * Retorna o número de autores na cache.
+     *
+     * @return O número de autores.
+     */
+    int getSize();
+
+    /**
+     * Retorna o peso atual da cache, em livros.
+     *
+     * @return O número de livros guardados, mais um por autor.
+     */
+    long getWeight();
+
+    /**
+     * Retorna o peso máximo da cache, em livros.
+     *
+     * @return O peso máximo.
+     */
+    long getMaxWeight();
+}
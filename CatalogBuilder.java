@@ -0,0 +1,139 @@
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.Map;
+
+/**
+ * Classe usada para carregar um catálogo completo, livro a livro, em tempo linear.
+ * Os arrays de autores e de livros de cada autor crescem para o dobro quando ficam cheios, em vez de serem
+ * copiados a cada livro, e só são ajustados ao tamanho final no fim do carregamento.
+ * Não tem limites para o número de autores nem de livros por autor.
+ * <p>
+ * Criado com um CompactStorage (ver {@link Library#newCatalogBuilder()}), cria logo os livros em modo compacto,
+ * por isso o carregamento de uma biblioteca compacta nunca cria as Strings dos títulos de todos os livros.
+ * Nesse caso só uma thread pode acrescentar livros, porque a área de títulos não é partilhada entre threads.
+ */
+public class CatalogBuilder {
+
+    private final CompactStorage compact;  // Onde ficam os autores e títulos dos livros criados, ou null
+    private final Map<String, Integer> authorSlots = new HashMap<>();  // Posição de cada autor já lido
+    private String[] authors = new String[16];
+    private Book[][] books = new Book[16][];
+    private int[] bookCounts = new int[16];  // Número de livros já lidos de cada autor
+    private int authorCount;
+    private long recordCount;
+
+    /**
+     * Construtor da classe CatalogBuilder, que cria livros normais.
+     */
+    public CatalogBuilder() {
+        this(null);
+    }
+
+    /**
+     * Construtor da classe CatalogBuilder que cria os livros no armazenamento de uma biblioteca compacta.
+     *
+     * @param compact O armazenamento dos livros em modo compacto, ou null para criar livros normais.
+     */
+    public CatalogBuilder(CompactStorage compact) {
+        this.compact = compact;
+    }
+
+    /**
+     * Acrescenta um livro ao catálogo, mantendo a ordem de leitura dos autores e dos títulos de cada autor.
+     *
+     * @param author Nome do autor do livro.
+     * @param title Título do livro.
+     * @param available A disponibilidade do livro.
+     * @return O livro criado.
+     */
+    public Book add(String author, String title, boolean available) {
+        Integer slot = authorSlots.get(author);
+        if (slot == null) {
+            if (authorCount == authors.length) {
+                authors = Arrays.copyOf(authors, authorCount * 2);
+                books = Arrays.copyOf(books, authorCount * 2);
+                bookCounts = Arrays.copyOf(bookCounts, authorCount * 2);
+            }
+            slot = authorCount++;
+            authors[slot] = author;
+            books[slot] = new Book[4];
+            authorSlots.put(author, slot);
+        }
+
+        int count = bookCounts[slot];
+        if (count == books[slot].length) {
+            books[slot] = Arrays.copyOf(books[slot], count * 2);
+        }
+        Book book = compact != null ? compact.newBook(author, title, available) : new Book(title, available);
+        books[slot][count] = book;
+        bookCounts[slot] = count + 1;
+        recordCount++;
+        return book;
+    }
+
+    /**
+     * Acrescenta, no fim, todos os livros de outro catálogo parcial.
+     * Os autores novos ficam depois dos já existentes e os livros de cada autor mantêm a sua ordem,
+     * por isso juntar catálogos parciais pela ordem de leitura dá o mesmo resultado que uma leitura sequencial.
+     *
+     * @param other O catálogo parcial a acrescentar.
+     */
+    public void addAll(CatalogBuilder other) {
+        for (int a = 0; a < other.authorCount; a++) {
+            String author = other.authors[a];
+            int added = other.bookCounts[a];
+
+            Integer slot = authorSlots.get(author);
+            if (slot == null) {
+                if (authorCount == authors.length) {
+                    authors = Arrays.copyOf(authors, authorCount * 2);
+                    books = Arrays.copyOf(books, authorCount * 2);
+                    bookCounts = Arrays.copyOf(bookCounts, authorCount * 2);
+                }
+                slot = authorCount++;
+                authors[slot] = author;
+                books[slot] = new Book[Math.max(4, added)];
+                authorSlots.put(author, slot);
+            }
+
+            int count = bookCounts[slot];
+            if (count + added > books[slot].length) {
+                books[slot] = Arrays.copyOf(books[slot], Math.max(count + added, books[slot].length * 2));
+            }
+            System.arraycopy(other.books[a], 0, books[slot], count, added);
+            bookCounts[slot] = count + added;
+        }
+        recordCount += other.recordCount;
+    }
+
+    /**
+     * Retorna o número de livros lidos até agora.
+     *
+     * @return O número de livros.
+     */
+    public long size() {
+        return recordCount;
+    }
+
+    /**
+     * Retorna os autores lidos, pela ordem em que apareceram.
+     *
+     * @return Array com os nomes dos autores.
+     */
+    public String[] authors() {
+        return Arrays.copyOf(authors, authorCount);
+    }
+
+    /**
+     * Retorna os livros de cada autor, em arrays com o tamanho exato.
+     *
+     * @return Array bidimensional com os livros de cada autor.
+     */
+    public Book[][] books() {
+        Book[][] result = new Book[authorCount][];
+        for (int i = 0; i < authorCount; i++) {
+            result[i] = bookCounts[i] == books[i].length ? books[i] : Arrays.copyOf(books[i], bookCounts[i]);
+        }
+        return result;
+    }
+}
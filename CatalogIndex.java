@@ -0,0 +1,202 @@
+import java.util.HashMap;
+import java.util.Map;
+
+/**
+ * Classe que guarda os índices do catálogo da biblioteca.
+ * Associa cada autor à sua posição no array de autores e cada par (autor, título) ao respetivo livro,
+ * para que as pesquisas sejam feitas em tempo constante em vez de percorrer os arrays.
+ * <p>
+ * Os livros ficam numa tabela de endereçamento aberto (sondagem linear) em vez de um HashMap: não é criado
+ * nenhum objeto por livro e o índice não guarda os títulos, que são comparados pelo próprio livro. Assim o índice funciona também com livros cujo título
+ * só existe em forma compacta (CompactBook).
+ */
+public class CatalogIndex {
+
+    /**
+     * Índice que associa o nome de cada autor à sua posição no array de autores.
+     */
+    private final Map<String, Integer> authorSlots = new HashMap<>();
+
+    /**
+     * Tabela de livros indexados por (autor, título); o tamanho é uma potência de 2 e posições vazias são null.
+     */
+    private Book[] table = new Book[16];
+
+    /**
+     * Número de livros na tabela.
+     */
+    private int bookCount;
+
+    /**
+     * Procura a posição de um autor.
+     *
+     * @param author Nome do autor a procurar.
+     * @return O índice do autor ou -1 se o autor não for encontrado.
+     */
+    public int findAuthor(String author) {
+        Integer slot = authorSlots.get(author);
+        return slot == null ? -1 : slot;
+    }
+
+    /**
+     * Procura um livro pelo autor e pelo título.
+     *
+     * @param author Nome do autor do livro.
+     * @param title Título do livro.
+     * @return O livro encontrado ou null se não existir.
+     */
+    public Book findBook(String author, String title) {
+        int mask = table.length - 1;
+        for (int i = hash(author, title) & mask; table[i] != null; i = (i + 1) & mask) {
+            if (table[i].getAuthor().equals(author) && table[i].hasTitle(title)) {
+                return table[i];
+            }
+        }
+        return null;
+    }
+
+    /**
+     * Associa um autor a uma posição do array de autores.
+     *
+     * @param author Nome do autor.
+     * @param slot Posição do autor no array de autores.
+     */
+    public void putAuthor(String author, int slot) {
+        authorSlots.put(author, slot);
+    }
+
+    /**
+     * Remove um autor do índice.
+     *
+     * @param author Nome do autor a remover.
+     */
+    public void removeAuthor(String author) {
+        authorSlots.remove(author);
+    }
+
+    /**
+     * Adiciona um livro ao índice.
+     * Se já existir um livro com o mesmo autor e título, mantém-se o primeiro,
+     * tal como acontecia na pesquisa linear.
+     *
+     * @param author Nome do autor do livro, que já tem de ser o de {@link Book#getAuthor()}.
+     * @param book O livro a indexar.
+     */
+    public void putBook(String author, Book book) {
+        String title = book.getTitle();
+        if (findBook(author, title) != null) {
+            return;
+        }
+        if ((bookCount + 1) * 4L > table.length * 3L) {
+            resize(table.length * 2);
+        }
+        insert(hash(author, title), book);
+        bookCount++;
+    }
+
+    /**
+     * Remove um livro do índice, caso seja esse o livro indexado para o seu autor e título.
+     *
+     * @param author Nome do autor do livro.
+     * @param book O livro a remover.
+     */
+    public void removeBook(String author, Book book) {
+        int mask = table.length - 1;
+        int i = hash(author, book.getTitle()) & mask;
+        while (table[i] != book) {
+            if (table[i] == null) {
+                return;
+            }
+            i = (i + 1) & mask;
+        }
+
+        // Os livros seguintes da mesma sequência recuam para a posição libertada quando esta fica entre a posição
+        // do seu hash e a atual, para que nenhuma pesquisa pare numa posição vazia antes de os encontrar
+        int free = i;
+        for (int j = (i + 1) & mask; table[j] != null; j = (j + 1) & mask) {
+            int home = hash(table[j]) & mask;
+            if (((j - home) & mask) >= ((j - free) & mask)) {
+                table[free] = table[j];
+                free = j;
+            }
+        }
+        table[free] = null;
+        bookCount--;
+    }
+
+    /**
+     * Reconstrói os índices a partir dos arrays de autores e livros.
+     *
+     * @param authors Array com os nomes dos autores.
+     * @param books Array bidimensional com os livros de cada autor.
+     */
+    public void rebuild(String[] authors, Book[][] books) {
+        authorSlots.clear();
+        int total = 0;
+        for (Book[] authorBooks : books) {
+            total += authorBooks.length;
+        }
+        table = new Book[tableSize(total)];
+        bookCount = 0;
+        for (int i = 0; i < authors.length; i++) {
+            putAuthor(authors[i], i);
+            for (Book book : books[i]) {
+                putBook(authors[i], book);
+            }
+        }
+    }
+
+    /**
+     * Calcula o hash de um par (autor, título), misturando todos os bits: os hashes de títulos parecidos
+     * ("Livro 1", "Livro 2", ...) são quase seguidos e formariam longas sequências de posições ocupadas.
+     */
+    private static int hash(String author, String title) {
+        int hash = author.hashCode() * 31 + title.hashCode();
+        hash = (hash ^ (hash >>> 16)) * 0x85ebca6b;
+        hash = (hash ^ (hash >>> 13)) * 0xc2b2ae35;
+        return hash ^ (hash >>> 16);
+    }
+
+    /**
+     * Calcula o hash do par (autor, título) de um livro.
+     */
+    private static int hash(Book book) {
+        return hash(book.getAuthor(), book.getTitle());
+    }
+
+    /**
+     * Calcula o tamanho da tabela para um número de livros, com ocupação máxima de 3/4.
+     */
+    private static int tableSize(int books) {
+        int size = 16;
+        while (size * 3L < books * 4L) {
+            size *= 2;
+        }
+        return size;
+    }
+
+    /**
+     * Coloca um livro na primeira posição livre a partir da do seu hash.
+     */
+    private void insert(int hash, Book book) {
+        int mask = table.length - 1;
+        int i = hash & mask;
+        while (table[i] != null) {
+            i = (i + 1) & mask;
+        }
+        table[i] = book;
+    }
+
+    /**
+     * Muda o tamanho da tabela, recolocando todos os livros.
+     */
+    private void resize(int size) {
+        Book[] oldTable = table;
+        table = new Book[size];
+        for (Book book : oldTable) {
+            if (book != null) {
+                insert(hash(book), book);
+            }
+        }
+    }
+}
@@ -0,0 +1,187 @@
+import javax.swing.AbstractListModel;
+import javax.swing.SwingUtilities;
+import java.io.Serial;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.atomic.AtomicBoolean;
+
+/**
+ * Classe base dos modelos de lista da interface gráfica que acompanham o catálogo da biblioteca.
+ * <p>
+ * Os avisos da biblioteca chegam na thread que fez a alteração; são guardados numa fila e aplicados pela mesma
+ * ordem na thread da interface gráfica, vários de cada vez, por isso o conteúdo do modelo só muda nessa thread.
+ * As subclasses avisam a JList apenas das linhas que mudaram; linhas acrescentadas seguidas no fim da lista
+ * são anunciadas num só evento. Conteúdos obtidos noutra thread são aplicados pela mesma fila, com
+ * {@link #applyInOrder}, para que os avisos posteriores à sua leitura não se percam.
+ *
+ * @param <E> O tipo das linhas da lista.
+ */
+public abstract class CatalogListModel<E> extends AbstractListModel<E> implements LibraryListener {
+
+    @Serial
+    private static final long serialVersionUID = 1L;
+
+    /**
+     * Tipo de alteração recebida da biblioteca.
+     */
+    private enum Change {
+        ADDED, REMOVED, AVAILABILITY, UPDATE
+    }
+
+    /**
+     * Alteração à espera de ser aplicada na thread da interface gráfica.
+     *
+     * @param change O tipo de alteração.
+     * @param book O livro alterado, ou null numa atualização.
+     * @param update A atualização a executar, ou null num aviso da biblioteca.
+     */
+    private record Event(Change change, Book book, Runnable update) {
+    }
+
+    private final ConcurrentLinkedQueue<Event> pending = new ConcurrentLinkedQueue<>();
+    private final AtomicBoolean scheduled = new AtomicBoolean();
+
+    private int appendedFrom = -1;  // Primeira linha acrescentada ainda não anunciada, ou -1
+
+    @Override
+    public final void bookAdded(Book book) {
+        enqueue(new Event(Change.ADDED, book, null));
+    }
+
+    @Override
+    public final void bookRemoved(Book book) {
+        enqueue(new Event(Change.REMOVED, book, null));
+    }
+
+    @Override
+    public final void availabilityChanged(Book book) {
+        enqueue(new Event(Change.AVAILABILITY, book, null));
+    }
+
+    /**
+     * Executa uma atualização do modelo na thread da interface gráfica, depois dos avisos recebidos até agora
+     * e antes dos seguintes. Pode ser chamado em qualquer thread.
+     * <p>
+     * Quem lê os livros noutra thread chama este método logo a seguir à leitura: os avisos de alterações anteriores
+     * à leitura são aplicados antes da atualização, e os das posteriores depois, sobre o conteúdo já atualizado.
+     *
+     * @param update A atualização, como mostrar os livros lidos.
+     */
+    public void applyInOrder(Runnable update) {
+        enqueue(new Event(Change.UPDATE, null, update));
+    }
+
+    /**
+     * Aplica um livro adicionado ao conteúdo do modelo. Chamado na thread da interface gráfica.
+     *
+     * @param book O livro adicionado.
+     */
+    protected abstract void applyBookAdded(Book book);
+
+    /**
+     * Aplica um livro removido ao conteúdo do modelo. Chamado na thread da interface gráfica.
+     *
+     * @param book O livro removido.
+     */
+    protected abstract void applyBookRemoved(Book book);
+
+    /**
+     * Aplica uma mudança de disponibilidade ao conteúdo do modelo. Chamado na thread da interface gráfica.
+     *
+     * @param book O livro requisitado ou devolvido.
+     */
+    protected abstract void applyAvailabilityChanged(Book book);
+
+    /**
+     * Regista que foi acrescentada uma linha no fim da lista; o aviso é dado no fim do grupo de alterações.
+     *
+     * @param index A posição da linha acrescentada.
+     */
+    protected void rowAppended(int index) {
+        if (appendedFrom == -1) {
+            appendedFrom = index;
+        }
+    }
+
+    /**
+     * Avisa que uma linha foi retirada da lista.
+     *
+     * @param index A posição que a linha tinha.
+     */
+    protected void rowRemoved(int index) {
+        announceAppended();
+        fireIntervalRemoved(this, index, index);
+    }
+
+    /**
+     * Avisa que o conteúdo de uma linha mudou.
+     *
+     * @param index A posição da linha.
+     */
+    protected void rowChanged(int index) {
+        announceAppended();
+        fireContentsChanged(this, index, index);
+    }
+
+    /**
+     * Avisa que todas as linhas foram retiradas da lista.
+     *
+     * @param oldSize O número de linhas que a lista tinha.
+     */
+    protected void rowsCleared(int oldSize) {
+        appendedFrom = -1;
+        if (oldSize > 0) {
+            fireIntervalRemoved(this, 0, oldSize - 1);
+        }
+    }
+
+    /**
+     * Avisa logo que uma lista vazia passou a ter linhas.
+     *
+     * @param newSize O número de linhas da lista.
+     */
+    protected void rowsFilled(int newSize) {
+        if (newSize > 0) {
+            fireIntervalAdded(this, 0, newSize - 1);
+        }
+    }
+
+    /**
+     * Acrescenta um aviso à fila e, se ainda não estiver agendada, agenda a sua aplicação na thread da interface gráfica.
+     */
+    private void enqueue(Event event) {
+        pending.add(event);
+        if (scheduled.compareAndSet(false, true)) {
+            SwingUtilities.invokeLater(this::drain);
+        }
+    }
+
+    /**
+     * Aplica todos os avisos da fila, pela ordem em que chegaram.
+     */
+    private void drain() {
+        scheduled.set(false);
+        Event event;
+        while ((event = pending.poll()) != null) {
+            switch (event.change()) {
+                case ADDED -> applyBookAdded(event.book());
+                case REMOVED -> applyBookRemoved(event.book());
+                case AVAILABILITY -> applyAvailabilityChanged(event.book());
+                case UPDATE -> event.update().run();
+            }
+        }
+        announceAppended();
+    }
+
+    /**
+     * Anuncia de uma só vez as linhas acrescentadas desde o último aviso.
+     */
+    private void announceAppended() {
+        if (appendedFrom != -1) {
+            int from = appendedFrom;
+            appendedFrom = -1;
+            if (from < getSize()) {
+                fireIntervalAdded(this, from, getSize() - 1);
+            }
+        }
+    }
+}
@@ -0,0 +1,248 @@
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Objects;
+
+/**
+ * Versão imutável da estrutura do catálogo: os autores, pela ordem da biblioteca, e os livros de cada um.
+ * <p>
+ * A Library publica uma versão nova depois de cada alteração à estrutura (adicionar ou remover livros),
+ * por isso quem lê uma versão vê sempre um catálogo consistente, sem locks e sem nunca ver uma remoção a meio.
+ * Obter a versão atual é a leitura de um campo volatile.
+ * <p>
+ * As versões partilham tudo o que não mudou. Os livros de cada autor ficam num array próprio ("segmento"),
+ * e os segmentos em blocos de 64 autores: uma alteração aos livros de um autor copia apenas o seu segmento,
+ * o bloco onde este está e o array de blocos. Os autores e o índice por nome só são copiados quando
+ * aparece ou desaparece um autor, o que é raro.
+ * <p>
+ * A disponibilidade não faz parte da versão: os objetos Book são os da biblioteca e {@link Book#isAvailable()}
+ * mostra sempre o estado atual, que muda a cada requisição sem criar versões novas.
+ */
+public final class CatalogSnapshot {
+
+    private static final int BLOCK_BITS = 6;
+    private static final int BLOCK = 1 << BLOCK_BITS;  // Segmentos por bloco
+    private static final Book[] NO_BOOKS = new Book[0];
+
+    /**
+     * Catálogo vazio, com versão 0.
+     */
+    static final CatalogSnapshot EMPTY = new CatalogSnapshot(0, new String[0], new HashMap<>(), new Book[0][][]);
+
+    private final long version;
+    private final String[] authors;               // Autores, partilhado enquanto não mudam
+    private final Map<String, Integer> positions; // Posição de cada autor, partilhado com os autores
+    private final Book[][][] blocks;              // blocks[p / BLOCK][p % BLOCK] é o segmento do autor p
+
+    private CatalogSnapshot(long version, String[] authors, Map<String, Integer> positions, Book[][][] blocks) {
+        this.version = version;
+        this.authors = authors;
+        this.positions = positions;
+        this.blocks = blocks;
+    }
+
+    /**
+     * Cria uma versão com o catálogo completo, usada depois de carregar a biblioteca.
+     *
+     * @param version O número da versão.
+     * @param authors Os autores; o array passa a pertencer à versão.
+     * @param segments Os livros de cada autor, na mesma posição; os arrays passam a pertencer à versão.
+     * @return A versão criada.
+     */
+    static CatalogSnapshot of(long version, String[] authors, Book[][] segments) {
+        Map<String, Integer> positions = new HashMap<>(Math.max(16, authors.length * 2));
+        for (int i = 0; i < authors.length; i++) {
+            positions.put(authors[i], i);
+        }
+        Book[][][] blocks = new Book[blockCount(authors.length)][][];
+        for (int b = 0; b < blocks.length; b++) {
+            blocks[b] = Arrays.copyOfRange(segments, b * BLOCK, (b + 1) * BLOCK);
+        }
+        return new CatalogSnapshot(version, authors, positions, blocks);
+    }
+
+    /**
+     * Cria a versão seguinte, em que os livros de um autor passam a ser outros.
+     *
+     * @param position Posição do autor; igual a {@link #authorCount()} para acrescentar um autor novo no fim.
+     * @param author Nome do autor.
+     * @param segment Os livros do autor; o array passa a pertencer à versão.
+     * @return A versão seguinte.
+     */
+    CatalogSnapshot withSegment(int position, String author, Book[] segment) {
+        return withSegments(new int[]{position}, new String[]{author}, new Book[][]{segment});
+    }
+
+    /**
+     * Cria a versão seguinte, em que os livros de vários autores passam a ser outros.
+     *
+     * @param changed Posições dos autores, por ordem crescente; as posições a partir de {@link #authorCount()}
+     *                acrescentam autores novos e têm de ser seguidas.
+     * @param names Nome de cada autor alterado.
+     * @param segments Os livros de cada autor alterado; os arrays passam a pertencer à versão.
+     * @return A versão seguinte.
+     */
+    CatalogSnapshot withSegments(int[] changed, String[] names, Book[][] segments) {
+        int count = authors.length;
+        int newCount = changed.length == 0 ? count : Math.max(count, changed[changed.length - 1] + 1);
+
+        String[] newAuthors = authors;
+        Map<String, Integer> newPositions = positions;
+        if (newCount > count) {
+            newAuthors = Arrays.copyOf(authors, newCount);
+            newPositions = new HashMap<>(positions);
+        }
+
+        Book[][][] newBlocks = Arrays.copyOf(blocks, blockCount(newCount));
+        int copiedBlock = -1;
+        for (int i = 0; i < changed.length; i++) {
+            int position = changed[i];
+            if (position >= count) {
+                newAuthors[position] = names[i];
+                newPositions.put(names[i], position);
+            }
+            int block = position >>> BLOCK_BITS;
+            if (block != copiedBlock) {
+                newBlocks[block] = block < blocks.length ? blocks[block].clone() : new Book[BLOCK][];
+                copiedBlock = block;
+            }
+            newBlocks[block][position & (BLOCK - 1)] = segments[i];
+        }
+        return new CatalogSnapshot(version + 1, newAuthors, newPositions, newBlocks);
+    }
+
+    /**
+     * Cria a versão seguinte, sem um autor; os autores seguintes avançam uma posição.
+     * Copia os autores, o índice e os blocos a partir do autor removido.
+     *
+     * @param position Posição do autor a retirar.
+     * @return A versão seguinte.
+     */
+    CatalogSnapshot withoutAuthor(int position) {
+        int count = authors.length;
+        Objects.checkIndex(position, count);
+
+        String[] newAuthors = new String[count - 1];
+        System.arraycopy(authors, 0, newAuthors, 0, position);
+        System.arraycopy(authors, position + 1, newAuthors, position, count - position - 1);
+
+        Map<String, Integer> newPositions = new HashMap<>(positions);
+        newPositions.remove(authors[position]);
+        for (int i = position; i < newAuthors.length; i++) {
+            newPositions.put(newAuthors[i], i);
+        }
+
+        // Os blocos anteriores ao autor removido não mudam
+        Book[][][] newBlocks = Arrays.copyOf(blocks, blockCount(count - 1));
+        for (int b = position >>> BLOCK_BITS; b < newBlocks.length; b++) {
+            Book[][] block = new Book[BLOCK][];
+            for (int i = 0; i < BLOCK; i++) {
+                int p = b * BLOCK + i;
+                if (p < newAuthors.length) {
+                    block[i] = segment(p < position ? p : p + 1);
+                }
+            }
+            newBlocks[b] = block;
+        }
+        return new CatalogSnapshot(version + 1, newAuthors, newPositions, newBlocks);
+    }
+
+    /**
+     * Retorna o número da versão, que aumenta a cada alteração à estrutura do catálogo.
+     *
+     * @return O número da versão.
+     */
+    public long version() {
+        return version;
+    }
+
+    /**
+     * Retorna o número de autores.
+     *
+     * @return O número de autores.
+     */
+    public int authorCount() {
+        return authors.length;
+    }
+
+    /**
+     * Retorna o nome do autor numa posição.
+     *
+     * @param position Posição do autor.
+     * @return O nome do autor.
+     */
+    public String author(int position) {
+        return authors[position];
+    }
+
+    /**
+     * Retorna os autores.
+     *
+     * @return Uma cópia do array de autores.
+     */
+    public String[] authors() {
+        return authors.clone();
+    }
+
+    /**
+     * Procura a posição de um autor.
+     *
+     * @param author Nome do autor.
+     * @return A posição do autor, ou -1 se não existir nesta versão.
+     */
+    public int indexOf(String author) {
+        Integer position = positions.get(author);
+        return position != null ? position : -1;
+    }
+
+    /**
+     * Retorna os livros do autor numa posição.
+     *
+     * @param position Posição do autor.
+     * @return Uma cópia do array de livros do autor.
+     */
+    public Book[] books(int position) {
+        Objects.checkIndex(position, authors.length);
+        return segment(position).clone();
+    }
+
+    /**
+     * Retorna os livros de um autor, sem copiar.
+     *
+     * @param author Nome do autor.
+     * @return Lista só de leitura com os livros do autor, vazia se o autor não existir nesta versão.
+     */
+    public List<Book> books(String author) {
+        Integer position = positions.get(author);
+        return Collections.unmodifiableList(Arrays.asList(position != null ? segment(position) : NO_BOOKS));
+    }
+
+    /**
+     * Retorna o número total de livros desta versão.
+     *
+     * @return O número de livros.
+     */
+    public long bookCount() {
+        long count = 0;
+        for (int i = 0; i < authors.length; i++) {
+            count += segment(i).length;
+        }
+        return count;
+    }
+
+    /**
+     * Retorna o segmento de um autor, sem copiar; quem chama não o pode alterar.
+     */
+    Book[] segment(int position) {
+        return blocks[position >>> BLOCK_BITS][position & (BLOCK - 1)];
+    }
+
+    /**
+     * Calcula o número de blocos necessários para um número de autores.
+     */
+    private static int blockCount(int authorCount) {
+        return (authorCount + BLOCK - 1) >>> BLOCK_BITS;
+    }
+}
@@ -0,0 +1,92 @@
+import java.io.IOException;
+import java.util.List;
+
+/**
+ * Interface que representa a forma como a biblioteca guarda o seu catálogo.
+ * A biblioteca altera primeiro os livros em memória e depois avisa a persistência de cada alteração,
+ * para que esta decida o que escrever (o ficheiro completo, um registo num journal, etc.).
+ */
+public interface CatalogStore {
+
+    /**
+     * Carrega o catálogo guardado para a biblioteca, através de {@link Library#install} e {@link Library#insertBook}.
+     *
+     * @param library A biblioteca onde os livros são carregados.
+     * @throws IOException Se ocorrer um erro ao ler os livros.
+     */
+    void load(Library library) throws IOException;
+
+    /**
+     * Guarda o catálogo completo da biblioteca.
+     *
+     * @param library A biblioteca a guardar.
+     * @throws IOException Se ocorrer um erro ao escrever os livros.
+     */
+    void save(Library library) throws IOException;
+
+    /**
+     * Regista que um livro foi adicionado à biblioteca.
+     *
+     * @param library A biblioteca alterada.
+     * @param author Nome do autor do livro.
+     * @param book O livro adicionado.
+     * @throws IOException Se ocorrer um erro ao guardar a alteração.
+     */
+    void bookAdded(Library library, String author, Book book) throws IOException;
+
+    /**
+     * Regista que vários livros foram adicionados à biblioteca de uma só vez.
+     * Por omissão, regista cada livro separadamente; as formas de persistência devem juntar a escrita.
+     *
+     * @param library A biblioteca alterada.
+     * @param books Os livros adicionados, com o autor definido.
+     * @throws IOException Se ocorrer um erro ao guardar a alteração.
+     */
+    default void booksAdded(Library library, List<Book> books) throws IOException {
+        for (Book book : books) {
+            bookAdded(library, book.getAuthor(), book);
+        }
+    }
+
+    /**
+     * Regista que um livro foi removido da biblioteca.
+     *
+     * @param library A biblioteca alterada.
+     * @param author Nome do autor do livro.
+     * @param book O livro removido.
+     * @throws IOException Se ocorrer um erro ao guardar a alteração.
+     */
+    void bookRemoved(Library library, String author, Book book) throws IOException;
+
+    /**
+     * Regista que a disponibilidade de um livro mudou.
+     *
+     * @param library A biblioteca alterada.
+     * @param author Nome do autor do livro.
+     * @param book O livro cuja disponibilidade mudou.
+     * @throws IOException Se ocorrer um erro ao guardar a alteração.
+     */
+    void availabilityChanged(Library library, String author, Book book) throws IOException;
+
+    /**
+     * Regista que o número de exemplares de um livro mudou, com {@link Library#setCopies}, ou que um livro com
+     * vários exemplares foi removido (com {@code copies} igual a 1). Por omissão não guarda nada, e depois de
+     * carregar cada livro volta a ter um só exemplar; as formas de persistência da biblioteca usam um CopiesFile.
+     *
+     * @param library A biblioteca alterada.
+     * @param author Nome do autor do livro.
+     * @param book O livro alterado.
+     * @param copies O novo número de exemplares.
+     * @throws IOException Se ocorrer um erro ao guardar a alteração.
+     */
+    default void copiesChanged(Library library, String author, Book book, int copies) throws IOException {
+    }
+
+    /**
+     * Fecha a persistência, terminando as escritas pendentes.
+     *
+     * @throws IOException Se ocorrer um erro ao fechar os ficheiros.
+     */
+    default void close() throws IOException {
+    }
+}
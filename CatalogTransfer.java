@@ -0,0 +1,704 @@
+import java.io.BufferedWriter;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.InputStreamReader;
+import java.io.OutputStreamWriter;
+import java.io.Reader;
+import java.io.Writer;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Locale;
+
+/**
+ * Importação e exportação de livros em massa, em CSV ou JSON, sem ler nem escrever o ficheiro inteiro de uma vez.
+ * <p>
+ * A importação lê o ficheiro registo a registo e junta os livros válidos em lotes. Cada lote é entregue a
+ * {@link LibraryService#addNewBooks}, que ignora os livros repetidos no lote ou já presentes no catálogo e adiciona
+ * os restantes com uma escrita por lote em vez de uma por livro; na Library, no OffHeapLibrary e num LibraryServer,
+ * a comparação e a adição são uma só operação, por isso um livro adicionado ao mesmo tempo por outro utilizador não
+ * fica repetido. Um livro repetido num lote seguinte também é detetado, porque o lote anterior já está no catálogo;
+ * por isso a memória usada depende do tamanho do lote e não do ficheiro. As linhas inválidas são contadas e ignoradas.
+ * Um erro de sintaxe que impeça continuar a ler termina a importação com um IOException, mas os lotes anteriores
+ * ficam adicionados.
+ * <p>
+ * A exportação percorre os autores um de cada vez e escreve os seus livros à medida que os obtém,
+ * sem juntar o catálogo numa lista.
+ * <p>
+ * Em CSV, cada linha é "autor,título,disponível", com um cabeçalho opcional; os campos entre aspas podem ter vírgulas,
+ * mudanças de linha e aspas duplicadas, e a disponibilidade pode faltar (o livro fica disponível). Em JSON, o ficheiro
+ * é um array de objetos {"author": ..., "title": ..., "available": ...}, ou apenas os objetos seguidos, um por linha.
+ * Os ficheiros são lidos e escritos em UTF-8.
+ */
+public final class CatalogTransfer {
+
+    /**
+     * Número de livros de cada lote da importação, por omissão.
+     */
+    public static final int DEFAULT_BATCH_SIZE = 10_000;
+
+    private static final int BUFFER_SIZE = 1 << 16;
+
+    /**
+     * Formato de um ficheiro de importação ou exportação.
+     */
+    public enum Format {
+        CSV, JSON;
+
+        /**
+         * Escolhe o formato pela extensão do ficheiro: ".json" para JSON, qualquer outra para CSV.
+         *
+         * @param file O ficheiro.
+         * @return O formato do ficheiro.
+         */
+        public static Format of(File file) {
+            return file.getName().toLowerCase(Locale.ROOT).endsWith(".json") ? JSON : CSV;
+        }
+    }
+
+    /**
+     * Recebe o progresso de uma importação, no fim de cada lote, ou de uma exportação.
+     */
+    @FunctionalInterface
+    public interface Progress {
+        /**
+         * Progresso que não é mostrado.
+         */
+        Progress NONE = (rows, rowsPerSecond) -> {
+        };
+
+        /**
+         * Chamado na thread que faz a importação ou a exportação.
+         *
+         * @param rows Número de linhas lidas ou escritas até agora.
+         * @param rowsPerSecond Linhas por segundo desde o início.
+         */
+        void update(long rows, double rowsPerSecond);
+    }
+
+    /**
+     * Resultado de uma importação ou de uma exportação.
+     *
+     * @param rows Linhas lidas ou escritas.
+     * @param added Livros adicionados ao catálogo; numa exportação, zero.
+     * @param duplicates Linhas ignoradas por o livro já existir no catálogo ou numa linha anterior.
+     * @param invalid Linhas ignoradas por faltar o autor ou o título, ou por algum valor ser inválido.
+     * @param elapsedNanos Duração em nanossegundos.
+     */
+    public record Report(long rows, long added, long duplicates, long invalid, long elapsedNanos) {
+
+        /**
+         * Retorna o débito da operação.
+         *
+         * @return Linhas por segundo.
+         */
+        public double rowsPerSecond() {
+            return elapsedNanos > 0 ? rows / (elapsedNanos / 1e9) : 0;
+        }
+
+        @Override
+        public String toString() {
+            return String.format("%d linhas, %d adicionados, %d repetidos, %d inválidos (%.0f linhas/s)",
+                    rows, added, duplicates, invalid, rowsPerSecond());
+        }
+    }
+
+    private CatalogTransfer() {
+    }
+
+    /**
+     * Importa os livros de um ficheiro, em lotes de {@link #DEFAULT_BATCH_SIZE}, com o formato indicado
+     * pela extensão do ficheiro.
+     *
+     * @param library A biblioteca onde os livros são adicionados.
+     * @param file O ficheiro CSV ou JSON.
+     * @param progress Recebe o progresso no fim de cada lote.
+     * @return O resultado da importação.
+     * @throws IOException Se ocorrer um erro ao ler o ficheiro, se este não puder ser interpretado ou se ocorrer
+     *                     um erro ao guardar os livros.
+     */
+    public static Report importBooks(LibraryService library, File file, Progress progress) throws IOException {
+        try (Reader in = new InputStreamReader(new FileInputStream(file), StandardCharsets.UTF_8)) {
+            return importBooks(library, in, Format.of(file), DEFAULT_BATCH_SIZE, progress);
+        }
+    }
+
+    /**
+     * Importa os livros lidos de um Reader, que não é fechado.
+     *
+     * @param library A biblioteca onde os livros são adicionados.
+     * @param in O texto a importar.
+     * @param format O formato do texto.
+     * @param batchSize Número máximo de livros adicionados de cada vez.
+     * @param progress Recebe o progresso no fim de cada lote.
+     * @return O resultado da importação.
+     * @throws IOException Se ocorrer um erro ao ler, se o texto não puder ser interpretado ou se ocorrer
+     *                     um erro ao guardar os livros.
+     */
+    public static Report importBooks(LibraryService library, Reader in, Format format, int batchSize,
+                                     Progress progress) throws IOException {
+        if (batchSize < 1) {
+            throw new IllegalArgumentException("Tamanho de lote inválido: " + batchSize);
+        }
+
+        RowParser parser = format == Format.JSON ? new JsonParser(in) : new CsvParser(in);
+        Importer importer = new Importer(library, batchSize, progress);
+        while (parser.next()) {
+            importer.add(parser);
+        }
+        importer.flush();
+        return importer.report();
+    }
+
+    /**
+     * Exporta os livros da biblioteca para um ficheiro, com o formato indicado pela extensão do ficheiro.
+     *
+     * @param library A biblioteca a exportar.
+     * @param file O ficheiro CSV ou JSON, que é substituído.
+     * @param progress Recebe o progresso a cada {@link #DEFAULT_BATCH_SIZE} livros escritos.
+     * @return O resultado da exportação.
+     * @throws IOException Se ocorrer um erro ao escrever o ficheiro.
+     */
+    public static Report exportBooks(LibraryService library, File file, Progress progress) throws IOException {
+        try (Writer out = new BufferedWriter(new OutputStreamWriter(new FileOutputStream(file), StandardCharsets.UTF_8),
+                BUFFER_SIZE)) {
+            return exportBooks(library, out, Format.of(file), progress);
+        }
+    }
+
+    /**
+     * Exporta os livros da biblioteca para um Writer, que não é fechado, mas é esvaziado no fim.
+     * Os autores são percorridos pela ordem da biblioteca.
+     *
+     * @param library A biblioteca a exportar.
+     * @param out Onde o texto é escrito.
+     * @param format O formato do texto.
+     * @param progress Recebe o progresso a cada {@link #DEFAULT_BATCH_SIZE} livros escritos.
+     * @return O resultado da exportação.
+     * @throws IOException Se ocorrer um erro ao escrever.
+     */
+    public static Report exportBooks(LibraryService library, Writer out, Format format, Progress progress)
+            throws IOException {
+        long start = System.nanoTime();
+        long rows = 0;
+        boolean json = format == Format.JSON;
+        out.write(json ? "[" : "autor,título,disponível\n");
+        for (String author : library.getAuthors()) {
+            for (Book book : library.getBooksByAuthor(author)) {
+                if (json) {
+                    out.write(rows == 0 ? "\n  {\"author\": " : ",\n  {\"author\": ");
+                    writeJsonString(out, author);
+                    out.write(", \"title\": ");
+                    writeJsonString(out, book.getTitle());
+                    out.write(book.isAvailable() ? ", \"available\": true}" : ", \"available\": false}");
+                } else {
+                    writeCsvField(out, author);
+                    out.write(',');
+                    writeCsvField(out, book.getTitle());
+                    out.write(book.isAvailable() ? ",true\n" : ",false\n");
+                }
+                if (++rows % DEFAULT_BATCH_SIZE == 0) {
+                    progress.update(rows, rows / ((System.nanoTime() - start) / 1e9));
+                }
+            }
+        }
+        out.write(json ? "\n]\n" : "");
+        out.flush();
+
+        long elapsed = System.nanoTime() - start;
+        progress.update(rows, rows / (Math.max(elapsed, 1) / 1e9));
+        return new Report(rows, 0, 0, 0, elapsed);
+    }
+
+    /**
+     * Escreve um campo CSV, entre aspas se tiver vírgulas, aspas, mudanças de linha ou espaços nas pontas.
+     */
+    private static void writeCsvField(Writer out, String value) throws IOException {
+        boolean quote = !value.isEmpty() && (value.charAt(0) == ' ' || value.charAt(value.length() - 1) == ' ');
+        for (int i = 0; i < value.length() && !quote; i++) {
+            char c = value.charAt(i);
+            quote = c == ',' || c == '"' || c == '\n' || c == '\r';
+        }
+        if (!quote) {
+            out.write(value);
+            return;
+        }
+        out.write('"');
+        out.write(value.replace("\"", "\"\""));
+        out.write('"');
+    }
+
+    /**
+     * Escreve uma string JSON entre aspas, com os caracteres especiais escapados.
+     */
+    private static void writeJsonString(Writer out, String value) throws IOException {
+        out.write('"');
+        for (int i = 0; i < value.length(); i++) {
+            char c = value.charAt(i);
+            switch (c) {
+                case '"' -> out.write("\\\"");
+                case '\\' -> out.write("\\\\");
+                case '\n' -> out.write("\\n");
+                case '\r' -> out.write("\\r");
+                case '\t' -> out.write("\\t");
+                default -> {
+                    if (c < 0x20) {
+                        out.write(String.format("\\u%04x", (int) c));
+                    } else {
+                        out.write(c);
+                    }
+                }
+            }
+        }
+        out.write('"');
+    }
+
+    /**
+     * Interpreta uma disponibilidade escrita num ficheiro de importação.
+     *
+     * @return A disponibilidade, ou null se o texto não for válido.
+     */
+    private static Boolean parseAvailable(String value) {
+        switch (value.trim().toLowerCase(Locale.ROOT)) {
+            case "", "true", "1", "sim", "yes", "disponível", "disponivel":
+                return Boolean.TRUE;
+            case "false", "0", "não", "nao", "no", "indisponível", "indisponivel":
+                return Boolean.FALSE;
+            default:
+                return null;
+        }
+    }
+
+    /**
+     * Junta as linhas lidas em lotes, elimina as repetidas e adiciona cada lote à biblioteca.
+     */
+    private static final class Importer {
+        private final LibraryService library;
+        private final int batchSize;
+        private final Progress progress;
+        private final long start = System.nanoTime();
+        private final List<Book> batch = new ArrayList<>();
+        private long rows;
+        private long added;
+        private long duplicates;
+        private long invalid;
+
+        Importer(LibraryService library, int batchSize, Progress progress) {
+            this.library = library;
+            this.batchSize = batchSize;
+            this.progress = progress;
+        }
+
+        /**
+         * Valida o registo lido e junta-o ao lote.
+         */
+        void add(RowParser row) throws IOException {
+            rows++;
+            String author = row.author != null ? row.author.trim() : "";
+            String title = row.title != null ? row.title.trim() : "";
+            Boolean available = row.available != null ? parseAvailable(row.available) : Boolean.TRUE;
+            if (!row.valid || author.isEmpty() || title.isEmpty() || available == null
+                    || !storable(author) || !storable(title)) {
+                invalid++;
+                if (LibraryLog.isEnabled(LibraryLog.Level.DEBUG)) {
+                    LibraryLog.log(LibraryLog.Level.DEBUG, "Linha %d ignorada na importação: %s;%s", rows, author, title);
+                }
+                return;
+            }
+
+            Book book = new Book(title, available);
+            book.setAuthor(author);
+            batch.add(book);
+            if (batch.size() >= batchSize) {
+                flush();
+            }
+        }
+
+        /**
+         * Adiciona os livros do lote que ainda não estão no catálogo, com uma só escrita.
+         */
+        void flush() throws IOException {
+            if (!batch.isEmpty()) {
+                int newBooks = library.addNewBooks(batch);
+                duplicates += batch.size() - newBooks;
+                added += newBooks;
+                batch.clear();
+            }
+            progress.update(rows, rows / (Math.max(System.nanoTime() - start, 1) / 1e9));
+        }
+
+        Report report() {
+            return new Report(rows, added, duplicates, invalid, System.nanoTime() - start);
+        }
+
+        /**
+         * Indica se um autor ou título pode ser guardado no ficheiro de livros, que separa os campos com ';'.
+         */
+        private static boolean storable(String value) {
+            return value.indexOf(';') < 0 && value.indexOf('\n') < 0 && value.indexOf('\r') < 0;
+        }
+    }
+
+    /**
+     * Lê os registos de um ficheiro de importação, um de cada vez, com um buffer próprio.
+     */
+    private abstract static class RowParser {
+        private final Reader in;
+        private final char[] buffer = new char[BUFFER_SIZE];
+        private int position;
+        private int limit;
+        long offset;  // Caracteres lidos, para as mensagens de erro
+
+        /**
+         * Campos do último registo lido; null se faltarem.
+         */
+        String author;
+        String title;
+        String available;
+        boolean valid;  // false se algum campo tiver um tipo ou um número de campos inválido
+
+        RowParser(Reader in) {
+            this.in = in;
+        }
+
+        /**
+         * Lê o registo seguinte.
+         *
+         * @return false no fim do ficheiro.
+         * @throws IOException Se ocorrer um erro ao ler ou se o texto não puder ser interpretado.
+         */
+        abstract boolean next() throws IOException;
+
+        /**
+         * Retorna o próximo carácter sem o consumir, ou -1 no fim.
+         */
+        int peek() throws IOException {
+            if (position == limit) {
+                limit = in.read(buffer, 0, buffer.length);
+                position = 0;
+                if (limit <= 0) {
+                    limit = 0;
+                    return -1;
+                }
+            }
+            return buffer[position];
+        }
+
+        /**
+         * Consome e retorna o próximo carácter, ou -1 no fim.
+         */
+        int read() throws IOException {
+            int c = peek();
+            if (c != -1) {
+                position++;
+                offset++;
+            }
+            return c;
+        }
+
+        void clear() {
+            author = null;
+            title = null;
+            available = null;
+            valid = true;
+        }
+    }
+
+    /**
+     * Lê registos CSV "autor,título[,disponível]", saltando o cabeçalho e as linhas vazias.
+     */
+    private static final class CsvParser extends RowParser {
+        private final StringBuilder field = new StringBuilder();
+        private final List<String> fields = new ArrayList<>(4);
+        private boolean first = true;
+
+        CsvParser(Reader in) {
+            super(in);
+        }
+
+        @Override
+        boolean next() throws IOException {
+            while (readRecord()) {
+                if (first) {
+                    first = false;
+                    if (isHeader()) {
+                        continue;
+                    }
+                }
+                if (fields.size() == 1 && fields.get(0).isBlank()) {
+                    continue;
+                }
+                clear();
+                author = fields.get(0);
+                title = fields.size() > 1 ? fields.get(1) : null;
+                available = fields.size() > 2 ? fields.get(2) : null;
+                valid = fields.size() <= 3;
+                return true;
+            }
+            return false;
+        }
+
+        /**
+         * Lê os campos do registo seguinte para {@link #fields}.
+         *
+         * @return false no fim do ficheiro.
+         */
+        private boolean readRecord() throws IOException {
+            fields.clear();
+            field.setLength(0);
+            int c = read();
+            if (c == -1) {
+                return false;
+            }
+            boolean quoted = false;
+            boolean wasQuoted = false;  // O campo atual começou entre aspas
+            while (true) {
+                if (quoted) {
+                    if (c == -1) {
+                        throw new IOException("Aspas por fechar no CSV, no carácter " + offset);
+                    }
+                    if (c == '"') {
+                        if (peek() == '"') {
+                            read();
+                            field.append('"');
+                        } else {
+                            quoted = false;
+                        }
+                    } else {
+                        field.append((char) c);
+                    }
+                } else if (c == '"' && !wasQuoted && field.toString().isBlank()) {
+                    field.setLength(0);
+                    quoted = true;
+                    wasQuoted = true;
+                } else if (c == ',') {
+                    fields.add(field.toString());
+                    field.setLength(0);
+                    wasQuoted = false;
+                } else if (c == '\n' || c == '\r' || c == -1) {
+                    if (c == '\r' && peek() == '\n') {
+                        read();
+                    }
+                    fields.add(field.toString());
+                    return true;
+                } else {
+                    field.append((char) c);
+                }
+                c = read();
+            }
+        }
+
+        private boolean isHeader() {
+            if (fields.size() < 2) {
+                return false;
+            }
+            String authorName = fields.get(0).trim().toLowerCase(Locale.ROOT);
+            String titleName = fields.get(1).trim().toLowerCase(Locale.ROOT);
+            return (authorName.equals("autor") || authorName.equals("author"))
+                    && (titleName.equals("título") || titleName.equals("titulo") || titleName.equals("title"));
+        }
+    }
+
+    /**
+     * Lê objetos JSON de um array, ou seguidos, sem construir o documento.
+     */
+    private static final class JsonParser extends RowParser {
+        private static final Object NESTED = new Object();  // Valor que é um objeto ou um array
+        private final StringBuilder text = new StringBuilder();
+        private boolean started;
+        private boolean inArray;
+
+        JsonParser(Reader in) {
+            super(in);
+        }
+
+        @Override
+        boolean next() throws IOException {
+            if (!started) {
+                started = true;
+                skipWhitespace();
+                if (peek() == '[') {
+                    read();
+                    inArray = true;
+                }
+            }
+            while (true) {
+                skipWhitespace();
+                int c = peek();
+                if (c == -1) {
+                    if (inArray) {
+                        throw error("falta o fim do array");
+                    }
+                    return false;
+                }
+                if (c == ']' && inArray) {
+                    read();
+                    inArray = false;
+                    skipWhitespace();
+                    if (peek() != -1) {
+                        throw error("texto depois do fim do array");
+                    }
+                    return false;
+                }
+                if (c == ',') {
+                    read();
+                    continue;
+                }
+                if (c != '{') {
+                    throw error("esperava um objeto");
+                }
+                readObject();
+                return true;
+            }
+        }
+
+        /**
+         * Lê um objeto, guardando os campos conhecidos e ignorando os restantes.
+         */
+        private void readObject() throws IOException {
+            read();
+            clear();
+            skipWhitespace();
+            if (peek() == '}') {
+                read();
+                return;
+            }
+            while (true) {
+                skipWhitespace();
+                String key = readString();
+                skipWhitespace();
+                if (read() != ':') {
+                    throw error("esperava ':'");
+                }
+                skipWhitespace();
+                Object value = readValue();
+                switch (key) {
+                    case "author", "autor" -> author = text(value);
+                    case "title", "titulo", "título" -> title = text(value);
+                    case "available", "disponivel", "disponível" -> available = value == null ? null : text(value);
+                    default -> {
+                    }
+                }
+                skipWhitespace();
+                int c = read();
+                if (c == '}') {
+                    return;
+                }
+                if (c != ',') {
+                    throw error("esperava ',' ou '}'");
+                }
+            }
+        }
+
+        /**
+         * Converte um valor num campo de texto; um objeto ou array torna o registo inválido.
+         */
+        private String text(Object value) {
+            if (value == null || value == NESTED) {
+                valid = false;
+                return null;
+            }
+            return value.toString();
+        }
+
+        /**
+         * Lê um valor: uma string, o texto de um número ou de true/false, null, ou NESTED para objetos e arrays.
+         */
+        private Object readValue() throws IOException {
+            int c = peek();
+            if (c == '"') {
+                return readString();
+            }
+            if (c == '{' || c == '[') {
+                skipNested();
+                return NESTED;
+            }
+            text.setLength(0);
+            while ((c = peek()) != -1 && (Character.isLetterOrDigit(c) || c == '-' || c == '+' || c == '.')) {
+                text.append((char) read());
+            }
+            String literal = text.toString();
+            if (literal.isEmpty()) {
+                throw error("valor inválido");
+            }
+            return literal.equals("null") ? null : literal;
+        }
+
+        private String readString() throws IOException {
+            if (read() != '"') {
+                throw error("esperava uma string");
+            }
+            text.setLength(0);
+            while (true) {
+                int c = read();
+                if (c == -1) {
+                    throw error("string por fechar");
+                }
+                if (c == '"') {
+                    return text.toString();
+                }
+                if (c != '\\') {
+                    text.append((char) c);
+                    continue;
+                }
+                c = read();
+                switch (c) {
+                    case '"', '\\', '/' -> text.append((char) c);
+                    case 'b' -> text.append('\b');
+                    case 'f' -> text.append('\f');
+                    case 'n' -> text.append('\n');
+                    case 'r' -> text.append('\r');
+                    case 't' -> text.append('\t');
+                    case 'u' -> {
+                        int code = 0;
+                        for (int i = 0; i < 4; i++) {
+                            int digit = Character.digit(read(), 16);
+                            if (digit < 0) {
+                                throw error("escape \\u inválido");
+                            }
+                            code = code * 16 + digit;
+                        }
+                        text.append((char) code);
+                    }
+                    default -> throw error("escape inválido");
+                }
+            }
+        }
+
+        /**
+         * Salta um objeto ou array, incluindo os que estiverem dentro dele.
+         */
+        private void skipNested() throws IOException {
+            int depth = 0;
+            do {
+                int c = peek();
+                if (c == -1) {
+                    throw error("objeto por fechar");
+                }
+                if (c == '"') {
+                    readString();
+                    continue;
+                }
+                read();
+                if (c == '{' || c == '[') {
+                    depth++;
+                } else if (c == '}' || c == ']') {
+                    depth--;
+                }
+            } while (depth > 0);
+        }
+
+        private void skipWhitespace() throws IOException {
+            int c;
+            while ((c = peek()) == ' ' || c == '\n' || c == '\r' || c == '\t') {
+                read();
+            }
+        }
+
+        private IOException error(String problem) {
+            return new IOException("JSON inválido no carácter " + offset + ": " + problem);
+        }
+    }
+}
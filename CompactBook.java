@@ -0,0 +1,54 @@
+/**
+ * Livro de modo compacto: uma vista sobre o CompactStorage da sua biblioteca, que guarda o autor como id do
+ * AuthorDictionary e o título como referência para a TitleArena, em vez de duas Strings próprias.
+ * <p>
+ * Comporta-se como qualquer outro Book, mas {@link #getTitle()} cria uma String nova a cada chamada;
+ * quem compara títulos muitas vezes deve usar {@link #hasTitle}, que não cria objetos.
+ * <p>
+ * Custo por livro (HotSpot de 64 bits com referências comprimidas): o objeto tem 48 bytes, contra 40 de um Book
+ * normal, porque herda de Book os campos title e author, que ficam a null (8 bytes), e acrescenta a referência
+ * para o armazenamento e os dois ids (12 bytes). Um Book normal precisa ainda da String do título e do seu array
+ * (cerca de 40 bytes mais o tamanho do título), que aqui são substituídos pelos bytes do título na área de títulos.
+ * Retirar os campos de Book pouparia mais 8 bytes por livro, mas obrigaria a mudar a classe pública Book.
+ */
+class CompactBook extends Book {
+
+    private final CompactStorage storage;
+    private final int titleRef;  // Referência do título na área de títulos
+    private int authorId;        // Id do autor no dicionário de autores
+
+    /**
+     * Construtor da classe CompactBook.
+     *
+     * @param storage O armazenamento onde estão o autor e o título.
+     * @param authorId O id do autor no dicionário de autores.
+     * @param titleRef A referência do título na área de títulos.
+     * @param isAvailable A disponibilidade do livro.
+     */
+    CompactBook(CompactStorage storage, int authorId, int titleRef, boolean isAvailable) {
+        super(null, isAvailable);
+        this.storage = storage;
+        this.authorId = authorId;
+        this.titleRef = titleRef;
+    }
+
+    @Override
+    public String getTitle() {
+        return storage.titles().get(titleRef);
+    }
+
+    @Override
+    public String getAuthor() {
+        return storage.authors().name(authorId);
+    }
+
+    @Override
+    public void setAuthor(String author) {
+        authorId = storage.authors().intern(author);
+    }
+
+    @Override
+    boolean hasTitle(String title) {
+        return storage.titles().matches(titleRef, title);
+    }
+}
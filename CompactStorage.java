@@ -0,0 +1,41 @@
+/**
+ * Armazenamento partilhado pelos livros de uma biblioteca em modo compacto: o dicionário de autores
+ * e a área de títulos em UTF-8. Cria os livros desse modo (CompactBook), que guardam apenas as referências
+ * para o nome do autor e para o título.
+ */
+public class CompactStorage {
+
+    private final AuthorDictionary authors = new AuthorDictionary();
+    private final TitleArena titles = new TitleArena();
+
+    /**
+     * Cria um livro de modo compacto, guardando o título na área de títulos.
+     * Quem chama tem de garantir que só uma thread acrescenta títulos de cada vez.
+     *
+     * @param author Nome do autor do livro.
+     * @param title Título do livro.
+     * @param available A disponibilidade do livro.
+     * @return O livro criado.
+     */
+    public Book newBook(String author, String title, boolean available) {
+        return new CompactBook(this, authors.intern(author), titles.add(title), available);
+    }
+
+    /**
+     * Retorna o dicionário de autores.
+     *
+     * @return O dicionário de autores.
+     */
+    public AuthorDictionary authors() {
+        return authors;
+    }
+
+    /**
+     * Retorna a área de títulos.
+     *
+     * @return A área de títulos.
+     */
+    public TitleArena titles() {
+        return titles;
+    }
+}
@@ -0,0 +1,104 @@
+import java.io.*;
+import java.nio.file.Files;
+import java.nio.file.StandardCopyOption;
+import java.util.LinkedHashMap;
+import java.util.Map;
+
+/**
+ * Classe que guarda o número de exemplares dos livros com mais do que um, num ficheiro ao lado do catálogo
+ * ("&lt;ficheiro de livros&gt;.copies"), com uma linha "autor;título;exemplares" por livro.
+ * Usada pelas formas de persistência, que o leem depois de carregar os livros e o atualizam a cada
+ * {@link CatalogStore#copiesChanged}. Os livros com um só exemplar não aparecem no ficheiro.
+ * <p>
+ * Cada alteração reescreve o ficheiro completo num ficheiro temporário, sincroniza-o com o disco e só depois
+ * o coloca no lugar do original; como só tem os livros com vários exemplares, é pequeno.
+ * As reservas em espera não são guardadas, tal como os empréstimos.
+ */
+public class CopiesFile {
+
+    private final File file;
+    private final Map<String, Integer> copies = new LinkedHashMap<>();  // Exemplares por "autor;título"
+
+    /**
+     * Construtor da classe CopiesFile.
+     *
+     * @param catalogFile O ficheiro de livros ao lado do qual os exemplares são guardados.
+     */
+    public CopiesFile(File catalogFile) {
+        this.file = new File(catalogFile.getPath() + ".copies");
+    }
+
+    /**
+     * Lê o número de exemplares de cada livro e aplica-o à biblioteca, com {@link Library#restoreCopies}.
+     * As linhas de livros que já não existem são descartadas na próxima escrita.
+     * Se o ficheiro não existir, nenhum livro tem mais do que um exemplar.
+     *
+     * @param library A biblioteca cujos livros foram carregados.
+     * @throws IOException Se ocorrer um erro ao ler o ficheiro.
+     */
+    public synchronized void load(Library library) throws IOException {
+        copies.clear();
+        if (!file.exists()) {
+            return;
+        }
+
+        try (BufferedReader reader = new BufferedReader(new FileReader(file))) {
+            String line;
+            while ((line = reader.readLine()) != null) {
+                int first = line.indexOf(';');
+                int last = line.lastIndexOf(';');
+                if (first < 0 || last == first) {
+                    continue;
+                }
+                String author = line.substring(0, first);
+                String title = line.substring(first + 1, last);
+                int count;
+                try {
+                    count = Integer.parseInt(line.substring(last + 1).trim());
+                } catch (NumberFormatException e) {
+                    continue;
+                }
+                if (count > 1 && library.restoreCopies(author, title, count)) {
+                    copies.put(author + ";" + title, count);
+                }
+            }
+        }
+    }
+
+    /**
+     * Guarda o novo número de exemplares de um livro e reescreve o ficheiro.
+     *
+     * @param author Nome do autor do livro.
+     * @param title Título do livro.
+     * @param count O número de exemplares; com 1, o livro deixa de aparecer no ficheiro.
+     * @throws IOException Se ocorrer um erro ao escrever o ficheiro.
+     */
+    public synchronized void set(String author, String title, int count) throws IOException {
+        String key = author + ";" + title;
+        Integer previous = count > 1 ? copies.put(key, count) : copies.remove(key);
+        if (previous == null && count <= 1 || previous != null && previous == count) {
+            return;
+        }
+
+        File temp = new File(file.getPath() + ".tmp");
+        try {
+            try (FileOutputStream output = new FileOutputStream(temp);
+                 BufferedWriter writer = new BufferedWriter(new OutputStreamWriter(output))) {
+                for (Map.Entry<String, Integer> entry : copies.entrySet()) {
+                    writer.write(entry.getKey() + ";" + entry.getValue() + "\n");
+                }
+                writer.flush();
+                output.getFD().sync();
+            }
+            Files.move(temp.toPath(), file.toPath(), StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+        } catch (IOException e) {
+            // O ficheiro não mudou, por isso a próxima escrita parte do que lá está
+            if (previous != null) {
+                copies.put(key, previous);
+            } else {
+                copies.remove(key);
+            }
+            throw e;
+        }
+    }
+}
@@ -0,0 +1,243 @@
+import java.io.IOException;
+import java.io.InterruptedIOException;
+import java.nio.ByteBuffer;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.locks.ReentrantLock;
+
+/**
+ * Classe que junta várias escritas num único "commit" em disco.
+ * Quem escreve coloca o seu registo numa fila e espera; uma única thread retira da fila os registos acumulados,
+ * escreve-os todos e sincroniza o disco uma só vez, libertando depois todos os que esperavam.
+ * Assim, com muitas operações em simultâneo, o número de sincronizações deixa de ser um por operação.
+ */
+public class GroupCommitWriter {
+
+    /**
+     * Interface que representa o destino dos registos.
+     */
+    @FunctionalInterface
+    public interface Sink {
+
+        /**
+         * Escreve um conjunto de registos, pela ordem dada, e sincroniza-os com o disco.
+         *
+         * @param records Os registos a escrever.
+         * @throws IOException Se ocorrer um erro ao escrever.
+         */
+        void writeAndSync(List<ByteBuffer> records) throws IOException;
+    }
+
+    /**
+     * Registo à espera de ser escrito.
+     *
+     * @param data Os bytes do registo.
+     * @param done Completado quando o registo estiver gravado em disco.
+     */
+    private record Pending(ByteBuffer data, CompletableFuture<Void> done) {
+    }
+
+    /**
+     * Registo especial colocado na fila para terminar a thread de escrita.
+     */
+    private static final Pending STOP = new Pending(ByteBuffer.allocate(0), new CompletableFuture<>());
+
+    private final Sink sink;
+    private final int maxBatchSize;     // Número máximo de registos por sincronização
+    private final long maxWaitNanos;    // Tempo máximo à espera de mais registos antes de sincronizar
+    private final BlockingQueue<Pending> queue = new LinkedBlockingQueue<>();
+    private final Thread flusher;
+    private final ReentrantLock closeLock = new ReentrantLock();  // Torna a verificação de closed e a entrada na fila atómicas
+    private boolean closed;
+
+    /**
+     * Construtor da classe GroupCommitWriter.
+     *
+     * @param sink O destino dos registos.
+     * @param maxBatchSize Número máximo de registos escritos em cada sincronização (1 = uma sincronização por registo).
+     * @param maxWaitMillis Tempo máximo, em milissegundos, que a thread de escrita espera por mais registos
+     *                      depois de receber o primeiro (0 = escreve logo os que já estiverem na fila).
+     * @param name Nome da thread de escrita.
+     */
+    public GroupCommitWriter(Sink sink, int maxBatchSize, long maxWaitMillis, String name) {
+        if (maxBatchSize < 1) {
+            throw new IllegalArgumentException("O tamanho máximo do lote tem de ser pelo menos 1.");
+        }
+        this.sink = sink;
+        this.maxBatchSize = maxBatchSize;
+        this.maxWaitNanos = TimeUnit.MILLISECONDS.toNanos(maxWaitMillis);
+
+        flusher = new Thread(this::flushLoop, name);
+        flusher.setDaemon(true);
+        flusher.start();
+    }
+
+    /**
+     * Coloca um registo na fila de escrita, sem esperar.
+     * Os registos são escritos pela ordem em que são submetidos. Um registo submetido depois de {@link #close}
+     * é recusado; nenhum registo aceite fica na fila sem resposta quando a thread de escrita termina.
+     *
+     * @param record Os bytes do registo.
+     * @return Um future completado quando o registo estiver gravado em disco.
+     */
+    public CompletableFuture<Void> submit(ByteBuffer record) {
+        CompletableFuture<Void> done = new CompletableFuture<>();
+        closeLock.lock();
+        try {
+            if (closed) {
+                done.completeExceptionally(new IOException("Escritor fechado."));
+            } else {
+                queue.add(new Pending(record, done));
+            }
+        } finally {
+            closeLock.unlock();
+        }
+        return done;
+    }
+
+    /**
+     * Espera que um registo submetido fique gravado em disco.
+     *
+     * @param done O future devolvido por {@link #submit}.
+     * @throws IOException Se ocorrer um erro ao escrever o registo.
+     */
+    public static void await(CompletableFuture<Void> done) throws IOException {
+        try {
+            done.get();
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new InterruptedIOException("Interrompido à espera da escrita.");
+        } catch (ExecutionException e) {
+            if (e.getCause() instanceof IOException ioException) {
+                throw ioException;
+            }
+            throw new IOException(e.getCause());
+        }
+    }
+
+    /**
+     * Escreve os registos que ainda estão na fila e termina a thread de escrita.
+     */
+    public void close() {
+        closeLock.lock();
+        try {
+            if (!closed) {
+                closed = true;
+                queue.add(STOP);
+            }
+        } finally {
+            closeLock.unlock();
+        }
+        try {
+            flusher.join();
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+    }
+
+    /**
+     * Ciclo da thread de escrita: junta os registos em lotes e escreve cada lote com uma sincronização.
+     */
+    private void flushLoop() {
+        try {
+            batchLoop();
+        } finally {
+            failRemaining();
+        }
+    }
+
+    /**
+     * Retira os registos da fila em lotes até encontrar o registo STOP ou ser interrompida.
+     */
+    private void batchLoop() {
+        List<Pending> batch = new ArrayList<>(maxBatchSize);
+        boolean stopping = false;
+
+        while (!stopping) {
+            try {
+                Pending first = queue.take();
+                if (first == STOP) {
+                    break;
+                }
+                batch.add(first);
+
+                long deadline = System.nanoTime() + maxWaitNanos;
+                while (batch.size() < maxBatchSize) {
+                    Pending next = queue.poll();
+                    if (next == null && maxWaitNanos > 0) {
+                        long remaining = deadline - System.nanoTime();
+                        if (remaining > 0) {
+                            next = queue.poll(remaining, TimeUnit.NANOSECONDS);
+                        }
+                    }
+                    if (next == null) {
+                        break;
+                    }
+                    if (next == STOP) {
+                        stopping = true;
+                        break;
+                    }
+                    batch.add(next);
+                }
+            } catch (InterruptedException e) {
+                stopping = true;
+            }
+
+            flush(batch);
+            batch.clear();
+        }
+    }
+
+    /**
+     * Fecha o escritor e recusa os registos que ainda estejam na fila, que só existem se a thread de escrita
+     * terminou sem passar pelo registo STOP (interrompida, ou por um erro do destino).
+     * Depois de closed ficar verdadeiro nenhum registo entra na fila, por isso nenhum fica sem resposta.
+     */
+    private void failRemaining() {
+        closeLock.lock();
+        try {
+            closed = true;
+        } finally {
+            closeLock.unlock();
+        }
+
+        List<Pending> remaining = new ArrayList<>();
+        queue.drainTo(remaining);
+        IOException failure = new IOException("Escritor fechado antes de gravar o registo.");
+        for (Pending pending : remaining) {
+            pending.done().completeExceptionally(failure);
+        }
+    }
+
+    /**
+     * Escreve um lote e liberta quem estava à espera dos seus registos.
+     *
+     * @param batch O lote a escrever.
+     */
+    private void flush(List<Pending> batch) {
+        if (batch.isEmpty()) {
+            return;
+        }
+
+        List<ByteBuffer> records = new ArrayList<>(batch.size());
+        for (Pending pending : batch) {
+            records.add(pending.data());
+        }
+
+        try {
+            sink.writeAndSync(records);
+            for (Pending pending : batch) {
+                pending.done().complete(null);
+            }
+        } catch (IOException | RuntimeException e) {
+            for (Pending pending : batch) {
+                pending.done().completeExceptionally(e);
+            }
+        }
+    }
+}
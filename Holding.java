@@ -0,0 +1,246 @@
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Exemplares de um título: quantos existem, quantos estão na prateleira e a fila de reservas de quem espera por um.
+ * <p>
+ * O número de exemplares na prateleira e o número de reservas em espera ficam num só AtomicLong, por isso
+ * requisitar um exemplar é um compare-and-set que o decrementa, sem locks, mesmo com milhares de threads
+ * a disputar o mesmo título. Nunca há ao mesmo tempo exemplares na prateleira e reservas em espera:
+ * devolver um exemplar com reservas em espera entrega-o à primeira da fila na mesma operação atómica,
+ * sem passar pela prateleira, por isso ninguém consegue requisitar à frente de quem já estava à espera.
+ * <p>
+ * Entre contar uma reserva e colocá-la na fila há um instante em que a reserva ainda não está na fila;
+ * quem devolve nesse instante espera ativamente que apareça, o que dura apenas uns poucos passos da outra thread.
+ * As reservas não podem ser canceladas; retirar o título da biblioteca abandona as que estiverem em espera.
+ * <p>
+ * Um Holding que deixa de ser preciso (um só exemplar e nenhuma reserva) é retirado com {@link #retire()},
+ * também num compare-and-set: quem ainda tiver a referência e tentar requisitar depois disso falha e sabe,
+ * por {@link #isRetired()}, que tem de voltar a procurar o livro em vez de o dar como indisponível.
+ */
+public class Holding {
+
+    private static final long WAITER = 1L << 32;            // Unidade das reservas em espera, nos 32 bits altos
+    private static final long SHELF_MASK = WAITER - 1;      // Exemplares na prateleira, nos 32 bits baixos
+    private static final long RETIRED = Long.MIN_VALUE;     // Estado final, sem exemplares na prateleira
+
+    /**
+     * Reserva de um exemplar, na fila de um título até um exemplar lhe ser entregue.
+     */
+    public static final class Hold {
+        private final String borrower;
+        private final CompletableFuture<Void> granted = new CompletableFuture<>();
+
+        Hold(String borrower) {
+            this.borrower = borrower;
+        }
+
+        /**
+         * Retorna quem fez a reserva.
+         *
+         * @return O identificador do requisitante.
+         */
+        public String getBorrower() {
+            return borrower;
+        }
+
+        /**
+         * Retorna um future completado quando um exemplar é entregue a esta reserva.
+         *
+         * @return O future da entrega.
+         */
+        public CompletableFuture<Void> granted() {
+            return granted;
+        }
+    }
+
+    private final AtomicLong state;  // Reservas em espera * WAITER + exemplares na prateleira
+    private final ConcurrentLinkedQueue<Hold> queue = new ConcurrentLinkedQueue<>();
+    private volatile int copies;
+
+    /**
+     * Construtor da classe Holding.
+     *
+     * @param copies O número de exemplares do título.
+     * @param onShelf Quantos desses exemplares estão na prateleira.
+     */
+    public Holding(int copies, int onShelf) {
+        if (copies < 1 || onShelf < 0 || onShelf > copies) {
+            throw new IllegalArgumentException("Exemplares inválidos: " + onShelf + " de " + copies);
+        }
+        this.copies = copies;
+        this.state = new AtomicLong(onShelf);
+    }
+
+    /**
+     * Requisita um exemplar, se houver algum na prateleira e ninguém à espera.
+     *
+     * @return true se um exemplar foi requisitado; false também se o Holding já foi retirado.
+     */
+    public boolean tryCheckout() {
+        return tryCheckout(1);
+    }
+
+    /**
+     * Requisita um exemplar ou, se não houver nenhum na prateleira, entra na fila de reservas.
+     * Não pode ser chamado depois de {@link #retire()}.
+     *
+     * @param borrower Identificador de quem requisita.
+     * @return null se um exemplar foi requisitado; senão, a reserva colocada no fim da fila.
+     */
+    public Hold checkoutOrHold(String borrower) {
+        while (true) {
+            long current = state.get();
+            if ((current & SHELF_MASK) > 0) {
+                if (state.compareAndSet(current, current - 1)) {
+                    return null;
+                }
+            } else if (state.compareAndSet(current, current + WAITER)) {
+                Hold hold = new Hold(borrower);
+                queue.offer(hold);
+                return hold;
+            }
+        }
+    }
+
+    /**
+     * Devolve um exemplar: entrega-o à primeira reserva da fila ou, se não houver nenhuma, volta à prateleira.
+     * A reserva que recebe o exemplar tem o seu future completado.
+     *
+     * @return A reserva que recebeu o exemplar, ou null se este voltou à prateleira.
+     * @throws IllegalStateException Se todos os exemplares já estiverem na prateleira.
+     */
+    public Hold returnCopy() {
+        while (true) {
+            long current = state.get();
+            if (current >= WAITER) {
+                if (state.compareAndSet(current, current - WAITER)) {
+                    Hold hold = takeHold();
+                    hold.granted.complete(null);
+                    return hold;
+                }
+            } else {
+                if (current >= copies) {
+                    throw new IllegalStateException("Todos os exemplares já estão na prateleira.");
+                }
+                if (state.compareAndSet(current, current + 1)) {
+                    return null;
+                }
+            }
+        }
+    }
+
+    /**
+     * Altera o número de exemplares. Os exemplares acrescentados são entregues às reservas em espera
+     * e os restantes vão para a prateleira; só podem ser retirados exemplares que estejam na prateleira.
+     * Não pode ser chamado ao mesmo tempo que {@link #returnCopy()}, mas pode ao mesmo tempo que
+     * {@link #tryCheckout()}: os exemplares retirados saem da prateleira todos no mesmo compare-and-set.
+     *
+     * @param newCopies O novo número de exemplares.
+     * @return As reservas que receberam um exemplar, pela ordem da fila.
+     * @throws IllegalArgumentException Se for preciso retirar exemplares que não estão na prateleira.
+     */
+    public synchronized List<Hold> setCopies(int newCopies) {
+        if (newCopies < 1 || (copies > newCopies && !tryCheckout(copies - newCopies))) {
+            throw new IllegalArgumentException("Só podem ser retirados exemplares que estejam na prateleira.");
+        }
+        List<Hold> granted = new ArrayList<>();
+        if (copies > newCopies) {
+            copies = newCopies;
+        }
+        while (copies < newCopies) {
+            copies++;
+            Hold hold = returnCopy();
+            if (hold != null) {
+                granted.add(hold);
+            }
+        }
+        return granted;
+    }
+
+    /**
+     * Retorna o número de exemplares do título.
+     *
+     * @return O número de exemplares.
+     */
+    public int copies() {
+        return copies;
+    }
+
+    /**
+     * Retorna o número de exemplares na prateleira.
+     *
+     * @return O número de exemplares disponíveis.
+     */
+    public int onShelf() {
+        return (int) (state.get() & SHELF_MASK);
+    }
+
+    /**
+     * Retorna o número de reservas em espera.
+     *
+     * @return O número de reservas.
+     */
+    public int waiting() {
+        long current = state.get();
+        return current == RETIRED ? 0 : (int) (current >>> 32);
+    }
+
+    /**
+     * Retira o Holding, se ninguém estiver à espera: a partir daí {@link #tryCheckout()} falha sempre.
+     * Os outros métodos que alteram o Holding não podem ser chamados depois disso.
+     *
+     * @return O número de exemplares na prateleira no instante em que foi retirado,
+     *         ou -1 se há reservas em espera ou já tinha sido retirado.
+     */
+    public int retire() {
+        while (true) {
+            long current = state.get();
+            if (current >= WAITER || current == RETIRED) {
+                return -1;
+            }
+            if (state.compareAndSet(current, RETIRED)) {
+                return (int) current;
+            }
+        }
+    }
+
+    /**
+     * Indica se o Holding foi retirado.
+     *
+     * @return true depois de {@link #retire()}.
+     */
+    public boolean isRetired() {
+        return state.get() == RETIRED;
+    }
+
+    /**
+     * Tira vários exemplares da prateleira de uma só vez, se estiverem lá todos.
+     */
+    private boolean tryCheckout(int count) {
+        while (true) {
+            long current = state.get();
+            if ((current & SHELF_MASK) < count) {
+                return false;
+            }
+            if (state.compareAndSet(current, current - count)) {
+                return true;
+            }
+        }
+    }
+
+    /**
+     * Tira a primeira reserva da fila, esperando que a reserva já contada lá chegue.
+     */
+    private Hold takeHold() {
+        Hold hold;
+        while ((hold = queue.poll()) == null) {
+            Thread.onSpinWait();
+            Thread.yield();
+        }
+        return hold;
+    }
+}
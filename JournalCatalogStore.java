@@ -0,0 +1,412 @@
+import java.io.*;
+import java.nio.ByteBuffer;
+import java.nio.file.Files;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.locks.ReentrantLock;
+import java.util.function.Consumer;
+import java.util.zip.CRC32;
+
+/**
+ * Classe que guarda o catálogo com um journal de escrita antecipada.
+ * Cada alteração acrescenta um pequeno registo (operação, autor, título, disponibilidade) ao ficheiro
+ * "BooksFile.journal" em vez de reescrever o catálogo completo. Quando o journal cresce, uma tarefa em segundo
+ * plano junta-o ao ficheiro de livros (a fotografia do catálogo) e descarta os registos já incluídos.
+ * <p>
+ * Cada registo tem um número de sequência e um checksum CRC32. Ao carregar, lê-se a fotografia e depois
+ * aplicam-se os registos do journal com número superior ao indicado no cabeçalho da fotografia; um registo
+ * incompleto ou corrompido (por exemplo, de uma falha a meio de uma escrita) termina a leitura e é descartado.
+ * <p>
+ * Os registos são escritos através de um JournalWriter: as alterações feitas em simultâneo são gravadas
+ * com uma única sincronização do disco, e cada operação só termina depois de o seu registo estar gravado.
+ * <p>
+ * O OffHeapLibrary usa o mesmo formato de registos e de fotografia, e o mesmo JournalWriter, por isso os dois
+ * podem abrir os mesmos ficheiros.
+ * <p>
+ * Os locks mantidos durante escritas em disco são ReentrantLock, e não {@code synchronized}, para que uma virtual
+ * thread à espera do disco não prenda a thread do sistema que a executa. O monitor do próprio objeto só protege
+ * contadores, sem operações bloqueantes.
+ */
+public class JournalCatalogStore implements CatalogStore {
+
+    /**
+     * Número de registos no journal a partir do qual é feita uma compactação.
+     */
+    public static final int DEFAULT_COMPACTION_THRESHOLD = 1000;
+
+    /**
+     * Número máximo de registos gravados em cada sincronização do disco.
+     */
+    public static final int DEFAULT_MAX_BATCH_SIZE = 256;
+
+    /**
+     * Tempo máximo, em milissegundos, que se espera por mais registos antes de sincronizar.
+     * Com 0, junta apenas os registos que chegaram enquanto decorria a sincronização anterior.
+     */
+    public static final long DEFAULT_MAX_WAIT_MILLIS = 0;
+
+    static final byte OP_ADD = 1;
+    static final byte OP_REMOVE = 2;
+    static final byte OP_AVAILABILITY = 3;
+
+    /**
+     * Tamanho máximo aceite para um registo, usado para detetar tamanhos corrompidos.
+     */
+    private static final int MAX_RECORD_SIZE = 1 << 20;
+
+    /**
+     * Registo lido do journal.
+     *
+     * @param sequence O número de sequência do registo.
+     * @param op A operação (adicionar, remover ou alterar a disponibilidade).
+     * @param author O nome do autor do livro.
+     * @param title O título do livro.
+     * @param available A disponibilidade do livro.
+     * @param frame Os bytes do registo tal como estão no ficheiro.
+     */
+    record Entry(long sequence, byte op, String author, String title, boolean available, byte[] frame) {
+    }
+
+    private final File snapshotFile;  // Ficheiro de livros com a última fotografia do catálogo
+    private final File journalFile;   // Ficheiro com os registos posteriores à fotografia
+    private final int compactionThreshold;
+    private final int maxBatchSize;
+    private final long maxWaitMillis;
+    private final CopiesFile copyCounts;  // Número de exemplares dos livros com mais do que um
+
+    private final ReentrantLock compactionLock = new ReentrantLock();  // Garante que só é feita uma compactação de cada vez
+    private final ExecutorService compactor = Executors.newSingleThreadExecutor(runnable -> {
+        Thread thread = new Thread(runnable, "journal-compactor");
+        thread.setDaemon(true);
+        return thread;
+    });
+
+    private JournalWriter journal;       // Acrescenta os registos ao journal, em lotes
+    private long sequence;               // Número de sequência do último registo escrito
+    private long snapshotSequence;       // Número de sequência do último registo incluído na fotografia
+    private int pendingRecords;          // Registos no journal ainda não incluídos na fotografia
+    private volatile boolean compacting; // Se existe uma compactação agendada ou em curso
+
+    /**
+     * Construtor da classe JournalCatalogStore.
+     *
+     * @param fileName Nome do ficheiro de livros; o journal fica no mesmo nome com a extensão ".journal".
+     */
+    public JournalCatalogStore(String fileName) {
+        this(fileName, DEFAULT_COMPACTION_THRESHOLD);
+    }
+
+    /**
+     * Construtor da classe JournalCatalogStore com um limite de compactação específico.
+     *
+     * @param fileName Nome do ficheiro de livros; o journal fica no mesmo nome com a extensão ".journal".
+     * @param compactionThreshold Número de registos no journal a partir do qual é feita uma compactação.
+     */
+    public JournalCatalogStore(String fileName, int compactionThreshold) {
+        this(fileName, compactionThreshold, DEFAULT_MAX_BATCH_SIZE, DEFAULT_MAX_WAIT_MILLIS);
+    }
+
+    /**
+     * Construtor da classe JournalCatalogStore com um limite de compactação e um agrupamento de escritas específicos.
+     *
+     * @param fileName Nome do ficheiro de livros; o journal fica no mesmo nome com a extensão ".journal".
+     * @param compactionThreshold Número de registos no journal a partir do qual é feita uma compactação.
+     * @param maxBatchSize Número máximo de registos gravados em cada sincronização (1 = uma sincronização por operação).
+     * @param maxWaitMillis Tempo máximo, em milissegundos, que se espera por mais registos antes de sincronizar.
+     */
+    public JournalCatalogStore(String fileName, int compactionThreshold, int maxBatchSize, long maxWaitMillis) {
+        this.snapshotFile = new File(fileName);
+        this.journalFile = new File(fileName + ".journal");
+        this.compactionThreshold = compactionThreshold;
+        this.maxBatchSize = maxBatchSize;
+        this.maxWaitMillis = maxWaitMillis;
+        this.copyCounts = new CopiesFile(snapshotFile);
+    }
+
+    /**
+     * Carrega a fotografia do catálogo e aplica os registos do journal que ainda não inclui.
+     *
+     * @param library A biblioteca onde os livros são carregados.
+     * @throws IOException Se ocorrer um erro ao ler os ficheiros.
+     */
+    @Override
+    public synchronized void load(Library library) throws IOException {
+        // Ficheiros temporários de uma compactação interrompida não têm informação necessária
+        Files.deleteIfExists(new File(snapshotFile.getPath() + ".tmp").toPath());
+        Files.deleteIfExists(new File(journalFile.getPath() + ".tmp").toPath());
+
+        snapshotSequence = TextCatalogStore.read(snapshotFile, library);
+        sequence = snapshotSequence;
+        pendingRecords = 0;
+
+        long validLength = readEntries(journalFile, entry -> {
+            if (entry.sequence() <= snapshotSequence) {
+                return;
+            }
+            switch (entry.op()) {
+                case OP_ADD -> library.insertBook(entry.author(), entry.title(), entry.available());
+                case OP_REMOVE -> library.deleteBook(entry.author(), entry.title());
+                default -> {
+                    Book book = library.findBook(entry.author(), entry.title());
+                    if (book != null) {
+                        book.setAvailable(entry.available());
+                    }
+                }
+            }
+            sequence = entry.sequence();
+            pendingRecords++;
+        });
+
+        // Descarta o registo incompleto deixado por uma falha a meio de uma escrita
+        journal = new JournalWriter(journalFile, validLength, maxBatchSize, maxWaitMillis, "journal-writer");
+        copyCounts.load(library);
+    }
+
+    /**
+     * Junta imediatamente o journal à fotografia do catálogo.
+     *
+     * @param library A biblioteca a guardar.
+     * @throws IOException Se ocorrer um erro ao escrever os ficheiros.
+     */
+    @Override
+    public void save(Library library) throws IOException {
+        long upTo;
+        synchronized (this) {
+            upTo = sequence;
+        }
+        CatalogSnapshot snapshot = library.snapshot();
+        compact(snapshot.authors(), TextCatalogStore.booksOf(snapshot), upTo);
+    }
+
+    @Override
+    public void bookAdded(Library library, String author, Book book) throws IOException {
+        append(OP_ADD, author, book);
+        compactIfNeeded(library);
+    }
+
+    /**
+     * Coloca na fila um registo por livro antes de esperar, para que sejam gravados em poucas sincronizações.
+     */
+    @Override
+    public void booksAdded(Library library, List<Book> books) throws IOException {
+        List<CompletableFuture<Void>> pending = new ArrayList<>(books.size());
+        for (Book book : books) {
+            pending.add(enqueue(OP_ADD, book.getAuthor(), book));
+        }
+        for (CompletableFuture<Void> done : pending) {
+            GroupCommitWriter.await(done);
+        }
+        compactIfNeeded(library);
+    }
+
+    @Override
+    public void bookRemoved(Library library, String author, Book book) throws IOException {
+        append(OP_REMOVE, author, book);
+        compactIfNeeded(library);
+    }
+
+    @Override
+    public void availabilityChanged(Library library, String author, Book book) throws IOException {
+        append(OP_AVAILABILITY, author, book);
+        compactIfNeeded(library);
+    }
+
+    @Override
+    public void copiesChanged(Library library, String author, Book book, int copies) throws IOException {
+        copyCounts.set(author, book.getTitle(), copies);
+    }
+
+    /**
+     * Espera pelo fim da compactação em curso e fecha o journal.
+     *
+     * @throws IOException Se ocorrer um erro ao fechar o ficheiro.
+     */
+    @Override
+    public void close() throws IOException {
+        compactor.shutdown();
+        try {
+            compactor.awaitTermination(1, TimeUnit.MINUTES);
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+        journal.close();
+    }
+
+    /**
+     * Acrescenta um registo ao journal e espera que fique gravado em disco.
+     * O número de sequência é atribuído ao colocar o registo na fila, por isso os registos
+     * são gravados pela mesma ordem dos seus números.
+     *
+     * @param op A operação registada.
+     * @param author Nome do autor do livro.
+     * @param book O livro alterado.
+     * @throws IOException Se ocorrer um erro ao escrever no journal.
+     */
+    private void append(byte op, String author, Book book) throws IOException {
+        GroupCommitWriter.await(enqueue(op, author, book));
+    }
+
+    /**
+     * Coloca um registo na fila do journal, com o próximo número de sequência, sem esperar.
+     *
+     * @param op A operação registada.
+     * @param author Nome do autor do livro.
+     * @param book O livro alterado.
+     * @return Um future completado quando o registo estiver gravado em disco.
+     * @throws IOException Se ocorrer um erro ao codificar o registo.
+     */
+    private synchronized CompletableFuture<Void> enqueue(byte op, String author, Book book) throws IOException {
+        ByteBuffer frame = encode(sequence + 1, op, author, book.getTitle(), book.isAvailable());
+        sequence++;
+        pendingRecords++;
+        return journal.submit(frame);
+    }
+
+    /**
+     * Agenda uma compactação em segundo plano quando o journal já tem registos suficientes.
+     * A cópia do catálogo é feita já, na thread que alterou a biblioteca, para corresponder exatamente
+     * aos registos escritos até agora.
+     *
+     * @param library A biblioteca alterada.
+     */
+    private void compactIfNeeded(Library library) {
+        long upTo;
+        synchronized (this) {
+            if (compacting || pendingRecords < compactionThreshold) {
+                return;
+            }
+            compacting = true;
+            upTo = sequence;
+        }
+
+        CatalogSnapshot snapshot = library.snapshot();
+        String[] authors = snapshot.authors();
+        Book[][] books = new Book[authors.length][];
+        for (int i = 0; i < authors.length; i++) {
+            Book[] authorBooks = snapshot.segment(i);
+            books[i] = new Book[authorBooks.length];
+            for (int j = 0; j < authorBooks.length; j++) {
+                books[i][j] = new Book(authorBooks[j].getTitle(), authorBooks[j].isAvailable());
+            }
+        }
+
+        compactor.execute(() -> {
+            try {
+                compact(authors, books, upTo);
+            } catch (IOException e) {
+                LibraryLog.log(LibraryLog.Level.ERROR, "Erro ao compactar journal: %s", e.getMessage());
+            } finally {
+                compacting = false;
+            }
+        });
+    }
+
+    /**
+     * Escreve a fotografia do catálogo e retira do journal os registos que esta já inclui.
+     *
+     * @param authors Array com os nomes dos autores.
+     * @param books Array bidimensional com os livros de cada autor.
+     * @param upTo Número de sequência do último registo incluído na fotografia.
+     * @throws IOException Se ocorrer um erro ao escrever os ficheiros.
+     */
+    private void compact(String[] authors, Book[][] books, long upTo) throws IOException {
+        compactionLock.lock();
+        try {
+            if (upTo <= snapshotSequence) {
+                return;
+            }
+            TextCatalogStore.write(snapshotFile, authors, books, upTo, true);
+            snapshotSequence = upTo;
+
+            journal.retainAfter(upTo);
+            synchronized (this) {
+                // Ficam pendentes os registos posteriores à fotografia, estejam no journal ou ainda na fila
+                pendingRecords = (int) (sequence - upTo);
+            }
+        } finally {
+            compactionLock.unlock();
+        }
+    }
+
+    /**
+     * Codifica um registo do journal: tamanho, checksum e conteúdo.
+     *
+     * @return Um buffer pronto a escrever.
+     */
+    static ByteBuffer encode(long sequence, byte op, String author, String title, boolean available) throws IOException {
+        ByteArrayOutputStream bytes = new ByteArrayOutputStream(64);
+        DataOutputStream data = new DataOutputStream(bytes);
+        data.writeLong(sequence);
+        data.writeByte(op);
+        data.writeUTF(author);
+        data.writeUTF(title);
+        data.writeBoolean(available);
+        byte[] payload = bytes.toByteArray();
+
+        CRC32 crc = new CRC32();
+        crc.update(payload);
+
+        ByteBuffer frame = ByteBuffer.allocate(8 + payload.length);
+        frame.putInt(payload.length);
+        frame.putInt((int) crc.getValue());
+        frame.put(payload);
+        frame.flip();
+        return frame;
+    }
+
+    /**
+     * Lê os registos válidos de um journal, pela ordem em que foram escritos.
+     * A leitura termina no fim do ficheiro ou no primeiro registo incompleto ou com checksum errado.
+     *
+     * @param file O ficheiro do journal.
+     * @param consumer Recebe cada registo válido.
+     * @return O tamanho, em bytes, da parte válida do journal.
+     * @throws IOException Se ocorrer um erro ao ler o ficheiro.
+     */
+    static long readEntries(File file, Consumer<Entry> consumer) throws IOException {
+        if (!file.exists()) {
+            return 0;
+        }
+
+        long validLength = 0;
+        try (DataInputStream input = new DataInputStream(new BufferedInputStream(new FileInputStream(file)))) {
+            while (true) {
+                byte[] payload;
+                int checksum;
+                try {
+                    int length = input.readInt();
+                    if (length <= 0 || length > MAX_RECORD_SIZE) {
+                        break;
+                    }
+                    checksum = input.readInt();
+                    payload = new byte[length];
+                    input.readFully(payload);
+                } catch (EOFException e) {
+                    break;
+                }
+
+                CRC32 crc = new CRC32();
+                crc.update(payload);
+                if ((int) crc.getValue() != checksum) {
+                    break;
+                }
+
+                DataInputStream data = new DataInputStream(new ByteArrayInputStream(payload));
+                long entrySequence = data.readLong();
+                byte op = data.readByte();
+                String author = data.readUTF();
+                String title = data.readUTF();
+                boolean available = data.readBoolean();
+
+                byte[] frame = ByteBuffer.allocate(8 + payload.length).putInt(payload.length).putInt(checksum).put(payload).array();
+                consumer.accept(new Entry(entrySequence, op, author, title, available, frame));
+                validLength += frame.length;
+            }
+        }
+        return validLength;
+    }
+}
@@ -0,0 +1,184 @@
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.Files;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
+import java.util.List;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.locks.ReentrantLock;
+
+/**
+ * Classe que acrescenta registos a um ficheiro de journal, usada pelo JournalCatalogStore e pelo OffHeapLibrary.
+ * Os registos são gravados através de um GroupCommitWriter: os submetidos em simultâneo ficam com uma única
+ * sincronização do disco.
+ * <p>
+ * Se a escrita ou a sincronização de um lote falharem, o journal é cortado no início desse lote, para que os registos
+ * seguintes não fiquem depois de um lote incompleto (que terminaria a leitura ao carregar e os faria perder).
+ * Se nem isso for possível, o journal recusa todas as escritas seguintes.
+ * <p>
+ * O canal é protegido por um ReentrantLock, e não por {@code synchronized}, para que uma virtual thread à espera
+ * do disco não prenda a thread do sistema que a executa.
+ */
+public class JournalWriter {
+
+    private final File file;
+    private final ReentrantLock channelLock = new ReentrantLock();  // Protege o canal e o estado de erro
+    private final GroupCommitWriter writer;
+    private FileChannel channel;
+    private IOException broken;  // Erro que deixou o journal num estado desconhecido, ou null
+
+    /**
+     * Construtor da classe JournalWriter. Abre o journal e descarta o que estiver depois da parte válida,
+     * como o registo incompleto deixado por uma falha a meio de uma escrita.
+     *
+     * @param file O ficheiro do journal, criado se não existir.
+     * @param validLength O tamanho da parte válida do journal, devolvido por {@link JournalCatalogStore#readEntries}.
+     * @param maxBatchSize Número máximo de registos gravados em cada sincronização.
+     * @param maxWaitMillis Tempo máximo, em milissegundos, que se espera por mais registos antes de sincronizar.
+     * @param threadName Nome da thread de escrita.
+     * @throws IOException Se ocorrer um erro ao abrir o ficheiro.
+     */
+    public JournalWriter(File file, long validLength, int maxBatchSize, long maxWaitMillis, String threadName)
+            throws IOException {
+        this.file = file;
+        channel = FileChannel.open(file.toPath(), StandardOpenOption.CREATE, StandardOpenOption.WRITE);
+        channel.truncate(validLength);
+        channel.position(validLength);
+        writer = new GroupCommitWriter(this::writeAndSync, maxBatchSize, maxWaitMillis, threadName);
+    }
+
+    /**
+     * Coloca um registo na fila de escrita, sem esperar. Os registos são gravados pela ordem em que são submetidos,
+     * por isso quem atribui números de sequência deve submeter cada registo no mesmo lock em que atribui o número.
+     *
+     * @param frame O registo codificado, por exemplo com {@link JournalCatalogStore#encode}.
+     * @return Um future completado quando o registo estiver gravado em disco; ver {@link GroupCommitWriter#await}.
+     */
+    public CompletableFuture<Void> submit(ByteBuffer frame) {
+        return writer.submit(frame);
+    }
+
+    /**
+     * Retorna o tamanho atual do journal.
+     *
+     * @return O tamanho do ficheiro, em bytes.
+     * @throws IOException Se ocorrer um erro ao ler o tamanho.
+     */
+    public long size() throws IOException {
+        channelLock.lock();
+        try {
+            return channel.size();
+        } finally {
+            channelLock.unlock();
+        }
+    }
+
+    /**
+     * Esvazia o journal, depois de todos os seus registos terem sido incluídos numa fotografia do catálogo.
+     * Os registos ainda na fila são gravados depois, no journal vazio.
+     *
+     * @throws IOException Se ocorrer um erro ao cortar o ficheiro.
+     */
+    public void clear() throws IOException {
+        channelLock.lock();
+        try {
+            channel.truncate(0);
+            channel.force(true);
+        } finally {
+            channelLock.unlock();
+        }
+    }
+
+    /**
+     * Reescreve o journal mantendo apenas os registos com número de sequência superior ao dado,
+     * e substitui o ficheiro de uma só vez. As escritas esperam enquanto o journal é reescrito.
+     *
+     * @param upTo Número de sequência do último registo a descartar.
+     * @throws IOException Se ocorrer um erro ao escrever o journal.
+     */
+    public void retainAfter(long upTo) throws IOException {
+        File temp = new File(file.getPath() + ".tmp");
+
+        channelLock.lock();
+        try {
+            try (FileOutputStream output = new FileOutputStream(temp)) {
+                JournalCatalogStore.readEntries(file, entry -> {
+                    if (entry.sequence() > upTo) {
+                        try {
+                            output.write(entry.frame());
+                        } catch (IOException e) {
+                            throw new UncheckedIOException(e);
+                        }
+                    }
+                });
+                output.getFD().sync();
+            } catch (UncheckedIOException e) {
+                throw e.getCause();
+            }
+
+            channel.close();
+            Files.move(temp.toPath(), file.toPath(), StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+            channel = FileChannel.open(file.toPath(), StandardOpenOption.WRITE, StandardOpenOption.APPEND);
+        } finally {
+            channelLock.unlock();
+        }
+    }
+
+    /**
+     * Grava os registos que ainda estão na fila e fecha o journal.
+     *
+     * @throws IOException Se ocorrer um erro ao fechar o ficheiro.
+     */
+    public void close() throws IOException {
+        writer.close();
+        channelLock.lock();
+        try {
+            channel.close();
+        } finally {
+            channelLock.unlock();
+        }
+    }
+
+    /**
+     * Escreve um lote de registos no journal com uma única sincronização do disco e, se falhar,
+     * corta o journal no início do lote. Chamado pela thread do GroupCommitWriter.
+     *
+     * @param records Os registos a escrever.
+     * @throws IOException Se ocorrer um erro ao escrever no journal.
+     */
+    private void writeAndSync(List<ByteBuffer> records) throws IOException {
+        channelLock.lock();
+        try {
+            if (broken != null) {
+                throw new IOException("Journal inutilizável depois de um erro de escrita.", broken);
+            }
+            long start = channel.size();
+            try {
+                ByteBuffer[] buffers = records.toArray(new ByteBuffer[0]);
+                long remaining = 0;
+                for (ByteBuffer buffer : buffers) {
+                    remaining += buffer.remaining();
+                }
+                while (remaining > 0) {
+                    remaining -= channel.write(buffers);
+                }
+                channel.force(false);
+            } catch (IOException e) {
+                try {
+                    channel.truncate(start);
+                    channel.force(false);
+                } catch (IOException truncateError) {
+                    e.addSuppressed(truncateError);
+                    broken = e;
+                }
+                throw e;
+            }
+        } finally {
+            channelLock.unlock();
+        }
+    }
+}
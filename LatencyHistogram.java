@@ -0,0 +1,132 @@
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicLongArray;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * Histograma de latências em nanossegundos, com erro relativo inferior a 3%, para calcular percentis como p99.
+ * <p>
+ * Os valores são contados em intervalos de largura crescente: 32 intervalos por cada potência de dois,
+ * por isso o histograma ocupa sempre o mesmo espaço, qualquer que seja o número de valores.
+ * Pode ser usado por várias threads ao mesmo tempo; registar um valor é um incremento atómico.
+ */
+public class LatencyHistogram {
+
+    private static final int SUB_BUCKET_BITS = 5;
+    private static final int SUB_BUCKETS = 1 << SUB_BUCKET_BITS;
+    private static final int BUCKETS = (64 - SUB_BUCKET_BITS) * SUB_BUCKETS;
+
+    private final AtomicLongArray counts = new AtomicLongArray(BUCKETS);
+    private final LongAdder total = new LongAdder();
+    private final LongAdder sum = new LongAdder();
+    private final AtomicLong max = new AtomicLong();
+
+    /**
+     * Regista uma latência.
+     *
+     * @param nanos A latência em nanossegundos; valores negativos contam como 0.
+     */
+    public void record(long nanos) {
+        long value = Math.max(0, nanos);
+        counts.incrementAndGet(bucketOf(value));
+        total.increment();
+        sum.add(value);
+        if (value > max.get()) {
+            max.accumulateAndGet(value, Math::max);
+        }
+    }
+
+    /**
+     * Junta a este histograma os valores de outro.
+     *
+     * @param other O outro histograma.
+     */
+    public void add(LatencyHistogram other) {
+        for (int i = 0; i < BUCKETS; i++) {
+            long count = other.counts.get(i);
+            if (count != 0) {
+                counts.addAndGet(i, count);
+            }
+        }
+        total.add(other.total.sum());
+        sum.add(other.sum.sum());
+        max.accumulateAndGet(other.max.get(), Math::max);
+    }
+
+    /**
+     * Retorna o número de valores registados.
+     *
+     * @return O número de valores.
+     */
+    public long count() {
+        return total.sum();
+    }
+
+    /**
+     * Retorna a média dos valores registados.
+     *
+     * @return A média em nanossegundos, ou 0 sem valores.
+     */
+    public double mean() {
+        long count = total.sum();
+        return count == 0 ? 0 : (double) sum.sum() / count;
+    }
+
+    /**
+     * Retorna o maior valor registado.
+     *
+     * @return O maior valor em nanossegundos.
+     */
+    public long max() {
+        return max.get();
+    }
+
+    /**
+     * Retorna o valor abaixo do qual está uma dada fração dos valores registados.
+     *
+     * @param fraction A fração, entre 0 e 1 (por exemplo, 0.99 para o p99).
+     * @return O limite superior do intervalo onde está o percentil, em nanossegundos, ou 0 sem valores.
+     */
+    public long percentile(double fraction) {
+        long count = total.sum();
+        if (count == 0) {
+            return 0;
+        }
+        long rank = Math.max(1, (long) Math.ceil(fraction * count));
+        long seen = 0;
+        for (int i = 0; i < BUCKETS; i++) {
+            seen += counts.get(i);
+            if (seen >= rank) {
+                return Math.min(highestValueIn(i), max.get());
+            }
+        }
+        return max.get();
+    }
+
+    /**
+     * Descreve os percentis habituais em microssegundos, como "p50 12.3 µs, p99 45.6 µs, p99.9 78.9 µs".
+     *
+     * @return A descrição.
+     */
+    public String summary() {
+        return String.format("p50 %.1f µs, p99 %.1f µs, p99.9 %.1f µs, máx %.1f µs",
+                percentile(0.5) / 1e3, percentile(0.99) / 1e3, percentile(0.999) / 1e3, max() / 1e3);
+    }
+
+    /**
+     * Calcula o intervalo de um valor: os valores até 63 têm um intervalo cada; acima disso, os 6 bits mais
+     * significativos escolhem o intervalo dentro da potência de dois.
+     */
+    private static int bucketOf(long value) {
+        int shift = Math.max(0, 64 - Long.numberOfLeadingZeros(value) - (SUB_BUCKET_BITS + 1));
+        return shift * SUB_BUCKETS + (int) (value >>> shift);
+    }
+
+    /**
+     * Calcula o maior valor que cabe num intervalo.
+     */
+    private static long highestValueIn(int bucket) {
+        int shift = Math.max(0, bucket / SUB_BUCKETS - 1);
+        long base = bucket - (long) shift * SUB_BUCKETS;
+        return ((base + 1) << shift) - 1;
+    }
+}
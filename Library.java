@@ -1,121 +1,294 @@
 import java.io.*;
+import java.util.ArrayList;
 import java.util.Arrays;
+import java.util.BitSet;
+import java.util.Collection;
+import java.util.List;
+import java.util.Map;
+import java.util.Objects;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.locks.ReentrantLock;
+import java.util.concurrent.locks.ReentrantReadWriteLock;
 
 /**
  * Classe que representa a biblioteca.
  * Gere os livros e autores, e permite adicionar, remover, requisitar e devolver livros.
- * Carrega e guarda as informações dos livros a partir de um ficheiro.
+ * Carrega e guarda as informações dos livros através de um CatalogStore (por omissão, o ficheiro "BooksFile").
+ * <p>
+ * Pode ser partilhada por várias threads. Cada autor corresponde a um de vários locks ("stripes"), que ordena
+ * as alterações aos seus livros e a respetiva persistência, por isso operações sobre autores diferentes não
+ * esperam umas pelas outras. Alterações à estrutura dos arrays (adicionar ou remover livros) usam ainda o lock
+ * de escrita do catálogo; requisitar e devolver usam apenas o de leitura.
+ * <p>
+ * Cada livro recebe um identificador numérico denso e a sua disponibilidade fica num AvailabilityBitmap,
+ * por isso requisitar é um único compare-and-set e contar os livros disponíveis é uma contagem de bits.
+ * <p>
+ * Os autores ficam num array com capacidade de reserva e os livros de cada autor numa BookList,
+ * por isso adicionar e remover livros não copia os arrays a cada operação.
+ * <p>
+ * Objetos registados com {@link #addListener} (por exemplo, um SearchIndex) são avisados de cada alteração.
+ * <p>
+ * As leituras da lista de autores e dos livros de cada autor não usam locks: leem a CatalogSnapshot atual,
+ * uma versão imutável do catálogo que as alterações substituem por uma nova, copiando apenas o que mudou.
+ * Quem precisa de várias leituras consistentes entre si usa {@link #snapshot()} diretamente.
+ * <p>
+ * As alterações retornam um LibraryResult em vez de escreverem no terminal; as mensagens sobre cada operação
+ * vão para o LibraryLog, no nível DEBUG, e só são criadas se esse nível estiver ativo.
+ * <p>
+ * Em modo compacto, os livros são CompactBook: o autor é um id de um AuthorDictionary e o título fica em UTF-8
+ * numa TitleArena partilhada, o que reduz a memória ocupada por catálogos com milhões de livros
+ * (ver a secção "footprint" do LibraryBenchmark), à custa de criar uma String a cada {@link Book#getTitle()}.
+ * <p>
+ * Cada requisição regista um empréstimo no LoanLedger da biblioteca, com quem requisitou e o prazo de devolução,
+ * e cada devolução termina-o; os lembretes e os atrasos são avisados pelo próprio LoanLedger.
+ * <p>
+ * Por omissão, cada livro é um só exemplar. Com {@link #setCopies} ou com uma reserva ({@link #holdBook}), o livro
+ * passa a ter um Holding, com o número de exemplares na prateleira e a fila de reservas: requisitar decrementa
+ * o contador só com o lock de leitura do catálogo, sem o lock do autor, e devolver entrega o exemplar à primeira
+ * reserva na mesma operação atómica. O livro só fica indisponível quando sai o último exemplar; só nessa altura
+ * a requisição usa o lock do autor, para marcar o livro pela mesma ordem que as devoluções. O número de exemplares é guardado pela persistência
+ * ({@link CatalogStore#copiesChanged}, num CopiesFile ao lado do ficheiro de livros); as reservas ficam apenas em
+ * memória, como os empréstimos, e o ficheiro de livros guarda apenas se há algum exemplar disponível.
+ * <p>
+ * Com um LibraryMetrics ativo, cada operação é contada e a sua latência registada, desde a espera pelos locks
+ * até ao fim da escrita, e as operações sem efeito são contadas pelo motivo da falha.
+ * <p>
+ * Implementa LibraryService, tal como o RemoteLibrary, por isso os utilizadores podem usar uma biblioteca
+ * deste processo ou a de um LibraryServer partilhado.
  */
-public class Library {
+public class Library implements LibraryService {
 
-    private String[] authors;  // Array para guardar os autores
-    private Book[][] books;    // Array bidimensional para guardar os livros, cada autor tem os seus livros
+    private String[] authors;  // Array para guardar os autores, com capacidade de reserva
+    private BookList[] books;  // Livros de cada autor, na mesma posição do autor
+    private int authorCount;   // Número de autores nos arrays
+    private final CatalogIndex index = new CatalogIndex();  // Índices de autores e de livros por (autor, título)
+    private final CatalogStore store;  // Forma de persistência usada para carregar e guardar os livros
+
+    private static final int STRIPES = 64;  // Número de locks pelos quais os autores são repartidos
+    private final ReentrantLock[] stripes = new ReentrantLock[STRIPES];
+    private final ReentrantReadWriteLock catalogLock = new ReentrantReadWriteLock();  // Protege os arrays e o índice
+
+    private final AvailabilityBitmap availability = new AvailabilityBitmap(64);  // Disponibilidade de cada livro por id
+    private Book[] booksById = new Book[64];  // Livro correspondente a cada id
+    private int nextId;                       // Próximo id ainda nunca usado
+    private int[] freeIds = new int[16];      // Ids de livros removidos, para reutilizar
+    private int freeIdCount;
+
+    private final List<LibraryListener> listeners = new CopyOnWriteArrayList<>();  // Avisados de cada alteração
+    private final LibraryMetrics metrics;  // Contagens e latências das operações, desativadas por omissão
+    private final CompactStorage compact;  // Autores e títulos dos livros em modo compacto, ou null
+    private final LoanLedger loans;        // Empréstimos ativos, com os prazos de devolução
+    private final Map<Book, Holding> holdings = new ConcurrentHashMap<>();  // Livros com vários exemplares ou reservas
+
+    private volatile CatalogSnapshot snapshot = CatalogSnapshot.EMPTY;  // Última versão publicada do catálogo
+    private boolean loading;         // Durante o carregamento, a versão só é publicada no fim
+    private BitSet changedAuthors;   // Autores alterados por addBooks, publicados de uma só vez no fim
 
     /**
      * Construtor da classe Library.
-     * Inicializa os arrays de autores e livros e carrega tudo a partir de um ficheiro.
+     * Inicializa os arrays de autores e livros e carrega tudo a partir do ficheiro "BooksFile".
      */
     public Library() {
-        authors = new String[0];
-        books = new Book[0][0];
+        this("BooksFile");
+    }
+
+    /**
+     * Construtor da classe Library que usa um ficheiro de livros específico.
+     *
+     * @param fileName Nome do ficheiro de onde os livros são carregados e onde são guardados.
+     */
+    public Library(String fileName) {
+        this(new TextCatalogStore(fileName));
+    }
+
+    /**
+     * Construtor da classe Library que usa uma forma de persistência específica.
+     *
+     * @param store A forma de persistência de onde os livros são carregados e onde são guardados.
+     */
+    public Library(CatalogStore store) {
+        this(store, LibraryMetrics.DISABLED);
+    }
+
+    /**
+     * Construtor da classe Library que usa uma forma de persistência específica e regista métricas das operações.
+     *
+     * @param store A forma de persistência de onde os livros são carregados e onde são guardados.
+     * @param metrics As métricas onde são contadas e medidas as operações, incluindo o carregamento inicial.
+     */
+    public Library(CatalogStore store, LibraryMetrics metrics) {
+        this(store, metrics, false);
+    }
+
+    /**
+     * Construtor da classe Library que permite escolher o modo compacto.
+     *
+     * @param store A forma de persistência de onde os livros são carregados e onde são guardados.
+     * @param metrics As métricas onde são contadas e medidas as operações, incluindo o carregamento inicial.
+     * @param compact true para guardar os livros em modo compacto (CompactBook).
+     */
+    public Library(CatalogStore store, LibraryMetrics metrics, boolean compact) {
+        this(store, metrics, compact, new LoanLedger());
+    }
+
+    /**
+     * Construtor da classe Library que usa um registo de empréstimos específico, por exemplo com um ManualClock.
+     *
+     * @param store A forma de persistência de onde os livros são carregados e onde são guardados.
+     * @param metrics As métricas onde são contadas e medidas as operações, incluindo o carregamento inicial.
+     * @param compact true para guardar os livros em modo compacto (CompactBook).
+     * @param loans O registo onde as requisições e as devoluções são registadas como empréstimos.
+     */
+    public Library(CatalogStore store, LibraryMetrics metrics, boolean compact, LoanLedger loans) {
+        this.store = store;
+        this.metrics = metrics;
+        this.compact = compact ? new CompactStorage() : null;
+        this.loans = loans;
+        for (int i = 0; i < STRIPES; i++) {
+            stripes[i] = new ReentrantLock();
+        }
+        authors = new String[16];
+        books = new BookList[16];
         try {
             loadBooks();
         } catch (IOException e) {
-            System.err.println("Erro ao carregar livros: " + e.getMessage());
+            LibraryLog.log(LibraryLog.Level.ERROR, "Erro ao carregar livros: %s", e.getMessage());
+            LibraryLog.flush(1_000);
             System.exit(1);
         }
     }
 
     /**
-     * Método para carregar os livros a partir de um ficheiro.
-     * Se o ficheiro não existir, cria um novo ficheiro vazio.
+     * Método para carregar os livros a partir da persistência configurada.
+     * No fim, mostra quantos livros foram carregados e a que ritmo.
      *
-     * @throws IOException Se ocorrer um erro ao ler o ficheiro ou a criar.
+     * @throws IOException Se ocorrer um erro ao ler os livros.
      */
     private void loadBooks() throws IOException {
-        File file = new File("BooksFile");
+        long start = System.nanoTime();
+        loading = true;
+        try {
+            store.load(this);
 
-        // Verifica se o ficheiro existe, se não, cria um vazio
-        if (!file.exists()) {
-            boolean fileCreated = file.createNewFile();
-            if (!fileCreated) {
-                throw new IOException("Erro a criar ficheiro.");
+            Book[][] segments = new Book[authorCount][];
+            for (int i = 0; i < authorCount; i++) {
+                segments[i] = books[i].toArray();
             }
+            snapshot = CatalogSnapshot.of(1, Arrays.copyOf(authors, authorCount), segments);
+        } catch (IOException e) {
+            metrics.writeError();
+            throw e;
+        } finally {
+            loading = false;
+            metrics.record(LibraryMetrics.Operation.LOAD, start);
         }
+        long elapsed = System.nanoTime() - start;
 
-        String[] tempAuthors = new String[100];
-        Book[][] tempBooks = new Book[100][];
-        int authorCount = 0;
-
-        BufferedReader reader = new BufferedReader(new FileReader(file));
-        String line;
+        long count = 0;
+        for (int i = 0; i < authorCount; i++) {
+            count += books[i].size();
+        }
+        LibraryLog.log(LibraryLog.Level.INFO, "Carregados %d livros em %.1f ms (%.0f livros/s).",
+                count, elapsed / 1e6, count / Math.max(elapsed / 1e9, 1e-9));
+    }
 
-        // Lê cada linha do ficheiro e processa os dados
-        while ((line = reader.readLine()) != null) {
-            String[] parts = line.split(";");
-            if (parts.length == 3) {
-                String author = parts[0].trim();
-                String title = parts[1].trim();
-                boolean available = Boolean.parseBoolean(parts[2].trim());
+    /**
+     * Substitui o catálogo em memória pelo catálogo completo lido por uma forma de persistência.
+     * Atribui os ids de disponibilidade a todos os livros e reconstrói os índices, tudo em tempo linear.
+     * Em modo compacto, os livros lidos por um CatalogBuilder de {@link #newCatalogBuilder()} já são CompactBook
+     * e entram diretamente; os livros normais de outro CatalogBuilder são substituídos por CompactBook, e os lidos
+     * continuam associados ao mesmo id, porque a forma de persistência pode usá-los depois (o MappedCatalogStore
+     * associa cada id ao seu registo), mas deixam de fazer parte da biblioteca.
+     * Só é usado durante o carregamento.
+     *
+     * @param builder O catálogo lido.
+     */
+    void install(CatalogBuilder builder) {
+        String[] loadedAuthors = builder.authors();
+        Book[][] loadedBooks = builder.books();
 
-                int authorIndex = findAuthorIndex(tempAuthors, author, authorCount);
+        authorCount = loadedAuthors.length;
+        authors = Arrays.copyOf(loadedAuthors, Math.max(16, authorCount));
+        books = new BookList[authors.length];
 
-                if (authorIndex == -1) {
-                    // Novo autor encontrado
-                    tempAuthors[authorCount] = author;
-                    tempBooks[authorCount] = new Book[100];
-                    authorIndex = authorCount;
-                    authorCount++;
+        int total = (int) builder.size();
+        availability.ensureCapacity(total);
+        booksById = new Book[Math.max(64, total)];
+        freeIdCount = 0;
+        nextId = 0;
+        for (int i = 0; i < authorCount; i++) {
+            Book[] authorBooks = loadedBooks[i];
+            for (int j = 0; j < authorBooks.length; j++) {
+                Book book = authorBooks[j];
+                if (compact != null && !(book instanceof CompactBook)) {
+                    book.bind(availability, nextId);
+                    book = compact.newBook(loadedAuthors[i], book.getTitle(), book.isAvailable());
+                    authorBooks[j] = book;
+                } else if (compact == null) {
+                    book.setAuthor(loadedAuthors[i]);
                 }
-
-                // Adiciona livro para o autor
-                int bookCount = getBookCount(tempBooks[authorIndex]);
-                tempBooks[authorIndex][bookCount] = new Book(title, available);
+                booksById[nextId] = book;
+                book.bind(availability, nextId++);
             }
+            books[i] = new BookList(loadedBooks[i], loadedBooks[i].length);
         }
-        reader.close();
 
-        authors = new String[authorCount];
-        books = new Book[authorCount][];
+        index.rebuild(loadedAuthors, loadedBooks);
+    }
 
-        for (int i = 0; i < authorCount; i++) {
-            authors[i] = tempAuthors[i];
-            books[i] = new Book[getBookCount(tempBooks[i])];
-            System.arraycopy(tempBooks[i], 0, books[i], 0, books[i].length);
-        }
+    /**
+     * Cria um CatalogBuilder para carregar o catálogo desta biblioteca: em modo compacto, os livros são criados
+     * logo no seu CompactStorage, sem passar por livros normais. Usado pelas formas de persistência ao carregar.
+     *
+     * @return O CatalogBuilder criado.
+     */
+    CatalogBuilder newCatalogBuilder() {
+        return new CatalogBuilder(compact);
     }
 
     /**
-     * Método que encontra o índice de um autor no array de autores.
+     * Obtém o lock correspondente a um autor.
      *
-     * @param authors Lista de autores.
-     * @param author Nome do autor a procurar.
-     * @param count Número de autores atualmente na lista.
-     * @return O índice do autor ou -1 se o autor não for encontrado.
+     * @param author Nome do autor.
+     * @return O lock usado para as alterações aos livros do autor.
      */
-    private int findAuthorIndex(String[] authors, String author, int count) {
-        for (int i = 0; i < count; i++) {
-            if (authors[i].equals(author)) {
-                return i;
-            }
-        }
-        return -1;
+    private ReentrantLock stripeFor(String author) {
+        int hash = author.hashCode();
+        hash ^= hash >>> 16;
+        return stripes[(hash & 0x7fffffff) % STRIPES];
     }
 
     /**
-     * Método que conta quantos livros existem em um array de livros.
+     * Regista um objeto que passa a ser avisado das alterações ao catálogo.
+     * Recebe logo {@link LibraryListener#bookAdded} para cada livro já existente, com o lock de escrita,
+     * para que nenhuma alteração seja perdida entre a leitura do catálogo e o registo.
      *
-     * @param books Array de livros.
-     * @return O número de livros no array.
+     * @param listener O objeto a avisar.
      */
-    private int getBookCount(Book[] books) {
-        int count = 0;
-        for (Book book : books) {
-            if (book != null) {
-                count++;
+    @Override
+    public void addListener(LibraryListener listener) {
+        catalogLock.writeLock().lock();
+        try {
+            for (int i = 0; i < authorCount; i++) {
+                for (Book book : books[i].toArray()) {
+                    listener.bookAdded(book);
+                }
             }
+            listeners.add(listener);
+        } finally {
+            catalogLock.writeLock().unlock();
         }
-        return count;
+    }
+
+    /**
+     * Deixa de avisar um objeto das alterações ao catálogo.
+     *
+     * @param listener O objeto registado com {@link #addListener}.
+     */
+    @Override
+    public void removeListener(LibraryListener listener) {
+        listeners.remove(listener);
     }
 
     /**
@@ -123,8 +296,19 @@ public class Library {
      *
      * @return Array com os nomes dos autores.
      */
+    @Override
     public String[] getAuthors() {
-        return authors;
+        return snapshot.authors();
+    }
+
+    /**
+     * Retorna a versão atual do catálogo, sem locks e sem copiar.
+     * A versão não muda depois de obtida, por isso várias leituras feitas sobre ela são consistentes entre si.
+     *
+     * @return A versão atual do catálogo.
+     */
+    public CatalogSnapshot snapshot() {
+        return snapshot;
     }
 
     /**
@@ -134,7 +318,32 @@ public class Library {
      * @return Array de livros do autor.
      */
     public Book[] getBooksByAuthor(int authorIndex) {
-        return books[authorIndex];
+        return snapshot.books(authorIndex);
+    }
+
+    /**
+     * Retorna a lista de livros de um autor, procurando-o pelo nome.
+     * Ao contrário da posição na lista de autores, o nome não muda quando outros autores são removidos.
+     * É esta a pesquisa medida nas métricas, porque é a usada pelos utilizadores e pelo servidor;
+     * a pesquisa pela posição é usada sobretudo pelas formas de persistência ao guardar o catálogo.
+     *
+     * @param author Nome do autor.
+     * @return Array de livros do autor, vazio se o autor não existir.
+     */
+    @Override
+    public Book[] getBooksByAuthor(String author) {
+        long start = metrics.start();
+        try {
+            CatalogSnapshot current = snapshot;
+            int authorIndex = current.indexOf(author);
+            if (authorIndex == -1) {
+                metrics.fail(LibraryResult.AUTHOR_NOT_FOUND);
+                return new Book[0];
+            }
+            return current.books(authorIndex);
+        } finally {
+            metrics.record(LibraryMetrics.Operation.LOOKUP, start);
+        }
     }
 
     /**
@@ -145,115 +354,418 @@ public class Library {
      * @return True se o livro estiver disponível, false caso contrário.
      */
     public boolean getAvailability(int authorIndex, int bookIndex) {
-        return books[authorIndex][bookIndex].isAvailable();
+        Book[] authorBooks = snapshot.segment(Objects.checkIndex(authorIndex, snapshot.authorCount()));
+        return authorBooks[bookIndex].isAvailable();
     }
 
     /**
-     * Adiciona um novo livro à biblioteca.
+     * Conta os livros disponíveis em toda a biblioteca.
+     *
+     * @return O número de livros disponíveis.
+     */
+    public int countAvailableBooks() {
+        catalogLock.readLock().lock();
+        try {
+            return availability.count();
+        } finally {
+            catalogLock.readLock().unlock();
+        }
+    }
+
+    /**
+     * Retorna todos os livros disponíveis, pela ordem dos seus identificadores.
+     *
+     * @return Array com os livros disponíveis.
+     */
+    public Book[] getAvailableBooks() {
+        catalogLock.readLock().lock();
+        try {
+            Book[] available = new Book[availability.count()];
+            int count = 0;
+            for (int id = availability.nextAvailable(0); id != -1 && count < available.length; id = availability.nextAvailable(id + 1)) {
+                available[count++] = booksById[id];
+            }
+            return count == available.length ? available : Arrays.copyOf(available, count);
+        } finally {
+            catalogLock.readLock().unlock();
+        }
+    }
+
+    /**
+     * Retorna os livros disponíveis de um autor específico, sem locks, a partir da fotografia atual do catálogo.
+     * Percorre os livros do autor e lê a disponibilidade de cada um no conjunto de bits (através de
+     * {@link Book#isAvailable()}); ao contrário de {@link #getAvailableBooks()}, não percorre o conjunto de bits
+     * diretamente, porque os identificadores dos livros de um autor não são contíguos.
+     *
+     * @param authorIndex Índice do autor na lista de autores.
+     * @return Array com os livros disponíveis do autor.
+     */
+    public Book[] getAvailableBooksByAuthor(int authorIndex) {
+        CatalogSnapshot current = snapshot;
+        Book[] authorBooks = current.segment(Objects.checkIndex(authorIndex, current.authorCount()));
+        Book[] available = new Book[authorBooks.length];
+        int count = 0;
+        for (Book book : authorBooks) {
+            if (book.isAvailable()) {
+                available[count++] = book;
+            }
+        }
+        return Arrays.copyOf(available, count);
+    }
+
+    /**
+     * Procura um livro pelo autor e pelo título.
      *
      * @param author Nome do autor do livro.
      * @param title Título do livro.
-     * @throws IOException Se ocorrer um erro ao salvar os livros no ficheiro.
+     * @return O livro encontrado ou null se não existir.
+     */
+    Book findBook(String author, String title) {
+        catalogLock.readLock().lock();
+        try {
+            return index.findBook(author, title);
+        } finally {
+            catalogLock.readLock().unlock();
+        }
+    }
+
+    /**
+     * Insere um livro no catálogo em memória, sem o guardar.
+     * Usado ao adicionar livros e pelas formas de persistência ao carregar o catálogo.
+     * Quem chama tem de ter o lock de escrita do catálogo, exceto durante o carregamento.
+     *
+     * @param author Nome do autor do livro.
+     * @param title Título do livro.
+     * @param available A disponibilidade do livro.
+     * @return O livro inserido.
      */
-    public void addBook(String author, String title) throws IOException {
-        int authorIndex = findAuthorIndex(authors, author, authors.length);
+    Book insertBook(String author, String title, boolean available) {
+        int authorIndex = index.findAuthor(author);
         if (authorIndex == -1) {
-            authorIndex = authors.length;
-            authors = Arrays.copyOf(authors, authors.length + 1);
+            if (authorCount == authors.length) {
+                authors = Arrays.copyOf(authors, authorCount * 2);
+                books = Arrays.copyOf(books, authorCount * 2);
+            }
+            authorIndex = authorCount++;
             authors[authorIndex] = author;
-            books = Arrays.copyOf(books, books.length + 1);
-            books[authorIndex] = new Book[1];
+            books[authorIndex] = new BookList();
+            index.putAuthor(author, authorIndex);
         }
 
-        int bookCount = getBookCount(books[authorIndex]);
-        books[authorIndex] = Arrays.copyOf(books[authorIndex], bookCount + 1);
-        books[authorIndex][bookCount] = new Book(title, true);
+        Book book;
+        if (compact != null) {
+            book = compact.newBook(author, title, available);
+        } else {
+            book = new Book(title, available);
+            book.setAuthor(author);
+        }
+        int id = freeIdCount > 0 ? freeIds[--freeIdCount] : nextId++;
+        availability.ensureCapacity(id + 1);
+        if (id >= booksById.length) {
+            booksById = Arrays.copyOf(booksById, booksById.length * 2);
+        }
+        booksById[id] = book;
+        book.bind(availability, id);
 
-        saveBooksToFile();
+        books[authorIndex].add(book);
+        index.putBook(author, book);
+        publish(authorIndex);
+
+        for (LibraryListener listener : listeners) {
+            listener.bookAdded(book);
+        }
+        return book;
     }
 
     /**
-     * Remove um livro da biblioteca.
+     * Retira um livro do catálogo em memória, sem guardar a alteração.
+     * Se o autor ficar sem livros, também é retirado.
+     * Quem chama tem de ter o lock de escrita do catálogo, exceto durante o carregamento.
      *
      * @param author Nome do autor do livro.
      * @param title Título do livro.
-     * @throws IOException Se ocorrer um erro ao salvar os livros no ficheiro.
+     * @return O livro retirado ou null se não existir.
      */
-    public void removeBook(String author, String title) throws IOException {
-        int authorIndex = findAuthorIndex(authors, author, authors.length);
+    Book deleteBook(String author, String title) {
+        int authorIndex = index.findAuthor(author);
         if (authorIndex == -1) {
-            return;
+            return null;
         }
 
-        int bookIndex = -1;
-        for (int i = 0; i < books[authorIndex].length; i++) {
-            if (books[authorIndex][i].getTitle().equals(title)) {
-                bookIndex = i;
-                break;
-            }
+        Book book = index.findBook(author, title);
+        if (book == null) {
+            return null;
         }
 
-        if (bookIndex == -1) {
-            return;
+        books[authorIndex].remove(book);
+        index.removeBook(author, book);
+        for (LibraryListener listener : listeners) {
+            listener.bookRemoved(book);
         }
 
-        for (int i = bookIndex; i < books[authorIndex].length - 1; i++) {
-            books[authorIndex][i] = books[authorIndex][i + 1];
+        // O livro removido deixa de usar o conjunto de bits e o seu id fica livre para outro livro
+        int id = book.getId();
+        book.unbind();
+        availability.set(id, false);
+        booksById[id] = null;
+        if (freeIdCount == freeIds.length) {
+            freeIds = Arrays.copyOf(freeIds, freeIdCount * 2);
         }
+        freeIds[freeIdCount++] = id;
 
-        books[authorIndex] = Arrays.copyOf(books[authorIndex], books[authorIndex].length - 1);
+        // Se existir outro livro com o mesmo título, passa a ser esse o indexado
+        Book duplicate = books[authorIndex].findByTitle(title);
+        if (duplicate != null) {
+            index.putBook(author, duplicate);
+        }
 
-        if (books[authorIndex].length == 0) {
-            for (int i = authorIndex; i < authors.length - 1; i++) {
-                authors[i] = authors[i + 1];
-                books[i] = books[i + 1];
+        if (books[authorIndex].size() == 0) {
+            // Os autores seguintes avançam uma posição; é raro, porque só acontece quando um autor fica sem livros
+            System.arraycopy(authors, authorIndex + 1, authors, authorIndex, authorCount - authorIndex - 1);
+            System.arraycopy(books, authorIndex + 1, books, authorIndex, authorCount - authorIndex - 1);
+            authorCount--;
+            authors[authorCount] = null;
+            books[authorCount] = null;
+            for (int i = authorIndex; i < authorCount; i++) {
+                index.putAuthor(authors[i], i);
+            }
+            index.removeAuthor(author);
+            if (!loading) {
+                snapshot = snapshot.withoutAuthor(authorIndex);
             }
-            authors = Arrays.copyOf(authors, authors.length - 1);
-            books = Arrays.copyOf(books, books.length - 1);
+        } else {
+            publish(authorIndex);
         }
 
-        saveBooksToFile();
+        return book;
     }
 
     /**
-     * Requisita um livro da biblioteca.
+     * Publica uma versão do catálogo com os livros atuais de um autor, copiando apenas o seu segmento.
+     * Durante o carregamento não publica nada, e durante addBooks apenas regista o autor alterado.
+     *
+     * @param authorIndex Posição do autor alterado.
+     */
+    private void publish(int authorIndex) {
+        if (loading) {
+            return;
+        }
+        if (changedAuthors != null) {
+            changedAuthors.set(authorIndex);
+            return;
+        }
+        snapshot = snapshot.withSegment(authorIndex, authors[authorIndex], books[authorIndex].toArray());
+    }
+
+    /**
+     * Adiciona um novo livro à biblioteca.
      *
      * @param author Nome do autor do livro.
      * @param title Título do livro.
-     * @return True se o livro foi requisitado com sucesso, false caso contrário.
+     * @return {@link LibraryResult#SUCCESS}; o mesmo título pode existir mais do que uma vez.
      * @throws IOException Se ocorrer um erro ao salvar os livros no ficheiro.
      */
-    public boolean requestBook(String author, String title) throws IOException {
-        int authorIndex = findAuthorIndex(authors, author, authors.length);
-        if (authorIndex == -1) {
-            System.out.println("Autor não encontrado.");
-            return false;
+    @Override
+    public LibraryResult addBook(String author, String title) throws IOException {
+        long start = metrics.start();
+        ReentrantLock stripe = stripeFor(author);
+        stripe.lock();
+        catalogLock.writeLock().lock();
+        try {
+            Book book = insertBook(author, title, true);
+
+            store.bookAdded(this, author, book);
+            return succeeded("adicionado", author, title);
+        } catch (IOException e) {
+            metrics.writeError();
+            throw e;
+        } finally {
+            catalogLock.writeLock().unlock();
+            stripe.unlock();
+            metrics.record(LibraryMetrics.Operation.ADD, start);
         }
+    }
 
-        int bookIndex = -1;
-        for (int i = 0; i < books[authorIndex].length; i++) {
-            if (books[authorIndex][i].getTitle().equals(title)) {
-                bookIndex = i;
-                break;
-            }
+    /**
+     * Adiciona vários livros à biblioteca de uma só vez, guardando-os com uma única escrita.
+     * O autor de cada livro é o indicado em {@link Book#getAuthor()} e a disponibilidade é a do próprio livro.
+     *
+     * @param newBooks Os livros a adicionar.
+     * @throws IOException Se ocorrer um erro ao salvar os livros no ficheiro.
+     */
+    @Override
+    public void addBooks(Collection<Book> newBooks) throws IOException {
+        addAll(newBooks, false);
+    }
+
+    /**
+     * Adiciona os livros que ainda não estão no catálogo, com uma única escrita. A comparação com o catálogo e a
+     * adição são feitas com o mesmo lock de escrita, por isso nenhum livro adicionado ao mesmo tempo fica repetido.
+     *
+     * @param newBooks Os livros a adicionar, com o autor definido.
+     * @return O número de livros adicionados.
+     * @throws IOException Se ocorrer um erro ao salvar os livros no ficheiro.
+     */
+    @Override
+    public int addNewBooks(Collection<Book> newBooks) throws IOException {
+        return addAll(newBooks, true);
+    }
+
+    /**
+     * Adiciona vários livros com o lock de escrita e guarda-os com uma única escrita.
+     *
+     * @param newBooks Os livros a adicionar.
+     * @param skipExisting true para ignorar os livros cujo autor e título já estão no catálogo.
+     * @return O número de livros adicionados.
+     * @throws IOException Se ocorrer um erro ao salvar os livros no ficheiro.
+     */
+    private int addAll(Collection<Book> newBooks, boolean skipExisting) throws IOException {
+        if (newBooks.isEmpty()) {
+            return 0;
         }
 
-        if (bookIndex == -1) {
-            System.out.println("Livro não encontrado.");
-            return false;
+        // O lock de escrita exclui todas as requisições e devoluções, por isso não é preciso o lock de cada autor
+        long start = metrics.start();
+        catalogLock.writeLock().lock();
+        try {
+            List<Book> added = new ArrayList<>(newBooks.size());
+            changedAuthors = new BitSet();
+            try {
+                for (Book book : newBooks) {
+                    // Um livro inserido entra logo no índice, por isso os repetidos na própria coleção também são ignorados
+                    if (skipExisting && index.findBook(book.getAuthor(), book.getTitle()) != null) {
+                        continue;
+                    }
+                    added.add(insertBook(book.getAuthor(), book.getTitle(), book.isAvailable()));
+                }
+            } finally {
+                publishChanged();
+            }
+
+            if (!added.isEmpty()) {
+                store.booksAdded(this, added);
+            }
+            return added.size();
+        } catch (IOException e) {
+            metrics.writeError();
+            throw e;
+        } finally {
+            catalogLock.writeLock().unlock();
+            metrics.record(LibraryMetrics.Operation.ADD_BATCH, start);
         }
+    }
 
-        if (!books[authorIndex][bookIndex].isAvailable()) {
-            System.out.println("Livro indisponível.");
-            return false;
+    /**
+     * Remove um livro da biblioteca.
+     *
+     * @param author Nome do autor do livro.
+     * @param title Título do livro.
+     * @return {@link LibraryResult#SUCCESS}, ou o motivo pelo qual o livro não foi encontrado.
+     * @throws IOException Se ocorrer um erro ao salvar os livros no ficheiro.
+     */
+    @Override
+    public LibraryResult removeBook(String author, String title) throws IOException {
+        long start = metrics.start();
+        ReentrantLock stripe = stripeFor(author);
+        stripe.lock();
+        catalogLock.writeLock().lock();
+        try {
+            Book book = deleteBook(author, title);
+            if (book == null) {
+                return rejected(index.findAuthor(author) == -1
+                        ? LibraryResult.AUTHOR_NOT_FOUND : LibraryResult.BOOK_NOT_FOUND, "remover", author, title);
+            }
+
+            Holding holding = holdings.remove(book);  // As reservas em espera são abandonadas
+            loans.checkinAll(author, title);
+            store.bookRemoved(this, author, book);
+            if (holding != null && holding.copies() > 1) {
+                store.copiesChanged(this, author, book, 1);
+            }
+            return succeeded("removido", author, title);
+        } catch (IOException e) {
+            metrics.writeError();
+            throw e;
+        } finally {
+            catalogLock.writeLock().unlock();
+            stripe.unlock();
+            metrics.record(LibraryMetrics.Operation.REMOVE, start);
         }
+    }
+
+    /**
+     * Requisita um livro da biblioteca, sem indicar quem o requisita.
+     *
+     * @param author Nome do autor do livro.
+     * @param title Título do livro.
+     * @return {@link LibraryResult#SUCCESS} se o livro foi requisitado, ou o motivo pelo qual não foi.
+     * @throws IOException Se ocorrer um erro ao salvar os livros no ficheiro.
+     */
+    @Override
+    public LibraryResult requestBook(String author, String title) throws IOException {
+        return requestBook(author, title, null);
+    }
+
+    /**
+     * Requisita um livro da biblioteca e regista o empréstimo no LoanLedger, com o prazo a contar a partir de agora.
+     * Um livro com vários exemplares ou reservas é requisitado sem o lock do autor (ver {@link #checkoutCopy}).
+     *
+     * @param author Nome do autor do livro.
+     * @param title Título do livro.
+     * @param borrower Identificador de quem requisita o livro, ou null se não for conhecido.
+     * @return {@link LibraryResult#SUCCESS} se o livro foi requisitado, ou o motivo pelo qual não foi.
+     * @throws IOException Se ocorrer um erro ao salvar os livros no ficheiro.
+     */
+    @Override
+    public LibraryResult requestBook(String author, String title, String borrower) throws IOException {
+        long start = metrics.start();
+        try {
+            Boolean taken = checkoutCopy(author, title, borrower);
+            if (taken != null) {
+                return taken ? succeeded("requisitado", author, title)
+                        : rejected(LibraryResult.UNAVAILABLE, "requisitar", author, title);
+            }
 
-        books[authorIndex][bookIndex].setAvailable(false);
-        System.out.println("Livro '" + title + "' de " + author + " foi requisitado com sucesso.");
+            ReentrantLock stripe = stripeFor(author);
+            stripe.lock();
+            catalogLock.readLock().lock();
+            try {
+                if (index.findAuthor(author) == -1) {
+                    return rejected(LibraryResult.AUTHOR_NOT_FOUND, "requisitar", author, title);
+                }
 
-        saveBooksToFile();
+                Book book = index.findBook(author, title);
+                if (book == null) {
+                    return rejected(LibraryResult.BOOK_NOT_FOUND, "requisitar", author, title);
+                }
 
-        return true;
+                // Verifica e altera a disponibilidade numa só operação atómica
+                Holding holding = holdings.isEmpty() ? null : holdings.get(book);
+                if (holding == null) {
+                    if (!book.compareAndSetAvailable(true, false)) {
+                        return rejected(LibraryResult.UNAVAILABLE, "requisitar", author, title);
+                    }
+                    loans.checkout(borrower, author, title);
+                    availabilityChanged(author, book);
+                } else {
+                    // O Holding apareceu depois do caminho rápido; com o lock do autor já não pode ser retirado
+                    if (!holding.tryCheckout()) {
+                        return rejected(LibraryResult.UNAVAILABLE, "requisitar", author, title);
+                    }
+                    loans.checkout(borrower, author, title);
+                    settle(author, book, holding);
+                }
+                return succeeded("requisitado", author, title);
+            } finally {
+                catalogLock.readLock().unlock();
+                stripe.unlock();
+            }
+        } catch (IOException e) {
+            metrics.writeError();
+            throw e;
+        } finally {
+            metrics.record(LibraryMetrics.Operation.REQUEST, start);
+        }
     }
 
     /**
@@ -261,49 +773,384 @@ public class Library {
      *
      * @param author Nome do autor do livro.
      * @param title Título do livro.
+     * @return {@link LibraryResult#SUCCESS} se o livro foi devolvido, ou o motivo pelo qual não foi.
      * @throws IOException Se ocorrer um erro ao salvar os livros no ficheiro.
      */
-    public void returnBook(String author, String title) throws IOException {
-        int authorIndex = findAuthorIndex(authors, author, authors.length);
-        if (authorIndex == -1) {
-            return;
+    @Override
+    public LibraryResult returnBook(String author, String title) throws IOException {
+        long start = metrics.start();
+        ReentrantLock stripe = stripeFor(author);
+        stripe.lock();
+        catalogLock.readLock().lock();
+        try {
+            Book book = index.findBook(author, title);
+            if (book == null) {
+                return rejected(index.findAuthor(author) == -1
+                        ? LibraryResult.AUTHOR_NOT_FOUND : LibraryResult.BOOK_NOT_FOUND, "devolver", author, title);
+            }
+
+            Holding holding = holdings.isEmpty() ? null : holdings.get(book);
+            if (holding == null) {
+                if (!book.compareAndSetAvailable(false, true)) {
+                    return rejected(LibraryResult.ALREADY_RETURNED, "devolver", author, title);
+                }
+                loans.checkin(author, title);
+                availabilityChanged(author, book);
+                return succeeded("devolvido", author, title);
+            }
+
+            if (holding.onShelf() == holding.copies()) {
+                return rejected(LibraryResult.ALREADY_RETURNED, "devolver", author, title);
+            }
+            loans.checkin(author, title);
+            Holding.Hold hold = holding.returnCopy();
+            if (hold != null) {
+                // O exemplar passa diretamente para a primeira reserva e o livro continua indisponível
+                loans.checkoutHold(hold.getBorrower(), author, title);
+                return succeeded("devolvido e entregue à primeira reserva", author, title);
+            }
+            settle(author, book, holding);
+            return succeeded("devolvido", author, title);
+        } catch (IOException e) {
+            metrics.writeError();
+            throw e;
+        } finally {
+            catalogLock.readLock().unlock();
+            stripe.unlock();
+            metrics.record(LibraryMetrics.Operation.RETURN, start);
         }
+    }
 
-        int bookIndex = -1;
-        for (int i = 0; i < books[authorIndex].length; i++) {
-            if (books[authorIndex][i].getTitle().equals(title)) {
-                bookIndex = i;
-                break;
+    /**
+     * Requisita um exemplar de um livro ou, se não houver nenhum disponível, reserva-o: o pedido entra na fila
+     * do livro e recebe o próximo exemplar devolvido, que fica registado como empréstimo em nome do requisitante.
+     * Se houver um exemplar na prateleira, é requisitado sem o lock do autor, como em {@link #requestBook};
+     * entrar na fila usa o lock do autor.
+     *
+     * @param author Nome do autor do livro.
+     * @param title Título do livro.
+     * @param borrower Identificador de quem requisita o livro, ou null se não for conhecido.
+     * @return {@link LibraryResult#SUCCESS} se um exemplar foi requisitado, {@link LibraryResult#ON_HOLD}
+     *         se o pedido ficou na fila, ou o motivo pelo qual o livro não foi encontrado.
+     * @throws IOException Se ocorrer um erro ao salvar a requisição.
+     */
+    @Override
+    public LibraryResult holdBook(String author, String title, String borrower) throws IOException {
+        long start = metrics.start();
+        String requester = borrower != null ? borrower : LoanLedger.UNKNOWN_BORROWER;
+        try {
+            if (Boolean.TRUE.equals(checkoutCopy(author, title, requester))) {
+                return succeeded("requisitado", author, title);
             }
+
+            ReentrantLock stripe = stripeFor(author);
+            stripe.lock();
+            catalogLock.readLock().lock();
+            try {
+                Book book = index.findBook(author, title);
+                if (book == null) {
+                    return rejected(index.findAuthor(author) == -1
+                            ? LibraryResult.AUTHOR_NOT_FOUND : LibraryResult.BOOK_NOT_FOUND, "reservar", author, title);
+                }
+
+                Holding holding = holdings.computeIfAbsent(book, b -> new Holding(1, b.isAvailable() ? 1 : 0));
+                if (holding.checkoutOrHold(requester) != null) {
+                    if (LibraryLog.isEnabled(LibraryLog.Level.DEBUG)) {
+                        LibraryLog.log(LibraryLog.Level.DEBUG, "Livro '%s' de %s reservado por %s (%d na fila).",
+                                title, author, requester, holding.waiting());
+                    }
+                    return LibraryResult.ON_HOLD;
+                }
+
+                loans.checkout(requester, author, title);
+                settle(author, book, holding);
+                return succeeded("requisitado", author, title);
+            } finally {
+                catalogLock.readLock().unlock();
+                stripe.unlock();
+            }
+        } catch (IOException e) {
+            metrics.writeError();
+            throw e;
+        } finally {
+            metrics.record(LibraryMetrics.Operation.HOLD, start);
         }
+    }
 
-        if (bookIndex == -1) {
-            return;
+    /**
+     * Altera o número de exemplares de um livro. Os exemplares acrescentados são entregues primeiro às reservas
+     * em espera; só podem ser retirados exemplares que estejam disponíveis.
+     * O novo número é guardado antes de alterar o Holding, por isso uma falha ao guardar não altera nada.
+     *
+     * @param author Nome do autor do livro.
+     * @param title Título do livro.
+     * @param copies O novo número de exemplares, pelo menos 1.
+     * @return {@link LibraryResult#SUCCESS}, {@link LibraryResult#UNAVAILABLE} se fosse preciso retirar
+     *         exemplares requisitados, ou o motivo pelo qual o livro não foi encontrado.
+     * @throws IOException Se ocorrer um erro ao salvar os exemplares ou a disponibilidade.
+     */
+    @Override
+    public LibraryResult setCopies(String author, String title, int copies) throws IOException {
+        if (copies < 1) {
+            throw new IllegalArgumentException("Número de exemplares inválido: " + copies);
         }
+        long start = metrics.start();
+        ReentrantLock stripe = stripeFor(author);
+        stripe.lock();
+        catalogLock.readLock().lock();
+        try {
+            Book book = index.findBook(author, title);
+            if (book == null) {
+                return rejected(index.findAuthor(author) == -1 ? LibraryResult.AUTHOR_NOT_FOUND
+                        : LibraryResult.BOOK_NOT_FOUND, "alterar os exemplares de", author, title);
+            }
 
-        if (books[authorIndex][bookIndex].isAvailable()) {
-            System.out.println("Livro já estava devolvido.");
-            return;
+            Holding holding = holdings.computeIfAbsent(book, b -> new Holding(1, b.isAvailable() ? 1 : 0));
+            int previous = holding.copies();
+            if (copies != previous) {
+                if (previous - copies > holding.onShelf()) {
+                    settle(author, book, holding);
+                    return rejected(LibraryResult.UNAVAILABLE, "alterar os exemplares de", author, title);
+                }
+                try {
+                    store.copiesChanged(this, author, book, copies);
+                } catch (IOException e) {
+                    settle(author, book, holding);
+                    throw e;
+                }
+                List<Holding.Hold> granted;
+                try {
+                    granted = holding.setCopies(copies);
+                } catch (IllegalArgumentException e) {
+                    // Um exemplar foi requisitado entretanto pelo caminho rápido: repõe o número guardado
+                    store.copiesChanged(this, author, book, previous);
+                    settle(author, book, holding);
+                    return rejected(LibraryResult.UNAVAILABLE, "alterar os exemplares de", author, title);
+                }
+                for (Holding.Hold hold : granted) {
+                    loans.checkoutHold(hold.getBorrower(), author, title);
+                }
+            }
+
+            settle(author, book, holding);
+            return succeeded("alterado", author, title);
+        } catch (IOException e) {
+            metrics.writeError();
+            throw e;
+        } finally {
+            catalogLock.readLock().unlock();
+            stripe.unlock();
+            metrics.record(LibraryMetrics.Operation.COPIES, start);
         }
+    }
 
-        books[authorIndex][bookIndex].setAvailable(true);
+    /**
+     * Retorna os exemplares e a fila de reservas de um livro.
+     *
+     * @param author Nome do autor do livro.
+     * @param title Título do livro.
+     * @return O Holding do livro, ou null se o livro tiver um só exemplar e nenhuma reserva (ou não existir).
+     */
+    public Holding getHolding(String author, String title) {
+        Book book = findBook(author, title);
+        return book != null ? holdings.get(book) : null;
+    }
 
-        saveBooksToFile();
+    /**
+     * Repõe o número de exemplares guardado de um livro, durante o carregamento.
+     * Os empréstimos não são guardados, por isso um livro disponível fica com todos os exemplares na prateleira
+     * e um livro indisponível com todos requisitados, até serem devolvidos.
+     *
+     * @param author Nome do autor do livro.
+     * @param title Título do livro.
+     * @param copies O número de exemplares, maior do que 1.
+     * @return true se o livro existe.
+     */
+    boolean restoreCopies(String author, String title, int copies) {
+        Book book = findBook(author, title);
+        if (book == null) {
+            return false;
+        }
+        holdings.put(book, new Holding(copies, book.isAvailable() ? copies : 0));
+        return true;
     }
 
     /**
-     * Método para salvar os livros no ficheiro.
-     * Sobrescreve o conteúdo do ficheiro com a lista atualizada de livros.
+     * Caminho rápido de {@link #requestBook} e {@link #holdBook} para um livro com Holding: procura o Holding
+     * só com o lock de leitura do catálogo e requisita um exemplar com o compare-and-set do Holding, sem o lock
+     * do autor. O lock do autor só é usado depois, se saiu o último exemplar da prateleira, para marcar o livro
+     * como indisponível: a disponibilidade do Book e o registo na persistência têm de ficar pela mesma ordem que
+     * as devoluções do mesmo autor, que a acertam com esse lock, senão um registo antigo podia ficar por último.
+     * O lock do autor não é pedido com o lock de leitura na mão, pela ordem dos locks.
      *
-     * @throws IOException Se ocorrer um erro ao escrever no ficheiro.
+     * @return true se um exemplar foi requisitado, false se não havia nenhum na prateleira,
+     *         ou null se o livro não tem Holding (ou não existe) e o pedido segue o caminho com o lock do autor.
      */
-    private void saveBooksToFile() throws IOException {
-        try (BufferedWriter writer = new BufferedWriter(new FileWriter("BooksFile"))) {
-            for (int i = 0; i < authors.length; i++) {
-                for (Book book : books[i]) {
-                    writer.write(authors[i] + ";" + book.getTitle() + ";" + book.isAvailable() + "\n");
+    private Boolean checkoutCopy(String author, String title, String borrower) throws IOException {
+        if (holdings.isEmpty()) {
+            return null;
+        }
+        Book book;
+        Holding holding;
+        catalogLock.readLock().lock();
+        try {
+            book = index.findBook(author, title);
+            holding = book != null ? holdings.get(book) : null;
+            if (holding == null) {
+                return null;
+            }
+            if (!holding.tryCheckout()) {
+                // Um Holding retirado entretanto já não diz nada: a disponibilidade voltou a ser a do livro
+                return holding.isRetired() ? null : Boolean.FALSE;
+            }
+            loans.checkout(borrower, author, title);
+        } finally {
+            catalogLock.readLock().unlock();
+        }
+
+        if (holding.onShelf() == 0) {
+            ReentrantLock stripe = stripeFor(author);
+            stripe.lock();
+            catalogLock.readLock().lock();
+            try {
+                // Se o Holding foi retirado ou o livro removido, quem o fez já acertou a disponibilidade
+                if (holdings.get(book) == holding) {
+                    settle(author, book, holding);
                 }
+            } finally {
+                catalogLock.readLock().unlock();
+                stripe.unlock();
             }
         }
+        return Boolean.TRUE;
+    }
+
+    /**
+     * Acerta a disponibilidade do livro com os exemplares na prateleira do seu Holding e, se o livro voltou a
+     * ter um só exemplar e nenhuma reserva, retira o Holding: a disponibilidade do livro passa a bastar.
+     * Quem chama tem o lock do autor.
+     */
+    private void settle(String author, Book book, Holding holding) throws IOException {
+        int onShelf = holding.copies() == 1 ? holding.retire() : -1;
+        if (onShelf >= 0) {
+            holdings.remove(book);
+        } else {
+            onShelf = holding.onShelf();
+        }
+        boolean available = onShelf > 0;
+        if (book.compareAndSetAvailable(!available, available)) {
+            availabilityChanged(author, book);
+        }
+    }
+
+    /**
+     * Avisa os LibraryListener e a persistência de que a disponibilidade de um livro mudou.
+     */
+    private void availabilityChanged(String author, Book book) throws IOException {
+        for (LibraryListener listener : listeners) {
+            listener.availabilityChanged(book);
+        }
+        store.availabilityChanged(this, author, book);
+    }
+
+    /**
+     * Método para salvar os livros.
+     * Escreve o catálogo completo na persistência configurada.
+     *
+     * @throws IOException Se ocorrer um erro ao escrever no ficheiro.
+     */
+    public void saveBooksToFile() throws IOException {
+        long start = metrics.start();
+        catalogLock.readLock().lock();
+        try {
+            store.save(this);
+        } catch (IOException e) {
+            metrics.writeError();
+            throw e;
+        } finally {
+            catalogLock.readLock().unlock();
+            metrics.record(LibraryMetrics.Operation.SAVE, start);
+        }
+    }
+
+    /**
+     * Publica numa só versão os autores alterados por addBooks, copiando apenas os seus segmentos.
+     */
+    private void publishChanged() {
+        BitSet changed = changedAuthors;
+        changedAuthors = null;
+        int[] positions = changed.stream().toArray();
+        String[] names = new String[positions.length];
+        Book[][] segments = new Book[positions.length][];
+        for (int i = 0; i < positions.length; i++) {
+            names[i] = authors[positions[i]];
+            segments[i] = books[positions[i]].toArray();
+        }
+        snapshot = snapshot.withSegments(positions, names, segments);
+    }
+
+    /**
+     * Regista no LibraryLog uma alteração aplicada, sem criar a mensagem se o nível DEBUG estiver desativado.
+     *
+     * @return {@link LibraryResult#SUCCESS}.
+     */
+    private static LibraryResult succeeded(String action, String author, String title) {
+        if (LibraryLog.isEnabled(LibraryLog.Level.DEBUG)) {
+            LibraryLog.log(LibraryLog.Level.DEBUG, "Livro '%s' de %s foi %s com sucesso.", title, author, action);
+        }
+        return LibraryResult.SUCCESS;
+    }
+
+    /**
+     * Conta nas métricas e regista no LibraryLog uma alteração sem efeito.
+     *
+     * @return O motivo da falha recebido.
+     */
+    private LibraryResult rejected(LibraryResult result, String action, String author, String title) {
+        metrics.fail(result);
+        if (LibraryLog.isEnabled(LibraryLog.Level.DEBUG)) {
+            LibraryLog.log(LibraryLog.Level.DEBUG, "Não foi possível %s '%s' de %s: %s", action, title, author,
+                    result.message());
+        }
+        return result;
+    }
+
+    /**
+     * Retorna as métricas onde são contadas e medidas as operações desta biblioteca.
+     *
+     * @return As métricas, ou {@link LibraryMetrics#DISABLED} se a biblioteca foi criada sem métricas.
+     */
+    public LibraryMetrics getMetrics() {
+        return metrics;
+    }
+
+    /**
+     * Retorna o armazenamento dos livros em modo compacto, por exemplo para ver o espaço ocupado pelos títulos.
+     *
+     * @return O armazenamento, ou null se a biblioteca não estiver em modo compacto.
+     */
+    public CompactStorage getCompactStorage() {
+        return compact;
+    }
+
+    /**
+     * Retorna o registo dos empréstimos ativos, por exemplo para ser avisado dos atrasos.
+     *
+     * @return O registo de empréstimos.
+     */
+    public LoanLedger getLoanLedger() {
+        return loans;
+    }
+
+    /**
+     * Fecha a persistência da biblioteca, esperando que todas as escritas pendentes terminem,
+     * e para o avanço periódico dos prazos dos empréstimos.
+     *
+     * @throws IOException Se ocorrer um erro ao fechar os ficheiros.
+     */
+    @Override
+    public void close() throws IOException {
+        loans.close();
+        store.close();
     }
 }
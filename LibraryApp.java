@@ -1,9 +1,21 @@
+import java.io.File;
+import java.io.IOException;
+import java.net.InetSocketAddress;
 import java.util.Scanner;
+import javax.management.JMException;
 
 /**
  * Classe principal que inicia o Sistema de Gestão da Biblioteca.
  * Permite ao utilizador escolher entre dois tipos de utilizadores (Professor ou Aluno)
  * e depois abre a interface gráfica correspondente.
+ * <p>
+ * Com "--server", corre sem interface gráfica como LibraryServer, partilhando uma só biblioteca com vários terminais;
+ * com "--connect", a interface gráfica usa a biblioteca desse servidor em vez de abrir o ficheiro de livros.
+ * Com "--metrics", as operações da biblioteca são medidas e as métricas ficam disponíveis por JMX
+ * e num relatório escrito periodicamente no terminal. Com "--log DEBUG", o registo mostra cada operação.
+ * Com "--compact", os livros ficam em modo compacto, para catálogos muito grandes; com "--offheap", a interface
+ * gráfica usa uma OffHeapLibrary, que guarda os livros fora do heap. Com "--cache", os livros de cada autor pedido
+ * ficam numa cache limitada, útil sobretudo com "--offheap" ou "--connect".
  */
 public class LibraryApp {
 
@@ -12,9 +24,26 @@ public class LibraryApp {
      * Permite que o utilizador escolha o tipo de utilizador e, dependendo da escolha,
      * abre a interface gráfica apropriada.
      *
-     * @param args Argumentos da linha de comando (não utilizados neste caso).
+     * @param args Argumentos da linha de comando ("--journal", "--binary" ou "--paged [milissegundos]" para escolher
+     *             a forma de persistência,
+     *             "--server [porta]" para correr como servidor, "--connect anfitrião[:porta]" para usar um servidor,
+     *             "--metrics [segundos]" para medir as operações e escrever o relatório com esse intervalo,
+     *             "--log nível" para escolher o nível mínimo das mensagens registadas,
+     *             "--compact" para guardar os livros em memória em modo compacto,
+     *             "--offheap" para guardar os livros fora do heap, com o journal como forma de persistência,
+     *             "--cache [livros]" para guardar os livros dos autores mais pedidos numa cache com esse peso máximo).
      */
     public static void main(String[] args) {
+        int logIndex = optionIndex(args, "--log");
+        if (logIndex != -1 && logIndex + 1 < args.length) {
+            LibraryLog.setLevel(LibraryLog.Level.valueOf(args[logIndex + 1].toUpperCase()));
+        }
+
+        if (optionIndex(args, "--server") != -1) {
+            runServer(args);
+            return;
+        }
+
         // Scanner utilizado para apanhar entradas do utilizador no terminal.
         Scanner scanner = new Scanner(System.in);
 
@@ -54,10 +83,225 @@ public class LibraryApp {
         switch (choice) {
             case 1 ->
                 // Se for Professor, cria a interface gráfica com opções de adicionar/remover livros.
-                    new LibraryGui(new Teacher(new Library()));
-            default ->
-                // Se for Aluno, cria a interface gráfica com a opção de requisitar/devolver livros.
-                    new LibraryGui(new Student(new Library()));
+                    new LibraryGui(new Teacher(createService(args)));
+            default -> {
+                // Se for Aluno, pede o número de estudante, com que ficam registados os seus empréstimos,
+                // e cria a interface gráfica com a opção de requisitar/devolver livros.
+                System.out.print("Número de estudante: ");
+                String borrowerId = scanner.next().trim();
+                new LibraryGui(new Student(createService(args), borrowerId));
+            }
+        }
+    }
+
+    /**
+     * Corre a aplicação como servidor, sem interface gráfica, até o processo ser terminado.
+     * Ao terminar, fecha as ligações e a biblioteca.
+     *
+     * @param args Argumentos da linha de comando; "--server" pode ser seguido da porta.
+     */
+    private static void runServer(String[] args) {
+        int port = LibraryProtocol.DEFAULT_PORT;
+        int index = optionIndex(args, "--server");
+        if (index + 1 < args.length && !args[index + 1].startsWith("--")) {
+            port = Integer.parseInt(args[index + 1]);
+        }
+
+        Library library = createLibrary(args);
+        try {
+            LibraryServer server = new LibraryServer(library, new InetSocketAddress(port),
+                    Runtime.getRuntime().availableProcessors() * 2);
+            server.start();
+            Runtime.getRuntime().addShutdownHook(new Thread(() -> {
+                server.close();
+                try {
+                    library.close();
+                } catch (IOException e) {
+                    System.err.println("Erro ao fechar a biblioteca: " + e.getMessage());
+                }
+            }));
+            System.out.println("Servidor da biblioteca à escuta na porta " + server.getPort() + ".");
+        } catch (IOException e) {
+            System.err.println("Erro ao iniciar o servidor: " + e.getMessage());
+            System.exit(1);
+        }
+    }
+
+    /**
+     * Cria a biblioteca usada pela interface gráfica e, com "--cache [livros]", põe à sua frente uma cache
+     * dos livros de cada autor com esse peso máximo. Com "--metrics", a cache também é registada por JMX.
+     *
+     * @param args Argumentos da linha de comando.
+     * @return A biblioteca a usar.
+     */
+    private static LibraryService createService(String[] args) {
+        LibraryService service = openService(args);
+        int index = optionIndex(args, "--cache");
+        if (index == -1) {
+            return service;
+        }
+
+        long maxWeight = CachedLibrary.DEFAULT_MAX_WEIGHT;
+        if (index + 1 < args.length && !args[index + 1].startsWith("--")) {
+            maxWeight = Long.parseLong(args[index + 1]);
+        }
+        CachedLibrary cached = new CachedLibrary(service, maxWeight);
+        if (optionIndex(args, "--metrics") != -1) {
+            try {
+                cached.register("BooksFile");
+            } catch (JMException e) {
+                System.err.println("Erro ao registar a cache por JMX: " + e.getMessage());
+            }
+        }
+        return cached;
+    }
+
+    /**
+     * Abre a biblioteca usada pela interface gráfica: a de um servidor, com "--connect anfitrião[:porta]",
+     * uma OffHeapLibrary, com "--offheap", ou uma biblioteca deste processo.
+     *
+     * @param args Argumentos da linha de comando.
+     * @return A biblioteca a usar.
+     */
+    private static LibraryService openService(String[] args) {
+        int index = optionIndex(args, "--connect");
+        if (index == -1) {
+            if (optionIndex(args, "--offheap") != -1) {
+                return new OffHeapLibrary("BooksFile", createMetrics(args));
+            }
+            return createLibrary(args);
+        }
+
+        String address = index + 1 < args.length ? args[index + 1] : "localhost";
+        int separator = address.lastIndexOf(':');
+        String host = separator == -1 ? address : address.substring(0, separator);
+        int port = separator == -1 ? LibraryProtocol.DEFAULT_PORT : Integer.parseInt(address.substring(separator + 1));
+        try {
+            return new RemoteLibrary(host, port);
+        } catch (IOException e) {
+            System.err.println("Erro ao ligar ao servidor " + address + ": " + e.getMessage());
+            System.exit(1);
+            return null;
+        }
+    }
+
+    /**
+     * Procura uma opção nos argumentos da linha de comando.
+     *
+     * @param args Argumentos da linha de comando.
+     * @param option A opção a procurar.
+     * @return A posição da opção, ou -1 se não existir.
+     */
+    private static int optionIndex(String[] args, String option) {
+        for (int i = 0; i < args.length; i++) {
+            if (args[i].equals(option)) {
+                return i;
+            }
+        }
+        return -1;
+    }
+
+    /**
+     * Cria a biblioteca com a forma de persistência indicada nos argumentos da linha de comando.
+     * Com "--journal", cada alteração é acrescentada a um journal em vez de reescrever o ficheiro de livros.
+     * Com "--binary", usa o catálogo binário "BooksFile.bin", convertido a partir do ficheiro de livros na primeira vez.
+     * Com "--paged", usa o catálogo paginado "BooksFile.pages", também convertido na primeira vez, que guarda
+     * as requisições e devoluções com o intervalo indicado a seguir, em milissegundos (zero para guardar cada uma).
+     * Com "--compact", a biblioteca guarda os livros em modo compacto.
+     *
+     * @param args Argumentos da linha de comando.
+     * @return A biblioteca criada.
+     */
+    private static Library createLibrary(String[] args) {
+        LibraryMetrics metrics = createMetrics(args);
+        boolean compact = optionIndex(args, "--compact") != -1;
+        for (String arg : args) {
+            if (arg.equals("--journal")) {
+                return startLoans(new Library(new JournalCatalogStore("BooksFile"), metrics, compact));
+            }
+            if (arg.equals("--binary")) {
+                if (!new File("BooksFile.bin").exists()) {
+                    try {
+                        MappedCatalogStore.convert("BooksFile", "BooksFile.bin");
+                    } catch (IOException e) {
+                        System.err.println("Erro ao converter livros: " + e.getMessage());
+                        System.exit(1);
+                    }
+                }
+                return startLoans(new Library(new MappedCatalogStore("BooksFile.bin"), metrics, compact));
+            }
+            if (arg.equals("--paged")) {
+                int index = optionIndex(args, "--paged");
+                long interval = PagedCatalogStore.DEFAULT_FLUSH_INTERVAL_MILLIS;
+                if (index + 1 < args.length && !args[index + 1].startsWith("--")) {
+                    interval = Long.parseLong(args[index + 1]);
+                }
+                if (!new File("BooksFile.pages").exists()) {
+                    try {
+                        PagedCatalogStore.convert("BooksFile", "BooksFile.pages");
+                    } catch (IOException e) {
+                        System.err.println("Erro ao converter livros: " + e.getMessage());
+                        System.exit(1);
+                    }
+                }
+                return startLoans(new Library(new PagedCatalogStore("BooksFile.pages", interval), metrics, compact));
+            }
+        }
+        return startLoans(new Library(new TextCatalogStore("BooksFile"), metrics, compact));
+    }
+
+    /**
+     * Começa a seguir os prazos dos empréstimos da biblioteca, registando no LibraryLog os lembretes
+     * e os empréstimos em atraso.
+     *
+     * @param library A biblioteca.
+     * @return A mesma biblioteca.
+     */
+    private static Library startLoans(Library library) {
+        LoanLedger loans = library.getLoanLedger();
+        loans.addListener(new LoanListener() {
+            @Override
+            public void loanReminder(Loan loan) {
+                if (LibraryLog.isEnabled(LibraryLog.Level.INFO)) {
+                    LibraryLog.log(LibraryLog.Level.INFO, "Prazo a terminar: %s", loan);
+                }
+            }
+
+            @Override
+            public void loanOverdue(Loan loan) {
+                if (LibraryLog.isEnabled(LibraryLog.Level.WARNING)) {
+                    LibraryLog.log(LibraryLog.Level.WARNING, "Empréstimo em atraso: %s", loan);
+                }
+            }
+        });
+        loans.startTicking(1_000);
+        return library;
+    }
+
+    /**
+     * Cria as métricas da biblioteca: desativadas, ou, com "--metrics [segundos]", registadas por JMX
+     * e escritas no terminal com o intervalo indicado (por omissão, 60 segundos).
+     *
+     * @param args Argumentos da linha de comando.
+     * @return As métricas a usar.
+     */
+    private static LibraryMetrics createMetrics(String[] args) {
+        int index = optionIndex(args, "--metrics");
+        if (index == -1) {
+            return LibraryMetrics.DISABLED;
+        }
+
+        long period = 60;
+        if (index + 1 < args.length && !args[index + 1].startsWith("--")) {
+            period = Long.parseLong(args[index + 1]);
+        }
+        LibraryMetrics metrics = new LibraryMetrics();
+        try {
+            metrics.register("BooksFile");
+        } catch (JMException e) {
+            System.err.println("Erro ao registar as métricas por JMX: " + e.getMessage());
         }
+        metrics.startReporting(period, System.out);
+        return metrics;
     }
 }
@@ -1,13 +1,28 @@
 import javax.swing.*;
+import javax.swing.event.DocumentEvent;
+import javax.swing.event.DocumentListener;
+import javax.swing.event.ListDataEvent;
+import javax.swing.event.ListDataListener;
+import javax.swing.filechooser.FileNameExtensionFilter;
 import java.awt.*;
 import java.awt.event.ActionEvent;
 import java.awt.event.KeyEvent;
+import java.awt.event.WindowAdapter;
+import java.awt.event.WindowEvent;
+import java.io.File;
 import java.io.IOException;
+import java.io.Serial;
+import java.io.UncheckedIOException;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionException;
 
 /**
  * Classe responsável pela interface gráfica da aplicação de gestão de biblioteca.
  * Exibe a lista de autores e livros, e permite que os utilizadores, dependendo do tipo (estudante ou professor),
  * realizem ações como requisitar, devolver, adicionar e remover livros.
+ * <p>
+ * As ações são guardadas noutra thread, por isso a janela nunca fica à espera do disco. A linha do livro mostra logo
+ * o estado esperado e, no fim, o estado real ou o motivo da falha; a barra de estado mostra as operações pendentes.
  */
 public class LibraryGui {
     private final JFrame frame;
@@ -15,7 +30,14 @@ public class LibraryGui {
 
     private JList<String> authorList;
     private JList<Book> bookList;
-    private DefaultListModel<Book> bookListModel;
+    private BookListModel bookListModel;
+    private JTextField searchField;
+    private JLabel statusLabel;
+
+    private int pendingOperations;  // Operações pedidas que ainda não terminaram
+    private int refreshRequest;     // Número do último pedido de livros para a lista; só o último é mostrado
+    private String lastResult;      // Resultado da última operação terminada, para a barra de estado
+    private boolean lastFailed;
 
     /**
      * Construtor da classe LibraryGui.
@@ -29,7 +51,13 @@ public class LibraryGui {
         frame = new JFrame("Gestão de Biblioteca");
         frame.setAlwaysOnTop(true);
         frame.setSize(500, 400);
-        frame.setDefaultCloseOperation(JFrame.EXIT_ON_CLOSE);
+        frame.setDefaultCloseOperation(JFrame.DO_NOTHING_ON_CLOSE);
+        frame.addWindowListener(new WindowAdapter() {
+            @Override
+            public void windowClosing(WindowEvent e) {
+                close();
+            }
+        });
 
         JPanel panel = new JPanel();
         panel.setLayout(new BorderLayout());
@@ -59,6 +87,13 @@ public class LibraryGui {
         aboutLabel.setHorizontalAlignment(SwingConstants.RIGHT);
         topPanel.add(aboutLabel, BorderLayout.EAST);
 
+        // Campo de pesquisa por título ou autor, atualizado a cada tecla
+        JPanel searchPanel = new JPanel(new BorderLayout());
+        searchPanel.add(new JLabel("Pesquisar: "), BorderLayout.WEST);
+        searchField = new JTextField();
+        searchPanel.add(searchField, BorderLayout.CENTER);
+        topPanel.add(searchPanel, BorderLayout.SOUTH);
+
         // Adicionar o painel ao topo
         panel.add(topPanel, BorderLayout.NORTH);
 
@@ -71,27 +106,28 @@ public class LibraryGui {
             }
         });
 
-        // Criar listas para autores e livros
-        DefaultListModel<String> authorListModel = new DefaultListModel<>();
-        bookListModel = new DefaultListModel<>();
+        // Criar listas para autores e livros, mantidas pelos avisos da biblioteca
+        AuthorListModel authorListModel = new AuthorListModel();
+        bookListModel = new BookListModel();
+        user.addLibraryListener(authorListModel);
+        user.addLibraryListener(bookListModel);
 
         // Criar a JList que é a representação visual dos autores
+        // Com linhas de altura fixa, a JList só desenha as linhas visíveis, mesmo com muitos autores
         authorList = new JList<>(authorListModel);
         authorList.setSelectionMode(ListSelectionModel.SINGLE_SELECTION);
+        authorList.setPrototypeCellValue("Nome de um autor");
         JScrollPane authorScrollPane = new JScrollPane(authorList);
         panel.add(authorScrollPane, BorderLayout.WEST);
 
         // Criar a JList que é a representação visual dos livros
         bookList = new JList<>(bookListModel);
         bookList.setSelectionMode(ListSelectionModel.SINGLE_SELECTION);
+        bookList.setFixedCellHeight(authorList.getFixedCellHeight());
+        bookList.setCellRenderer(new BookCellRenderer());
         JScrollPane bookScrollPane = new JScrollPane(bookList);
         panel.add(bookScrollPane, BorderLayout.CENTER);  // Add the book scroll pane to the center
 
-        // Adicionar autores a lista
-        for (String author : user.listAuthors()) {
-            authorListModel.addElement(author);
-        }
-
         // setup dos botões de ações
         JPanel buttonPanel = new JPanel();
         buttonPanel.setLayout(new FlowLayout());
@@ -99,15 +135,21 @@ public class LibraryGui {
         if (user instanceof Student) {
             //botões para os estudantes
             JButton requestBtn = new JButton("Requisitar");
+            JButton holdBtn = new JButton("Reservar");
             JButton returnBtn = new JButton("Devolver");
             returnBtn.setEnabled(false);
             buttonPanel.add(requestBtn);
+            buttonPanel.add(holdBtn);
             buttonPanel.add(returnBtn);
 
             requestBtn.addActionListener(event -> {
                 requestBook();
             });
 
+            holdBtn.addActionListener(event -> {
+                holdBook();
+            });
+
             returnBtn.addActionListener(event -> {
                 returnBook();
             });
@@ -123,6 +165,25 @@ public class LibraryGui {
                 }
             });
 
+            // Atualizar o botão de devolver quando o livro selecionado é requisitado ou devolvido
+            bookListModel.addListDataListener(new ListDataListener() {
+                @Override
+                public void intervalAdded(ListDataEvent e) {
+                }
+
+                @Override
+                public void intervalRemoved(ListDataEvent e) {
+                }
+
+                @Override
+                public void contentsChanged(ListDataEvent e) {
+                    int selectedIndex = bookList.getSelectedIndex();
+                    if (selectedIndex >= e.getIndex0() && selectedIndex <= e.getIndex1()) {
+                        returnBtn.setEnabled(!bookList.getSelectedValue().isAvailable());
+                    }
+                }
+            });
+
             // Disable do botão de requisitar livros sempre que a seleção de autor muda
             authorList.addListSelectionListener(e -> {
                 returnBtn.setEnabled(false);
@@ -132,8 +193,14 @@ public class LibraryGui {
             //botões para os professores
             JButton addBtn = new JButton("Adicionar");
             JButton removeBtn = new JButton("Remover");
+            JButton copiesBtn = new JButton("Exemplares");
+            JButton importBtn = new JButton("Importar");
+            JButton exportBtn = new JButton("Exportar");
             buttonPanel.add(addBtn);
             buttonPanel.add(removeBtn);
+            buttonPanel.add(copiesBtn);
+            buttonPanel.add(importBtn);
+            buttonPanel.add(exportBtn);
 
             addBtn.addActionListener(event -> {
                 addBook();
@@ -142,81 +209,147 @@ public class LibraryGui {
             removeBtn.addActionListener(event -> {
                 removeBook();
             });
+
+            copiesBtn.addActionListener(event -> {
+                setCopies();
+            });
+
+            importBtn.addActionListener(event -> {
+                transferBooks(true);
+            });
+
+            exportBtn.addActionListener(event -> {
+                transferBooks(false);
+            });
         }
 
         // quando é selecionado um autor, atualiza a lista dos seus livros
         authorList.addListSelectionListener(e -> {
             if (!e.getValueIsAdjusting()) {
-                refreshBookList();
+                if (authorList.getSelectedIndex() != -1 && !searchField.getText().isBlank()) {
+                    searchField.setText("");  // Limpar a pesquisa também atualiza a lista
+                } else {
+                    refreshBookList();
+                }
+            }
+        });
+
+        // quando o texto da pesquisa muda, mostra os livros encontrados em vez dos livros do autor
+        searchField.getDocument().addDocumentListener(new DocumentListener() {
+            @Override
+            public void insertUpdate(DocumentEvent e) {
+                searchChanged();
+            }
+
+            @Override
+            public void removeUpdate(DocumentEvent e) {
+                searchChanged();
+            }
+
+            @Override
+            public void changedUpdate(DocumentEvent e) {
+                searchChanged();
             }
         });
 
-        panel.add(buttonPanel, BorderLayout.SOUTH);
+        // Barra de estado com as operações pendentes e o resultado da última operação
+        statusLabel = new JLabel(" ");
+        statusLabel.setBorder(BorderFactory.createEmptyBorder(0, 5, 2, 5));
+
+        JPanel bottomPanel = new JPanel(new BorderLayout());
+        bottomPanel.add(buttonPanel, BorderLayout.CENTER);
+        bottomPanel.add(statusLabel, BorderLayout.SOUTH);
+        panel.add(bottomPanel, BorderLayout.SOUTH);
     }
 
     /**
      * Método responsável por devolver o livro selecionado.
-     * Atualiza a interface para refletir a devolução do livro.
+     * A linha do livro mostra logo a devolução, que é confirmada quando a operação termina.
      */
     private void returnBook() {
         Book selectedBook = bookList.getSelectedValue();
 
         if (selectedBook != null) {
-            try {
-                ((Student) user).returnBook(selectedBook);
-                JOptionPane.showMessageDialog(frame, "Livro devolvido com sucesso!");
-                refreshBookList();
-            } catch (IOException ex) {
-                JOptionPane.showMessageDialog(frame, "Erro a devolver livro.", "Erro", JOptionPane.ERROR_MESSAGE);
-            }
+            bookListModel.setPending(selectedBook, "Disponível (a devolver...)");
+            track(((Student) user).returnBook(selectedBook), "Devolver '" + selectedBook.getTitle() + "'", selectedBook);
         }
     }
 
     /**
      * Método responsável por requisitar o livro selecionado.
-     * Atualiza a interface para refletir a requisição do livro.
+     * A linha do livro mostra logo a requisição, que é confirmada quando a operação termina.
      */
     private void requestBook() {
         Book selectedBook = bookList.getSelectedValue();
         if (selectedBook != null) {
-            try {
-                boolean requested = ((Student) user).requestBook(selectedBook);
-                if (requested) {
-                    JOptionPane.showMessageDialog(frame, "Livro requisitado.");
-                } else {
-                    JOptionPane.showMessageDialog(frame, "Erro ao requisitar livro.");
-                }
-
-            } catch (IOException e) {
-                JOptionPane.showMessageDialog(frame, "Erro a requisitar livro: " + e.getMessage());
-            }
-
-            refreshLists();
+            bookListModel.setPending(selectedBook, "Indisponível (a requisitar...)");
+            track(((Student) user).requestBook(selectedBook), "Requisitar '" + selectedBook.getTitle() + "'",
+                    selectedBook);
         } else {
             JOptionPane.showMessageDialog(frame, "Selecione um livro para requisitar.");
         }
     }
 
+    /**
+     * Método responsável por reservar o livro selecionado: é requisitado se houver um exemplar disponível,
+     * senão o estudante fica na fila de espera do livro.
+     */
+    private void holdBook() {
+        Book selectedBook = bookList.getSelectedValue();
+        if (selectedBook != null) {
+            bookListModel.setPending(selectedBook, "a reservar...");
+            track(((Student) user).holdBook(selectedBook), "Reservar '" + selectedBook.getTitle() + "'", selectedBook);
+        } else {
+            JOptionPane.showMessageDialog(frame, "Selecione um livro para reservar.");
+        }
+    }
+
     /**
      * Método responsável por remover o livro selecionado.
      * Este método é usado apenas por professores.
      */
     private void removeBook() {
-        String selectedAuthor = authorList.getSelectedValue();
         Book selectedBook = bookList.getSelectedValue();
-        if (selectedAuthor != null && selectedBook != null) {
-            try {
-                ((Teacher) user).removeBook(selectedAuthor, selectedBook.getTitle());
-            } catch (IOException e) {
-                JOptionPane.showMessageDialog(frame, "Erro a eliminar livro: " + e.getMessage());
-            }
-
-            refreshLists();
+        if (selectedBook != null) {
+            bookListModel.setPending(selectedBook, "a remover...");
+            track(((Teacher) user).removeBook(selectedBook.getAuthor(), selectedBook.getTitle()),
+                    "Remover '" + selectedBook.getTitle() + "'", selectedBook);
         } else {
             JOptionPane.showMessageDialog(frame, "Selecione um livro para apagar.");
         }
     }
 
+    /**
+     * Método responsável por alterar o número de exemplares do livro selecionado.
+     * Este método é usado apenas por professores.
+     */
+    private void setCopies() {
+        Book selectedBook = bookList.getSelectedValue();
+        if (selectedBook == null) {
+            JOptionPane.showMessageDialog(frame, "Selecione um livro para alterar os exemplares.");
+            return;
+        }
+
+        String input = JOptionPane.showInputDialog(frame, "Número de exemplares de '" + selectedBook.getTitle() + "':", 1);
+        if (input == null) {
+            return;
+        }
+        int copies;
+        try {
+            copies = Integer.parseInt(input.trim());
+        } catch (NumberFormatException e) {
+            copies = 0;
+        }
+        if (copies < 1) {
+            JOptionPane.showMessageDialog(frame, "Número de exemplares inválido!");
+            return;
+        }
+
+        bookListModel.setPending(selectedBook, "a alterar exemplares...");
+        track(((Teacher) user).setCopies(selectedBook, copies),
+                "Exemplares de '" + selectedBook.getTitle() + "'", selectedBook);
+    }
+
     /**
      * Método responsável por adicionar um livro.
      * Este método é usado apenas por professores.
@@ -240,14 +373,8 @@ public class LibraryGui {
             String title = titleField.getText().trim();
 
             if (!author.isEmpty() && !title.isEmpty()) {
-                try {
-                    ((Teacher) user).addBook(author, title);
-
-                } catch (IOException e) {
-                    JOptionPane.showMessageDialog(frame, "Erro a gravar livros: " + e.getMessage());
-                }
-
-                refreshLists();
+                // O livro só aparece na lista quando é adicionado; até lá, fica na barra de estado
+                track(((Teacher) user).addBook(author, title), "Adicionar '" + title + "'", null);
             } else {
                 JOptionPane.showMessageDialog(frame, "Autor e título obrigatórios!");
             }
@@ -255,40 +382,202 @@ public class LibraryGui {
     }
 
     /**
-     * Método responsável por atualizar as listas de autores e livros na interface gráfica.
+     * Método responsável por importar os livros de um ficheiro CSV ou JSON, ou por exportar o catálogo para um.
+     * A barra de estado mostra o progresso e, no fim, quantos livros foram lidos, adicionados e ignorados.
+     * Este método é usado apenas por professores.
+     *
+     * @param importing true para importar, false para exportar.
      */
-    private void refreshLists() {
-        String selectedAuthor = authorList.getSelectedValue();
-        DefaultListModel<String> authorModel = (DefaultListModel<String>) authorList.getModel();
-        authorModel.clear();
-
-        for (String author : user.listAuthors()) {
-            authorModel.addElement(author);
+    private void transferBooks(boolean importing) {
+        JFileChooser chooser = new JFileChooser();
+        chooser.setFileFilter(new FileNameExtensionFilter("CSV ou JSON", "csv", "json"));
+        int option = importing ? chooser.showOpenDialog(frame) : chooser.showSaveDialog(frame);
+        if (option != JFileChooser.APPROVE_OPTION) {
+            return;
         }
 
-        if (selectedAuthor != null) {
-            int index = authorModel.indexOf(selectedAuthor);
-            if (index != -1) {
-                authorList.setSelectedIndex(index);
+        File file = chooser.getSelectedFile();
+        String description = (importing ? "Importar '" : "Exportar '") + file.getName() + "'";
+        CatalogTransfer.Progress progress = (rows, rowsPerSecond) -> SwingUtilities.invokeLater(() -> {
+            lastFailed = false;
+            lastResult = String.format("%s: %d linhas (%.0f linhas/s)...", description, rows, rowsPerSecond);
+            showStatus();
+        });
+        Teacher teacher = (Teacher) user;
+        CompletableFuture<CatalogTransfer.Report> transfer = importing
+                ? teacher.importBooks(file, progress) : teacher.exportBooks(file, progress);
+
+        pendingOperations++;
+        showStatus();
+        transfer.whenComplete((report, error) -> SwingUtilities.invokeLater(() -> {
+            pendingOperations--;
+            lastFailed = error != null;
+            lastResult = description + (lastFailed ? ": falhou (" + describe(error) + ")." : ": " + report + ".");
+            showStatus();
+        }));
+    }
+
+    /**
+     * Acompanha uma operação pedida à biblioteca até terminar.
+     * Quando termina, na thread da interface gráfica, o livro volta a mostrar o seu estado real
+     * ou o motivo da falha, e a barra de estado mostra o resultado. Uma reserva que ficou na fila não é uma falha.
+     *
+     * @param operation A operação em curso.
+     * @param description Descrição da operação para a barra de estado.
+     * @param book O livro afetado, ou null se ainda não estiver na lista.
+     */
+    private void track(CompletableFuture<LibraryResult> operation, String description, Book book) {
+        pendingOperations++;
+        showStatus();
+
+        operation.whenComplete((result, error) -> SwingUtilities.invokeLater(() -> {
+            pendingOperations--;
+            String failure = error != null ? describe(error)
+                    : result.isSuccess() || result == LibraryResult.ON_HOLD ? null : result.message();
+            if (book != null) {
+                if (failure == null) {
+                    bookListModel.clearStatus(book);
+                } else {
+                    bookListModel.setFailed(book, failure);
+                }
             }
+            lastFailed = failure != null;
+            lastResult = description + (lastFailed ? ": falhou (" + failure + ")."
+                    : result == LibraryResult.ON_HOLD ? ": " + result.message() + "." : ": concluído.");
+            showStatus();
+        }));
+    }
+
+    /**
+     * Atualiza a barra de estado com o número de operações pendentes e o resultado da última operação.
+     */
+    private void showStatus() {
+        String text = pendingOperations > 0 ? "A guardar " + pendingOperations + " operação(ões)... " : "";
+        if (lastResult != null) {
+            text += lastResult;
+        }
+        statusLabel.setText(text.isEmpty() ? " " : text);
+        statusLabel.setForeground(lastFailed ? Color.RED : UIManager.getColor("Label.foreground"));
+    }
+
+    /**
+     * Obtém uma descrição curta do erro de uma operação.
+     *
+     * @param error O erro com que a operação terminou.
+     * @return A mensagem do erro original.
+     */
+    private static String describe(Throwable error) {
+        if (error instanceof CompletionException && error.getCause() != null) {
+            error = error.getCause();
+        }
+        if (error instanceof UncheckedIOException && error.getCause() != null) {
+            error = error.getCause();
         }
+        return error.getMessage() != null ? error.getMessage() : error.toString();
+    }
+
+    /**
+     * Fecha a janela, esperando noutra thread que as operações pendentes sejam guardadas antes de terminar.
+     */
+    private void close() {
+        frame.setTitle("Gestão de Biblioteca - a guardar...");
+        new Thread(() -> {
+            try {
+                user.close();
+            } catch (IOException e) {
+                System.err.println("Erro ao fechar a biblioteca: " + e.getMessage());
+            }
+            System.exit(0);
+        }, "library-close").start();
+    }
 
-        refreshBookList();
+    /**
+     * Método chamado quando o texto da pesquisa muda.
+     * Ao começar a pesquisar, deixa de haver autor selecionado.
+     */
+    private void searchChanged() {
+        if (!searchField.getText().isBlank() && authorList.getSelectedIndex() != -1) {
+            authorList.clearSelection();  // Limpar a seleção também atualiza a lista
+        } else {
+            refreshBookList();
+        }
     }
 
     /**
-     * Método responsável por atualizar a lista de livros exibida de acordo com o autor selecionado.
+     * Método responsável por mudar o conteúdo da lista de livros exibida, com os livros encontrados pela pesquisa
+     * ou, se não houver pesquisa, de acordo com o autor selecionado.
+     * Os livros são obtidos na thread de I/O e mostrados pela fila de avisos do modelo, por isso a janela não espera
+     * pela biblioteca e as alterações seguintes ao catálogo chegam ao modelo pelos avisos da biblioteca.
+     * Se entretanto houver outro pedido (mais uma tecla na pesquisa), o resultado deste é ignorado.
      */
     private void refreshBookList() {
+        int request = ++refreshRequest;
+        String query = searchField.getText();
+        if (!query.isBlank()) {
+            user.searchBooks(query).whenComplete((books, error) -> bookListModel.applyInOrder(() -> {
+                if (request == refreshRequest && !refreshFailed(error)) {
+                    bookListModel.showBooks(books);
+                }
+            }));
+            return;
+        }
+
+        String selectedAuthor = authorList.getSelectedValue();
+        if (selectedAuthor != null) {
+            user.loadBooksByAuthor(selectedAuthor).whenComplete((books, error) -> bookListModel.applyInOrder(() -> {
+                if (request == refreshRequest && !refreshFailed(error)) {
+                    bookListModel.showAuthor(selectedAuthor, books);
+                }
+            }));
+        } else {
+            bookListModel.clear();
+        }
+    }
+
+    /**
+     * Mostra na barra de estado o erro de um pedido de livros para a lista, se tiver falhado.
+     *
+     * @param error O erro com que o pedido terminou, ou null.
+     * @return true se o pedido falhou.
+     */
+    private boolean refreshFailed(Throwable error) {
+        if (error == null) {
+            return false;
+        }
         bookListModel.clear();
+        lastFailed = true;
+        lastResult = "Obter os livros: falhou (" + describe(error) + ").";
+        showStatus();
+        return true;
+    }
 
-        int selectedAuthorIndex = authorList.getSelectedIndex();
-        if (selectedAuthorIndex != -1) {
-            Book[] books = user.getBooksByAuthor(selectedAuthorIndex);
-            for (Book book : books) {
-                book.setAuthor(authorList.getSelectedValue());
-                bookListModel.addElement(book);
+    /**
+     * Desenha cada livro com o estado esperado, enquanto há uma operação por terminar,
+     * ou com o motivo da falha da última operação.
+     */
+    private class BookCellRenderer extends DefaultListCellRenderer {
+
+        @Serial
+        private static final long serialVersionUID = 1L;
+
+        @Override
+        public Component getListCellRendererComponent(JList<?> list, Object value, int index,
+                                                      boolean isSelected, boolean cellHasFocus) {
+            super.getListCellRendererComponent(list, value, index, isSelected, cellHasFocus);
+
+            Book book = (Book) value;
+            String pending = bookListModel.getPending(book);
+            String failure = bookListModel.getFailure(book);
+            if (pending != null) {
+                setText(book.getTitle() + " - " + pending);
+                setForeground(Color.GRAY);
+            } else if (failure != null) {
+                setText(book + " (falhou: " + failure + ")");
+                if (!isSelected) {
+                    setForeground(Color.RED);
+                }
             }
+            return this;
         }
     }
-}
+}
\ No newline at end of file
@@ -0,0 +1,34 @@
+/**
+ * Interface para objetos que querem ser avisados das alterações ao catálogo da biblioteca,
+ * como índices de pesquisa ou listas da interface gráfica.
+ * <p>
+ * Os avisos são dados pela thread que fez a alteração, enquanto esta ainda tem os locks da biblioteca,
+ * por isso chegam pela mesma ordem das alterações. Os métodos devem ser rápidos e não podem chamar a biblioteca.
+ */
+public interface LibraryListener {
+
+    /**
+     * Chamado quando um livro é adicionado à biblioteca.
+     * Ao registar o ouvinte, é também chamado para cada livro já existente.
+     *
+     * @param book O livro adicionado, com o autor e o identificador definidos.
+     */
+    default void bookAdded(Book book) {
+    }
+
+    /**
+     * Chamado quando um livro é removido da biblioteca, antes de o seu identificador poder ser reutilizado.
+     *
+     * @param book O livro removido.
+     */
+    default void bookRemoved(Book book) {
+    }
+
+    /**
+     * Chamado quando um livro é requisitado ou devolvido.
+     *
+     * @param book O livro cuja disponibilidade mudou.
+     */
+    default void availabilityChanged(Book book) {
+    }
+}
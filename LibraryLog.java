@@ -0,0 +1,208 @@
+import java.time.Instant;
+import java.time.LocalTime;
+import java.time.ZoneId;
+import java.time.format.DateTimeFormatter;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.concurrent.locks.Condition;
+import java.util.concurrent.locks.ReentrantLock;
+
+/**
+ * Registo de mensagens da biblioteca, escrito no terminal (System.err) por uma thread própria.
+ * <p>
+ * Quem regista uma mensagem apenas a põe numa fila; a formatação e a escrita são feitas pela thread do registo,
+ * que escreve de uma só vez todas as mensagens acumuladas. Assim, as operações da biblioteca nunca esperam
+ * pela consola. Se a fila estiver cheia, a mensagem é descartada e o número de descartadas é indicado mais tarde.
+ * <p>
+ * Só são registadas as mensagens com nível igual ou superior ao configurado com {@link #setLevel} ou com
+ * {@code -Dlibrary.log.level} (por omissão, INFO). Para que uma mensagem filtrada não crie objetos no código
+ * mais usado, este verifica {@link #isEnabled} antes de chamar {@link #log}.
+ */
+public final class LibraryLog {
+
+    /**
+     * Níveis das mensagens, do menos para o mais importante.
+     */
+    public enum Level {
+        DEBUG, INFO, WARNING, ERROR, OFF
+    }
+
+    private static final int CAPACITY = 8192;  // Mensagens que podem estar à espera de ser escritas
+    private static final int BATCH = 1024;     // Mensagens escritas no máximo de cada vez
+    private static final DateTimeFormatter TIME = DateTimeFormatter.ofPattern("HH:mm:ss.SSS");
+
+    /**
+     * Mensagem à espera de ser formatada e escrita.
+     */
+    private record Entry(long timeMillis, Level level, String format, Object[] args) {
+    }
+
+    private static volatile int threshold = initialLevel().ordinal();
+    private static final BlockingQueue<Entry> queue = new ArrayBlockingQueue<>(CAPACITY);
+    private static final LongAdder dropped = new LongAdder();
+    private static final AtomicLong accepted = new AtomicLong();  // Mensagens aceites na fila
+    private static long written;                                   // Mensagens já escritas, protegido por lock
+
+    private static final ReentrantLock lock = new ReentrantLock();
+    private static final Condition progress = lock.newCondition();
+    private static volatile Thread writer;  // Criada na primeira mensagem
+
+    private LibraryLog() {
+    }
+
+    /**
+     * Lê o nível inicial da propriedade "library.log.level".
+     */
+    private static Level initialLevel() {
+        String level = System.getProperty("library.log.level");
+        if (level != null) {
+            try {
+                return Level.valueOf(level.toUpperCase());
+            } catch (IllegalArgumentException e) {
+                System.err.println("Nível de registo desconhecido: " + level);
+            }
+        }
+        return Level.INFO;
+    }
+
+    /**
+     * Altera o nível mínimo das mensagens registadas.
+     *
+     * @param level O nível mínimo; {@link Level#OFF} desativa o registo.
+     */
+    public static void setLevel(Level level) {
+        threshold = level.ordinal();
+    }
+
+    /**
+     * Indica se as mensagens de um nível são registadas.
+     *
+     * @param level O nível.
+     * @return true se as mensagens desse nível são registadas.
+     */
+    public static boolean isEnabled(Level level) {
+        return level.ordinal() >= threshold;
+    }
+
+    /**
+     * Regista uma mensagem, formatada mais tarde com {@link String#format}.
+     * Os argumentos devem ser imutáveis, porque são lidos depois de este método retornar.
+     *
+     * @param level O nível da mensagem.
+     * @param format O formato da mensagem.
+     * @param args Os argumentos do formato.
+     */
+    public static void log(Level level, String format, Object... args) {
+        if (!isEnabled(level) || level == Level.OFF) {
+            return;
+        }
+        if (!queue.offer(new Entry(System.currentTimeMillis(), level, format, args))) {
+            dropped.increment();
+            return;
+        }
+        accepted.incrementAndGet();
+        if (writer == null) {
+            startWriter();
+        }
+    }
+
+    /**
+     * Espera que as mensagens já registadas sejam escritas.
+     *
+     * @param timeoutMillis Tempo máximo de espera em milissegundos.
+     * @return true se foram todas escritas dentro do tempo.
+     */
+    public static boolean flush(long timeoutMillis) {
+        long target = accepted.get();
+        long remaining = TimeUnit.MILLISECONDS.toNanos(timeoutMillis);
+        lock.lock();
+        try {
+            while (written < target) {
+                if (remaining <= 0) {
+                    return false;
+                }
+                remaining = progress.awaitNanos(remaining);
+            }
+            return true;
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            return false;
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    /**
+     * Inicia a thread do registo, que escreve as mensagens pendentes também quando a aplicação termina.
+     */
+    private static void startWriter() {
+        lock.lock();
+        try {
+            if (writer != null) {
+                return;
+            }
+            writer = new Thread(LibraryLog::writeLoop, "library-log");
+            writer.setDaemon(true);
+            writer.start();
+            Runtime.getRuntime().addShutdownHook(new Thread(() -> flush(1_000), "library-log-flush"));
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    /**
+     * Ciclo da thread do registo: espera por mensagens e escreve todas as acumuladas com uma só escrita.
+     */
+    private static void writeLoop() {
+        List<Entry> batch = new ArrayList<>(BATCH);
+        StringBuilder text = new StringBuilder();
+        while (true) {
+            try {
+                batch.add(queue.take());
+            } catch (InterruptedException e) {
+                return;
+            }
+            queue.drainTo(batch, BATCH - 1);
+
+            long lost = dropped.sumThenReset();
+            if (lost > 0) {
+                text.append(LocalTime.now().format(TIME)).append(" WARNING ")
+                        .append(lost).append(" mensagens descartadas (registo cheio).").append(System.lineSeparator());
+            }
+            for (Entry entry : batch) {
+                append(text, entry);
+            }
+            System.err.print(text);
+            System.err.flush();
+
+            lock.lock();
+            try {
+                written += batch.size();
+                progress.signalAll();
+            } finally {
+                lock.unlock();
+            }
+            batch.clear();
+            text.setLength(0);
+        }
+    }
+
+    /**
+     * Formata uma mensagem como "12:34:56.789 INFO mensagem".
+     */
+    private static void append(StringBuilder text, Entry entry) {
+        LocalTime time = LocalTime.ofInstant(Instant.ofEpochMilli(entry.timeMillis()), ZoneId.systemDefault());
+        text.append(time.format(TIME)).append(' ').append(entry.level()).append(' ');
+        try {
+            text.append(entry.args().length == 0 ? entry.format() : String.format(entry.format(), entry.args()));
+        } catch (RuntimeException e) {
+            text.append(entry.format()).append(" (erro ao formatar: ").append(e.getMessage()).append(')');
+        }
+        text.append(System.lineSeparator());
+    }
+}
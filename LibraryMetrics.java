@@ -0,0 +1,303 @@
+import java.io.Closeable;
+import java.io.PrintStream;
+import java.lang.management.ManagementFactory;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.function.ToDoubleFunction;
+import javax.management.JMException;
+import javax.management.MBeanServer;
+import javax.management.ObjectName;
+
+/**
+ * Métricas das operações de uma biblioteca: quantas vezes cada operação foi executada, a distribuição das suas
+ * latências num LatencyHistogram, quantas operações não tiveram efeito por cada LibraryResult e quantas
+ * falharam com um erro de escrita.
+ * <p>
+ * As métricas podem ser consultadas por JMX, depois de {@link #register}, ou escritas periodicamente em texto,
+ * com {@link #startReporting}. Contar e medir são incrementos em LongAdder e no histograma, sem locks, por isso
+ * podem ser feitos dentro dos locks da biblioteca. Com {@link #DISABLED}, usado por omissão, cada medição é
+ * apenas a leitura de um campo final, sem chamar {@link System#nanoTime()}.
+ */
+public final class LibraryMetrics implements LibraryMetricsMXBean, Closeable {
+
+    /**
+     * Operações medidas.
+     */
+    public enum Operation {
+        LOAD("loadBooks"),
+        ADD("addBook"),
+        ADD_BATCH("addBooks"),
+        REMOVE("removeBook"),
+        REQUEST("requestBook"),
+        RETURN("returnBook"),
+        SAVE("saveBooksToFile"),
+        LOOKUP("getBooksByAuthor"),
+        HOLD("holdBook"),
+        COPIES("setCopies");
+
+        private final String label;
+
+        Operation(String label) {
+            this.label = label;
+        }
+
+        /**
+         * Retorna o nome da operação, igual ao do método da biblioteca.
+         *
+         * @return O nome da operação.
+         */
+        public String label() {
+            return label;
+        }
+    }
+
+    /**
+     * Métricas desativadas, usadas pelas bibliotecas criadas sem métricas.
+     */
+    public static final LibraryMetrics DISABLED = new LibraryMetrics(false);
+
+    private final boolean enabled;
+    private final LatencyHistogram[] latencies = new LatencyHistogram[Operation.values().length];
+    private final LongAdder[] failures = new LongAdder[LibraryResult.values().length];
+    private final LongAdder writeErrors = new LongAdder();
+
+    private ObjectName objectName;               // Nome com que foi registado por JMX, ou null
+    private ScheduledExecutorService reporter;   // Thread que escreve o relatório periódico, ou null
+
+    /**
+     * Construtor da classe LibraryMetrics. Cria métricas ativas, ainda sem registo por JMX.
+     */
+    public LibraryMetrics() {
+        this(true);
+    }
+
+    private LibraryMetrics(boolean enabled) {
+        this.enabled = enabled;
+        for (int i = 0; i < latencies.length; i++) {
+            latencies[i] = new LatencyHistogram();
+        }
+        for (int i = 0; i < failures.length; i++) {
+            failures[i] = new LongAdder();
+        }
+    }
+
+    @Override
+    public boolean isEnabled() {
+        return enabled;
+    }
+
+    /**
+     * Marca o início de uma operação.
+     *
+     * @return O instante de início, a passar a {@link #record}, ou 0 se as métricas estiverem desativadas.
+     */
+    public long start() {
+        return enabled ? System.nanoTime() : 0;
+    }
+
+    /**
+     * Conta uma execução de uma operação e regista a sua latência.
+     *
+     * @param operation A operação executada.
+     * @param start O instante de início devolvido por {@link #start()}.
+     */
+    public void record(Operation operation, long start) {
+        if (enabled) {
+            latencies[operation.ordinal()].record(System.nanoTime() - start);
+        }
+    }
+
+    /**
+     * Conta uma operação que não teve efeito.
+     *
+     * @param result O motivo da falha.
+     */
+    public void fail(LibraryResult result) {
+        if (enabled) {
+            failures[result.ordinal()].increment();
+        }
+    }
+
+    /**
+     * Conta uma operação que falhou com um erro de escrita.
+     */
+    public void writeError() {
+        if (enabled) {
+            writeErrors.increment();
+        }
+    }
+
+    /**
+     * Retorna o número de execuções de uma operação.
+     *
+     * @param operation A operação.
+     * @return O número de execuções.
+     */
+    public long count(Operation operation) {
+        return latencies[operation.ordinal()].count();
+    }
+
+    /**
+     * Retorna o número de operações sem efeito por um motivo.
+     *
+     * @param result O motivo.
+     * @return O número de falhas.
+     */
+    public long count(LibraryResult result) {
+        return failures[result.ordinal()].sum();
+    }
+
+    /**
+     * Retorna o número de operações que falharam com um erro de escrita.
+     *
+     * @return O número de erros de escrita.
+     */
+    public long writeErrors() {
+        return writeErrors.sum();
+    }
+
+    /**
+     * Retorna o histograma das latências de uma operação.
+     *
+     * @param operation A operação.
+     * @return O histograma, partilhado com estas métricas.
+     */
+    public LatencyHistogram latencies(Operation operation) {
+        return latencies[operation.ordinal()];
+    }
+
+    @Override
+    public Map<String, Long> getOperationCounts() {
+        Map<String, Long> counts = new LinkedHashMap<>();
+        for (Operation operation : Operation.values()) {
+            counts.put(operation.label(), count(operation));
+        }
+        return counts;
+    }
+
+    @Override
+    public Map<String, Long> getFailureCounts() {
+        Map<String, Long> counts = new LinkedHashMap<>();
+        for (LibraryResult result : LibraryResult.values()) {
+            if (!result.isSuccess()) {
+                counts.put(result.name(), count(result));
+            }
+        }
+        counts.put("WRITE_ERROR", writeErrors());
+        return counts;
+    }
+
+    @Override
+    public Map<String, Double> getMeanLatencyMicros() {
+        return latencyMicros(LatencyHistogram::mean);
+    }
+
+    @Override
+    public Map<String, Double> getP50LatencyMicros() {
+        return latencyMicros(histogram -> histogram.percentile(0.5));
+    }
+
+    @Override
+    public Map<String, Double> getP99LatencyMicros() {
+        return latencyMicros(histogram -> histogram.percentile(0.99));
+    }
+
+    @Override
+    public Map<String, Double> getP999LatencyMicros() {
+        return latencyMicros(histogram -> histogram.percentile(0.999));
+    }
+
+    @Override
+    public Map<String, Double> getMaxLatencyMicros() {
+        return latencyMicros(LatencyHistogram::max);
+    }
+
+    /**
+     * Calcula um valor em microssegundos a partir do histograma de cada operação.
+     */
+    private Map<String, Double> latencyMicros(ToDoubleFunction<LatencyHistogram> nanos) {
+        Map<String, Double> values = new LinkedHashMap<>();
+        for (Operation operation : Operation.values()) {
+            values.put(operation.label(), nanos.applyAsDouble(latencies[operation.ordinal()]) / 1e3);
+        }
+        return values;
+    }
+
+    /**
+     * Descreve todas as métricas, com uma linha por operação executada e uma linha com as falhas.
+     *
+     * @return O relatório.
+     */
+    @Override
+    public String getReport() {
+        StringBuilder report = new StringBuilder();
+        report.append(String.format("%-16s %10s %10s %10s %10s %10s%n",
+                "operação", "execuções", "p50 (µs)", "p99 (µs)", "p99.9 (µs)", "máx (µs)"));
+        for (Operation operation : Operation.values()) {
+            LatencyHistogram histogram = latencies[operation.ordinal()];
+            if (histogram.count() == 0) {
+                continue;
+            }
+            report.append(String.format("%-16s %10d %10.1f %10.1f %10.1f %10.1f%n", operation.label(), histogram.count(),
+                    histogram.percentile(0.5) / 1e3, histogram.percentile(0.99) / 1e3,
+                    histogram.percentile(0.999) / 1e3, histogram.max() / 1e3));
+        }
+        report.append("falhas:");
+        getFailureCounts().forEach((reason, count) -> report.append(' ').append(reason).append(' ').append(count));
+        return report.toString();
+    }
+
+    /**
+     * Regista estas métricas no servidor JMX da plataforma, como "fundamentos.library:type=LibraryMetrics,name=...".
+     *
+     * @param name Nome que distingue esta biblioteca das outras do mesmo processo.
+     * @throws JMException Se o nome for inválido ou já estiver registado.
+     */
+    public synchronized void register(String name) throws JMException {
+        MBeanServer server = ManagementFactory.getPlatformMBeanServer();
+        ObjectName registered = new ObjectName("fundamentos.library:type=LibraryMetrics,name=" + ObjectName.quote(name));
+        server.registerMBean(this, registered);
+        objectName = registered;
+    }
+
+    /**
+     * Escreve o relatório periodicamente, numa thread daemon, até as métricas serem fechadas.
+     *
+     * @param periodSeconds Intervalo entre relatórios, em segundos.
+     * @param out Onde escrever o relatório.
+     */
+    public synchronized void startReporting(long periodSeconds, PrintStream out) {
+        if (reporter != null) {
+            throw new IllegalStateException("O relatório periódico já foi iniciado.");
+        }
+        reporter = Executors.newSingleThreadScheduledExecutor(task -> {
+            Thread thread = new Thread(task, "library-metrics");
+            thread.setDaemon(true);
+            return thread;
+        });
+        reporter.scheduleAtFixedRate(() -> out.println(getReport()), periodSeconds, periodSeconds, TimeUnit.SECONDS);
+    }
+
+    /**
+     * Para o relatório periódico e retira o registo JMX. As métricas continuam a ser recolhidas.
+     */
+    @Override
+    public synchronized void close() {
+        if (reporter != null) {
+            reporter.shutdownNow();
+            reporter = null;
+        }
+        if (objectName != null) {
+            try {
+                ManagementFactory.getPlatformMBeanServer().unregisterMBean(objectName);
+            } catch (JMException e) {
+                // Já não está registado
+            }
+            objectName = null;
+        }
+    }
+}
@@ -0,0 +1,71 @@
+import java.util.Map;
+
+/**
+ * Interface de gestão (JMX) das métricas de uma biblioteca, visível por exemplo no JConsole ou no VisualVM
+ * em "fundamentos.library". Cada mapa tem uma entrada por operação ou por motivo de falha.
+ */
+public interface LibraryMetricsMXBean {
+
+    /**
+     * Indica se as métricas estão a ser recolhidas.
+     *
+     * @return true se as operações estão a ser medidas.
+     */
+    boolean isEnabled();
+
+    /**
+     * Retorna o número de vezes que cada operação foi executada.
+     *
+     * @return Mapa do nome da operação para o número de execuções.
+     */
+    Map<String, Long> getOperationCounts();
+
+    /**
+     * Retorna o número de operações sem efeito por cada LibraryResult e o número de erros de escrita (WRITE_ERROR).
+     *
+     * @return Mapa do motivo para o número de falhas.
+     */
+    Map<String, Long> getFailureCounts();
+
+    /**
+     * Retorna a latência média de cada operação.
+     *
+     * @return Mapa do nome da operação para a latência média em microssegundos.
+     */
+    Map<String, Double> getMeanLatencyMicros();
+
+    /**
+     * Retorna o p50 da latência de cada operação.
+     *
+     * @return Mapa do nome da operação para o p50 em microssegundos.
+     */
+    Map<String, Double> getP50LatencyMicros();
+
+    /**
+     * Retorna o p99 da latência de cada operação.
+     *
+     * @return Mapa do nome da operação para o p99 em microssegundos.
+     */
+    Map<String, Double> getP99LatencyMicros();
+
+    /**
+     * Retorna o p99.9 da latência de cada operação.
+     *
+     * @return Mapa do nome da operação para o p99.9 em microssegundos.
+     */
+    Map<String, Double> getP999LatencyMicros();
+
+    /**
+     * Retorna a maior latência de cada operação.
+     *
+     * @return Mapa do nome da operação para a maior latência em microssegundos.
+     */
+    Map<String, Double> getMaxLatencyMicros();
+
+    /**
+     * Retorna o relatório em texto com todas as métricas, igual ao escrito periodicamente.
+     *
+     * @return O relatório.
+     */
+    String getReport();
+}
@@ -0,0 +1,169 @@
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * Protocolo de texto entre o LibraryServer e os seus clientes.
+ * <p>
+ * Cada mensagem é uma linha em UTF-8 terminada em '\n', com campos separados por tabs.
+ * Os campos escapam '\\', tab, '\n' e '\r' com uma barra invertida, por isso autores e títulos podem ter qualquer texto.
+ * <ul>
+ *     <li>Pedidos: {@code AUTHORS}, {@code BOOKS autor}, {@code REQUEST autor título [requisitante]},
+ *     {@code HOLD autor título [requisitante]}, {@code COPIES autor título exemplares}, {@code RETURN autor título},
+ *     {@code ADD autor título}, {@code REMOVE autor título}, {@code ADDALL [autor título disponível]...},
+ *     {@code ADDNEW [autor título disponível]...} e {@code SUBSCRIBE}. {@code ADDALL} adiciona vários livros com
+ *     uma só escrita e {@code ADDNEW} apenas os que ainda não estão no catálogo, numa só operação no servidor.
+ *     Sem requisitante, o empréstimo ou a reserva ficam registados com um requisitante desconhecido.</li>
+ *     <li>Respostas, pela ordem dos pedidos: {@code OK} seguido dos resultados, ou {@code ERR mensagem}.
+ *     {@code AUTHORS} responde com os autores; {@code BOOKS} com pares título e disponibilidade;
+ *     {@code ADDALL} sem resultados; {@code ADDNEW} com o número de livros adicionados;
+ *     as alterações com o nome de um LibraryResult, como {@code SUCCESS}, {@code ON_HOLD} ou {@code UNAVAILABLE}.</li>
+ *     <li>Avisos, enviados a quem pediu {@code SUBSCRIBE}: {@code ADDED id autor título disponível},
+ *     {@code REMOVED id} e {@code CHANGED id disponível}, em que id é o identificador do livro no servidor.
+ *     Ao subscrever, o servidor envia primeiro um {@code ADDED} por cada livro existente e só depois o {@code OK}.</li>
+ * </ul>
+ * A disponibilidade é "1" ou "0". Cada pedido tem no máximo {@link #MAX_LINE} bytes, por isso os lotes grandes
+ * são enviados em vários pedidos. O aviso de uma alteração feita por um cliente chega-lhe antes da resposta ao pedido.
+ */
+public final class LibraryProtocol {
+
+    /**
+     * Porta usada por omissão pelo servidor.
+     */
+    public static final int DEFAULT_PORT = 7070;
+
+    /**
+     * Tamanho máximo de um pedido, em bytes, incluindo o '\n' final; o servidor fecha a ligação a pedidos maiores.
+     */
+    public static final int MAX_LINE = 64 * 1024;
+
+    public static final String AUTHORS = "AUTHORS";
+    public static final String BOOKS = "BOOKS";
+    public static final String REQUEST = "REQUEST";
+    public static final String HOLD = "HOLD";
+    public static final String COPIES = "COPIES";
+    public static final String RETURN = "RETURN";
+    public static final String ADD = "ADD";
+    public static final String REMOVE = "REMOVE";
+    public static final String ADD_ALL = "ADDALL";
+    public static final String ADD_NEW = "ADDNEW";
+    public static final String SUBSCRIBE = "SUBSCRIBE";
+
+    public static final String OK = "OK";
+    public static final String ERR = "ERR";
+
+    public static final String ADDED = "ADDED";
+    public static final String REMOVED = "REMOVED";
+    public static final String CHANGED = "CHANGED";
+
+    private LibraryProtocol() {
+    }
+
+    /**
+     * Junta campos numa linha do protocolo, sem o '\n' final.
+     *
+     * @param fields Os campos da mensagem.
+     * @return A linha codificada.
+     */
+    public static String encode(String... fields) {
+        StringBuilder line = new StringBuilder();
+        for (int i = 0; i < fields.length; i++) {
+            if (i > 0) {
+                line.append('\t');
+            }
+            appendEscaped(line, fields[i]);
+        }
+        return line.toString();
+    }
+
+    /**
+     * Acrescenta um campo escapado a uma linha em construção.
+     *
+     * @param line A linha em construção.
+     * @param field O campo a acrescentar.
+     */
+    public static void appendEscaped(StringBuilder line, String field) {
+        for (int i = 0; i < field.length(); i++) {
+            char c = field.charAt(i);
+            switch (c) {
+                case '\\' -> line.append("\\\\");
+                case '\t' -> line.append("\\t");
+                case '\n' -> line.append("\\n");
+                case '\r' -> line.append("\\r");
+                default -> line.append(c);
+            }
+        }
+    }
+
+    /**
+     * Calcula quantos bytes ocupa um campo escapado, em UTF-8, sem o codificar.
+     *
+     * @param field O campo.
+     * @return O número de bytes do campo na linha.
+     */
+    public static int encodedLength(String field) {
+        int length = 0;
+        for (int i = 0; i < field.length(); i++) {
+            char c = field.charAt(i);
+            if (c == '\\' || c == '\t' || c == '\n' || c == '\r') {
+                length += 2;
+            } else if (c < 0x80) {
+                length++;
+            } else if (c < 0x800 || Character.isSurrogate(c)) {
+                length += 2;  // Um par de surrogates ocupa 4 bytes
+            } else {
+                length += 3;
+            }
+        }
+        return length;
+    }
+
+    /**
+     * Separa uma linha do protocolo nos seus campos.
+     *
+     * @param line A linha recebida, sem o '\n' final.
+     * @return Os campos da mensagem.
+     */
+    public static String[] decode(String line) {
+        List<String> fields = new ArrayList<>();
+        StringBuilder field = new StringBuilder();
+        for (int i = 0; i < line.length(); i++) {
+            char c = line.charAt(i);
+            if (c == '\t') {
+                fields.add(field.toString());
+                field.setLength(0);
+            } else if (c == '\\' && i + 1 < line.length()) {
+                char escaped = line.charAt(++i);
+                field.append(switch (escaped) {
+                    case 't' -> '\t';
+                    case 'n' -> '\n';
+                    case 'r' -> '\r';
+                    default -> escaped;
+                });
+            } else {
+                field.append(c);
+            }
+        }
+        fields.add(field.toString());
+        return fields.toArray(new String[0]);
+    }
+
+    /**
+     * Converte uma disponibilidade num campo do protocolo.
+     *
+     * @param available A disponibilidade.
+     * @return "1" se disponível, "0" caso contrário.
+     */
+    public static String flag(boolean available) {
+        return available ? "1" : "0";
+    }
+
+    /**
+     * Lê uma disponibilidade de um campo do protocolo.
+     *
+     * @param field O campo.
+     * @return true se o campo for "1".
+     */
+    public static boolean flag(String field) {
+        return field.equals("1");
+    }
+}
@@ -0,0 +1,63 @@
+/**
+ * Resultado de uma alteração à biblioteca (adicionar, remover, requisitar ou devolver um livro).
+ * <p>
+ * As operações retornam uma destas constantes em vez de escreverem mensagens no terminal, por isso indicar
+ * o resultado não cria objetos nem espera pela consola; quem chama decide se e como o mostra.
+ * Erros de escrita continuam a ser indicados com IOException.
+ */
+public enum LibraryResult {
+
+    /**
+     * A operação foi aplicada e guardada.
+     */
+    SUCCESS("Operação concluída"),
+
+    /**
+     * Não existe nenhum livro do autor indicado.
+     */
+    AUTHOR_NOT_FOUND("Autor não encontrado"),
+
+    /**
+     * O autor existe, mas não tem nenhum livro com o título indicado.
+     */
+    BOOK_NOT_FOUND("Livro não encontrado"),
+
+    /**
+     * O livro já está requisitado.
+     */
+    UNAVAILABLE("Livro indisponível"),
+
+    /**
+     * O livro não estava requisitado.
+     */
+    ALREADY_RETURNED("Livro já estava devolvido"),
+
+    /**
+     * Não havia nenhum exemplar disponível; o pedido ficou na fila de reservas do título.
+     */
+    ON_HOLD("Livro reservado; fica na fila de espera");
+
+    private final String message;
+
+    LibraryResult(String message) {
+        this.message = message;
+    }
+
+    /**
+     * Indica se a operação foi aplicada.
+     *
+     * @return true para {@link #SUCCESS}.
+     */
+    public boolean isSuccess() {
+        return this == SUCCESS;
+    }
+
+    /**
+     * Retorna a mensagem a mostrar ao utilizador.
+     *
+     * @return A mensagem, como "Livro indisponível".
+     */
+    public String message() {
+        return message;
+    }
+}
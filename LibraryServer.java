@@ -0,0 +1,491 @@
+import java.io.Closeable;
+import java.io.IOException;
+import java.net.InetSocketAddress;
+import java.nio.ByteBuffer;
+import java.nio.channels.SelectionKey;
+import java.nio.channels.Selector;
+import java.nio.channels.ServerSocketChannel;
+import java.nio.channels.SocketChannel;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.Iterator;
+import java.util.List;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Servidor que partilha uma única Library em memória com vários terminais, através do LibraryProtocol.
+ * <p>
+ * Uma thread com um Selector aceita as ligações e faz todas as leituras e escritas sem bloquear, por isso
+ * muitos clientes lentos ou parados não ocupam threads. Os pedidos de cada ligação são executados por ordem
+ * em threads de LibraryThreads (virtual threads, se disponíveis), porque as operações da biblioteca podem esperar
+ * pelo disco; ligações diferentes são atendidas em paralelo. As respostas e os avisos são postos numa fila da ligação e enviados pela thread do Selector.
+ * <p>
+ * Um cliente que pede muitos pedidos sem ler as respostas deixa de ser lido até a fila diminuir; se as mensagens
+ * por enviar passarem de MAX_PENDING_OUTPUT bytes, a ligação é fechada.
+ */
+public class LibraryServer implements Closeable {
+
+    private static final int MAX_QUEUED_COMMANDS = 1024;           // Pedidos por executar antes de parar de ler
+    private static final long MAX_PENDING_OUTPUT = 256L << 20;     // Bytes por enviar antes de fechar a ligação
+    private static final int COMMANDS_PER_TURN = 64;               // Pedidos seguidos de uma ligação numa thread
+
+    // Resposta a cada resultado de uma alteração, criada uma só vez
+    private static final String[] RESULT_REPLIES = new String[LibraryResult.values().length];
+
+    static {
+        for (LibraryResult result : LibraryResult.values()) {
+            RESULT_REPLIES[result.ordinal()] = LibraryProtocol.encode(LibraryProtocol.OK, result.name());
+        }
+    }
+
+    private final Library library;
+    private final ServerSocketChannel serverChannel;
+    private final Selector selector;
+    private final ExecutorService workers;
+    private final Thread selectorThread;
+    private final ConcurrentLinkedQueue<Runnable> selectorTasks = new ConcurrentLinkedQueue<>();
+    private final List<Connection> connections = new ArrayList<>();  // Só usada pela thread do Selector
+    private volatile boolean running = true;
+
+    /**
+     * Construtor da classe LibraryServer. Abre a porta, mas só começa a aceitar ligações em {@link #start()}.
+     *
+     * @param library A biblioteca partilhada pelos clientes.
+     * @param address O endereço e a porta onde escutar (porta 0 para uma porta livre).
+     * @param workerThreads Número de threads que executam os pedidos, se não houver virtual threads.
+     * @throws IOException Se não for possível abrir a porta.
+     */
+    public LibraryServer(Library library, InetSocketAddress address, int workerThreads) throws IOException {
+        this.library = library;
+        this.selector = Selector.open();
+        this.serverChannel = ServerSocketChannel.open();
+        serverChannel.bind(address);
+        serverChannel.configureBlocking(false);
+        serverChannel.register(selector, SelectionKey.OP_ACCEPT);
+        this.workers = LibraryThreads.newRequestExecutor("library-server", workerThreads);
+        this.selectorThread = new Thread(this::selectLoop, "library-server-selector");
+    }
+
+    /**
+     * Retorna a porta onde o servidor está a escutar.
+     *
+     * @return O número da porta.
+     * @throws IOException Se a porta já tiver sido fechada.
+     */
+    public int getPort() throws IOException {
+        return ((InetSocketAddress) serverChannel.getLocalAddress()).getPort();
+    }
+
+    /**
+     * Começa a aceitar ligações e a atender pedidos.
+     */
+    public void start() {
+        selectorThread.start();
+    }
+
+    /**
+     * Fecha a porta e todas as ligações, esperando que os pedidos em execução terminem.
+     * A biblioteca não é fechada.
+     */
+    @Override
+    public void close() {
+        running = false;
+        selector.wakeup();
+        try {
+            selectorThread.join();
+            workers.shutdown();
+            workers.awaitTermination(10, TimeUnit.SECONDS);
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+    }
+
+    /**
+     * Ciclo da thread do Selector: executa as tarefas pedidas pelas outras threads e trata as ligações prontas.
+     */
+    private void selectLoop() {
+        try {
+            while (running) {
+                selector.select();
+
+                Runnable task;
+                while ((task = selectorTasks.poll()) != null) {
+                    task.run();
+                }
+
+                Iterator<SelectionKey> keys = selector.selectedKeys().iterator();
+                while (keys.hasNext()) {
+                    SelectionKey key = keys.next();
+                    keys.remove();
+                    if (!key.isValid()) {
+                        continue;
+                    }
+                    if (key.isAcceptable()) {
+                        accept();
+                        continue;
+                    }
+
+                    Connection connection = (Connection) key.attachment();
+                    try {
+                        if (key.isReadable()) {
+                            connection.read();
+                        }
+                        if (key.isValid() && key.isWritable()) {
+                            connection.write();
+                        }
+                    } catch (IOException e) {
+                        connection.close();
+                    }
+                }
+            }
+        } catch (IOException e) {
+            LibraryLog.log(LibraryLog.Level.ERROR, "Erro no servidor: %s", e.getMessage());
+        } finally {
+            for (Connection connection : new ArrayList<>(connections)) {
+                connection.close();
+            }
+            try {
+                serverChannel.close();
+                selector.close();
+            } catch (IOException e) {
+                LibraryLog.log(LibraryLog.Level.WARNING, "Erro ao fechar o servidor: %s", e.getMessage());
+            }
+        }
+    }
+
+    /**
+     * Aceita as ligações pendentes.
+     */
+    private void accept() throws IOException {
+        SocketChannel channel;
+        while ((channel = serverChannel.accept()) != null) {
+            channel.configureBlocking(false);
+            channel.socket().setTcpNoDelay(true);
+            Connection connection = new Connection(channel);
+            connection.key = channel.register(selector, SelectionKey.OP_READ, connection);
+            connections.add(connection);
+        }
+    }
+
+    /**
+     * Pede que uma tarefa seja executada pela thread do Selector, a única que mexe nos canais.
+     */
+    private void onSelectorThread(Runnable task) {
+        selectorTasks.add(task);
+        selector.wakeup();
+    }
+
+    /**
+     * Ligação de um cliente. Os avisos da biblioteca para esta ligação chegam como LibraryListener.
+     */
+    private final class Connection implements LibraryListener {
+
+        private final SocketChannel channel;
+        private SelectionKey key;
+
+        private final ByteBuffer input = ByteBuffer.allocate(LibraryProtocol.MAX_LINE);  // Bytes recebidos ainda sem '\n'
+        private final ByteBuffer output = ByteBuffer.allocateDirect(64 * 1024);  // Bytes a enviar ao canal
+        private ByteBuffer partial;  // Mensagem que não coube inteira em output
+
+        private final ConcurrentLinkedQueue<String> commands = new ConcurrentLinkedQueue<>();
+        private final AtomicInteger queuedCommands = new AtomicInteger();
+        private final AtomicBoolean processing = new AtomicBoolean();
+        private volatile boolean readingPaused;
+
+        private final ConcurrentLinkedQueue<ByteBuffer> messages = new ConcurrentLinkedQueue<>();
+        private final AtomicLong pendingBytes = new AtomicLong();
+        private final AtomicBoolean flushScheduled = new AtomicBoolean();
+
+        private final AtomicBoolean closed = new AtomicBoolean();
+        private boolean subscribed;  // Só usado pelas threads que executam os pedidos, um de cada vez
+
+        Connection(SocketChannel channel) {
+            this.channel = channel;
+        }
+
+        /**
+         * Lê os bytes disponíveis e põe cada linha completa na fila de pedidos. Thread do Selector.
+         */
+        void read() throws IOException {
+            if (channel.read(input) == -1) {
+                close();
+                return;
+            }
+
+            input.flip();
+            int lineStart = input.position();
+            for (int i = lineStart; i < input.limit(); i++) {
+                if (input.get(i) == '\n') {
+                    int end = i > lineStart && input.get(i - 1) == '\r' ? i - 1 : i;
+                    commands.add(new String(input.array(), lineStart, end - lineStart, StandardCharsets.UTF_8));
+                    queuedCommands.incrementAndGet();
+                    lineStart = i + 1;
+                }
+            }
+            input.position(lineStart);
+            input.compact();
+
+            if (!input.hasRemaining()) {
+                LibraryLog.log(LibraryLog.Level.WARNING, "Pedido com mais de %d bytes; a fechar a ligação.",
+                        LibraryProtocol.MAX_LINE);
+                close();
+                return;
+            }
+            if (queuedCommands.get() > MAX_QUEUED_COMMANDS) {
+                readingPaused = true;
+                key.interestOps(key.interestOps() & ~SelectionKey.OP_READ);
+            }
+            schedule();
+        }
+
+        /**
+         * Envia a uma thread da pool os pedidos por executar, se nenhuma os estiver a executar.
+         */
+        private void schedule() {
+            if (!commands.isEmpty() && processing.compareAndSet(false, true)) {
+                workers.execute(this::process);
+            }
+        }
+
+        /**
+         * Executa, por ordem, alguns dos pedidos da fila. Thread da pool.
+         * Mesmo que algo falhe a meio, a ligação volta a poder ser agendada, para não ficar parada para sempre.
+         */
+        private void process() {
+            try {
+                String command;
+                int done = 0;
+                while (done < COMMANDS_PER_TURN && (command = commands.poll()) != null) {
+                    queuedCommands.decrementAndGet();
+                    if (!closed.get()) {
+                        send(execute(command));
+                    }
+                    done++;
+                }
+                if (readingPaused && queuedCommands.get() <= MAX_QUEUED_COMMANDS / 2) {
+                    onSelectorThread(this::resumeReading);
+                }
+            } finally {
+                processing.set(false);
+                schedule();  // Pedidos que chegaram entretanto, ou que não couberam nesta vez
+            }
+        }
+
+        /**
+         * Volta a ler pedidos depois de a fila ter diminuído. Thread do Selector.
+         */
+        private void resumeReading() {
+            if (readingPaused && key.isValid()) {
+                readingPaused = false;
+                key.interestOps(key.interestOps() | SelectionKey.OP_READ);
+            }
+        }
+
+        /**
+         * Executa um pedido e retorna a linha da resposta.
+         */
+        private String execute(String line) {
+            String[] fields = LibraryProtocol.decode(line);
+            try {
+                switch (fields[0]) {
+                    case LibraryProtocol.AUTHORS -> {
+                        String[] authors = library.getAuthors();
+                        String[] reply = new String[authors.length + 1];
+                        reply[0] = LibraryProtocol.OK;
+                        System.arraycopy(authors, 0, reply, 1, authors.length);
+                        return LibraryProtocol.encode(reply);
+                    }
+                    case LibraryProtocol.BOOKS -> {
+                        StringBuilder reply = new StringBuilder(LibraryProtocol.OK);
+                        for (Book book : library.getBooksByAuthor(fields[1])) {
+                            reply.append('\t');
+                            LibraryProtocol.appendEscaped(reply, book.getTitle());
+                            reply.append('\t').append(LibraryProtocol.flag(book.isAvailable()));
+                        }
+                        return reply.toString();
+                    }
+                    case LibraryProtocol.REQUEST -> {
+                        return reply(fields.length > 3
+                                ? library.requestBook(fields[1], fields[2], fields[3])
+                                : library.requestBook(fields[1], fields[2]));
+                    }
+                    case LibraryProtocol.HOLD -> {
+                        return reply(library.holdBook(fields[1], fields[2], fields.length > 3 ? fields[3] : null));
+                    }
+                    case LibraryProtocol.COPIES -> {
+                        return reply(library.setCopies(fields[1], fields[2], Integer.parseInt(fields[3])));
+                    }
+                    case LibraryProtocol.RETURN -> {
+                        return reply(library.returnBook(fields[1], fields[2]));
+                    }
+                    case LibraryProtocol.ADD -> {
+                        return reply(library.addBook(fields[1], fields[2]));
+                    }
+                    case LibraryProtocol.REMOVE -> {
+                        return reply(library.removeBook(fields[1], fields[2]));
+                    }
+                    case LibraryProtocol.ADD_ALL -> library.addBooks(books(fields));
+                    case LibraryProtocol.ADD_NEW -> {
+                        return LibraryProtocol.encode(LibraryProtocol.OK, Integer.toString(library.addNewBooks(books(fields))));
+                    }
+                    case LibraryProtocol.SUBSCRIBE -> {
+                        if (!subscribed) {
+                            subscribed = true;
+                            library.addListener(this);
+                            if (closed.get()) {
+                                library.removeListener(this);  // Fechada enquanto subscrevia
+                            }
+                        }
+                    }
+                    default -> {
+                        return LibraryProtocol.encode(LibraryProtocol.ERR, "Pedido desconhecido: " + fields[0]);
+                    }
+                }
+                return LibraryProtocol.OK;
+            } catch (IOException e) {
+                return LibraryProtocol.encode(LibraryProtocol.ERR, e.getMessage() != null ? e.getMessage() : e.toString());
+            } catch (ArrayIndexOutOfBoundsException e) {
+                return LibraryProtocol.encode(LibraryProtocol.ERR, "Faltam argumentos em " + fields[0]);
+            } catch (IllegalArgumentException e) {
+                return LibraryProtocol.encode(LibraryProtocol.ERR, "Argumento inválido em " + fields[0] + ": " + e.getMessage());
+            } catch (RuntimeException e) {
+                // Cada pedido tem de ter uma resposta, senão as respostas seguintes ficam associadas ao pedido errado
+                LibraryLog.log(LibraryLog.Level.WARNING, "Erro ao executar %s: %s", fields[0], e);
+                return LibraryProtocol.encode(LibraryProtocol.ERR, "Erro no servidor: " + e);
+            }
+        }
+
+        /**
+         * Lê os livros de um pedido ADDALL ou ADDNEW, em grupos de autor, título e disponibilidade.
+         */
+        private List<Book> books(String[] fields) {
+            if ((fields.length - 1) % 3 != 0) {
+                throw new ArrayIndexOutOfBoundsException(fields.length);
+            }
+            List<Book> books = new ArrayList<>((fields.length - 1) / 3);
+            for (int i = 1; i < fields.length; i += 3) {
+                Book book = new Book(fields[i + 1], LibraryProtocol.flag(fields[i + 2]));
+                book.setAuthor(fields[i]);
+                books.add(book);
+            }
+            return books;
+        }
+
+        /**
+         * Retorna a linha da resposta com o resultado de uma alteração.
+         */
+        private String reply(LibraryResult result) {
+            return RESULT_REPLIES[result.ordinal()];
+        }
+
+        @Override
+        public void bookAdded(Book book) {
+            StringBuilder line = new StringBuilder(LibraryProtocol.ADDED).append('\t').append(book.getId()).append('\t');
+            LibraryProtocol.appendEscaped(line, book.getAuthor());
+            line.append('\t');
+            LibraryProtocol.appendEscaped(line, book.getTitle());
+            line.append('\t').append(LibraryProtocol.flag(book.isAvailable()));
+            send(line.toString());
+        }
+
+        @Override
+        public void bookRemoved(Book book) {
+            send(LibraryProtocol.REMOVED + '\t' + book.getId());
+        }
+
+        @Override
+        public void availabilityChanged(Book book) {
+            send(LibraryProtocol.CHANGED + '\t' + book.getId() + '\t' + LibraryProtocol.flag(book.isAvailable()));
+        }
+
+        /**
+         * Põe uma linha na fila de mensagens e pede o seu envio à thread do Selector. Qualquer thread.
+         */
+        private void send(String line) {
+            if (closed.get()) {
+                return;
+            }
+            byte[] bytes = (line + "\n").getBytes(StandardCharsets.UTF_8);
+            messages.add(ByteBuffer.wrap(bytes));
+            if (pendingBytes.addAndGet(bytes.length) > MAX_PENDING_OUTPUT) {
+                LibraryLog.log(LibraryLog.Level.WARNING, "Cliente não lê as respostas; a fechar a ligação.");
+                onSelectorThread(this::close);
+                return;
+            }
+            if (flushScheduled.compareAndSet(false, true)) {
+                onSelectorThread(this::flush);
+            }
+        }
+
+        /**
+         * Envia as mensagens da fila. Thread do Selector.
+         */
+        private void flush() {
+            flushScheduled.set(false);
+            try {
+                write();
+            } catch (IOException e) {
+                close();
+            }
+        }
+
+        /**
+         * Copia as mensagens da fila para o buffer de saída e escreve-o no canal até a fila ficar vazia
+         * ou o canal não aceitar mais bytes; nesse caso, espera que o canal fique pronto. Thread do Selector.
+         */
+        void write() throws IOException {
+            if (!key.isValid()) {
+                return;
+            }
+            while (true) {
+                ByteBuffer next;
+                while (output.hasRemaining() && (next = partial != null ? partial : messages.poll()) != null) {
+                    int count = Math.min(next.remaining(), output.remaining());
+                    int limit = next.limit();
+                    next.limit(next.position() + count);
+                    output.put(next);
+                    next.limit(limit);
+                    partial = next.hasRemaining() ? next : null;
+                    pendingBytes.addAndGet(-count);
+                }
+
+                output.flip();
+                if (!output.hasRemaining()) {
+                    output.clear();
+                    key.interestOps(key.interestOps() & ~SelectionKey.OP_WRITE);
+                    return;
+                }
+                channel.write(output);
+                boolean blocked = output.hasRemaining();
+                output.compact();
+                if (blocked) {
+                    key.interestOps(key.interestOps() | SelectionKey.OP_WRITE);
+                    return;
+                }
+            }
+        }
+
+        /**
+         * Fecha a ligação e deixa de receber avisos da biblioteca. Thread do Selector.
+         */
+        void close() {
+            if (!closed.compareAndSet(false, true)) {
+                return;
+            }
+            library.removeListener(this);
+            connections.remove(this);
+            key.cancel();
+            try {
+                channel.close();
+            } catch (IOException e) {
+                LibraryLog.log(LibraryLog.Level.WARNING, "Erro ao fechar ligação: %s", e.getMessage());
+            }
+            messages.clear();
+        }
+    }
+}
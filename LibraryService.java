@@ -0,0 +1,183 @@
+import java.io.Closeable;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+
+/**
+ * Interface com as operações da biblioteca usadas pelos utilizadores e pela interface gráfica.
+ * É implementada pela própria Library, que guarda o catálogo neste processo, e pelo RemoteLibrary,
+ * que pede as operações a um LibraryServer partilhado por vários terminais.
+ */
+public interface LibraryService extends Closeable {
+
+    /**
+     * Retorna a lista de autores.
+     *
+     * @return Array de autores.
+     */
+    String[] getAuthors();
+
+    /**
+     * Retorna a lista de livros de um autor, procurando-o pelo nome.
+     *
+     * @param author Nome do autor.
+     * @return Array de livros do autor, vazio se o autor não existir.
+     */
+    Book[] getBooksByAuthor(String author);
+
+    /**
+     * Adiciona um novo livro à biblioteca.
+     *
+     * @param author Nome do autor do livro.
+     * @param title Título do livro.
+     * @return {@link LibraryResult#SUCCESS}.
+     * @throws IOException Se ocorrer um erro ao guardar o livro.
+     */
+    LibraryResult addBook(String author, String title) throws IOException;
+
+    /**
+     * Adiciona vários livros à biblioteca de uma só vez. O autor de cada livro é o indicado em {@link Book#getAuthor()}.
+     * Por omissão, adiciona-os um de cada vez com {@link #addBook}, todos disponíveis; a Library guarda-os
+     * com uma única escrita e respeita a disponibilidade de cada livro.
+     *
+     * @param newBooks Os livros a adicionar.
+     * @throws IOException Se ocorrer um erro ao guardar os livros.
+     */
+    default void addBooks(Collection<Book> newBooks) throws IOException {
+        for (Book book : newBooks) {
+            addBook(book.getAuthor(), book.getTitle());
+        }
+    }
+
+    /**
+     * Adiciona de uma só vez os livros que ainda não estão no catálogo, com o mesmo autor e título, ignorando
+     * também os repetidos dentro da própria coleção. Por omissão, obtém os livros de cada autor com
+     * {@link #getBooksByAuthor} e adiciona os restantes com {@link #addBooks}, por isso um livro adicionado por
+     * outro utilizador entre as duas operações fica repetido; a Library, o OffHeapLibrary e o RemoteLibrary
+     * comparam e adicionam numa só operação.
+     *
+     * @param newBooks Os livros a adicionar, com o autor definido.
+     * @return O número de livros adicionados.
+     * @throws IOException Se ocorrer um erro ao guardar os livros.
+     */
+    default int addNewBooks(Collection<Book> newBooks) throws IOException {
+        Map<String, Set<String>> titles = new HashMap<>();
+        List<Book> added = new ArrayList<>(newBooks.size());
+        for (Book book : newBooks) {
+            Set<String> known = titles.computeIfAbsent(book.getAuthor(), author -> {
+                Set<String> existing = new HashSet<>();
+                for (Book other : getBooksByAuthor(author)) {
+                    existing.add(other.getTitle());
+                }
+                return existing;
+            });
+            if (known.add(book.getTitle())) {
+                added.add(book);
+            }
+        }
+        addBooks(added);
+        return added.size();
+    }
+
+    /**
+     * Remove um livro da biblioteca.
+     *
+     * @param author Nome do autor do livro.
+     * @param title Título do livro.
+     * @return {@link LibraryResult#SUCCESS}, ou o motivo pelo qual o livro não foi encontrado.
+     * @throws IOException Se ocorrer um erro ao guardar a remoção.
+     */
+    LibraryResult removeBook(String author, String title) throws IOException;
+
+    /**
+     * Requisita um livro da biblioteca.
+     *
+     * @param author Nome do autor do livro.
+     * @param title Título do livro.
+     * @return {@link LibraryResult#SUCCESS} se o livro foi requisitado, ou o motivo pelo qual não foi.
+     * @throws IOException Se ocorrer um erro ao guardar a requisição.
+     */
+    LibraryResult requestBook(String author, String title) throws IOException;
+
+    /**
+     * Requisita um livro da biblioteca em nome de um requisitante. As bibliotecas que não registam empréstimos
+     * ignoram o requisitante.
+     *
+     * @param author Nome do autor do livro.
+     * @param title Título do livro.
+     * @param borrower Identificador de quem requisita o livro, ou null se não for conhecido.
+     * @return {@link LibraryResult#SUCCESS} se o livro foi requisitado, ou o motivo pelo qual não foi.
+     * @throws IOException Se ocorrer um erro ao guardar a requisição.
+     */
+    default LibraryResult requestBook(String author, String title, String borrower) throws IOException {
+        return requestBook(author, title);
+    }
+
+    /**
+     * Devolve um livro para a biblioteca.
+     *
+     * @param author Nome do autor do livro.
+     * @param title Título do livro.
+     * @return {@link LibraryResult#SUCCESS} se o livro foi devolvido, ou o motivo pelo qual não foi.
+     * @throws IOException Se ocorrer um erro ao guardar a devolução.
+     */
+    LibraryResult returnBook(String author, String title) throws IOException;
+
+    /**
+     * Requisita um exemplar de um livro ou, se não houver nenhum disponível, reserva-o em nome do requisitante,
+     * que recebe o próximo exemplar devolvido. Por omissão não há reservas e o pedido é uma requisição normal.
+     *
+     * @param author Nome do autor do livro.
+     * @param title Título do livro.
+     * @param borrower Identificador de quem requisita o livro, ou null se não for conhecido.
+     * @return {@link LibraryResult#SUCCESS} se um exemplar foi requisitado, {@link LibraryResult#ON_HOLD}
+     *         se o pedido ficou na fila, ou o motivo pelo qual não foi feito.
+     * @throws IOException Se ocorrer um erro ao guardar a requisição.
+     */
+    default LibraryResult holdBook(String author, String title, String borrower) throws IOException {
+        return requestBook(author, title, borrower);
+    }
+
+    /**
+     * Altera o número de exemplares de um livro. Por omissão, a biblioteca só tem um exemplar de cada livro.
+     *
+     * @param author Nome do autor do livro.
+     * @param title Título do livro.
+     * @param copies O novo número de exemplares, pelo menos 1.
+     * @return {@link LibraryResult#SUCCESS}, {@link LibraryResult#UNAVAILABLE} se fosse preciso retirar
+     *         exemplares requisitados, ou o motivo pelo qual o livro não foi encontrado.
+     * @throws IOException Se ocorrer um erro ao guardar os exemplares.
+     * @throws UnsupportedOperationException Se a biblioteca não tiver vários exemplares por livro.
+     */
+    default LibraryResult setCopies(String author, String title, int copies) throws IOException {
+        throw new UnsupportedOperationException("Esta biblioteca não tem vários exemplares por livro.");
+    }
+
+    /**
+     * Regista um objeto que passa a ser avisado das alterações ao catálogo,
+     * recebendo logo {@link LibraryListener#bookAdded} para cada livro já existente.
+     *
+     * @param listener O objeto a avisar.
+     */
+    void addListener(LibraryListener listener);
+
+    /**
+     * Deixa de avisar um objeto registado com {@link #addListener}.
+     *
+     * @param listener O objeto a deixar de avisar.
+     */
+    void removeListener(LibraryListener listener);
+
+    /**
+     * Fecha a biblioteca, esperando que as escritas pendentes terminem.
+     *
+     * @throws IOException Se ocorrer um erro ao fechar.
+     */
+    @Override
+    void close() throws IOException;
+}
@@ -0,0 +1,115 @@
+import java.lang.reflect.Method;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * Criação das threads que atendem pedidos à biblioteca.
+ * <p>
+ * Em Java 21 ou mais recente, cada pedido corre numa virtual thread: milhares de pedidos à espera do disco ou da rede
+ * ocupam apenas memória, não threads do sistema. As virtual threads são obtidas por reflexão, porque o projeto
+ * compila para Java 17; nessa versão, ou com {@code -Dlibrary.virtualThreads=false}, usa-se uma pool de threads
+ * normais. Para que uma operação bloqueante não prenda a thread do sistema que a executa, o código chamado nestes
+ * pedidos usa ReentrantLock em vez de {@code synchronized} à volta de escritas em disco ou na rede.
+ */
+public final class LibraryThreads {
+
+    private static final Method OF_VIRTUAL;         // Thread.ofVirtual()
+    private static final Method BUILDER_NAME;       // Thread.Builder.name(String)
+    private static final Method BUILDER_NUMBERED;   // Thread.Builder.name(String, long)
+    private static final Method BUILDER_FACTORY;    // Thread.Builder.factory()
+    private static final Method BUILDER_START;      // Thread.Builder.start(Runnable)
+    private static final Method PER_TASK_EXECUTOR;  // Executors.newThreadPerTaskExecutor(ThreadFactory)
+
+    static {
+        Method ofVirtual = null;
+        Method name = null;
+        Method numbered = null;
+        Method factory = null;
+        Method start = null;
+        Method perTask = null;
+        if (!"false".equals(System.getProperty("library.virtualThreads"))) {
+            try {
+                Class<?> builder = Class.forName("java.lang.Thread$Builder");
+                ofVirtual = Thread.class.getMethod("ofVirtual");
+                name = builder.getMethod("name", String.class);
+                numbered = builder.getMethod("name", String.class, long.class);
+                factory = builder.getMethod("factory");
+                start = builder.getMethod("start", Runnable.class);
+                perTask = Executors.class.getMethod("newThreadPerTaskExecutor", ThreadFactory.class);
+                ofVirtual.invoke(null);  // Em Java 19 e 20 falha sem --enable-preview
+            } catch (ReflectiveOperationException | RuntimeException e) {
+                ofVirtual = null;
+            }
+        }
+        OF_VIRTUAL = ofVirtual;
+        BUILDER_NAME = name;
+        BUILDER_NUMBERED = numbered;
+        BUILDER_FACTORY = factory;
+        BUILDER_START = start;
+        PER_TASK_EXECUTOR = perTask;
+    }
+
+    private LibraryThreads() {
+    }
+
+    /**
+     * Indica se os pedidos correm em virtual threads.
+     *
+     * @return true se a JVM tem virtual threads e estas não foram desativadas.
+     */
+    public static boolean virtualThreadsAvailable() {
+        return OF_VIRTUAL != null;
+    }
+
+    /**
+     * Cria um executor para pedidos à biblioteca: uma virtual thread nova por pedido, se disponível,
+     * ou uma pool com um número fixo de threads normais.
+     *
+     * @param name Prefixo do nome das threads.
+     * @param platformThreads Número de threads da pool usada sem virtual threads.
+     * @return O executor criado.
+     */
+    public static ExecutorService newRequestExecutor(String name, int platformThreads) {
+        if (OF_VIRTUAL != null) {
+            try {
+                Object builder = BUILDER_NUMBERED.invoke(OF_VIRTUAL.invoke(null), name + "-", 1L);
+                return (ExecutorService) PER_TASK_EXECUTOR.invoke(null, BUILDER_FACTORY.invoke(builder));
+            } catch (ReflectiveOperationException e) {
+                throw new IllegalStateException("Erro ao criar virtual threads.", e);
+            }
+        }
+
+        AtomicInteger count = new AtomicInteger();
+        return Executors.newFixedThreadPool(platformThreads, task -> {
+            Thread thread = new Thread(task, name + "-" + count.incrementAndGet());
+            thread.setDaemon(true);
+            return thread;
+        });
+    }
+
+    /**
+     * Inicia uma thread para uma tarefa de longa duração que passa a maior parte do tempo bloqueada,
+     * como um utilizador simulado ou a leitura de uma ligação: virtual, se disponível, ou uma thread normal daemon.
+     *
+     * @param name Nome da thread.
+     * @param task A tarefa a executar.
+     * @return A thread iniciada.
+     */
+    public static Thread start(String name, Runnable task) {
+        if (OF_VIRTUAL != null) {
+            try {
+                Object builder = BUILDER_NAME.invoke(OF_VIRTUAL.invoke(null), name);
+                return (Thread) BUILDER_START.invoke(builder, task);
+            } catch (ReflectiveOperationException e) {
+                throw new IllegalStateException("Erro ao criar virtual threads.", e);
+            }
+        }
+
+        Thread thread = new Thread(task, name);
+        thread.setDaemon(true);
+        thread.start();
+        return thread;
+    }
+}
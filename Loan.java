@@ -0,0 +1,124 @@
+import java.time.Instant;
+
+/**
+ * Empréstimo de um livro registado num LoanLedger: quem o requisitou, quando e até quando o deve devolver.
+ * <p>
+ * É também o temporizador do empréstimo na TimingWheel do LoanLedger, agendado primeiro para o lembrete
+ * e depois para o fim do prazo, por isso cada empréstimo ocupa um só objeto.
+ */
+public final class Loan extends TimingWheel.Timer {
+
+    private final String borrower;
+    private final String author;
+    private final String title;
+    private final long checkoutMillis;
+    private final long dueMillis;
+    private volatile boolean reminded;  // O lembrete já foi dado
+    private volatile boolean overdue;   // O prazo terminou sem devolução
+    Loan nextCopy;  // Empréstimo seguinte de outro exemplar do mesmo título, pela ordem das requisições
+
+    /**
+     * Construtor da classe Loan.
+     *
+     * @param borrower Identificador de quem requisitou o livro.
+     * @param author Nome do autor do livro.
+     * @param title Título do livro.
+     * @param checkoutMillis Instante da requisição, em milissegundos.
+     * @param dueMillis Instante em que termina o prazo, em milissegundos.
+     */
+    Loan(String borrower, String author, String title, long checkoutMillis, long dueMillis) {
+        this.borrower = borrower;
+        this.author = author;
+        this.title = title;
+        this.checkoutMillis = checkoutMillis;
+        this.dueMillis = dueMillis;
+    }
+
+    /**
+     * Retorna o identificador de quem requisitou o livro.
+     *
+     * @return O identificador do requisitante.
+     */
+    public String getBorrower() {
+        return borrower;
+    }
+
+    /**
+     * Retorna o nome do autor do livro.
+     *
+     * @return O nome do autor.
+     */
+    public String getAuthor() {
+        return author;
+    }
+
+    /**
+     * Retorna o título do livro.
+     *
+     * @return O título.
+     */
+    public String getTitle() {
+        return title;
+    }
+
+    /**
+     * Retorna o instante da requisição.
+     *
+     * @return O instante da requisição.
+     */
+    public Instant getCheckoutTime() {
+        return Instant.ofEpochMilli(checkoutMillis);
+    }
+
+    /**
+     * Retorna o instante em que termina o prazo.
+     *
+     * @return O fim do prazo.
+     */
+    public Instant getDueTime() {
+        return Instant.ofEpochMilli(dueMillis);
+    }
+
+    /**
+     * Indica se o prazo já terminou sem o livro ter sido devolvido.
+     *
+     * @return true se o empréstimo estiver em atraso.
+     */
+    public boolean isOverdue() {
+        return overdue;
+    }
+
+    /**
+     * Retorna o fim do prazo em milissegundos, para agendar o empréstimo.
+     */
+    long dueMillis() {
+        return dueMillis;
+    }
+
+    /**
+     * Indica se o lembrete já foi dado, ou se o empréstimo não tem lembrete.
+     */
+    boolean isReminded() {
+        return reminded;
+    }
+
+    /**
+     * Regista que o lembrete foi dado; o empréstimo passa a esperar pelo fim do prazo.
+     */
+    void markReminded() {
+        reminded = true;
+    }
+
+    /**
+     * Regista que o prazo terminou sem devolução.
+     */
+    void markOverdue() {
+        overdue = true;
+    }
+
+    @Override
+    public String toString() {
+        return "'" + title + "' de " + author + " requisitado por " + borrower + " até " + getDueTime()
+                + (overdue ? " (em atraso)" : "");
+    }
+}
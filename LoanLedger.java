@@ -0,0 +1,312 @@
+import java.time.Clock;
+import java.time.Duration;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Registo dos empréstimos ativos de uma biblioteca: quem requisitou cada livro, quando, e até quando o deve devolver.
+ * <p>
+ * A Library regista um empréstimo em cada requisição e termina-o na devolução. Um título com vários exemplares
+ * pode ter vários empréstimos ativos; como a devolução não indica o requisitante, termina o mais antigo. Os prazos são seguidos por uma
+ * TimingWheel com ticks de um segundo: cada empréstimo é agendado para o lembrete e depois para o fim do prazo,
+ * e {@link #advance()} só visita os empréstimos cujo prazo chegou, em vez de percorrer todos os empréstimos
+ * ativos, por isso o custo de seguir milhões de empréstimos é constante por empréstimo.
+ * <p>
+ * O tempo vem de um {@link Clock}: o do sistema, com a roda avançada periodicamente por {@link #startTicking},
+ * ou um ManualClock, avançado à mão, para simular semanas de empréstimos em poucos segundos.
+ * <p>
+ * Os empréstimos ficam apenas em memória: depois de recarregar a biblioteca, os livros indisponíveis não têm
+ * empréstimo registado e a devolução é aceite na mesma. Todas as operações usam um só lock, mantido apenas
+ * durante alterações em tempo constante.
+ */
+public class LoanLedger {
+
+    /**
+     * Prazo de um empréstimo, por omissão.
+     */
+    public static final Duration DEFAULT_LOAN_PERIOD = Duration.ofDays(14);
+
+    /**
+     * Antecedência do lembrete em relação ao fim do prazo, por omissão.
+     */
+    public static final Duration DEFAULT_REMINDER = Duration.ofDays(2);
+
+    /**
+     * Requisitante registado quando a requisição não indica quem requisitou.
+     */
+    public static final String UNKNOWN_BORROWER = "desconhecido";
+
+    private static final long TICK_MILLIS = 1_000;
+
+    /**
+     * Livro emprestado, identificado pelo autor e pelo título, como nas operações da biblioteca.
+     */
+    private record BookKey(String author, String title) {
+    }
+
+    private final Clock clock;
+    private final long loanMillis;
+    private final long reminderMillis;
+    private final TimingWheel<Loan> wheel;
+    private final Map<BookKey, Loan> loans = new HashMap<>();
+    private final List<LoanListener> listeners = new CopyOnWriteArrayList<>();
+    private int active;        // Empréstimos ativos, incluindo os vários exemplares de um título
+    private int overdueCount;
+    private ScheduledExecutorService ticker;  // Thread que avança a roda periodicamente, ou null
+
+    /**
+     * Construtor da classe LoanLedger, com o relógio do sistema e os prazos por omissão.
+     */
+    public LoanLedger() {
+        this(Clock.systemUTC(), DEFAULT_LOAN_PERIOD, DEFAULT_REMINDER);
+    }
+
+    /**
+     * Construtor da classe LoanLedger.
+     *
+     * @param clock O relógio que dá a hora das requisições e dos prazos.
+     * @param loanPeriod O prazo de cada empréstimo.
+     * @param reminder A antecedência do lembrete em relação ao fim do prazo; zero para não dar lembretes.
+     */
+    public LoanLedger(Clock clock, Duration loanPeriod, Duration reminder) {
+        if (loanPeriod.isNegative() || loanPeriod.isZero() || reminder.isNegative()) {
+            throw new IllegalArgumentException("Prazos inválidos: " + loanPeriod + ", " + reminder);
+        }
+        this.clock = clock;
+        this.loanMillis = loanPeriod.toMillis();
+        this.reminderMillis = reminder.toMillis();
+        this.wheel = new TimingWheel<>(TICK_MILLIS, clock.millis());
+    }
+
+    /**
+     * Regista um objeto que passa a ser avisado dos lembretes e dos atrasos.
+     *
+     * @param listener O objeto a avisar.
+     */
+    public void addListener(LoanListener listener) {
+        listeners.add(listener);
+    }
+
+    /**
+     * Deixa de avisar um objeto registado com {@link #addListener}.
+     *
+     * @param listener O objeto a deixar de avisar.
+     */
+    public void removeListener(LoanListener listener) {
+        listeners.remove(listener);
+    }
+
+    /**
+     * Regista o empréstimo de um exemplar de um livro, com o prazo a contar a partir de agora.
+     *
+     * @param borrower Identificador de quem requisitou o livro, ou null se não for conhecido.
+     * @param author Nome do autor do livro.
+     * @param title Título do livro.
+     * @return O empréstimo registado.
+     */
+    public synchronized Loan checkout(String borrower, String author, String title) {
+        long now = clock.millis();
+        Loan loan = new Loan(borrower != null ? borrower : UNKNOWN_BORROWER, author, title, now, now + loanMillis);
+        Loan first = loans.putIfAbsent(new BookKey(author, title), loan);
+        if (first != null) {
+            while (first.nextCopy != null) {
+                first = first.nextCopy;
+            }
+            first.nextCopy = loan;
+        }
+        active++;
+        long reminderAt = loan.dueMillis() - reminderMillis;
+        if (reminderMillis > 0 && reminderAt > now) {
+            wheel.schedule(loan, reminderAt);
+        } else {
+            loan.markReminded();
+            wheel.schedule(loan, loan.dueMillis());
+        }
+        return loan;
+    }
+
+    /**
+     * Regista o empréstimo do exemplar entregue a uma reserva e avisa os LoanListener.
+     *
+     * @param borrower Identificador de quem fez a reserva.
+     * @param author Nome do autor do livro.
+     * @param title Título do livro.
+     * @return O empréstimo registado.
+     */
+    public Loan checkoutHold(String borrower, String author, String title) {
+        Loan loan = checkout(borrower, author, title);
+        for (LoanListener listener : listeners) {
+            listener.holdFilled(loan);
+        }
+        return loan;
+    }
+
+    /**
+     * Termina o empréstimo mais antigo de um livro devolvido.
+     *
+     * @param author Nome do autor do livro.
+     * @param title Título do livro.
+     * @return O empréstimo terminado, ou null se o livro não tinha empréstimo registado.
+     */
+    public synchronized Loan checkin(String author, String title) {
+        BookKey key = new BookKey(author, title);
+        Loan loan = loans.remove(key);
+        if (loan != null) {
+            if (loan.nextCopy != null) {
+                loans.put(key, loan.nextCopy);
+                loan.nextCopy = null;
+            }
+            end(loan);
+        }
+        return loan;
+    }
+
+    /**
+     * Termina todos os empréstimos de um livro removido da biblioteca.
+     *
+     * @param author Nome do autor do livro.
+     * @param title Título do livro.
+     * @return O número de empréstimos terminados.
+     */
+    public synchronized int checkinAll(String author, String title) {
+        int count = 0;
+        for (Loan loan = loans.remove(new BookKey(author, title)); loan != null; count++) {
+            Loan next = loan.nextCopy;
+            loan.nextCopy = null;
+            end(loan);
+            loan = next;
+        }
+        return count;
+    }
+
+    /**
+     * Procura o empréstimo ativo mais antigo de um livro.
+     *
+     * @param author Nome do autor do livro.
+     * @param title Título do livro.
+     * @return O empréstimo, ou null se o livro não estiver emprestado.
+     */
+    public synchronized Loan getLoan(String author, String title) {
+        return loans.get(new BookKey(author, title));
+    }
+
+    /**
+     * Retorna os empréstimos ativos de um requisitante. Percorre todos os empréstimos.
+     *
+     * @param borrower Identificador do requisitante.
+     * @return Os empréstimos do requisitante.
+     */
+    public synchronized List<Loan> getLoans(String borrower) {
+        List<Loan> found = new ArrayList<>();
+        for (Loan first : loans.values()) {
+            for (Loan loan = first; loan != null; loan = loan.nextCopy) {
+                if (loan.getBorrower().equals(borrower)) {
+                    found.add(loan);
+                }
+            }
+        }
+        return found;
+    }
+
+    /**
+     * Retorna o número de empréstimos ativos.
+     *
+     * @return O número de empréstimos.
+     */
+    public synchronized int size() {
+        return active;
+    }
+
+    /**
+     * Retorna o número de empréstimos ativos em atraso.
+     *
+     * @return O número de empréstimos em atraso.
+     */
+    public synchronized int overdueCount() {
+        return overdueCount;
+    }
+
+    /**
+     * Avança a roda até à hora atual do relógio e avisa os LoanListener dos lembretes e dos atrasos,
+     * pela ordem dos prazos. Os avisos são dados depois de libertar o lock.
+     *
+     * @return O número de avisos dados.
+     */
+    public int advance() {
+        List<Loan> reminders = new ArrayList<>();
+        List<Loan> overdue = new ArrayList<>();
+        synchronized (this) {
+            wheel.advanceTo(clock.millis(), loan -> {
+                if (!loan.isReminded()) {
+                    loan.markReminded();
+                    reminders.add(loan);
+                    wheel.schedule(loan, loan.dueMillis());
+                } else {
+                    loan.markOverdue();
+                    overdueCount++;
+                    overdue.add(loan);
+                }
+            });
+        }
+
+        for (LoanListener listener : listeners) {
+            for (Loan loan : reminders) {
+                listener.loanReminder(loan);
+            }
+            for (Loan loan : overdue) {
+                listener.loanOverdue(loan);
+            }
+        }
+        return reminders.size() + overdue.size();
+    }
+
+    /**
+     * Avança a roda periodicamente, numa thread daemon, até o registo ser fechado.
+     *
+     * @param periodMillis Intervalo entre avanços, em milissegundos.
+     */
+    public synchronized void startTicking(long periodMillis) {
+        if (ticker != null) {
+            throw new IllegalStateException("O avanço periódico já foi iniciado.");
+        }
+        ticker = Executors.newSingleThreadScheduledExecutor(task -> {
+            Thread thread = new Thread(task, "library-loans");
+            thread.setDaemon(true);
+            return thread;
+        });
+        ticker.scheduleAtFixedRate(() -> {
+            try {
+                advance();
+            } catch (RuntimeException e) {
+                LibraryLog.log(LibraryLog.Level.ERROR, "Erro ao avisar prazos de empréstimos: %s", e);
+            }
+        }, periodMillis, periodMillis, TimeUnit.MILLISECONDS);
+    }
+
+    /**
+     * Para o avanço periódico. Os empréstimos continuam registados.
+     */
+    public synchronized void close() {
+        if (ticker != null) {
+            ticker.shutdownNow();
+            ticker = null;
+        }
+    }
+
+    /**
+     * Retira um empréstimo terminado da roda e da contagem de atrasos.
+     */
+    private void end(Loan loan) {
+        active--;
+        wheel.cancel(loan);
+        if (loan.isOverdue()) {
+            overdueCount--;
+        }
+    }
+}
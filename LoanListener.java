@@ -0,0 +1,34 @@
+/**
+ * Interface para objetos que querem ser avisados dos prazos dos empréstimos de um LoanLedger,
+ * por exemplo para enviar lembretes ou bloquear novas requisições de quem tem livros em atraso.
+ * <p>
+ * Os avisos são dados pela thread que avança o LoanLedger, sem os seus locks, por isso podem chamar a biblioteca.
+ */
+public interface LoanListener {
+
+    /**
+     * Chamado quando falta pouco para terminar o prazo de um empréstimo.
+     *
+     * @param loan O empréstimo.
+     */
+    default void loanReminder(Loan loan) {
+    }
+
+    /**
+     * Chamado quando termina o prazo de um empréstimo sem o livro ter sido devolvido.
+     *
+     * @param loan O empréstimo em atraso.
+     */
+    default void loanOverdue(Loan loan) {
+    }
+
+    /**
+     * Chamado quando um exemplar devolvido é entregue à primeira reserva da fila do título.
+     * Ao contrário dos outros avisos, é dado pela thread que devolveu o livro, enquanto esta ainda tem
+     * os locks da biblioteca, por isso deve ser rápido e não pode chamar a biblioteca.
+     *
+     * @param loan O empréstimo de quem tinha feito a reserva.
+     */
+    default void holdFilled(Loan loan) {
+    }
+}
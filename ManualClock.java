@@ -0,0 +1,59 @@
+import java.time.Clock;
+import java.time.Duration;
+import java.time.Instant;
+import java.time.ZoneId;
+import java.time.ZoneOffset;
+
+/**
+ * Relógio que só avança quando lhe é pedido, para verificar o comportamento que depende do tempo
+ * (por exemplo, os prazos do LoanLedger) sem esperar: o LibraryBenchmark simula semanas de empréstimos
+ * em poucos segundos. Pode ser usado por várias threads.
+ */
+public class ManualClock extends Clock {
+
+    private volatile long millis;
+
+    /**
+     * Construtor da classe ManualClock.
+     *
+     * @param start O instante inicial.
+     */
+    public ManualClock(Instant start) {
+        this.millis = start.toEpochMilli();
+    }
+
+    /**
+     * Avança o relógio.
+     *
+     * @param duration O tempo a avançar; não pode ser negativo.
+     */
+    public synchronized void advance(Duration duration) {
+        if (duration.isNegative()) {
+            throw new IllegalArgumentException("O relógio não pode recuar: " + duration);
+        }
+        millis += duration.toMillis();
+    }
+
+    @Override
+    public long millis() {
+        return millis;
+    }
+
+    @Override
+    public Instant instant() {
+        return Instant.ofEpochMilli(millis);
+    }
+
+    @Override
+    public ZoneId getZone() {
+        return ZoneOffset.UTC;
+    }
+
+    /**
+     * O relógio só existe em UTC, por isso retorna-se a si próprio para qualquer fuso.
+     */
+    @Override
+    public Clock withZone(ZoneId zone) {
+        return this;
+    }
+}
@@ -0,0 +1,317 @@
+import java.io.*;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
+import java.util.Arrays;
+import java.util.List;
+import java.util.concurrent.locks.ReentrantReadWriteLock;
+
+/**
+ * Classe que guarda o catálogo num ficheiro binário lido através de um MappedByteBuffer.
+ * <p>
+ * O ficheiro tem um cabeçalho, uma tabela de autores, um registo de tamanho fixo por livro e, no fim,
+ * uma tabela com os nomes e títulos em UTF-8:
+ * <pre>
+ * cabeçalho: magic (int), versão (int), nº de autores (int), nº de livros (int)
+ * autores:   posição (int) e tamanho (int) do nome na tabela de texto
+ * livros:    id do autor (int), posição (int) e tamanho (int) do título, flags (byte), 3 bytes livres
+ * texto:     bytes UTF-8 dos nomes e títulos
+ * </pre>
+ * Abrir o catálogo não precisa de dividir linhas nem de criar Strings intermédias, e como os registos têm tamanho
+ * fixo, requisitar ou devolver um livro escreve apenas o byte de flags desse livro, no próprio ficheiro mapeado.
+ * Adicionar ou remover livros reescreve o ficheiro completo.
+ * <p>
+ * Por omissão, cada alteração de disponibilidade grava em disco a página do ficheiro onde está o registo do livro
+ * antes de a operação terminar, tal como os outros CatalogStore. Com {@code forceOnChange} falso, as alterações só
+ * ficam no ficheiro mapeado e o sistema operativo grava-as quando quiser (ou ao fechar): é mais rápido, mas uma falha
+ * do sistema pode perder requisições e devoluções já confirmadas.
+ */
+public class MappedCatalogStore implements CatalogStore {
+
+    private static final int MAGIC = 0x424B5331;  // "BKS1"
+    private static final int VERSION = 1;
+    private static final int HEADER_SIZE = 16;
+    private static final int AUTHOR_ENTRY_SIZE = 8;
+    private static final int RECORD_SIZE = 16;
+    private static final int FLAGS_OFFSET = 12;   // Posição do byte de flags dentro do registo
+    private static final byte FLAG_AVAILABLE = 1;
+
+    private final File file;
+    private final boolean forceOnChange;  // Se cada alteração de disponibilidade é gravada em disco logo
+    private final CopiesFile copyCounts;  // Número de exemplares dos livros com mais do que um
+
+    /**
+     * Lock que impede que a disponibilidade seja escrita enquanto o ficheiro está a ser reescrito e mapeado de novo.
+     * Escritas de disponibilidade em livros diferentes podem ser feitas em simultâneo.
+     */
+    private final ReentrantReadWriteLock mappingLock = new ReentrantReadWriteLock();
+
+    private MappedByteBuffer buffer;  // O ficheiro mapeado em memória
+    private int recordsOffset;        // Posição do primeiro registo de livro no ficheiro
+    private int[] slotById = new int[0];  // Registo de cada livro, indexado pelo id do livro na biblioteca
+
+    /**
+     * Construtor da classe MappedCatalogStore.
+     *
+     * @param fileName Nome do ficheiro binário do catálogo.
+     */
+    public MappedCatalogStore(String fileName) {
+        this(fileName, true);
+    }
+
+    /**
+     * Construtor da classe MappedCatalogStore, escolhendo quando são gravadas as alterações de disponibilidade.
+     *
+     * @param fileName Nome do ficheiro binário do catálogo.
+     * @param forceOnChange true para gravar em disco cada alteração de disponibilidade antes de a operação terminar,
+     *                      false para deixar a gravação ao sistema operativo e ao {@link #close()}.
+     */
+    public MappedCatalogStore(String fileName, boolean forceOnChange) {
+        this.file = new File(fileName);
+        this.forceOnChange = forceOnChange;
+        this.copyCounts = new CopiesFile(file);
+    }
+
+    /**
+     * Converte um ficheiro de livros em texto ("autor;título;disponível") para o formato binário.
+     *
+     * @param textFileName Nome do ficheiro de texto.
+     * @param binaryFileName Nome do ficheiro binário a criar.
+     * @throws IOException Se ocorrer um erro ao ler ou escrever os ficheiros.
+     */
+    public static void convert(String textFileName, String binaryFileName) throws IOException {
+        Library library = new Library(new TextCatalogStore(textFileName));
+        MappedCatalogStore store = new MappedCatalogStore(binaryFileName);
+        store.save(library);
+        store.close();
+    }
+
+    /**
+     * Mapeia o ficheiro binário e carrega os livros para a biblioteca.
+     * Se o ficheiro não existir, cria um catálogo vazio.
+     *
+     * @param library A biblioteca onde os livros são carregados.
+     * @throws IOException Se ocorrer um erro ao ler o ficheiro ou se o formato não for válido.
+     */
+    @Override
+    public void load(Library library) throws IOException {
+        mappingLock.writeLock().lock();
+        try {
+            if (!file.exists()) {
+                write(new String[0], new Book[0][]);
+            }
+            map();
+
+            if (buffer.getInt(0) != MAGIC || buffer.getInt(4) != VERSION) {
+                throw new IOException("Formato de catálogo binário inválido: " + file);
+            }
+            int authorCount = buffer.getInt(8);
+            int recordCount = buffer.getInt(12);
+            int textOffset = recordsOffset + recordCount * RECORD_SIZE;
+
+            CatalogBuilder builder = library.newCatalogBuilder();
+            Book[] booksBySlot = new Book[recordCount];
+            byte[] scratch = new byte[256];
+            String[] authors = new String[authorCount];
+            for (int i = 0; i < authorCount; i++) {
+                int entry = HEADER_SIZE + i * AUTHOR_ENTRY_SIZE;
+                scratch = readString(textOffset + buffer.getInt(entry), buffer.getInt(entry + 4), scratch);
+                authors[i] = new String(scratch, 0, buffer.getInt(entry + 4), StandardCharsets.UTF_8);
+            }
+
+            for (int slot = 0; slot < recordCount; slot++) {
+                int record = recordsOffset + slot * RECORD_SIZE;
+                int length = buffer.getInt(record + 8);
+                scratch = readString(textOffset + buffer.getInt(record + 4), length, scratch);
+                String title = new String(scratch, 0, length, StandardCharsets.UTF_8);
+                boolean available = (buffer.get(record + FLAGS_OFFSET) & FLAG_AVAILABLE) != 0;
+
+                booksBySlot[slot] = builder.add(authors[buffer.getInt(record)], title, available);
+            }
+
+            // Os ids dos livros só são atribuídos ao instalar o catálogo na biblioteca
+            library.install(builder);
+            for (int slot = 0; slot < recordCount; slot++) {
+                rememberSlot(booksBySlot[slot], slot);
+            }
+        } finally {
+            mappingLock.writeLock().unlock();
+        }
+        copyCounts.load(library);
+    }
+
+    /**
+     * Reescreve o ficheiro binário com o catálogo completo e volta a mapeá-lo.
+     *
+     * @param library A biblioteca a guardar.
+     * @throws IOException Se ocorrer um erro ao escrever o ficheiro.
+     */
+    @Override
+    public void save(Library library) throws IOException {
+        mappingLock.writeLock().lock();
+        try {
+            CatalogSnapshot snapshot = library.snapshot();
+            write(snapshot.authors(), TextCatalogStore.booksOf(snapshot));
+            map();
+        } finally {
+            mappingLock.writeLock().unlock();
+        }
+    }
+
+    @Override
+    public void bookAdded(Library library, String author, Book book) throws IOException {
+        save(library);
+    }
+
+    @Override
+    public void booksAdded(Library library, List<Book> books) throws IOException {
+        save(library);
+    }
+
+    @Override
+    public void bookRemoved(Library library, String author, Book book) throws IOException {
+        save(library);
+    }
+
+    /**
+     * Escreve a nova disponibilidade diretamente no registo do livro, no ficheiro mapeado, e grava em disco
+     * a página desse registo, se {@code forceOnChange} for verdadeiro.
+     *
+     * @param library A biblioteca alterada.
+     * @param author Nome do autor do livro.
+     * @param book O livro cuja disponibilidade mudou.
+     */
+    @Override
+    public void availabilityChanged(Library library, String author, Book book) {
+        mappingLock.readLock().lock();
+        try {
+            int record = recordsOffset + slotById[book.getId()] * RECORD_SIZE;
+            buffer.put(record + FLAGS_OFFSET, book.isAvailable() ? FLAG_AVAILABLE : 0);
+            if (forceOnChange) {
+                buffer.force(record + FLAGS_OFFSET, 1);
+            }
+        } finally {
+            mappingLock.readLock().unlock();
+        }
+    }
+
+    @Override
+    public void copiesChanged(Library library, String author, Book book, int copies) throws IOException {
+        copyCounts.set(author, book.getTitle(), copies);
+    }
+
+    /**
+     * Garante que as alterações feitas no ficheiro mapeado ficam gravadas em disco.
+     */
+    @Override
+    public void close() {
+        mappingLock.writeLock().lock();
+        try {
+            if (buffer != null) {
+                buffer.force();
+            }
+        } finally {
+            mappingLock.writeLock().unlock();
+        }
+    }
+
+    /**
+     * Mapeia o ficheiro em memória e calcula a posição dos registos de livros.
+     *
+     * @throws IOException Se ocorrer um erro ao abrir o ficheiro.
+     */
+    private void map() throws IOException {
+        try (FileChannel channel = FileChannel.open(file.toPath(), StandardOpenOption.READ, StandardOpenOption.WRITE)) {
+            buffer = channel.map(FileChannel.MapMode.READ_WRITE, 0, channel.size());
+        }
+        recordsOffset = HEADER_SIZE + buffer.getInt(8) * AUTHOR_ENTRY_SIZE;
+    }
+
+    /**
+     * Copia os bytes de um nome ou título do ficheiro mapeado para um array auxiliar, aumentando-o se necessário.
+     *
+     * @return O array auxiliar com os bytes nas primeiras posições.
+     */
+    private byte[] readString(int offset, int length, byte[] scratch) {
+        if (scratch.length < length) {
+            scratch = new byte[Math.max(length, scratch.length * 2)];
+        }
+        buffer.get(offset, scratch, 0, length);
+        return scratch;
+    }
+
+    /**
+     * Guarda a posição do registo de um livro no ficheiro.
+     */
+    private void rememberSlot(Book book, int slot) {
+        if (book.getId() >= slotById.length) {
+            slotById = Arrays.copyOf(slotById, Math.max(book.getId() + 1, slotById.length * 2));
+        }
+        slotById[book.getId()] = slot;
+    }
+
+    /**
+     * Escreve o catálogo completo num ficheiro temporário, sincroniza-o e coloca-o no lugar do ficheiro binário.
+     *
+     * @param authors Array com os nomes dos autores.
+     * @param books Array bidimensional com os livros de cada autor.
+     * @throws IOException Se ocorrer um erro ao escrever o ficheiro.
+     */
+    private void write(String[] authors, Book[][] books) throws IOException {
+        int recordCount = 0;
+        for (Book[] authorBooks : books) {
+            recordCount += authorBooks.length;
+        }
+
+        byte[][] authorBytes = new byte[authors.length][];
+        byte[][] titleBytes = new byte[recordCount][];
+
+        File temp = new File(file.getPath() + ".tmp");
+        try (FileOutputStream output = new FileOutputStream(temp);
+             DataOutputStream data = new DataOutputStream(new BufferedOutputStream(output, 1 << 16))) {
+            data.writeInt(MAGIC);
+            data.writeInt(VERSION);
+            data.writeInt(authors.length);
+            data.writeInt(recordCount);
+
+            int textOffset = 0;
+            for (int i = 0; i < authors.length; i++) {
+                authorBytes[i] = authors[i].getBytes(StandardCharsets.UTF_8);
+                data.writeInt(textOffset);
+                data.writeInt(authorBytes[i].length);
+                textOffset += authorBytes[i].length;
+            }
+
+            int slot = 0;
+            for (int i = 0; i < authors.length; i++) {
+                for (Book book : books[i]) {
+                    titleBytes[slot] = book.getTitle().getBytes(StandardCharsets.UTF_8);
+                    data.writeInt(i);
+                    data.writeInt(textOffset);
+                    data.writeInt(titleBytes[slot].length);
+                    data.writeByte(book.isAvailable() ? FLAG_AVAILABLE : 0);
+                    data.write(new byte[3]);
+                    textOffset += titleBytes[slot].length;
+                    if (book.getId() >= 0) {
+                        rememberSlot(book, slot);
+                    }
+                    slot++;
+                }
+            }
+
+            for (byte[] bytes : authorBytes) {
+                data.write(bytes);
+            }
+            for (byte[] bytes : titleBytes) {
+                data.write(bytes);
+            }
+            data.flush();
+            output.getFD().sync();
+        }
+
+        Files.move(temp.toPath(), file.toPath(), StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+    }
+}
@@ -0,0 +1,95 @@
+/**
+ * Livro de uma OffHeapLibrary: uma vista sobre o registo do livro fora do heap, criada apenas quando um livro
+ * sai da biblioteca (em getBooksByAuthor ou num aviso a um LibraryListener).
+ * <p>
+ * O autor e o título são copiados quando a vista é criada; a disponibilidade é lida no registo. A vista não altera
+ * a disponibilidade: isso é feito por {@link OffHeapLibrary#requestBook} e {@link OffHeapLibrary#returnBook}, que
+ * a gravam no journal, e {@link #setAvailable} não pode esperar pela escrita nem lançar IOException.
+ * Cada vista guarda a geração do registo, por isso, depois de o livro ser removido (e o registo eventualmente
+ * reutilizado por outro livro), passa a mostrar a última disponibilidade que conheceu, como um Book sem biblioteca,
+ * e pode então ser alterada como um.
+ * Duas vistas do mesmo livro são iguais, tal como seriam iguais as referências para o mesmo Book na Library.
+ */
+class OffHeapBook extends Book {
+
+    private final OffHeapLibrary library;
+    private final int record;      // Número do registo na biblioteca
+    private final int generation;  // Geração do registo quando a vista foi criada
+
+    /**
+     * Construtor da classe OffHeapBook.
+     *
+     * @param library A biblioteca onde está o registo.
+     * @param record O número do registo.
+     * @param generation A geração do registo.
+     * @param author O nome do autor.
+     * @param title O título.
+     * @param isAvailable A disponibilidade quando a vista foi criada.
+     */
+    OffHeapBook(OffHeapLibrary library, int record, int generation, String author, String title, boolean isAvailable) {
+        super(title, isAvailable);
+        setAuthor(author);
+        this.library = library;
+        this.record = record;
+        this.generation = generation;
+    }
+
+    @Override
+    public boolean isAvailable() {
+        int flags = library.flags(record);
+        if (OffHeapLibrary.isCurrent(flags, generation)) {
+            boolean available = OffHeapLibrary.isAvailable(flags);
+            super.setAvailable(available);
+            return available;
+        }
+        return super.isAvailable();
+    }
+
+    /**
+     * {@inheritDoc}
+     *
+     * @throws UnsupportedOperationException Se o livro ainda estiver na biblioteca.
+     */
+    @Override
+    public void setAvailable(boolean available) {
+        checkDetached();
+        super.setAvailable(available);
+    }
+
+    /**
+     * {@inheritDoc}
+     *
+     * @throws UnsupportedOperationException Se o livro ainda estiver na biblioteca.
+     */
+    @Override
+    public boolean compareAndSetAvailable(boolean expected, boolean available) {
+        checkDetached();
+        return super.compareAndSetAvailable(expected, available);
+    }
+
+    @Override
+    public int getId() {
+        return record;
+    }
+
+    @Override
+    public boolean equals(Object o) {
+        return o instanceof OffHeapBook other && other.library == library && other.record == record
+                && other.generation == generation;
+    }
+
+    @Override
+    public int hashCode() {
+        return record * 31 + generation;
+    }
+
+    /**
+     * Recusa alterar a disponibilidade de um livro que ainda está na biblioteca, sem passar pelo journal.
+     */
+    private void checkDetached() {
+        if (OffHeapLibrary.isCurrent(library.flags(record), generation)) {
+            throw new UnsupportedOperationException(
+                    "A disponibilidade de um livro da OffHeapLibrary só muda com requestBook ou returnBook.");
+        }
+    }
+}
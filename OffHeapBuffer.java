@@ -0,0 +1,189 @@
+import java.lang.invoke.MethodHandles;
+import java.lang.invoke.VarHandle;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.util.Arrays;
+
+/**
+ * Memória fora do heap, endereçada por posições long, feita de blocos de ByteBuffer.allocateDirect.
+ * <p>
+ * O conteúdo não é visto pelo garbage collector: os blocos são poucos objetos grandes, por isso guardar aqui
+ * milhões de registos não aumenta o trabalho de cada recolha. Os blocos são criados à medida que são pedidos
+ * com {@link #ensureCapacity}, começam a zeros e só são libertados quando este objeto deixar de ser usado.
+ * <p>
+ * Quem usa o buffer garante que nenhum valor atravessa a fronteira entre dois blocos (por exemplo, usando registos
+ * de tamanho fixo que dividem o tamanho do bloco) e coordena as threads; apenas {@link #getIntVolatile}
+ * e {@link #compareAndSetInt} são atómicos, e as posições usadas com eles têm de ser múltiplas de 4.
+ */
+public class OffHeapBuffer {
+
+    private static final VarHandle INTS = MethodHandles.byteBufferViewVarHandle(int[].class, ByteOrder.nativeOrder());
+
+    private final int chunkBits;
+    private final int chunkMask;
+    private volatile ByteBuffer[] chunks = new ByteBuffer[4];
+    private int chunkCount;
+
+    /**
+     * Construtor da classe OffHeapBuffer.
+     *
+     * @param chunkBits Logaritmo de base 2 do tamanho de cada bloco (por exemplo, 26 para blocos de 64 MiB).
+     */
+    public OffHeapBuffer(int chunkBits) {
+        if (chunkBits < 12 || chunkBits > 30) {
+            throw new IllegalArgumentException("Tamanho de bloco inválido: 2^" + chunkBits);
+        }
+        this.chunkBits = chunkBits;
+        this.chunkMask = (1 << chunkBits) - 1;
+    }
+
+    /**
+     * Retorna o tamanho de cada bloco.
+     *
+     * @return O tamanho de cada bloco em bytes.
+     */
+    public int chunkSize() {
+        return 1 << chunkBits;
+    }
+
+    /**
+     * Retorna o número de bytes já reservados fora do heap.
+     *
+     * @return Os bytes reservados.
+     */
+    public long capacity() {
+        return (long) chunkCount << chunkBits;
+    }
+
+    /**
+     * Garante que existem blocos até uma posição, criando os que faltam.
+     * Não pode ser chamado ao mesmo tempo que outras escritas no buffer.
+     *
+     * @param bytes Número de bytes que têm de estar disponíveis a partir da posição 0.
+     */
+    public void ensureCapacity(long bytes) {
+        long needed = (bytes + chunkMask) >>> chunkBits;
+        if (needed <= chunkCount) {
+            return;
+        }
+        ByteBuffer[] current = chunks;
+        if (needed > current.length) {
+            current = Arrays.copyOf(current, (int) Math.max(needed, current.length * 2L));
+        }
+        while (chunkCount < needed) {
+            current[chunkCount++] = ByteBuffer.allocateDirect(1 << chunkBits).order(ByteOrder.nativeOrder());
+        }
+        chunks = current;
+    }
+
+    /**
+     * Lê um byte.
+     *
+     * @param position A posição.
+     * @return O byte lido.
+     */
+    public byte get(long position) {
+        return chunk(position).get((int) position & chunkMask);
+    }
+
+    /**
+     * Escreve um byte.
+     *
+     * @param position A posição.
+     * @param value O byte a escrever.
+     */
+    public void put(long position, byte value) {
+        chunk(position).put((int) position & chunkMask, value);
+    }
+
+    /**
+     * Lê um int.
+     *
+     * @param position A posição.
+     * @return O valor lido.
+     */
+    public int getInt(long position) {
+        return chunk(position).getInt((int) position & chunkMask);
+    }
+
+    /**
+     * Escreve um int.
+     *
+     * @param position A posição.
+     * @param value O valor a escrever.
+     */
+    public void putInt(long position, int value) {
+        chunk(position).putInt((int) position & chunkMask, value);
+    }
+
+    /**
+     * Lê um long.
+     *
+     * @param position A posição.
+     * @return O valor lido.
+     */
+    public long getLong(long position) {
+        return chunk(position).getLong((int) position & chunkMask);
+    }
+
+    /**
+     * Escreve um long.
+     *
+     * @param position A posição.
+     * @param value O valor a escrever.
+     */
+    public void putLong(long position, long value) {
+        chunk(position).putLong((int) position & chunkMask, value);
+    }
+
+    /**
+     * Lê um int com a semântica de uma leitura volatile.
+     *
+     * @param position A posição, múltipla de 4.
+     * @return O valor lido.
+     */
+    public int getIntVolatile(long position) {
+        return (int) INTS.getVolatile(chunk(position), (int) position & chunkMask);
+    }
+
+    /**
+     * Altera um int apenas se este tiver o valor esperado, numa só operação atómica.
+     *
+     * @param position A posição, múltipla de 4.
+     * @param expected O valor esperado.
+     * @param value O novo valor.
+     * @return true se o valor foi alterado.
+     */
+    public boolean compareAndSetInt(long position, int expected, int value) {
+        return INTS.compareAndSet(chunk(position), (int) position & chunkMask, expected, value);
+    }
+
+    /**
+     * Copia bytes do buffer para um array.
+     *
+     * @param position A posição do primeiro byte.
+     * @param target O array de destino.
+     * @param length O número de bytes a copiar, todos no mesmo bloco.
+     */
+    public void get(long position, byte[] target, int length) {
+        chunk(position).get((int) position & chunkMask, target, 0, length);
+    }
+
+    /**
+     * Copia bytes de um array para o buffer.
+     *
+     * @param position A posição do primeiro byte.
+     * @param source O array de origem.
+     * @param length O número de bytes a copiar, todos no mesmo bloco.
+     */
+    public void put(long position, byte[] source, int length) {
+        chunk(position).put((int) position & chunkMask, source, 0, length);
+    }
+
+    /**
+     * Obtém o bloco que contém uma posição.
+     */
+    private ByteBuffer chunk(long position) {
+        return chunks[(int) (position >>> chunkBits)];
+    }
+}
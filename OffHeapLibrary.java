@@ -0,0 +1,852 @@
+import java.io.*;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.StandardCopyOption;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collection;
+import java.util.List;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.locks.ReentrantLock;
+import java.util.concurrent.locks.ReentrantReadWriteLock;
+
+/**
+ * Biblioteca para catálogos muito grandes (dezenas de milhões de livros), com os livros guardados fora do heap.
+ * <p>
+ * Cada livro é um registo de 32 bytes num OffHeapBuffer, com a posição do título, o id do autor, o hash do par
+ * (autor, título), as ligações para o livro anterior e o seguinte do mesmo autor e para o seguinte da mesma
+ * posição da tabela de dispersão, e um int com a disponibilidade. Os títulos ficam em UTF-8 noutro OffHeapBuffer
+ * e a tabela de dispersão num terceiro. No heap ficam apenas o AuthorDictionary e três ints por autor, por isso
+ * o garbage collector não tem nada para percorrer por livro e as pausas não crescem com o catálogo.
+ * <p>
+ * Os objetos Book só são criados na fronteira da interface, em {@link #getBooksByAuthor} e nos avisos aos
+ * LibraryListener: são vistas (OffHeapBook) com o autor e o título copiados e a disponibilidade lida do registo,
+ * só de leitura enquanto o livro estiver na biblioteca.
+ * <p>
+ * Usa os mesmos locks que a Library (um lock por grupo de autores e um de leitura e escrita para a estrutura)
+ * e os mesmos ficheiros que o JournalCatalogStore, através do mesmo JournalWriter: a fotografia no ficheiro de livros
+ * e um registo por alteração no journal, gravado antes de a operação terminar. O registo é posto na fila com o lock
+ * da estrutura, mas a espera pelo disco é feita só com o lock do autor, por isso uma sincronização do journal não
+ * impede as leituras nem as alterações de outros autores, que entram no mesmo lote. O journal só é juntado à fotografia em {@link #saveBooksToFile()}
+ * e ao fechar a biblioteca, o que para todas as operações enquanto escreve o catálogo. O espaço dos títulos removidos só é recuperado
+ * ao recarregar.
+ */
+public class OffHeapLibrary implements LibraryService {
+
+    // Campos de cada registo; as ligações guardam o número do registo + 1, e 0 indica que não existe
+    private static final int RECORD_SIZE = 32;
+    private static final int TITLE = 0;         // long: posição do título na área de títulos
+    private static final int AUTHOR = 8;        // int: id do autor no dicionário
+    private static final int HASH = 12;         // int: hash do par (autor, título)
+    private static final int PREVIOUS = 16;     // int: livro anterior do mesmo autor
+    private static final int NEXT = 20;         // int: livro seguinte do mesmo autor; nos registos livres, o próximo livre
+    private static final int BUCKET_NEXT = 24;  // int: livro seguinte na mesma posição da tabela de dispersão
+    private static final int FLAGS = 28;        // int: AVAILABLE, LIVE e a geração do registo
+
+    private static final int AVAILABLE = 1;
+    private static final int LIVE = 2;
+    private static final int GENERATION = 4;    // Unidade da geração, que aumenta sempre que um registo é reutilizado
+
+    private static final int STRIPES = 64;      // Número de locks pelos quais os autores são repartidos
+
+    private final OffHeapBuffer records = new OffHeapBuffer(25);  // Blocos de 32 MiB, com 1 Mi registos cada
+    private final OffHeapBuffer titles = new OffHeapBuffer(24);   // Blocos de 16 MiB
+    private OffHeapBuffer buckets;    // Primeiro livro de cada posição da tabela de dispersão
+    private int bucketMask;           // Número de posições da tabela - 1
+    private int recordCount;          // Registos já usados, incluindo os livres
+    private int freeRecords;          // Primeiro registo livre, ou 0
+    private int size;                 // Número de livros
+    private long titleEnd;            // Primeira posição livre da área de títulos
+    private long releasedTitleBytes;  // Bytes de títulos de livros removidos
+
+    private final AuthorDictionary authors = new AuthorDictionary();
+    private int[] firstBook = new int[16];  // Primeiro livro de cada autor, pelo id do autor
+    private int[] lastBook = new int[16];   // Último livro de cada autor
+    private int[] bookCounts = new int[16]; // Número de livros de cada autor
+
+    private final ReentrantLock[] stripes = new ReentrantLock[STRIPES];
+    private final ReentrantReadWriteLock catalogLock = new ReentrantReadWriteLock();  // Protege a estrutura
+    private final List<LibraryListener> listeners = new CopyOnWriteArrayList<>();
+    private final LibraryMetrics metrics;
+
+    private final File snapshotFile;  // Ficheiro de livros com a última fotografia do catálogo
+    private final File journalFile;   // Ficheiro com os registos posteriores à fotografia
+    private JournalWriter journal;    // Acrescenta os registos ao journal, em lotes
+    private long sequence;            // Número de sequência do último registo do journal
+
+    /**
+     * Construtor da classe OffHeapLibrary.
+     *
+     * @param fileName Nome do ficheiro de livros; o journal fica no mesmo nome com a extensão ".journal".
+     */
+    public OffHeapLibrary(String fileName) {
+        this(fileName, LibraryMetrics.DISABLED);
+    }
+
+    /**
+     * Construtor da classe OffHeapLibrary que regista métricas das operações.
+     *
+     * @param fileName Nome do ficheiro de livros; o journal fica no mesmo nome com a extensão ".journal".
+     * @param metrics As métricas onde são contadas e medidas as operações, incluindo o carregamento inicial.
+     */
+    public OffHeapLibrary(String fileName, LibraryMetrics metrics) {
+        this.snapshotFile = new File(fileName);
+        this.journalFile = new File(fileName + ".journal");
+        this.metrics = metrics;
+        for (int i = 0; i < STRIPES; i++) {
+            stripes[i] = new ReentrantLock();
+        }
+        resizeBuckets(1 << 16);
+        try {
+            loadBooks();
+        } catch (IOException e) {
+            LibraryLog.log(LibraryLog.Level.ERROR, "Erro ao carregar livros: %s", e.getMessage());
+            LibraryLog.flush(1_000);
+            System.exit(1);
+        }
+    }
+
+    /**
+     * Carrega a fotografia do catálogo, aplica os registos do journal que ainda não inclui e abre o journal.
+     *
+     * @throws IOException Se ocorrer um erro ao ler os ficheiros.
+     */
+    private void loadBooks() throws IOException {
+        long start = System.nanoTime();
+        try {
+            Files.deleteIfExists(new File(snapshotFile.getPath() + ".tmp").toPath());
+            if (!snapshotFile.exists() && !snapshotFile.createNewFile()) {
+                throw new IOException("Erro a criar ficheiro.");
+            }
+
+            long snapshotSequence = 0;
+            try (BufferedReader reader = new BufferedReader(new FileReader(snapshotFile), 1 << 16)) {
+                String line;
+                while ((line = reader.readLine()) != null) {
+                    if (line.startsWith(TextCatalogStore.JOURNAL_HEADER)) {
+                        snapshotSequence = Long.parseLong(line.substring(TextCatalogStore.JOURNAL_HEADER.length()).trim());
+                        continue;
+                    }
+                    TextCatalogStore.parseLine(line, this::insert);
+                }
+            }
+
+            long applyFrom = snapshotSequence;
+            sequence = snapshotSequence;
+            long validLength = JournalCatalogStore.readEntries(journalFile, entry -> {
+                if (entry.sequence() <= applyFrom) {
+                    return;
+                }
+                if (entry.op() == JournalCatalogStore.OP_ADD) {
+                    insert(entry.author(), entry.title(), entry.available());
+                } else {
+                    int record = find(entry.author(), entry.title());
+                    if (record != -1 && entry.op() == JournalCatalogStore.OP_REMOVE) {
+                        delete(record);
+                    } else if (record != -1) {
+                        // O registo já está no journal: repô-lo não grava outro
+                        compareAndSetAvailable(record, !entry.available(), entry.available());
+                    }
+                }
+                sequence = entry.sequence();
+            });
+
+            // Descarta o registo incompleto deixado por uma falha a meio de uma escrita
+            journal = new JournalWriter(journalFile, validLength, JournalCatalogStore.DEFAULT_MAX_BATCH_SIZE,
+                    JournalCatalogStore.DEFAULT_MAX_WAIT_MILLIS, "offheap-journal-writer");
+        } catch (IOException e) {
+            metrics.writeError();
+            throw e;
+        } finally {
+            metrics.record(LibraryMetrics.Operation.LOAD, start);
+        }
+        long elapsed = System.nanoTime() - start;
+        LibraryLog.log(LibraryLog.Level.INFO, "Carregados %d livros fora do heap em %.1f ms (%.0f livros/s, %d MB).",
+                size, elapsed / 1e6, size / Math.max(elapsed / 1e9, 1e-9), getOffHeapBytes() >> 20);
+    }
+
+    /**
+     * Obtém o lock correspondente a um autor.
+     */
+    private ReentrantLock stripeFor(String author) {
+        int hash = author.hashCode();
+        hash ^= hash >>> 16;
+        return stripes[(hash & 0x7fffffff) % STRIPES];
+    }
+
+    @Override
+    public void addListener(LibraryListener listener) {
+        catalogLock.writeLock().lock();
+        try {
+            for (int authorId = 0; authorId < authors.size(); authorId++) {
+                for (int next = firstBook[authorId]; next != 0; next = records.getInt(offset(next - 1) + NEXT)) {
+                    listener.bookAdded(view(next - 1));
+                }
+            }
+            listeners.add(listener);
+        } finally {
+            catalogLock.writeLock().unlock();
+        }
+    }
+
+    @Override
+    public void removeListener(LibraryListener listener) {
+        listeners.remove(listener);
+    }
+
+    /**
+     * Retorna a lista de autores com livros, pela ordem em que apareceram pela primeira vez.
+     *
+     * @return Array com os nomes dos autores.
+     */
+    @Override
+    public String[] getAuthors() {
+        catalogLock.readLock().lock();
+        try {
+            int count = authors.size();
+            String[] names = new String[count];
+            int found = 0;
+            for (int authorId = 0; authorId < count; authorId++) {
+                if (bookCounts[authorId] > 0) {
+                    names[found++] = authors.name(authorId);
+                }
+            }
+            return found == count ? names : Arrays.copyOf(names, found);
+        } finally {
+            catalogLock.readLock().unlock();
+        }
+    }
+
+    /**
+     * Retorna os livros de um autor, criando uma vista de cada um.
+     *
+     * @param author Nome do autor.
+     * @return Array de livros do autor, vazio se o autor não existir.
+     */
+    @Override
+    public Book[] getBooksByAuthor(String author) {
+        long start = metrics.start();
+        catalogLock.readLock().lock();
+        try {
+            int authorId = authors.find(author);
+            if (authorId == -1 || bookCounts[authorId] == 0) {
+                metrics.fail(LibraryResult.AUTHOR_NOT_FOUND);
+                return new Book[0];
+            }
+            Book[] books = new Book[bookCounts[authorId]];
+            int i = 0;
+            for (int next = firstBook[authorId]; next != 0; next = records.getInt(offset(next - 1) + NEXT)) {
+                books[i++] = view(next - 1);
+            }
+            return books;
+        } finally {
+            catalogLock.readLock().unlock();
+            metrics.record(LibraryMetrics.Operation.LOOKUP, start);
+        }
+    }
+
+    @Override
+    public LibraryResult addBook(String author, String title) throws IOException {
+        long start = metrics.start();
+        ReentrantLock stripe = stripeFor(author);
+        stripe.lock();
+        try {
+            CompletableFuture<Void> durable;
+            catalogLock.writeLock().lock();
+            try {
+                int record = insert(author, title, true);
+                if (!listeners.isEmpty()) {
+                    Book book = view(record);
+                    for (LibraryListener listener : listeners) {
+                        listener.bookAdded(book);
+                    }
+                }
+                durable = enqueue(JournalCatalogStore.OP_ADD, author, title, true);
+            } finally {
+                catalogLock.writeLock().unlock();
+            }
+
+            GroupCommitWriter.await(durable);
+            return succeeded("adicionado", author, title);
+        } catch (IOException e) {
+            metrics.writeError();
+            throw e;
+        } finally {
+            stripe.unlock();
+            metrics.record(LibraryMetrics.Operation.ADD, start);
+        }
+    }
+
+    @Override
+    public void addBooks(Collection<Book> newBooks) throws IOException {
+        addAll(newBooks, false);
+    }
+
+    /**
+     * Adiciona os livros que ainda não estão no catálogo. A comparação com o catálogo e a adição são feitas
+     * com o mesmo lock da estrutura, por isso nenhum livro adicionado ao mesmo tempo fica repetido.
+     *
+     * @param newBooks Os livros a adicionar, com o autor definido.
+     * @return O número de livros adicionados.
+     * @throws IOException Se ocorrer um erro ao escrever no journal.
+     */
+    @Override
+    public int addNewBooks(Collection<Book> newBooks) throws IOException {
+        return addAll(newBooks, true);
+    }
+
+    /**
+     * Adiciona vários livros com o lock da estrutura e põe um registo por livro no journal antes de esperar,
+     * por isso o lote inteiro fica gravado com uma só espera pelo disco, feita já sem o lock.
+     *
+     * @param newBooks Os livros a adicionar.
+     * @param skipExisting true para ignorar os livros cujo autor e título já estão no catálogo.
+     * @return O número de livros adicionados.
+     * @throws IOException Se ocorrer um erro ao escrever no journal.
+     */
+    private int addAll(Collection<Book> newBooks, boolean skipExisting) throws IOException {
+        if (newBooks.isEmpty()) {
+            return 0;
+        }
+
+        long start = metrics.start();
+        try {
+            List<CompletableFuture<Void>> pending = new ArrayList<>(newBooks.size());
+            catalogLock.writeLock().lock();
+            try {
+                for (Book book : newBooks) {
+                    String author = book.getAuthor();
+                    String title = book.getTitle();
+                    // Um livro inserido fica logo na tabela, por isso os repetidos na própria coleção também são ignorados
+                    if (skipExisting && find(author, title) != -1) {
+                        continue;
+                    }
+                    int record = insert(author, title, book.isAvailable());
+                    if (!listeners.isEmpty()) {
+                        Book view = view(record);
+                        for (LibraryListener listener : listeners) {
+                            listener.bookAdded(view);
+                        }
+                    }
+                    pending.add(enqueue(JournalCatalogStore.OP_ADD, author, title, book.isAvailable()));
+                }
+            } finally {
+                catalogLock.writeLock().unlock();
+            }
+
+            GroupCommitWriter.await(CompletableFuture.allOf(pending.toArray(new CompletableFuture<?>[0])));
+            return pending.size();
+        } catch (IOException e) {
+            metrics.writeError();
+            throw e;
+        } finally {
+            metrics.record(LibraryMetrics.Operation.ADD_BATCH, start);
+        }
+    }
+
+    @Override
+    public LibraryResult removeBook(String author, String title) throws IOException {
+        long start = metrics.start();
+        ReentrantLock stripe = stripeFor(author);
+        stripe.lock();
+        try {
+            CompletableFuture<Void> durable;
+            catalogLock.writeLock().lock();
+            try {
+                int record = find(author, title);
+                if (record == -1) {
+                    return rejected(authorMissing(author) ? LibraryResult.AUTHOR_NOT_FOUND : LibraryResult.BOOK_NOT_FOUND,
+                            "remover", author, title);
+                }
+
+                boolean available = (records.getInt(offset(record) + FLAGS) & AVAILABLE) != 0;
+                Book book = listeners.isEmpty() ? null : view(record);
+                delete(record);
+                for (LibraryListener listener : listeners) {
+                    listener.bookRemoved(book);
+                }
+                durable = enqueue(JournalCatalogStore.OP_REMOVE, author, title, available);
+            } finally {
+                catalogLock.writeLock().unlock();
+            }
+
+            GroupCommitWriter.await(durable);
+            return succeeded("removido", author, title);
+        } catch (IOException e) {
+            metrics.writeError();
+            throw e;
+        } finally {
+            stripe.unlock();
+            metrics.record(LibraryMetrics.Operation.REMOVE, start);
+        }
+    }
+
+    @Override
+    public LibraryResult requestBook(String author, String title) throws IOException {
+        return changeAvailability(author, title, false);
+    }
+
+    @Override
+    public LibraryResult returnBook(String author, String title) throws IOException {
+        return changeAvailability(author, title, true);
+    }
+
+    /**
+     * Requisita ou devolve um livro com um compare-and-set sobre o seu registo.
+     *
+     * @param available false para requisitar, true para devolver.
+     */
+    private LibraryResult changeAvailability(String author, String title, boolean available) throws IOException {
+        long start = metrics.start();
+        String action = available ? "devolver" : "requisitar";
+        ReentrantLock stripe = stripeFor(author);
+        stripe.lock();
+        try {
+            CompletableFuture<Void> durable;
+            catalogLock.readLock().lock();
+            try {
+                int record = find(author, title);
+                if (record == -1) {
+                    return rejected(authorMissing(author) ? LibraryResult.AUTHOR_NOT_FOUND : LibraryResult.BOOK_NOT_FOUND,
+                            action, author, title);
+                }
+                if (!compareAndSetAvailable(record, !available, available)) {
+                    return rejected(available ? LibraryResult.ALREADY_RETURNED : LibraryResult.UNAVAILABLE, action, author, title);
+                }
+
+                if (!listeners.isEmpty()) {
+                    Book book = view(record);
+                    for (LibraryListener listener : listeners) {
+                        listener.availabilityChanged(book);
+                    }
+                }
+                durable = enqueue(JournalCatalogStore.OP_AVAILABILITY, author, title, available);
+            } finally {
+                catalogLock.readLock().unlock();
+            }
+
+            GroupCommitWriter.await(durable);
+            return succeeded(available ? "devolvido" : "requisitado", author, title);
+        } catch (IOException e) {
+            metrics.writeError();
+            throw e;
+        } finally {
+            stripe.unlock();
+            metrics.record(available ? LibraryMetrics.Operation.RETURN : LibraryMetrics.Operation.REQUEST, start);
+        }
+    }
+
+    /**
+     * Junta o journal à fotografia: escreve o catálogo completo no ficheiro de livros e esvazia o journal.
+     * Todas as operações esperam enquanto o catálogo é escrito.
+     *
+     * @throws IOException Se ocorrer um erro ao escrever os ficheiros.
+     */
+    public void saveBooksToFile() throws IOException {
+        long start = metrics.start();
+        catalogLock.writeLock().lock();
+        try {
+            File temp = new File(snapshotFile.getPath() + ".tmp");
+            try (FileOutputStream output = new FileOutputStream(temp);
+                 BufferedWriter out = new BufferedWriter(new OutputStreamWriter(output), 1 << 16)) {
+                out.write(TextCatalogStore.JOURNAL_HEADER + sequence + "\n");
+                for (int authorId = 0; authorId < authors.size(); authorId++) {
+                    String author = authors.name(authorId);
+                    for (int next = firstBook[authorId]; next != 0; next = records.getInt(offset(next - 1) + NEXT)) {
+                        long base = offset(next - 1);
+                        out.write(author + ";" + title(base) + ";" + ((records.getInt(base + FLAGS) & AVAILABLE) != 0) + "\n");
+                    }
+                }
+                out.flush();
+                output.getFD().sync();
+            }
+            Files.move(temp.toPath(), snapshotFile.toPath(), StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+
+            // Todos os registos postos na fila até agora estão na fotografia; os que ainda não foram gravados
+            // ficam no journal vazio com números não superiores ao do cabeçalho, por isso são ignorados ao carregar
+            journal.clear();
+        } catch (IOException e) {
+            metrics.writeError();
+            throw e;
+        } finally {
+            catalogLock.writeLock().unlock();
+            metrics.record(LibraryMetrics.Operation.SAVE, start);
+        }
+    }
+
+    /**
+     * Retorna o número de livros.
+     *
+     * @return O número de livros.
+     */
+    public int size() {
+        catalogLock.readLock().lock();
+        try {
+            return size;
+        } finally {
+            catalogLock.readLock().unlock();
+        }
+    }
+
+    /**
+     * Retorna a memória reservada fora do heap para os registos, os títulos e a tabela de dispersão.
+     *
+     * @return Os bytes reservados.
+     */
+    public long getOffHeapBytes() {
+        return records.capacity() + titles.capacity() + buckets.capacity();
+    }
+
+    /**
+     * Retorna os bytes da área de títulos ocupados por títulos de livros já removidos.
+     *
+     * @return Os bytes por recuperar.
+     */
+    public long getReleasedTitleBytes() {
+        return releasedTitleBytes;
+    }
+
+    /**
+     * Retorna as métricas onde são contadas e medidas as operações desta biblioteca.
+     *
+     * @return As métricas, ou {@link LibraryMetrics#DISABLED} se a biblioteca foi criada sem métricas.
+     */
+    public LibraryMetrics getMetrics() {
+        return metrics;
+    }
+
+    /**
+     * Junta o journal à fotografia, se tiver registos, e fecha-o. A memória fora do heap é libertada
+     * quando a biblioteca deixar de ser usada.
+     *
+     * @throws IOException Se ocorrer um erro ao escrever ou fechar os ficheiros.
+     */
+    @Override
+    public void close() throws IOException {
+        if (journal.size() > 0) {
+            saveBooksToFile();
+        }
+        journal.close();
+    }
+
+    /**
+     * Lê a palavra de estado de um registo (disponibilidade, se está em uso e geração).
+     * Usado pelas vistas OffHeapBook.
+     */
+    int flags(int record) {
+        return records.getIntVolatile(offset(record) + FLAGS);
+    }
+
+    /**
+     * Altera a disponibilidade de um registo se tiver o valor esperado, sem gravar no journal:
+     * quem chama grava o registo ou está a repor o journal.
+     *
+     * @param record O registo.
+     * @param expected A disponibilidade esperada.
+     * @param available A nova disponibilidade.
+     * @return true se a disponibilidade foi alterada; false se tinha outro valor ou o livro foi removido.
+     */
+    private boolean compareAndSetAvailable(int record, boolean expected, boolean available) {
+        long position = offset(record) + FLAGS;
+        while (true) {
+            int flags = records.getIntVolatile(position);
+            if ((flags & LIVE) == 0 || ((flags & AVAILABLE) != 0) != expected) {
+                return false;
+            }
+            if (expected == available || records.compareAndSetInt(position, flags, flags ^ AVAILABLE)) {
+                return true;
+            }
+        }
+    }
+
+    /**
+     * Extrai a geração da palavra de estado de um registo.
+     */
+    static int generation(int flags) {
+        return flags & -GENERATION;
+    }
+
+    /**
+     * Indica se a palavra de estado de um registo corresponde a um livro em uso dessa geração.
+     */
+    static boolean isCurrent(int flags, int generation) {
+        return (flags & LIVE) != 0 && generation(flags) == generation;
+    }
+
+    /**
+     * Indica se a palavra de estado de um registo tem o livro disponível.
+     */
+    static boolean isAvailable(int flags) {
+        return (flags & AVAILABLE) != 0;
+    }
+
+    /**
+     * Acrescenta um livro ao catálogo. Quem chama tem de ter o lock de escrita, exceto durante o carregamento.
+     *
+     * @return O número do registo do livro.
+     */
+    private int insert(String author, String title, boolean available) {
+        int authorId = authors.intern(author);
+        if (authorId >= bookCounts.length) {
+            int capacity = Math.max(authorId + 1, bookCounts.length * 2);
+            firstBook = Arrays.copyOf(firstBook, capacity);
+            lastBook = Arrays.copyOf(lastBook, capacity);
+            bookCounts = Arrays.copyOf(bookCounts, capacity);
+        }
+        long titlePosition = appendTitle(title.getBytes(StandardCharsets.UTF_8));
+
+        int record;
+        if (freeRecords != 0) {
+            record = freeRecords - 1;
+            freeRecords = records.getInt(offset(record) + NEXT);
+        } else {
+            record = recordCount++;
+            records.ensureCapacity((long) recordCount * RECORD_SIZE);
+        }
+        if (size + 1 > (bucketMask + 1L) * 3 / 4) {
+            resizeBuckets((bucketMask + 1) * 2);
+        }
+
+        long base = offset(record);
+        int hash = hash(authorId, title);
+        long bucket = (long) (hash & bucketMask) * 4;
+        records.putLong(base + TITLE, titlePosition);
+        records.putInt(base + AUTHOR, authorId);
+        records.putInt(base + HASH, hash);
+        records.putInt(base + PREVIOUS, lastBook[authorId]);
+        records.putInt(base + NEXT, 0);
+        records.putInt(base + BUCKET_NEXT, buckets.getInt(bucket));
+        buckets.putInt(bucket, record + 1);
+        // Um registo reutilizado passa à geração seguinte, para que as vistas do livro anterior não o confundam com este
+        int flags = generation(records.getInt(base + FLAGS)) + GENERATION | LIVE | (available ? AVAILABLE : 0);
+        records.putInt(base + FLAGS, flags);
+
+        if (lastBook[authorId] != 0) {
+            records.putInt(offset(lastBook[authorId] - 1) + NEXT, record + 1);
+        } else {
+            firstBook[authorId] = record + 1;
+        }
+        lastBook[authorId] = record + 1;
+        bookCounts[authorId]++;
+        size++;
+        return record;
+    }
+
+    /**
+     * Retira um livro do catálogo e liberta o seu registo. Quem chama tem de ter o lock de escrita,
+     * exceto durante o carregamento.
+     */
+    private void delete(int record) {
+        long base = offset(record);
+        int authorId = records.getInt(base + AUTHOR);
+        int previous = records.getInt(base + PREVIOUS);
+        int next = records.getInt(base + NEXT);
+        if (previous != 0) {
+            records.putInt(offset(previous - 1) + NEXT, next);
+        } else {
+            firstBook[authorId] = next;
+        }
+        if (next != 0) {
+            records.putInt(offset(next - 1) + PREVIOUS, previous);
+        } else {
+            lastBook[authorId] = previous;
+        }
+        bookCounts[authorId]--;
+
+        long bucket = (long) (records.getInt(base + HASH) & bucketMask) * 4;
+        int following = records.getInt(base + BUCKET_NEXT);
+        int current = buckets.getInt(bucket);
+        if (current == record + 1) {
+            buckets.putInt(bucket, following);
+        } else {
+            while (records.getInt(offset(current - 1) + BUCKET_NEXT) != record + 1) {
+                current = records.getInt(offset(current - 1) + BUCKET_NEXT);
+            }
+            records.putInt(offset(current - 1) + BUCKET_NEXT, following);
+        }
+
+        records.putInt(base + FLAGS, generation(records.getInt(base + FLAGS)));
+        records.putInt(base + NEXT, freeRecords);
+        freeRecords = record + 1;
+        releasedTitleBytes += 4 + titles.getInt(records.getLong(base + TITLE));
+        size--;
+    }
+
+    /**
+     * Procura um livro pelo autor e pelo título. Com títulos repetidos, retorna o primeiro do autor,
+     * tal como a Library.
+     *
+     * @return O número do registo, ou -1 se não existir.
+     */
+    private int find(String author, String title) {
+        int authorId = authors.find(author);
+        if (authorId == -1 || bookCounts[authorId] == 0) {
+            return -1;
+        }
+        int hash = hash(authorId, title);
+        byte[] encoded = null;
+        int found = -1;
+        for (int next = buckets.getInt((long) (hash & bucketMask) * 4); next != 0; ) {
+            long base = offset(next - 1);
+            if (records.getInt(base + HASH) == hash && records.getInt(base + AUTHOR) == authorId) {
+                if (encoded == null) {
+                    encoded = title.getBytes(StandardCharsets.UTF_8);
+                }
+                if (titleEquals(records.getLong(base + TITLE), encoded)) {
+                    found = found == -1 ? next - 1 : firstOf(authorId, found, next - 1);
+                }
+            }
+            next = records.getInt(base + BUCKET_NEXT);
+        }
+        return found;
+    }
+
+    /**
+     * Retorna, de dois livros do mesmo autor, o que aparece primeiro na sua lista.
+     */
+    private int firstOf(int authorId, int a, int b) {
+        for (int next = firstBook[authorId]; ; next = records.getInt(offset(next - 1) + NEXT)) {
+            if (next - 1 == a || next - 1 == b) {
+                return next - 1;
+            }
+        }
+    }
+
+    /**
+     * Indica se um autor não tem livros.
+     */
+    private boolean authorMissing(String author) {
+        int authorId = authors.find(author);
+        return authorId == -1 || bookCounts[authorId] == 0;
+    }
+
+    /**
+     * Cria a vista de um livro, com o autor e o título copiados para o heap.
+     */
+    private Book view(int record) {
+        long base = offset(record);
+        int flags = records.getIntVolatile(base + FLAGS);
+        return new OffHeapBook(this, record, generation(flags), authors.name(records.getInt(base + AUTHOR)),
+                title(base), isAvailable(flags));
+    }
+
+    /**
+     * Lê o título de um registo.
+     */
+    private String title(long base) {
+        long position = records.getLong(base + TITLE);
+        byte[] bytes = new byte[titles.getInt(position)];
+        titles.get(position + 4, bytes, bytes.length);
+        return new String(bytes, StandardCharsets.UTF_8);
+    }
+
+    /**
+     * Compara um título guardado com os bytes UTF-8 de outro.
+     */
+    private boolean titleEquals(long position, byte[] title) {
+        if (titles.getInt(position) != title.length) {
+            return false;
+        }
+        for (int i = 0; i < title.length; i++) {
+            if (titles.get(position + 4 + i) != title[i]) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    /**
+     * Acrescenta um título à área de títulos, precedido do seu comprimento, sem atravessar o fim de um bloco.
+     *
+     * @return A posição do título.
+     */
+    private long appendTitle(byte[] bytes) {
+        int length = 4 + bytes.length;
+        if (length > titles.chunkSize()) {
+            throw new IllegalArgumentException("Título demasiado longo: " + bytes.length + " bytes.");
+        }
+        long chunkEnd = (titleEnd | (titles.chunkSize() - 1)) + 1;
+        if (titleEnd + length > chunkEnd) {
+            titleEnd = chunkEnd;
+        }
+        titles.ensureCapacity(titleEnd + length);
+        long position = titleEnd;
+        titles.putInt(position, bytes.length);
+        titles.put(position + 4, bytes, bytes.length);
+        titleEnd += length;
+        return position;
+    }
+
+    /**
+     * Cria uma tabela de dispersão com outro tamanho e volta a colocar nela todos os livros, pelos hashes guardados.
+     */
+    private void resizeBuckets(int bucketCount) {
+        long bytes = (long) bucketCount * 4;
+        OffHeapBuffer table = new OffHeapBuffer(Math.min(24, Long.numberOfTrailingZeros(bytes)));
+        table.ensureCapacity(bytes);
+        int mask = bucketCount - 1;
+        for (int record = 0; record < recordCount; record++) {
+            long base = offset(record);
+            if ((records.getInt(base + FLAGS) & LIVE) != 0) {
+                long bucket = (long) (records.getInt(base + HASH) & mask) * 4;
+                records.putInt(base + BUCKET_NEXT, table.getInt(bucket));
+                table.putInt(bucket, record + 1);
+            }
+        }
+        buckets = table;
+        bucketMask = mask;
+    }
+
+    /**
+     * Coloca um registo no journal, com o próximo número de sequência, sem esperar que fique gravado.
+     * Quem chama tem o lock da estrutura (e, exceto nos lotes, o do autor), por isso os registos ficam pela ordem das alterações
+     * e nenhum é posto na fila enquanto {@link #saveBooksToFile()} escreve a fotografia.
+     *
+     * @return Um future completado quando o registo estiver gravado em disco.
+     */
+    private CompletableFuture<Void> enqueue(byte op, String author, String title, boolean available) throws IOException {
+        synchronized (this) {
+            return journal.submit(JournalCatalogStore.encode(++sequence, op, author, title, available));
+        }
+    }
+
+    /**
+     * Calcula o hash de um par (autor, título), misturando todos os bits como o CatalogIndex.
+     */
+    private static int hash(int authorId, String title) {
+        int hash = authorId * 31 + title.hashCode();
+        hash = (hash ^ (hash >>> 16)) * 0x85ebca6b;
+        hash = (hash ^ (hash >>> 13)) * 0xc2b2ae35;
+        return hash ^ (hash >>> 16);
+    }
+
+    /**
+     * Calcula a posição de um registo.
+     */
+    private static long offset(int record) {
+        return (long) record * RECORD_SIZE;
+    }
+
+    /**
+     * Regista no LibraryLog uma alteração aplicada, sem criar a mensagem se o nível DEBUG estiver desativado.
+     */
+    private static LibraryResult succeeded(String action, String author, String title) {
+        if (LibraryLog.isEnabled(LibraryLog.Level.DEBUG)) {
+            LibraryLog.log(LibraryLog.Level.DEBUG, "Livro '%s' de %s foi %s com sucesso.", title, author, action);
+        }
+        return LibraryResult.SUCCESS;
+    }
+
+    /**
+     * Conta nas métricas e regista no LibraryLog uma alteração sem efeito.
+     */
+    private LibraryResult rejected(LibraryResult result, String action, String author, String title) {
+        metrics.fail(result);
+        if (LibraryLog.isEnabled(LibraryLog.Level.DEBUG)) {
+            LibraryLog.log(LibraryLog.Level.DEBUG, "Não foi possível %s '%s' de %s: %s", action, title, author,
+                    result.message());
+        }
+        return result;
+    }
+}
@@ -0,0 +1,627 @@
+import java.io.BufferedOutputStream;
+import java.io.DataOutputStream;
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
+import java.util.Arrays;
+import java.util.BitSet;
+import java.util.List;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.locks.ReentrantLock;
+import java.util.zip.CRC32C;
+
+/**
+ * Classe que guarda o catálogo num ficheiro binário em que a disponibilidade dos livros fica em páginas
+ * de tamanho fixo, e em que requisitar ou devolver um livro só escreve as páginas alteradas.
+ * <p>
+ * O ficheiro tem um cabeçalho, uma tabela de autores, um registo de tamanho fixo por livro, a tabela com os nomes
+ * e títulos em UTF-8 e, a partir da primeira posição múltipla de PAGE_SIZE, as páginas de disponibilidade:
+ * <pre>
+ * cabeçalho: magic (int), versão (int), nº de autores (int), nº de livros (int)
+ * autores:   posição (int) e tamanho (int) do nome na tabela de texto
+ * livros:    id do autor (int), posição (int) e tamanho (int) do título
+ * texto:     bytes UTF-8 dos nomes e títulos
+ * páginas:   duas cópias de cada página: CRC32C (int), sequência (int), um bit por livro pela ordem dos registos
+ * </pre>
+ * As alterações de disponibilidade mudam apenas o bit do livro na cópia em memória da sua página e marcam-na
+ * como suja. De cada vez que as alterações são guardadas, cada página suja é escrita com um FileChannel na posição
+ * da sua cópia mais antiga, com a sequência seguinte e o CRC da página, e o ficheiro é sincronizado uma vez.
+ * Por isso a escrita de uma requisição não depende do tamanho do catálogo. Se o processo terminar a meio de escrever
+ * uma página, o CRC dessa cópia deixa de bater certo e o carregamento usa a outra cópia, com o estado anterior
+ * da página; cada página fica sempre consistente, mas páginas diferentes podem ter sido guardadas em alturas diferentes.
+ * <p>
+ * Com um intervalo de zero, cada alteração é guardada antes de a operação terminar; com um intervalo maior,
+ * as alterações são guardadas periodicamente numa thread daemon, juntando as da mesma página numa só escrita,
+ * e as do último intervalo perdem-se se o processo terminar sem fechar o catálogo.
+ * Adicionar ou remover livros reescreve o ficheiro completo.
+ */
+public class PagedCatalogStore implements CatalogStore {
+
+    /**
+     * Intervalo entre escritas das páginas alteradas, por omissão, em milissegundos.
+     */
+    public static final long DEFAULT_FLUSH_INTERVAL_MILLIS = 100;
+
+    private static final int MAGIC = 0x424B5332;  // "BKS2"
+    private static final int VERSION = 2;
+    private static final int HEADER_SIZE = 16;
+    private static final int AUTHOR_ENTRY_SIZE = 8;
+    private static final int RECORD_SIZE = 12;
+    private static final int PAGE_SIZE = 4096;
+    private static final int PAGE_HEADER_SIZE = 8;  // CRC32C e sequência
+    private static final int BOOKS_PER_PAGE = (PAGE_SIZE - PAGE_HEADER_SIZE) * 8;
+
+    private final File file;
+    private final long flushIntervalMillis;
+    private final CopiesFile copyCounts;  // Número de exemplares dos livros com mais do que um
+
+    /**
+     * Lock das escritas no ficheiro: as páginas guardadas e as reescritas completas não se sobrepõem.
+     * O estado em memória é protegido pelo monitor do próprio objeto, adquirido sempre depois deste lock.
+     */
+    private final ReentrantLock ioLock = new ReentrantLock();
+
+    private FileChannel channel;          // O ficheiro aberto para escrever as páginas
+    private long pagesOffset;             // Posição da primeira página no ficheiro
+    private byte[][] pages = new byte[0][];  // Cópia em memória de cada página, com o cabeçalho
+    private int[] sequences = new int[0];    // Sequência da última cópia escrita de cada página
+    private final BitSet dirtyPages = new BitSet();
+    private int[] slotById = new int[0];  // Registo de cada livro, indexado pelo id do livro na biblioteca
+    private long pagesWritten;
+    private ScheduledExecutorService flusher;  // Thread que guarda as páginas periodicamente, ou null
+
+    /**
+     * Construtor da classe PagedCatalogStore, com o intervalo de escrita por omissão.
+     *
+     * @param fileName Nome do ficheiro binário do catálogo.
+     */
+    public PagedCatalogStore(String fileName) {
+        this(fileName, DEFAULT_FLUSH_INTERVAL_MILLIS);
+    }
+
+    /**
+     * Construtor da classe PagedCatalogStore.
+     *
+     * @param fileName Nome do ficheiro binário do catálogo.
+     * @param flushIntervalMillis Intervalo entre escritas das páginas alteradas, em milissegundos;
+     *                            zero para guardar cada alteração antes de a operação terminar.
+     */
+    public PagedCatalogStore(String fileName, long flushIntervalMillis) {
+        if (flushIntervalMillis < 0) {
+            throw new IllegalArgumentException("Intervalo inválido: " + flushIntervalMillis);
+        }
+        this.file = new File(fileName);
+        this.flushIntervalMillis = flushIntervalMillis;
+        this.copyCounts = new CopiesFile(file);
+    }
+
+    /**
+     * Converte um ficheiro de livros em texto ("autor;título;disponível") para o formato paginado.
+     *
+     * @param textFileName Nome do ficheiro de texto.
+     * @param binaryFileName Nome do ficheiro binário a criar.
+     * @throws IOException Se ocorrer um erro ao ler ou escrever os ficheiros.
+     */
+    public static void convert(String textFileName, String binaryFileName) throws IOException {
+        Library library = new Library(new TextCatalogStore(textFileName));
+        PagedCatalogStore store = new PagedCatalogStore(binaryFileName, 0);
+        store.save(library);
+        store.close();
+    }
+
+    /**
+     * Lê o ficheiro e carrega os livros para a biblioteca, usando de cada página a cópia válida mais recente.
+     * Se o ficheiro não existir, cria um catálogo vazio.
+     *
+     * @param library A biblioteca onde os livros são carregados.
+     * @throws IOException Se ocorrer um erro ao ler o ficheiro, se o formato não for válido
+     *                     ou se as duas cópias de uma página estiverem danificadas.
+     */
+    @Override
+    public void load(Library library) throws IOException {
+        ioLock.lock();
+        try {
+            if (!file.exists()) {
+                write(new String[0], new Book[0][]);
+            }
+            open();
+
+            // A parte do ficheiro antes das páginas é lida de uma vez; as páginas são lidas uma a uma
+            ByteBuffer buffer = ByteBuffer.allocate((int) pagesOffset);
+            readFully(buffer, 0);
+            int authorCount = buffer.getInt(8);
+            int recordCount = buffer.getInt(12);
+            int recordsOffset = HEADER_SIZE + authorCount * AUTHOR_ENTRY_SIZE;
+            int textOffset = recordsOffset + recordCount * RECORD_SIZE;
+            readPages(recordCount);
+
+            CatalogBuilder builder = library.newCatalogBuilder();
+            Book[] booksBySlot = new Book[recordCount];
+            byte[] scratch = new byte[256];
+            String[] authors = new String[authorCount];
+            for (int i = 0; i < authorCount; i++) {
+                int entry = HEADER_SIZE + i * AUTHOR_ENTRY_SIZE;
+                int length = buffer.getInt(entry + 4);
+                scratch = readString(buffer, textOffset + buffer.getInt(entry), length, scratch);
+                authors[i] = new String(scratch, 0, length, StandardCharsets.UTF_8);
+            }
+
+            synchronized (this) {
+                for (int slot = 0; slot < recordCount; slot++) {
+                    int record = recordsOffset + slot * RECORD_SIZE;
+                    int length = buffer.getInt(record + 8);
+                    scratch = readString(buffer, textOffset + buffer.getInt(record + 4), length, scratch);
+                    String title = new String(scratch, 0, length, StandardCharsets.UTF_8);
+                    booksBySlot[slot] = builder.add(authors[buffer.getInt(record)], title, isAvailable(slot));
+                }
+            }
+
+            // Os ids dos livros só são atribuídos ao instalar o catálogo na biblioteca
+            library.install(builder);
+            synchronized (this) {
+                for (int slot = 0; slot < recordCount; slot++) {
+                    rememberSlot(booksBySlot[slot], slot);
+                }
+            }
+        } finally {
+            ioLock.unlock();
+        }
+        copyCounts.load(library);
+        startFlushing();
+    }
+
+    /**
+     * Reescreve o ficheiro com o catálogo completo, incluindo as alterações de disponibilidade por guardar.
+     *
+     * @param library A biblioteca a guardar.
+     * @throws IOException Se ocorrer um erro ao escrever o ficheiro.
+     */
+    @Override
+    public void save(Library library) throws IOException {
+        ioLock.lock();
+        try {
+            CatalogSnapshot snapshot = library.snapshot();
+            write(snapshot.authors(), TextCatalogStore.booksOf(snapshot));
+            open();
+        } finally {
+            ioLock.unlock();
+        }
+    }
+
+    @Override
+    public void bookAdded(Library library, String author, Book book) throws IOException {
+        save(library);
+    }
+
+    @Override
+    public void booksAdded(Library library, List<Book> books) throws IOException {
+        save(library);
+    }
+
+    @Override
+    public void bookRemoved(Library library, String author, Book book) throws IOException {
+        save(library);
+    }
+
+    /**
+     * Muda o bit do livro na página em memória e marca-a como suja. Com um intervalo de zero,
+     * guarda logo a página.
+     *
+     * @param library A biblioteca alterada.
+     * @param author Nome do autor do livro.
+     * @param book O livro cuja disponibilidade mudou.
+     * @throws IOException Se ocorrer um erro ao guardar a página.
+     */
+    @Override
+    public void availabilityChanged(Library library, String author, Book book) throws IOException {
+        synchronized (this) {
+            if (book.getId() >= slotById.length) {
+                return;  // Livro que não chegou ao ficheiro porque a reescrita falhou; entra na próxima reescrita
+            }
+            int slot = slotById[book.getId()];
+            setBit(pages, slot, book.isAvailable());
+            dirtyPages.set(slot / BOOKS_PER_PAGE);
+        }
+        if (flushIntervalMillis == 0) {
+            flush();
+        }
+    }
+
+    @Override
+    public void copiesChanged(Library library, String author, Book book, int copies) throws IOException {
+        copyCounts.set(author, book.getTitle(), copies);
+    }
+
+    /**
+     * Guarda as páginas sujas, cada uma na posição da sua cópia mais antiga, e sincroniza o ficheiro.
+     * As alterações feitas durante a escrita ficam para a escrita seguinte.
+     *
+     * @return O número de páginas escritas.
+     * @throws IOException Se ocorrer um erro ao escrever; as páginas continuam sujas.
+     */
+    public int flush() throws IOException {
+        ioLock.lock();
+        try {
+            int[] dirty;
+            ByteBuffer[] copies;
+            synchronized (this) {
+                dirty = dirtyPages.stream().toArray();
+                copies = new ByteBuffer[dirty.length];
+                for (int i = 0; i < dirty.length; i++) {
+                    copies[i] = sealPage(dirty[i], sequences[dirty[i]] + 1);
+                }
+                dirtyPages.clear();
+            }
+            if (dirty.length == 0) {
+                return 0;
+            }
+
+            try {
+                for (int i = 0; i < dirty.length; i++) {
+                    writeFully(copies[i], pagePosition(dirty[i], sequences[dirty[i]] + 1));
+                }
+                channel.force(false);
+            } catch (IOException e) {
+                synchronized (this) {
+                    for (int page : dirty) {
+                        dirtyPages.set(page);
+                    }
+                }
+                throw e;
+            }
+
+            synchronized (this) {
+                for (int page : dirty) {
+                    sequences[page]++;
+                }
+                pagesWritten += dirty.length;
+            }
+            return dirty.length;
+        } finally {
+            ioLock.unlock();
+        }
+    }
+
+    /**
+     * Retorna o número de páginas escritas desde que o catálogo foi aberto, sem contar as reescritas completas.
+     *
+     * @return O número de páginas escritas.
+     */
+    public synchronized long getPagesWritten() {
+        return pagesWritten;
+    }
+
+    /**
+     * Para a escrita periódica, guarda as páginas sujas e fecha o ficheiro.
+     *
+     * @throws IOException Se ocorrer um erro ao guardar as páginas.
+     */
+    @Override
+    public void close() throws IOException {
+        ScheduledExecutorService stopped;
+        synchronized (this) {
+            stopped = flusher;
+            flusher = null;
+        }
+        if (stopped != null) {
+            stopped.shutdown();
+            try {
+                stopped.awaitTermination(10, TimeUnit.SECONDS);
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+            }
+        }
+
+        ioLock.lock();
+        try {
+            if (channel != null) {
+                flush();
+                channel.close();
+                channel = null;
+            }
+        } finally {
+            ioLock.unlock();
+        }
+    }
+
+    /**
+     * Começa a guardar as páginas sujas periodicamente, se o intervalo não for zero.
+     */
+    private synchronized void startFlushing() {
+        if (flushIntervalMillis == 0 || flusher != null) {
+            return;
+        }
+        flusher = Executors.newSingleThreadScheduledExecutor(task -> {
+            Thread thread = new Thread(task, "library-pages");
+            thread.setDaemon(true);
+            return thread;
+        });
+        flusher.scheduleWithFixedDelay(() -> {
+            try {
+                flush();
+            } catch (IOException | RuntimeException e) {
+                LibraryLog.log(LibraryLog.Level.ERROR, "Erro ao guardar páginas de disponibilidade: %s", e);
+            }
+        }, flushIntervalMillis, flushIntervalMillis, TimeUnit.MILLISECONDS);
+    }
+
+    /**
+     * Abre o ficheiro, valida o cabeçalho e calcula a posição das páginas.
+     *
+     * @throws IOException Se ocorrer um erro ao abrir o ficheiro ou se o formato não for válido.
+     */
+    private void open() throws IOException {
+        if (channel != null) {
+            channel.close();
+        }
+        channel = FileChannel.open(file.toPath(), StandardOpenOption.READ, StandardOpenOption.WRITE);
+        ByteBuffer header = ByteBuffer.allocate(HEADER_SIZE);
+        readFully(header, 0);
+        if (header.getInt(0) != MAGIC || header.getInt(4) != VERSION) {
+            throw new IOException("Formato de catálogo paginado inválido: " + file);
+        }
+        long pagesSize = (long) pageCount(header.getInt(12)) * 2 * PAGE_SIZE;
+        if (pagesSize > 0 && channel.size() % PAGE_SIZE != 0) {
+            throw new IOException("Catálogo paginado truncado: " + file);
+        }
+        pagesOffset = alignToPage(channel.size() - pagesSize);
+    }
+
+    /**
+     * Lê as páginas de disponibilidade, escolhendo de cada uma a cópia com CRC válido e a maior sequência.
+     *
+     * @param recordCount Número de livros do catálogo.
+     * @throws IOException Se ocorrer um erro ao ler ou se as duas cópias de uma página estiverem danificadas.
+     */
+    private void readPages(int recordCount) throws IOException {
+        int count = pageCount(recordCount);
+        byte[][] loaded = new byte[count][];
+        int[] loadedSequences = new int[count];
+        for (int page = 0; page < count; page++) {
+            for (int copy = 0; copy < 2; copy++) {
+                ByteBuffer bytes = ByteBuffer.allocate(PAGE_SIZE);
+                readFully(bytes, pagesOffset + (2L * page + copy) * PAGE_SIZE);
+                int sequence = bytes.getInt(4);
+                if (bytes.getInt(0) == checksum(page, bytes.array())
+                        && (loaded[page] == null || sequence > loadedSequences[page])) {
+                    loaded[page] = bytes.array();
+                    loadedSequences[page] = sequence;
+                }
+            }
+            if (loaded[page] == null) {
+                throw new IOException("As duas cópias da página " + page + " de " + file + " estão danificadas.");
+            }
+        }
+        synchronized (this) {
+            pages = loaded;
+            sequences = loadedSequences;
+            dirtyPages.clear();
+        }
+    }
+
+    /**
+     * Escreve o catálogo completo num ficheiro temporário, sincroniza-o e coloca-o no lugar do ficheiro.
+     * As duas cópias de cada página são escritas com o estado atual. As páginas e os registos dos livros em memória
+     * só passam a ser os novos depois de o ficheiro estar no lugar; se a escrita falhar, continuam a descrever o
+     * ficheiro anterior, onde as páginas sujas continuam a ser guardadas. Quem chama tem o ioLock.
+     *
+     * @param authors Array com os nomes dos autores.
+     * @param books Array bidimensional com os livros de cada autor.
+     * @throws IOException Se ocorrer um erro ao escrever o ficheiro.
+     */
+    private void write(String[] authors, Book[][] books) throws IOException {
+        int recordCount = 0;
+        for (Book[] authorBooks : books) {
+            recordCount += authorBooks.length;
+        }
+
+        byte[][] authorBytes = new byte[authors.length][];
+        byte[][] titleBytes = new byte[recordCount][];
+        byte[][] newPages = new byte[pageCount(recordCount)][PAGE_SIZE];
+        Book[] booksBySlot = new Book[recordCount];
+
+        File temp = new File(file.getPath() + ".tmp");
+        try (FileOutputStream output = new FileOutputStream(temp);
+             DataOutputStream data = new DataOutputStream(new BufferedOutputStream(output, 1 << 16))) {
+            data.writeInt(MAGIC);
+            data.writeInt(VERSION);
+            data.writeInt(authors.length);
+            data.writeInt(recordCount);
+
+            long textOffset = 0;
+            for (int i = 0; i < authors.length; i++) {
+                authorBytes[i] = authors[i].getBytes(StandardCharsets.UTF_8);
+                data.writeInt((int) textOffset);
+                data.writeInt(authorBytes[i].length);
+                textOffset += authorBytes[i].length;
+            }
+
+            int slot = 0;
+            for (int i = 0; i < authors.length; i++) {
+                for (Book book : books[i]) {
+                    titleBytes[slot] = book.getTitle().getBytes(StandardCharsets.UTF_8);
+                    data.writeInt(i);
+                    data.writeInt((int) textOffset);
+                    data.writeInt(titleBytes[slot].length);
+                    textOffset += titleBytes[slot].length;
+                    if (book.isAvailable()) {
+                        setBit(newPages, slot, true);
+                    }
+                    booksBySlot[slot++] = book;
+                }
+            }
+
+            for (byte[] bytes : authorBytes) {
+                data.write(bytes);
+            }
+            for (byte[] bytes : titleBytes) {
+                data.write(bytes);
+            }
+
+            // As páginas começam na posição seguinte múltipla de PAGE_SIZE; cada uma é escrita duas vezes
+            long end = HEADER_SIZE + (long) authors.length * AUTHOR_ENTRY_SIZE + (long) recordCount * RECORD_SIZE + textOffset;
+            data.write(new byte[(int) (alignToPage(end) - end)]);
+            for (int page = 0; page < newPages.length; page++) {
+                for (int copy = 0; copy < 2; copy++) {
+                    data.write(sealPage(newPages, page, copy).array());
+                }
+            }
+            data.flush();
+            output.getFD().sync();
+        }
+
+        Files.move(temp.toPath(), file.toPath(), StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+        publish(newPages, booksBySlot);
+    }
+
+    /**
+     * Passa a usar as páginas e os registos de um ficheiro acabado de escrever.
+     * A disponibilidade que mudou enquanto o ficheiro era escrito foi aplicada às páginas anteriores, por isso
+     * é lida outra vez de cada livro, e as páginas que ficam diferentes do que foi escrito ficam sujas.
+     *
+     * @param newPages As páginas escritas no ficheiro, pela ordem dos registos.
+     * @param booksBySlot O livro de cada registo do ficheiro.
+     */
+    private synchronized void publish(byte[][] newPages, Book[] booksBySlot) {
+        dirtyPages.clear();
+        for (int slot = 0; slot < booksBySlot.length; slot++) {
+            boolean available = booksBySlot[slot].isAvailable();
+            if (isAvailable(newPages, slot) != available) {
+                setBit(newPages, slot, available);
+                dirtyPages.set(slot / BOOKS_PER_PAGE);
+            }
+        }
+        pages = newPages;
+        sequences = new int[newPages.length];
+        Arrays.fill(sequences, 1);  // A cópia 1 fica com a sequência 1 e é a mais recente
+
+        int maxId = -1;
+        for (Book book : booksBySlot) {
+            maxId = Math.max(maxId, book.getId());
+        }
+        slotById = new int[maxId + 1];
+        for (int slot = 0; slot < booksBySlot.length; slot++) {
+            if (booksBySlot[slot].getId() >= 0) {
+                slotById[booksBySlot[slot].getId()] = slot;
+            }
+        }
+    }
+
+    /**
+     * Copia uma página em memória com a sequência indicada e o CRC correspondente, pronta a escrever.
+     * Tem de ser chamado com o monitor do objeto.
+     */
+    private ByteBuffer sealPage(int page, int sequence) {
+        return sealPage(pages, page, sequence);
+    }
+
+    /**
+     * Copia uma página de um conjunto de páginas com a sequência indicada e o CRC correspondente.
+     */
+    private static ByteBuffer sealPage(byte[][] pages, int page, int sequence) {
+        byte[] copy = pages[page].clone();
+        ByteBuffer bytes = ByteBuffer.wrap(copy);
+        bytes.putInt(4, sequence);
+        bytes.putInt(0, checksum(page, copy));
+        return bytes;
+    }
+
+    /**
+     * Calcula o CRC de uma página, incluindo o seu número, para que uma página escrita no sítio errado
+     * também seja detetada.
+     */
+    private static int checksum(int page, byte[] bytes) {
+        CRC32C crc = new CRC32C();
+        crc.update(page);
+        crc.update(page >>> 8);
+        crc.update(page >>> 16);
+        crc.update(page >>> 24);
+        crc.update(bytes, 4, PAGE_SIZE - 4);
+        return (int) crc.getValue();
+    }
+
+    /**
+     * Indica se o livro de um registo está disponível, segundo as páginas em memória.
+     */
+    private boolean isAvailable(int slot) {
+        return isAvailable(pages, slot);
+    }
+
+    private static boolean isAvailable(byte[][] pages, int slot) {
+        int bit = slot % BOOKS_PER_PAGE;
+        return (pages[slot / BOOKS_PER_PAGE][PAGE_HEADER_SIZE + (bit >>> 3)] & (1 << (bit & 7))) != 0;
+    }
+
+    /**
+     * Muda o bit de disponibilidade de um registo num conjunto de páginas.
+     */
+    private static void setBit(byte[][] pages, int slot, boolean available) {
+        int bit = slot % BOOKS_PER_PAGE;
+        int offset = PAGE_HEADER_SIZE + (bit >>> 3);
+        if (available) {
+            pages[slot / BOOKS_PER_PAGE][offset] |= (byte) (1 << (bit & 7));
+        } else {
+            pages[slot / BOOKS_PER_PAGE][offset] &= (byte) ~(1 << (bit & 7));
+        }
+    }
+
+    /**
+     * Retorna a posição no ficheiro da cópia de uma página com uma dada sequência; as duas cópias alternam.
+     */
+    private long pagePosition(int page, int sequence) {
+        return pagesOffset + (2L * page + (sequence & 1)) * PAGE_SIZE;
+    }
+
+    private static int pageCount(int recordCount) {
+        return (recordCount + BOOKS_PER_PAGE - 1) / BOOKS_PER_PAGE;
+    }
+
+    private static long alignToPage(long position) {
+        return (position + PAGE_SIZE - 1) / PAGE_SIZE * PAGE_SIZE;
+    }
+
+    private void readFully(ByteBuffer bytes, long position) throws IOException {
+        while (bytes.hasRemaining()) {
+            if (channel.read(bytes, position + bytes.position()) < 0) {
+                throw new IOException("Fim inesperado de " + file);
+            }
+        }
+    }
+
+    private void writeFully(ByteBuffer bytes, long position) throws IOException {
+        while (bytes.hasRemaining()) {
+            channel.write(bytes, position + bytes.position());
+        }
+    }
+
+    /**
+     * Copia os bytes de um nome ou título do ficheiro para um array auxiliar, aumentando-o se necessário.
+     *
+     * @return O array auxiliar com os bytes nas primeiras posições.
+     */
+    private static byte[] readString(ByteBuffer buffer, int offset, int length, byte[] scratch) {
+        if (scratch.length < length) {
+            scratch = new byte[Math.max(length, scratch.length * 2)];
+        }
+        buffer.get(offset, scratch, 0, length);
+        return scratch;
+    }
+
+    /**
+     * Guarda a posição do registo de um livro no ficheiro.
+     */
+    private void rememberSlot(Book book, int slot) {
+        if (book.getId() >= slotById.length) {
+            slotById = Arrays.copyOf(slotById, Math.max(book.getId() + 1, slotById.length * 2));
+        }
+        slotById[book.getId()] = slot;
+    }
+}
@@ -0,0 +1,164 @@
+import java.io.File;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.Charset;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.Future;
+
+/**
+ * Classe que carrega ficheiros de livros grandes usando vários processadores.
+ * O ficheiro é dividido em intervalos de bytes que terminam sempre num fim de linha; cada intervalo é lido
+ * por uma tarefa de um ForkJoinPool para um CatalogBuilder parcial. No fim, os catálogos parciais são juntos
+ * pela ordem dos intervalos, o que mantém a ordem original dos autores e dos títulos de cada autor.
+ */
+public class ParallelCatalogLoader {
+
+    /**
+     * Tamanho mínimo de cada intervalo, para que ficheiros pequenos não sejam divididos em tarefas demasiado pequenas.
+     */
+    private static final int MIN_CHUNK_SIZE = 1 << 20;
+
+    /**
+     * Tamanho máximo de cada intervalo, que é lido de uma vez para um array de bytes.
+     */
+    private static final int MAX_CHUNK_SIZE = 64 << 20;
+
+    /**
+     * Número de intervalos criados por cada thread, para equilibrar a carga entre threads.
+     */
+    private static final int CHUNKS_PER_THREAD = 4;
+
+    /**
+     * Intervalo de bytes do ficheiro lido por uma tarefa.
+     *
+     * @param start Posição do primeiro byte.
+     * @param end Posição a seguir ao último byte.
+     */
+    private record Chunk(long start, long end) {
+    }
+
+    /**
+     * Carrega um ficheiro de livros usando um número de threads específico.
+     * As linhas são interpretadas tal como em {@link TextCatalogStore#parseLine}, com a codificação por omissão,
+     * a mesma que o FileReader usa no carregamento sequencial.
+     *
+     * @param file O ficheiro de livros.
+     * @param parallelism Número de threads usadas.
+     * @return O catálogo lido.
+     * @throws IOException Se ocorrer um erro ao ler o ficheiro.
+     */
+    public static CatalogBuilder load(File file, int parallelism) throws IOException {
+        ForkJoinPool pool = new ForkJoinPool(parallelism);
+        try (FileChannel channel = FileChannel.open(file.toPath(), StandardOpenOption.READ)) {
+            List<Chunk> chunks = split(channel, parallelism * CHUNKS_PER_THREAD);
+
+            List<Callable<CatalogBuilder>> tasks = new ArrayList<>(chunks.size());
+            for (Chunk chunk : chunks) {
+                tasks.add(() -> parse(channel, chunk));
+            }
+
+            CatalogBuilder result = null;
+            for (Future<CatalogBuilder> partial : pool.invokeAll(tasks)) {
+                if (result == null) {
+                    result = partial.get();
+                } else {
+                    result.addAll(partial.get());
+                }
+            }
+            return result != null ? result : new CatalogBuilder();
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new IOException("Carregamento interrompido.", e);
+        } catch (ExecutionException e) {
+            if (e.getCause() instanceof IOException ioException) {
+                throw ioException;
+            }
+            throw new IOException(e.getCause());
+        } finally {
+            pool.shutdown();
+        }
+    }
+
+    /**
+     * Divide o ficheiro em intervalos de tamanho semelhante, acertando o fim de cada um a seguir a um '\n'.
+     *
+     * @param channel O canal do ficheiro.
+     * @param targetChunks Número de intervalos pretendido.
+     * @return Os intervalos, pela ordem do ficheiro.
+     * @throws IOException Se ocorrer um erro ao ler o ficheiro.
+     */
+    private static List<Chunk> split(FileChannel channel, int targetChunks) throws IOException {
+        long size = channel.size();
+        long chunkSize = Math.min(MAX_CHUNK_SIZE, Math.max(MIN_CHUNK_SIZE, size / Math.max(1, targetChunks)));
+
+        List<Chunk> chunks = new ArrayList<>();
+        ByteBuffer probe = ByteBuffer.allocate(4096);
+        long start = 0;
+        while (start < size) {
+            long end = Math.min(size, start + chunkSize);
+
+            // Avança até ao fim da linha em que o intervalo terminaria
+            while (end < size) {
+                probe.clear();
+                int read = channel.read(probe, end);
+                int newline = -1;
+                for (int i = 0; i < read; i++) {
+                    if (probe.get(i) == '\n') {
+                        newline = i;
+                        break;
+                    }
+                }
+                if (newline >= 0) {
+                    end += newline + 1;
+                    break;
+                }
+                end += Math.max(read, 0);
+            }
+
+            chunks.add(new Chunk(start, end));
+            start = end;
+        }
+        return chunks;
+    }
+
+    /**
+     * Lê as linhas de um intervalo para um catálogo parcial.
+     *
+     * @param channel O canal do ficheiro.
+     * @param chunk O intervalo a ler.
+     * @return O catálogo parcial do intervalo.
+     * @throws IOException Se ocorrer um erro ao ler o ficheiro.
+     */
+    private static CatalogBuilder parse(FileChannel channel, Chunk chunk) throws IOException {
+        byte[] bytes = new byte[(int) (chunk.end() - chunk.start())];
+        ByteBuffer buffer = ByteBuffer.wrap(bytes);
+        while (buffer.hasRemaining()) {
+            if (channel.read(buffer, chunk.start() + buffer.position()) < 0) {
+                break;
+            }
+        }
+
+        Charset charset = Charset.defaultCharset();
+        CatalogBuilder builder = new CatalogBuilder();
+        int lineStart = 0;
+        for (int i = 0; i <= bytes.length; i++) {
+            if (i == bytes.length || bytes[i] == '\n') {
+                int lineEnd = i;
+                if (lineEnd > lineStart && bytes[lineEnd - 1] == '\r') {
+                    lineEnd--;
+                }
+                if (lineEnd > lineStart) {
+                    TextCatalogStore.parseLine(new String(bytes, lineStart, lineEnd - lineStart, charset), builder);
+                }
+                lineStart = i + 1;
+            }
+        }
+        return builder;
+    }
+}
@@ -0,0 +1,420 @@
+import java.io.BufferedReader;
+import java.io.BufferedWriter;
+import java.io.IOException;
+import java.io.InputStreamReader;
+import java.io.OutputStreamWriter;
+import java.io.UncheckedIOException;
+import java.io.Writer;
+import java.net.InetSocketAddress;
+import java.net.Socket;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collection;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.locks.ReentrantLock;
+
+/**
+ * Cliente de um LibraryServer, com as mesmas operações de uma Library local.
+ * <p>
+ * Os pedidos são enviados pela ligação e as respostas chegam pela mesma ordem, lidas por uma thread própria.
+ * Ao registar o primeiro LibraryListener, o cliente subscreve os avisos do servidor e passa a manter uma cópia
+ * do catálogo; a partir daí os autores e os livros são lidos dessa cópia, sem pedidos ao servidor, e são sempre
+ * os mesmos objetos Book entregues aos ouvintes. Cada livro da cópia tem o identificador que tem no servidor.
+ * <p>
+ * Os locks mantidos durante escritas na ligação ou à espera do servidor são ReentrantLock, para que os pedidos
+ * possam ser feitos por virtual threads sem prender as threads do sistema.
+ */
+public class RemoteLibrary implements LibraryService {
+
+    private final Socket socket;
+    private final Writer writer;
+    private final BufferedReader reader;
+    private final Thread readerThread;
+    private final ConcurrentLinkedQueue<CompletableFuture<String[]>> waiting = new ConcurrentLinkedQueue<>();
+    private final ReentrantLock sendLock = new ReentrantLock();  // Mantém a fila de respostas pela ordem dos pedidos
+    private volatile boolean closed;
+
+    private final ReentrantLock subscribeLock = new ReentrantLock();
+    private volatile boolean subscribed;
+
+    // Cópia do catálogo, protegida pelo lock do próprio mapa e mantida pelos avisos do servidor
+    private final Map<String, List<Book>> booksByAuthor = new LinkedHashMap<>();
+    private final AvailabilityBitmap availability = new AvailabilityBitmap(64);
+    private Book[] booksById = new Book[64];
+    private final List<LibraryListener> listeners = new CopyOnWriteArrayList<>();
+
+    /**
+     * Construtor da classe RemoteLibrary. Liga-se ao servidor.
+     *
+     * @param host Nome ou endereço do servidor.
+     * @param port Porta do servidor.
+     * @throws IOException Se não for possível ligar ao servidor.
+     */
+    public RemoteLibrary(String host, int port) throws IOException {
+        socket = new Socket();
+        socket.connect(new InetSocketAddress(host, port), 5_000);
+        socket.setTcpNoDelay(true);
+        writer = new BufferedWriter(new OutputStreamWriter(socket.getOutputStream(), StandardCharsets.UTF_8));
+        reader = new BufferedReader(new InputStreamReader(socket.getInputStream(), StandardCharsets.UTF_8), 64 * 1024);
+
+        readerThread = LibraryThreads.start("library-client", this::readLoop);
+    }
+
+    @Override
+    public String[] getAuthors() {
+        if (subscribed) {
+            synchronized (booksByAuthor) {
+                return booksByAuthor.keySet().toArray(new String[0]);
+            }
+        }
+        String[] reply = callUnchecked(LibraryProtocol.AUTHORS);
+        return Arrays.copyOfRange(reply, 1, reply.length);
+    }
+
+    @Override
+    public Book[] getBooksByAuthor(String author) {
+        if (subscribed) {
+            synchronized (booksByAuthor) {
+                List<Book> books = booksByAuthor.get(author);
+                return books == null ? new Book[0] : books.toArray(new Book[0]);
+            }
+        }
+        String[] reply = callUnchecked(LibraryProtocol.BOOKS, author);
+        Book[] books = new Book[(reply.length - 1) / 2];
+        for (int i = 0; i < books.length; i++) {
+            books[i] = new Book(reply[1 + 2 * i], LibraryProtocol.flag(reply[2 + 2 * i]));
+            books[i].setAuthor(author);
+        }
+        return books;
+    }
+
+    @Override
+    public LibraryResult addBook(String author, String title) throws IOException {
+        return result(call(LibraryProtocol.ADD, author, title));
+    }
+
+    @Override
+    public LibraryResult removeBook(String author, String title) throws IOException {
+        return result(call(LibraryProtocol.REMOVE, author, title));
+    }
+
+    /**
+     * Adiciona vários livros no servidor com pedidos ADDALL, cada um com tantos livros quantos couberem num pedido,
+     * guardados pelo servidor com uma só escrita por pedido.
+     *
+     * @param newBooks Os livros a adicionar, com o autor definido.
+     * @throws IOException Se a ligação falhar ou o servidor responder com um erro.
+     */
+    @Override
+    public void addBooks(Collection<Book> newBooks) throws IOException {
+        for (String[] request : batches(LibraryProtocol.ADD_ALL, newBooks)) {
+            call(request);
+        }
+    }
+
+    /**
+     * Adiciona no servidor os livros que ainda não estão no catálogo, com pedidos ADDNEW. Em cada pedido,
+     * o servidor compara e adiciona os livros numa só operação.
+     *
+     * @param newBooks Os livros a adicionar, com o autor definido.
+     * @return O número de livros adicionados.
+     * @throws IOException Se a ligação falhar ou o servidor responder com um erro.
+     */
+    @Override
+    public int addNewBooks(Collection<Book> newBooks) throws IOException {
+        int added = 0;
+        for (String[] request : batches(LibraryProtocol.ADD_NEW, newBooks)) {
+            String[] reply = call(request);
+            try {
+                added += Integer.parseInt(reply[1]);
+            } catch (NumberFormatException | ArrayIndexOutOfBoundsException e) {
+                throw new IOException("Resposta inválida do servidor: " + LibraryProtocol.encode(reply), e);
+            }
+        }
+        return added;
+    }
+
+    @Override
+    public LibraryResult requestBook(String author, String title) throws IOException {
+        return result(call(LibraryProtocol.REQUEST, author, title));
+    }
+
+    /**
+     * Requisita um livro em nome de um requisitante, que fica registado nos empréstimos do servidor.
+     *
+     * @param author Nome do autor do livro.
+     * @param title Título do livro.
+     * @param borrower Identificador de quem requisita o livro.
+     * @return O resultado da requisição.
+     * @throws IOException Se a ligação falhar ou o servidor responder com um erro.
+     */
+    @Override
+    public LibraryResult requestBook(String author, String title, String borrower) throws IOException {
+        return result(call(LibraryProtocol.REQUEST, author, title, borrower));
+    }
+
+    @Override
+    public LibraryResult returnBook(String author, String title) throws IOException {
+        return result(call(LibraryProtocol.RETURN, author, title));
+    }
+
+    /**
+     * Requisita ou reserva um livro no servidor, em nome de um requisitante.
+     *
+     * @param author Nome do autor do livro.
+     * @param title Título do livro.
+     * @param borrower Identificador de quem requisita o livro, ou null se não for conhecido.
+     * @return O resultado da requisição, {@link LibraryResult#ON_HOLD} se o pedido ficou na fila.
+     * @throws IOException Se a ligação falhar ou o servidor responder com um erro.
+     */
+    @Override
+    public LibraryResult holdBook(String author, String title, String borrower) throws IOException {
+        return result(borrower != null
+                ? call(LibraryProtocol.HOLD, author, title, borrower)
+                : call(LibraryProtocol.HOLD, author, title));
+    }
+
+    @Override
+    public LibraryResult setCopies(String author, String title, int copies) throws IOException {
+        if (copies < 1) {
+            throw new IllegalArgumentException("Número de exemplares inválido: " + copies);
+        }
+        return result(call(LibraryProtocol.COPIES, author, title, Integer.toString(copies)));
+    }
+
+    /**
+     * Regista um objeto que passa a ser avisado das alterações ao catálogo do servidor.
+     * Da primeira vez, subscreve os avisos e espera que a cópia do catálogo esteja completa.
+     *
+     * @param listener O objeto a avisar.
+     */
+    @Override
+    public void addListener(LibraryListener listener) {
+        subscribeLock.lock();
+        try {
+            if (!subscribed) {
+                callUnchecked(LibraryProtocol.SUBSCRIBE);
+                subscribed = true;
+            }
+        } finally {
+            subscribeLock.unlock();
+        }
+        synchronized (booksByAuthor) {
+            for (List<Book> books : booksByAuthor.values()) {
+                for (Book book : books) {
+                    listener.bookAdded(book);
+                }
+            }
+            listeners.add(listener);
+        }
+    }
+
+    @Override
+    public void removeListener(LibraryListener listener) {
+        listeners.remove(listener);
+    }
+
+    /**
+     * Fecha a ligação ao servidor. Os pedidos à espera de resposta falham.
+     *
+     * @throws IOException Se ocorrer um erro ao fechar a ligação.
+     */
+    @Override
+    public void close() throws IOException {
+        closed = true;
+        socket.close();
+        try {
+            readerThread.join();
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+    }
+
+    /**
+     * Envia um pedido e espera pela resposta.
+     *
+     * @return Os campos da resposta, começando por OK.
+     * @throws IOException Se a ligação falhar ou o servidor responder com um erro.
+     */
+    private String[] call(String... fields) throws IOException {
+        CompletableFuture<String[]> response = new CompletableFuture<>();
+        sendLock.lock();
+        try {
+            if (closed) {
+                throw new IOException("Ligação ao servidor fechada.");
+            }
+            // A resposta é associada ao pedido pela ordem, por isso a fila e a escrita têm de ter a mesma ordem
+            waiting.add(response);
+            writer.write(LibraryProtocol.encode(fields));
+            writer.write('\n');
+            writer.flush();
+        } finally {
+            sendLock.unlock();
+        }
+
+        String[] reply;
+        try {
+            reply = response.get();
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new IOException("Interrompido à espera do servidor.", e);
+        } catch (ExecutionException e) {
+            throw e.getCause() instanceof IOException io ? io : new IOException(e.getCause());
+        }
+        if (reply[0].equals(LibraryProtocol.ERR)) {
+            throw new IOException(reply.length > 1 ? reply[1] : "Erro no servidor.");
+        }
+        return reply;
+    }
+
+    /**
+     * Divide uma coleção de livros em pedidos com autor, título e disponibilidade de cada livro,
+     * cada um com no máximo {@link LibraryProtocol#MAX_LINE} bytes.
+     */
+    private static List<String[]> batches(String command, Collection<Book> books) {
+        List<String[]> requests = new ArrayList<>();
+        List<String> fields = new ArrayList<>();
+        int length = 0;
+        for (Book book : books) {
+            String author = book.getAuthor();
+            String title = book.getTitle();
+            String available = LibraryProtocol.flag(book.isAvailable());
+            // Três separadores e a disponibilidade, além do autor e do título
+            int bookLength = LibraryProtocol.encodedLength(author) + LibraryProtocol.encodedLength(title) + 4;
+            if (!fields.isEmpty() && command.length() + length + bookLength + 1 > LibraryProtocol.MAX_LINE) {
+                requests.add(request(command, fields));
+                fields.clear();
+                length = 0;
+            }
+            fields.add(author);
+            fields.add(title);
+            fields.add(available);
+            length += bookLength;
+        }
+        if (!fields.isEmpty()) {
+            requests.add(request(command, fields));
+        }
+        return requests;
+    }
+
+    private static String[] request(String command, List<String> fields) {
+        String[] request = new String[fields.size() + 1];
+        request[0] = command;
+        for (int i = 0; i < fields.size(); i++) {
+            request[i + 1] = fields.get(i);
+        }
+        return request;
+    }
+
+    /**
+     * Lê o resultado de uma alteração na resposta do servidor.
+     */
+    private static LibraryResult result(String[] reply) throws IOException {
+        try {
+            return LibraryResult.valueOf(reply[1]);
+        } catch (IllegalArgumentException | ArrayIndexOutOfBoundsException e) {
+            throw new IOException("Resposta inválida do servidor: " + LibraryProtocol.encode(reply), e);
+        }
+    }
+
+    /**
+     * Envia um pedido de leitura, cujas falhas de ligação não fazem parte do contrato de LibraryService.
+     */
+    private String[] callUnchecked(String... fields) {
+        try {
+            return call(fields);
+        } catch (IOException e) {
+            throw new UncheckedIOException(e);
+        }
+    }
+
+    /**
+     * Ciclo da thread de leitura: entrega as respostas aos pedidos à espera e aplica os avisos à cópia do catálogo.
+     */
+    private void readLoop() {
+        IOException failure = null;
+        try {
+            String line;
+            while ((line = reader.readLine()) != null) {
+                String[] fields = LibraryProtocol.decode(line);
+                switch (fields[0]) {
+                    case LibraryProtocol.OK, LibraryProtocol.ERR -> {
+                        CompletableFuture<String[]> response = waiting.poll();
+                        if (response != null) {
+                            response.complete(fields);
+                        }
+                    }
+                    case LibraryProtocol.ADDED, LibraryProtocol.REMOVED, LibraryProtocol.CHANGED -> apply(fields);
+                    default -> LibraryLog.log(LibraryLog.Level.WARNING, "Mensagem desconhecida do servidor: %s", fields[0]);
+                }
+            }
+        } catch (IOException e) {
+            failure = e;
+        }
+
+        closed = true;
+        IOException error = new IOException(
+                "Ligação ao servidor terminada" + (failure != null ? ": " + failure.getMessage() : "."), failure);
+        sendLock.lock();
+        try {
+            CompletableFuture<String[]> response;
+            while ((response = waiting.poll()) != null) {
+                response.completeExceptionally(error);
+            }
+        } finally {
+            sendLock.unlock();
+        }
+    }
+
+    /**
+     * Aplica um aviso do servidor à cópia do catálogo e avisa os ouvintes locais.
+     */
+    private void apply(String[] fields) {
+        int id = Integer.parseInt(fields[1]);
+        synchronized (booksByAuthor) {
+            switch (fields[0]) {
+                case LibraryProtocol.ADDED -> {
+                    Book book = new Book(fields[3], LibraryProtocol.flag(fields[4]));
+                    book.setAuthor(fields[2]);
+                    if (id >= booksById.length) {
+                        booksById = Arrays.copyOf(booksById, Math.max(id + 1, booksById.length * 2));
+                    }
+                    availability.ensureCapacity(id + 1);
+                    book.bind(availability, id);
+                    booksById[id] = book;
+                    booksByAuthor.computeIfAbsent(fields[2], author -> new ArrayList<>()).add(book);
+                    for (LibraryListener listener : listeners) {
+                        listener.bookAdded(book);
+                    }
+                }
+                case LibraryProtocol.REMOVED -> {
+                    Book book = booksById[id];
+                    for (LibraryListener listener : listeners) {
+                        listener.bookRemoved(book);
+                    }
+                    List<Book> books = booksByAuthor.get(book.getAuthor());
+                    books.remove(book);
+                    if (books.isEmpty()) {
+                        booksByAuthor.remove(book.getAuthor());
+                    }
+                    book.unbind();
+                    booksById[id] = null;
+                }
+                default -> {
+                    Book book = booksById[id];
+                    book.setAvailable(LibraryProtocol.flag(fields[2]));
+                    for (LibraryListener listener : listeners) {
+                        listener.availabilityChanged(book);
+                    }
+                }
+            }
+        }
+    }
+}
@@ -0,0 +1,614 @@
+import java.text.Normalizer;
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.HashSet;
+import java.util.Iterator;
+import java.util.List;
+import java.util.NoSuchElementException;
+import java.util.Set;
+import java.util.concurrent.locks.ReentrantReadWriteLock;
+
+/**
+ * Classe que permite pesquisar livros por palavras do título e do autor.
+ * <p>
+ * As palavras são guardadas sem maiúsculas nem acentos numa árvore de prefixos (trie), e cada palavra tem a lista
+ * dos identificadores dos livros onde aparece (índice invertido). A árvore serve para a pesquisa exata, para
+ * completar a última palavra enquanto o utilizador escreve e para encontrar palavras com erros de escrita
+ * (distância de edição limitada), percorrendo só os ramos onde a distância ainda pode ser respeitada.
+ * Trocar a ordem de duas letras seguidas conta como uma só edição.
+ * <p>
+ * Uma pesquisa com várias palavras começa pela palavra com menos livros e confirma as restantes nas palavras
+ * guardadas de cada livro candidato, parando quando tem resultados suficientes.
+ * <p>
+ * É mantido atualizado como {@link LibraryListener}: ao ser registado com {@link Library#addListener} indexa o
+ * catálogo existente, e depois cada livro adicionado ou removido atualiza apenas as suas palavras.
+ */
+public class SearchIndex implements LibraryListener {
+
+    /**
+     * Palavra do índice, com os identificadores dos livros onde aparece (sem ordem).
+     */
+    private static final class Term {
+        final String text;
+        int[] ids = new int[2];
+        int size;
+
+        Term(String text) {
+            this.text = text;
+        }
+    }
+
+    /**
+     * Nó da árvore de prefixos. Os filhos estão ordenados pelo carácter, para as pesquisas serem feitas
+     * por pesquisa binária e os termos serem percorridos por ordem alfabética.
+     */
+    private static final class Node {
+        char[] labels = new char[0];
+        Node[] children = new Node[0];
+        int childCount;
+        Term term;       // Palavra que acaba neste nó, ou null
+        long postings;   // Número de pares (palavra, livro) de todas as palavras desta subárvore
+
+        Node child(char label) {
+            int position = Arrays.binarySearch(labels, 0, childCount, label);
+            return position >= 0 ? children[position] : null;
+        }
+
+        Node addChild(char label) {
+            int position = Arrays.binarySearch(labels, 0, childCount, label);
+            if (position >= 0) {
+                return children[position];
+            }
+            position = -position - 1;
+            if (childCount == labels.length) {
+                labels = Arrays.copyOf(labels, Math.max(2, childCount * 2));
+                children = Arrays.copyOf(children, labels.length);
+            }
+            System.arraycopy(labels, position, labels, position + 1, childCount - position);
+            System.arraycopy(children, position, children, position + 1, childCount - position);
+            labels[position] = label;
+            children[position] = new Node();
+            childCount++;
+            return children[position];
+        }
+
+        void removeChild(char label) {
+            int position = Arrays.binarySearch(labels, 0, childCount, label);
+            if (position >= 0) {
+                System.arraycopy(labels, position + 1, labels, position, childCount - position - 1);
+                System.arraycopy(children, position + 1, children, position, childCount - position - 1);
+                children[--childCount] = null;
+            }
+        }
+    }
+
+    /**
+     * Palavras aceites para uma palavra da pesquisa: a própria palavra, as que começam por ela
+     * ou as que estão a uma distância de edição limitada.
+     */
+    private interface Group {
+        /**
+         * Número de pares (palavra, livro) do grupo, usado para escolher o grupo por onde começar.
+         */
+        long size();
+
+        /**
+         * Palavras do grupo, pela ordem em que os seus livros devem aparecer nos resultados.
+         */
+        Iterator<Term> terms();
+
+        /**
+         * Verifica se uma palavra de um livro pertence ao grupo.
+         */
+        boolean matches(Term term);
+    }
+
+    private final Node root = new Node();
+    private final ReentrantReadWriteLock lock = new ReentrantReadWriteLock();
+
+    private Book[] booksById = new Book[64];        // Livro indexado com cada id
+    private Term[][] termsById = new Term[64][];    // Palavras de cada livro, sem repetições
+    private int[][] positionsById = new int[64][];  // Posição do livro na lista de cada uma das suas palavras
+    private int bookCount;
+
+    /**
+     * Divide um texto em palavras normalizadas: letras e dígitos, em minúsculas e sem acentos.
+     *
+     * @param text O texto a dividir.
+     * @return As palavras, pela ordem do texto.
+     */
+    public static List<String> tokenize(String text) {
+        for (int i = 0; i < text.length(); i++) {
+            if (text.charAt(i) > 127) {
+                text = Normalizer.normalize(text, Normalizer.Form.NFD);
+                break;
+            }
+        }
+
+        List<String> tokens = new ArrayList<>();
+        StringBuilder token = new StringBuilder();
+        for (int i = 0; i <= text.length(); i++) {
+            char c = i < text.length() ? text.charAt(i) : ' ';
+            if (Character.isLetterOrDigit(c)) {
+                token.append(Character.toLowerCase(c));
+            } else if (Character.getType(c) != Character.NON_SPACING_MARK && token.length() > 0) {
+                tokens.add(token.toString());
+                token.setLength(0);
+            }
+        }
+        return tokens;
+    }
+
+    /**
+     * Retorna o número de livros indexados.
+     *
+     * @return O número de livros.
+     */
+    public int size() {
+        lock.readLock().lock();
+        try {
+            return bookCount;
+        } finally {
+            lock.readLock().unlock();
+        }
+    }
+
+    /**
+     * Indexa as palavras do autor e do título de um livro adicionado.
+     *
+     * @param book O livro adicionado.
+     */
+    @Override
+    public void bookAdded(Book book) {
+        List<String> distinct = tokenize(book.getAuthor());
+        for (String token : tokenize(book.getTitle())) {
+            if (!distinct.contains(token)) {
+                distinct.add(token);
+            }
+        }
+
+        lock.writeLock().lock();
+        try {
+            int id = book.getId();
+            if (id >= booksById.length) {
+                int capacity = Math.max(id + 1, booksById.length * 2);
+                booksById = Arrays.copyOf(booksById, capacity);
+                termsById = Arrays.copyOf(termsById, capacity);
+                positionsById = Arrays.copyOf(positionsById, capacity);
+            }
+
+            Term[] terms = new Term[distinct.size()];
+            int[] positions = new int[terms.length];
+            int i = 0;
+            for (String token : distinct) {
+                Term term = addPosting(token);
+                if (term.size == term.ids.length) {
+                    term.ids = Arrays.copyOf(term.ids, term.size * 2);
+                }
+                positions[i] = term.size;
+                term.ids[term.size++] = id;
+                terms[i++] = term;
+            }
+            booksById[id] = book;
+            termsById[id] = terms;
+            positionsById[id] = positions;
+            bookCount++;
+        } finally {
+            lock.writeLock().unlock();
+        }
+    }
+
+    /**
+     * Retira do índice as palavras de um livro removido.
+     * Cada palavra troca o livro removido pelo último da sua lista, por isso a remoção não percorre as listas.
+     *
+     * @param book O livro removido.
+     */
+    @Override
+    public void bookRemoved(Book book) {
+        lock.writeLock().lock();
+        try {
+            int id = book.getId();
+            if (id < 0 || id >= booksById.length || !book.equals(booksById[id])) {
+                return;
+            }
+
+            Term[] terms = termsById[id];
+            int[] positions = positionsById[id];
+            for (int i = 0; i < terms.length; i++) {
+                Term term = terms[i];
+                int last = term.ids[--term.size];
+                if (last != id) {
+                    term.ids[positions[i]] = last;
+                    Term[] lastTerms = termsById[last];
+                    for (int j = 0; j < lastTerms.length; j++) {
+                        if (lastTerms[j] == term) {
+                            positionsById[last][j] = positions[i];
+                            break;
+                        }
+                    }
+                }
+                removePosting(term);
+            }
+            booksById[id] = null;
+            termsById[id] = null;
+            positionsById[id] = null;
+            bookCount--;
+        } finally {
+            lock.writeLock().unlock();
+        }
+    }
+
+    /**
+     * Procura os livros que têm todas as palavras da pesquisa, no título ou no autor.
+     *
+     * @param query O texto a pesquisar.
+     * @param limit Número máximo de resultados.
+     * @return Os livros encontrados.
+     */
+    public List<Book> search(String query, int limit) {
+        return find(query, limit, false, 0);
+    }
+
+    /**
+     * Procura os livros para completar uma pesquisa que ainda está a ser escrita:
+     * as palavras completas têm de existir no livro e a última basta ser o início de uma palavra.
+     *
+     * @param query O texto escrito até agora.
+     * @param limit Número máximo de resultados.
+     * @return Os livros encontrados.
+     */
+    public List<Book> complete(String query, int limit) {
+        return find(query, limit, true, 0);
+    }
+
+    /**
+     * Procura os livros que têm, para cada palavra da pesquisa, uma palavra a uma distância de edição limitada
+     * (inserções, remoções ou substituições de um carácter, ou a troca de dois caracteres seguidos).
+     * Os livros com palavras mais próximas aparecem primeiro.
+     * <p>
+     * Palavras curtas admitem menos edições (nenhuma até 2 caracteres, uma até 5), porque com mais edições
+     * coincidiriam com quase tudo, e números, como anos ou volumes, têm de ser exatos.
+     *
+     * @param query O texto a pesquisar.
+     * @param maxEdits Número máximo de edições em cada palavra.
+     * @param limit Número máximo de resultados.
+     * @return Os livros encontrados.
+     */
+    public List<Book> fuzzySearch(String query, int maxEdits, int limit) {
+        return find(query, limit, false, maxEdits);
+    }
+
+    /**
+     * Executa uma pesquisa, construindo um grupo de palavras aceites para cada palavra da pesquisa.
+     */
+    private List<Book> find(String query, int limit, boolean prefix, int maxEdits) {
+        List<String> tokens = tokenize(query);
+        if (tokens.isEmpty() || limit <= 0) {
+            return Collections.emptyList();
+        }
+
+        lock.readLock().lock();
+        try {
+            List<Group> groups = new ArrayList<>(tokens.size());
+            for (int i = 0; i < tokens.size(); i++) {
+                String token = tokens.get(i);
+                Group group;
+                if (prefix && i == tokens.size() - 1) {
+                    group = prefixGroup(token);
+                } else if (allowedEdits(token, maxEdits) > 0) {
+                    group = fuzzyGroup(token, allowedEdits(token, maxEdits));
+                } else {
+                    group = exactGroup(token);
+                }
+                if (group == null) {
+                    return Collections.emptyList();
+                }
+                groups.add(group);
+            }
+            return collect(groups, limit);
+        } finally {
+            lock.readLock().unlock();
+        }
+    }
+
+    /**
+     * Percorre os livros do grupo mais pequeno e guarda os que também pertencem aos restantes grupos.
+     */
+    private List<Book> collect(List<Group> groups, int limit) {
+        Group driver = groups.get(0);
+        for (Group group : groups) {
+            if (group.size() < driver.size()) {
+                driver = group;
+            }
+        }
+
+        List<Book> result = new ArrayList<>(Math.min(limit, 64));
+        Set<Integer> seen = new HashSet<>();  // Um livro pode ter várias palavras do mesmo grupo
+        Iterator<Term> terms = driver.terms();
+        while (terms.hasNext()) {
+            Term term = terms.next();
+            for (int i = 0; i < term.size; i++) {
+                int id = term.ids[i];
+                if (matchesAll(id, groups, driver) && seen.add(id)) {
+                    result.add(booksById[id]);
+                    if (result.size() == limit) {
+                        return result;
+                    }
+                }
+            }
+        }
+        return result;
+    }
+
+    /**
+     * Verifica se um livro tem uma palavra de cada grupo, além do grupo de onde veio.
+     */
+    private boolean matchesAll(int id, List<Group> groups, Group driver) {
+        Term[] terms = termsById[id];
+        for (Group group : groups) {
+            if (group == driver) {
+                continue;
+            }
+            boolean found = false;
+            for (Term term : terms) {
+                if (group.matches(term)) {
+                    found = true;
+                    break;
+                }
+            }
+            if (!found) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    /**
+     * Grupo com uma só palavra, ou null se a palavra não existir no índice.
+     */
+    private Group exactGroup(String token) {
+        Node node = findNode(token);
+        if (node == null || node.term == null) {
+            return null;
+        }
+        Term exact = node.term;
+        return new Group() {
+            @Override
+            public long size() {
+                return exact.size;
+            }
+
+            @Override
+
+            public Iterator<Term> terms() {
+                return List.of(exact).iterator();
+            }
+
+            @Override
+
+            public boolean matches(Term term) {
+                return term == exact;
+            }
+        };
+    }
+
+    /**
+     * Grupo com as palavras que começam por um prefixo, percorridas por ordem alfabética só quando necessário,
+     * ou null se nenhuma palavra começar pelo prefixo.
+     */
+    private Group prefixGroup(String prefix) {
+        Node start = findNode(prefix);
+        if (start == null) {
+            return null;
+        }
+        return new Group() {
+            @Override
+            public long size() {
+                return start.postings;
+            }
+
+            @Override
+
+            public Iterator<Term> terms() {
+                return new Iterator<>() {
+                    private final ArrayDeque<Node> pending = new ArrayDeque<>(List.of(start));
+                    private Term next = advance();
+
+                    private Term advance() {
+                        while (!pending.isEmpty()) {
+                            Node node = pending.pop();
+                            for (int i = node.childCount - 1; i >= 0; i--) {
+                                pending.push(node.children[i]);
+                            }
+                            if (node.term != null) {
+                                return node.term;
+                            }
+                        }
+                        return null;
+                    }
+
+                    @Override
+
+                    public boolean hasNext() {
+                        return next != null;
+                    }
+
+                    @Override
+
+                    public Term next() {
+                        if (next == null) {
+                            throw new NoSuchElementException();
+                        }
+                        Term current = next;
+                        next = advance();
+                        return current;
+                    }
+                };
+            }
+
+            @Override
+
+            public boolean matches(Term term) {
+                return term.text.startsWith(prefix);
+            }
+        };
+    }
+
+    /**
+     * Calcula o número de edições aceites numa palavra da pesquisa aproximada, de acordo com o seu tamanho.
+     */
+    private static int allowedEdits(String token, int maxEdits) {
+        for (int i = 0; i < token.length(); i++) {
+            if (!Character.isDigit(token.charAt(i))) {
+                int byLength = token.length() < 3 ? 0 : token.length() < 6 ? 1 : 2;
+                return Math.min(maxEdits, byLength);
+            }
+        }
+        return 0;
+    }
+
+    /**
+     * Grupo com as palavras a uma distância de edição limitada, das mais próximas para as mais afastadas,
+     * ou null se não existir nenhuma.
+     */
+    private Group fuzzyGroup(String token, int maxEdits) {
+        // Uma lista de palavras por distância; dentro de cada lista ficam por ordem alfabética
+        List<List<Term>> byDistance = new ArrayList<>(maxEdits + 1);
+        for (int d = 0; d <= maxEdits; d++) {
+            byDistance.add(new ArrayList<>());
+        }
+
+        // Uma linha da matriz por profundidade, reutilizada em todos os ramos
+        int[][] rows = new int[token.length() + maxEdits + 2][token.length() + 1];
+        for (int j = 0; j <= token.length(); j++) {
+            rows[0][j] = j;
+        }
+        if (root.term != null && token.length() <= maxEdits) {
+            byDistance.get(token.length()).add(root.term);
+        }
+        searchWithin(root, 1, '\0', token, rows, maxEdits, byDistance);
+
+        List<Term> sorted = new ArrayList<>();
+        long total = 0;
+        for (List<Term> terms : byDistance) {
+            for (Term term : terms) {
+                sorted.add(term);
+                total += term.size;
+            }
+        }
+        if (sorted.isEmpty()) {
+            return null;
+        }
+
+        long size = total;
+        return new Group() {
+            private Set<Term> accepted;  // Só é criado se o grupo tiver de confirmar livros de outro grupo
+
+            @Override
+            public long size() {
+                return size;
+            }
+
+            @Override
+            public Iterator<Term> terms() {
+                return sorted.iterator();
+            }
+
+            @Override
+            public boolean matches(Term term) {
+                if (accepted == null) {
+                    accepted = new HashSet<>(sorted);
+                }
+                return accepted.contains(term);
+            }
+        };
+    }
+
+    /**
+     * Percorre a árvore calculando, para cada nó, a linha da matriz de distâncias entre a palavra do nó e a pesquisa
+     * (Levenshtein, com a troca de dois caracteres seguidos a contar como uma edição).
+     * Um ramo é abandonado quando todos os valores da linha passam o limite, porque a distância só pode aumentar.
+     *
+     * @param parentLabel O carácter que leva ao nó, usado para reconhecer trocas de dois caracteres.
+     */
+    private static void searchWithin(Node node, int depth, char parentLabel, String token, int[][] rows, int maxEdits,
+                                     List<List<Term>> byDistance) {
+        if (depth == rows.length) {
+            return;
+        }
+        int length = token.length();
+        int[] previousRow = rows[depth - 1];
+        int[] row = rows[depth];
+        for (int c = 0; c < node.childCount; c++) {
+            char label = node.labels[c];
+            row[0] = previousRow[0] + 1;
+            int best = row[0];
+            for (int j = 1; j <= length; j++) {
+                int replace = previousRow[j - 1] + (token.charAt(j - 1) == label ? 0 : 1);
+                row[j] = Math.min(Math.min(row[j - 1] + 1, previousRow[j] + 1), replace);
+                if (j > 1 && depth > 1 && token.charAt(j - 1) == parentLabel && token.charAt(j - 2) == label) {
+                    row[j] = Math.min(row[j], rows[depth - 2][j - 2] + 1);
+                }
+                best = Math.min(best, row[j]);
+            }
+
+            Node child = node.children[c];
+            if (child.term != null && row[length] <= maxEdits) {
+                byDistance.get(row[length]).add(child.term);
+            }
+            if (best <= maxEdits) {
+                searchWithin(child, depth + 1, label, token, rows, maxEdits, byDistance);
+            }
+        }
+    }
+
+    /**
+     * Procura o nó de uma palavra ou prefixo.
+     */
+    private Node findNode(String text) {
+        Node node = root;
+        for (int i = 0; i < text.length() && node != null; i++) {
+            node = node.child(text.charAt(i));
+        }
+        return node;
+    }
+
+    /**
+     * Obtém a palavra do índice, criando os nós que faltam, e conta mais um livro em todos os nós do caminho.
+     */
+    private Term addPosting(String token) {
+        Node node = root;
+        node.postings++;
+        for (int i = 0; i < token.length(); i++) {
+            node = node.addChild(token.charAt(i));
+            node.postings++;
+        }
+        if (node.term == null) {
+            node.term = new Term(token);
+        }
+        return node.term;
+    }
+
+    /**
+     * Desconta um livro em todos os nós do caminho de uma palavra, retirando da árvore os nós que ficam vazios.
+     */
+    private void removePosting(Term term) {
+        String text = term.text;
+        Node node = root;
+        node.postings--;
+        for (int i = 0; i < text.length(); i++) {
+            Node child = node.child(text.charAt(i));
+            if (--child.postings == 0) {
+                node.removeChild(text.charAt(i));
+                return;
+            }
+            node = child;
+        }
+        if (term.size == 0) {
+            node.term = null;
+        }
+    }
+}
@@ -1,18 +1,57 @@
-import java.io.IOException;
+import java.util.concurrent.CompletableFuture;
 
 /**
  * Classe que representa um utilizador do tipo "Estudante" no sistema de biblioteca.
- * O Estudante pode requisitar e devolver livros.
+ * O Estudante pode requisitar, reservar e devolver livros; as requisições e as reservas ficam registadas
+ * em seu nome nos empréstimos da biblioteca.
  */
 public class Student extends User {
 
+    /**
+     * Identificador do estudante, registado como requisitante dos livros que requisita.
+     */
+    private final String borrowerId;
+
     /**
      * Construtor da classe Student. Inicializa a instância do estudante com a biblioteca.
+     * As requisições ficam registadas com um requisitante desconhecido.
      *
      * @param library A biblioteca associada ao estudante.
      */
-    public Student(Library library) {
+    public Student(LibraryService library) {
+        this(library, LoanLedger.UNKNOWN_BORROWER);
+    }
+
+    /**
+     * Construtor da classe Student com o identificador do estudante.
+     *
+     * @param library A biblioteca associada ao estudante.
+     * @param borrowerId O identificador do estudante.
+     */
+    public Student(LibraryService library, String borrowerId) {
         super(library);
+        this.borrowerId = borrowerId;
+    }
+
+    /**
+     * Construtor da classe Student que partilha as operações assíncronas com outros utilizadores.
+     *
+     * @param library A biblioteca associada ao estudante.
+     * @param asyncLibrary As operações assíncronas sobre a mesma biblioteca.
+     * @param borrowerId O identificador do estudante.
+     */
+    public Student(LibraryService library, AsyncLibrary asyncLibrary, String borrowerId) {
+        super(library, asyncLibrary);
+        this.borrowerId = borrowerId;
+    }
+
+    /**
+     * Método que retorna o identificador do estudante.
+     *
+     * @return O identificador registado nos empréstimos do estudante.
+     */
+    public String getBorrowerId() {
+        return borrowerId;
     }
 
     /**
@@ -26,25 +65,35 @@ public class Student extends User {
     }
 
     /**
-     * Método que permite ao estudante requisitar um livro da biblioteca.
-     * Lança uma exceção caso ocorra um erro na operação.
+     * Método que permite ao estudante requisitar um livro da biblioteca, em seu nome.
+     * A requisição é feita e guardada noutra thread; um erro na operação completa o future com uma exceção.
      *
      * @param book O livro que o estudante pretende requisitar.
-     * @return true se a requisição for bem-sucedida, false caso contrário.
-     * @throws IOException Se ocorrer um erro durante a requisição do livro.
+     * @return Um future com o resultado da requisição.
+     */
+    public CompletableFuture<LibraryResult> requestBook(Book book) {
+        return asyncLibrary.requestBook(book.getAuthor(), book.getTitle(), borrowerId);
+    }
+
+    /**
+     * Método que permite ao estudante reservar um livro da biblioteca, em seu nome: se houver um exemplar
+     * disponível é requisitado, senão o estudante fica na fila e recebe o próximo exemplar devolvido.
+     *
+     * @param book O livro que o estudante pretende reservar.
+     * @return Um future com o resultado, {@link LibraryResult#ON_HOLD} se o estudante ficou na fila.
      */
-    public boolean requestBook(Book book) throws IOException {
-        return library.requestBook(book.getAuthor(), book.getTitle());
+    public CompletableFuture<LibraryResult> holdBook(Book book) {
+        return asyncLibrary.holdBook(book.getAuthor(), book.getTitle(), borrowerId);
     }
 
     /**
      * Método que permite ao estudante devolver um livro à biblioteca.
-     * Lança uma exceção caso ocorra um erro na operação.
+     * A devolução é feita e guardada noutra thread; um erro na operação completa o future com uma exceção.
      *
      * @param book O livro que o estudante deseja devolver.
-     * @throws IOException Se ocorrer um erro durante a devolução do livro.
+     * @return Um future com o resultado, completado quando a devolução estiver guardada.
      */
-    public void returnBook(Book book) throws IOException {
-        library.returnBook(book.getAuthor(), book.getTitle());
+    public CompletableFuture<LibraryResult> returnBook(Book book) {
+        return asyncLibrary.returnBook(book.getAuthor(), book.getTitle());
     }
 }
\ No newline at end of file
@@ -1,8 +1,9 @@
-import java.io.IOException;
+import java.io.File;
+import java.util.concurrent.CompletableFuture;
 
 /**
  * Classe que representa um utilizador do tipo "Professor" no sistema de biblioteca.
- * O Professor pode adicionar e remover livros da biblioteca.
+ * O Professor pode adicionar e remover livros da biblioteca, um de cada vez ou importando-os de um ficheiro.
  */
 public class Teacher extends User {
 
@@ -11,10 +12,20 @@ public class Teacher extends User {
      *
      * @param library A biblioteca associada ao professor.
      */
-    public Teacher(Library library) {
+    public Teacher(LibraryService library) {
         super(library);
     }
 
+    /**
+     * Construtor da classe Teacher que partilha as operações assíncronas com outros utilizadores.
+     *
+     * @param library A biblioteca associada ao professor.
+     * @param asyncLibrary As operações assíncronas sobre a mesma biblioteca.
+     */
+    public Teacher(LibraryService library, AsyncLibrary asyncLibrary) {
+        super(library, asyncLibrary);
+    }
+
     /**
      * Método que retorna uma mensagem de boas-vindas personalizada para o Professor.
      *
@@ -27,25 +38,60 @@ public class Teacher extends User {
 
     /**
      * Método que permite ao professor adicionar um livro à biblioteca.
-     * Lança uma exceção caso ocorra um erro na operação de adição do livro.
+     * A adição é feita e guardada noutra thread; um erro na operação completa o future com uma exceção.
      *
      * @param author O autor do livro a ser adicionado.
      * @param title O título do livro a ser adicionado.
-     * @throws IOException Se ocorrer um erro durante a adição do livro à biblioteca.
+     * @return Um future com o resultado, completado quando o livro estiver adicionado e guardado.
      */
-    public void addBook(String author, String title) throws IOException {
-        library.addBook(author, title);
+    public CompletableFuture<LibraryResult> addBook(String author, String title) {
+        return asyncLibrary.addBook(author, title);
     }
 
     /**
      * Método que permite ao professor remover um livro da biblioteca.
-     * Lança uma exceção caso ocorra um erro na operação de remoção do livro.
+     * A remoção é feita e guardada noutra thread; um erro na operação completa o future com uma exceção.
      *
      * @param author O autor do livro a ser removido.
      * @param title O título do livro a ser removido.
-     * @throws IOException Se ocorrer um erro durante a remoção do livro da biblioteca.
+     * @return Um future com o resultado, completado quando a remoção estiver guardada.
+     */
+    public CompletableFuture<LibraryResult> removeBook(String author, String title) {
+        return asyncLibrary.removeBook(author, title);
+    }
+
+    /**
+     * Método que permite ao professor alterar o número de exemplares de um livro da biblioteca.
+     * A alteração é feita e guardada noutra thread; um erro na operação completa o future com uma exceção.
+     *
+     * @param book O livro a alterar.
+     * @param copies O novo número de exemplares.
+     * @return Um future com o resultado, completado quando os exemplares estiverem guardados.
+     */
+    public CompletableFuture<LibraryResult> setCopies(Book book, int copies) {
+        return asyncLibrary.setCopies(book.getAuthor(), book.getTitle(), copies);
+    }
+
+    /**
+     * Método que permite ao professor importar os livros de um ficheiro CSV ou JSON, como os das aquisições.
+     * Os livros que já existem e as linhas inválidas são ignorados; os restantes são adicionados e guardados em lotes.
+     *
+     * @param file O ficheiro a importar.
+     * @param progress Recebe o número de linhas lidas e o débito no fim de cada lote.
+     * @return Um future com o resultado, completado quando todos os livros estiverem adicionados e guardados.
+     */
+    public CompletableFuture<CatalogTransfer.Report> importBooks(File file, CatalogTransfer.Progress progress) {
+        return asyncLibrary.importBooks(file, progress);
+    }
+
+    /**
+     * Método que permite ao professor exportar o catálogo para um ficheiro CSV ou JSON.
+     *
+     * @param file O ficheiro a escrever.
+     * @param progress Recebe o número de livros escritos e o débito durante a escrita.
+     * @return Um future com o resultado, completado quando o ficheiro estiver escrito.
      */
-    public void removeBook(String author, String title) throws IOException {
-        library.removeBook(author, title);
+    public CompletableFuture<CatalogTransfer.Report> exportBooks(File file, CatalogTransfer.Progress progress) {
+        return asyncLibrary.exportBooks(file, progress);
     }
 }
@@ -0,0 +1,269 @@
+import java.io.*;
+import java.nio.file.Files;
+import java.nio.file.StandardCopyOption;
+import java.util.List;
+import java.util.concurrent.locks.ReentrantLock;
+
+/**
+ * Classe que guarda o catálogo no ficheiro de texto da biblioteca, com uma linha "autor;título;disponível" por livro.
+ * Cada alteração reescreve o ficheiro completo.
+ */
+public class TextCatalogStore implements CatalogStore {
+
+    /**
+     * Prefixo da linha de cabeçalho que indica o último registo do journal incluído no ficheiro.
+     * Como só tem duas partes separadas por ";", é ignorada ao ler os livros.
+     */
+    static final String JOURNAL_HEADER = "#journal;";
+
+    /**
+     * Tamanho, em bytes, a partir do qual o ficheiro é carregado em paralelo, se houver mais do que um processador.
+     */
+    static final long PARALLEL_LOAD_THRESHOLD = 16 << 20;
+
+    /**
+     * Recebe os livros lidos de um ficheiro de livros, linha a linha.
+     */
+    interface LineConsumer {
+
+        /**
+         * Recebe um livro lido.
+         *
+         * @param author Nome do autor do livro.
+         * @param title Título do livro.
+         * @param available A disponibilidade do livro.
+         */
+        void accept(String author, String title, boolean available);
+    }
+
+    /**
+     * Atributo que guarda o ficheiro de livros.
+     */
+    private final File file;
+
+    /**
+     * Garante que só é feita uma escrita do ficheiro de cada vez.
+     * É um ReentrantLock e não {@code synchronized} para que uma virtual thread à espera do disco não prenda
+     * a thread do sistema que a executa.
+     */
+    private final ReentrantLock saveLock = new ReentrantLock();
+
+    /**
+     * Número de exemplares dos livros com mais do que um, no ficheiro ".copies".
+     */
+    private final CopiesFile copyCounts;
+
+    /**
+     * Construtor da classe TextCatalogStore.
+     *
+     * @param fileName Nome do ficheiro de livros.
+     */
+    public TextCatalogStore(String fileName) {
+        this.file = new File(fileName);
+        this.copyCounts = new CopiesFile(file);
+    }
+
+    /**
+     * Carrega os livros do ficheiro.
+     * Se o ficheiro não existir, cria um novo ficheiro vazio.
+     *
+     * @param library A biblioteca onde os livros são carregados.
+     * @throws IOException Se ocorrer um erro ao ler o ficheiro ou a criar.
+     */
+    @Override
+    public void load(Library library) throws IOException {
+        read(file, library);
+        copyCounts.load(library);
+    }
+
+    /**
+     * Sobrescreve o conteúdo do ficheiro com a lista atualizada de livros.
+     *
+     * @param library A biblioteca a guardar.
+     * @throws IOException Se ocorrer um erro ao escrever no ficheiro.
+     */
+    @Override
+    public void save(Library library) throws IOException {
+        saveLock.lock();
+        try {
+            CatalogSnapshot snapshot = library.snapshot();
+            write(file, snapshot.authors(), booksOf(snapshot), -1, false);
+        } finally {
+            saveLock.unlock();
+        }
+    }
+
+    @Override
+    public void bookAdded(Library library, String author, Book book) throws IOException {
+        save(library);
+    }
+
+    @Override
+    public void booksAdded(Library library, List<Book> books) throws IOException {
+        save(library);
+    }
+
+    @Override
+    public void bookRemoved(Library library, String author, Book book) throws IOException {
+        save(library);
+    }
+
+    @Override
+    public void availabilityChanged(Library library, String author, Book book) throws IOException {
+        save(library);
+    }
+
+    @Override
+    public void copiesChanged(Library library, String author, Book book, int copies) throws IOException {
+        copyCounts.set(author, book.getTitle(), copies);
+    }
+
+    /**
+     * Lê um ficheiro de livros para a biblioteca, linha a linha, em tempo linear.
+     * Ficheiros grandes são lidos em paralelo pelo ParallelCatalogLoader.
+     * Se o ficheiro não existir, cria um novo ficheiro vazio.
+     *
+     * @param file O ficheiro de livros.
+     * @param library A biblioteca onde os livros são carregados.
+     * @return O número do último registo do journal incluído no ficheiro, ou 0 se não tiver cabeçalho.
+     * @throws IOException Se ocorrer um erro ao ler o ficheiro ou a criar.
+     */
+    static long read(File file, Library library) throws IOException {
+        // Verifica se o ficheiro existe, se não, cria um vazio
+        if (!file.exists()) {
+            boolean fileCreated = file.createNewFile();
+            if (!fileCreated) {
+                throw new IOException("Erro a criar ficheiro.");
+            }
+        }
+
+        int processors = Runtime.getRuntime().availableProcessors();
+        // Em modo compacto a área de títulos só aceita uma thread, por isso a leitura é sequencial
+        if (file.length() >= PARALLEL_LOAD_THRESHOLD && processors > 1 && library.getCompactStorage() == null) {
+            // O cabeçalho do journal, se existir, está sempre na primeira linha
+            long journalSequence = 0;
+            try (BufferedReader reader = new BufferedReader(new FileReader(file))) {
+                String line = reader.readLine();
+                if (line != null && line.startsWith(JOURNAL_HEADER)) {
+                    journalSequence = Long.parseLong(line.substring(JOURNAL_HEADER.length()).trim());
+                }
+            }
+            library.install(ParallelCatalogLoader.load(file, processors));
+            return journalSequence;
+        }
+
+        long journalSequence = 0;
+        CatalogBuilder builder = library.newCatalogBuilder();
+
+        try (BufferedReader reader = new BufferedReader(new FileReader(file), 1 << 16)) {
+            String line;
+
+            // Lê cada linha do ficheiro e processa os dados
+            while ((line = reader.readLine()) != null) {
+                if (line.startsWith(JOURNAL_HEADER)) {
+                    journalSequence = Long.parseLong(line.substring(JOURNAL_HEADER.length()).trim());
+                    continue;
+                }
+
+                parseLine(line, builder);
+            }
+        }
+
+        library.install(builder);
+        return journalSequence;
+    }
+
+    /**
+     * Processa uma linha "autor;título;disponível" e acrescenta o livro ao catálogo.
+     * Aceita as mesmas linhas que line.split(";") com exatamente três partes, mas sem criar o array
+     * intermédio: separadores ";" no fim da linha são ignorados e o último campo não pode ficar vazio.
+     *
+     * @param line A linha lida.
+     * @param builder O catálogo a construir.
+     */
+    static void parseLine(String line, CatalogBuilder builder) {
+        parseLine(line, builder::add);
+    }
+
+    /**
+     * Processa uma linha "autor;título;disponível" e entrega o livro a quem o vai guardar.
+     *
+     * @param line A linha lida.
+     * @param consumer Recebe o livro, se a linha for válida.
+     */
+    static void parseLine(String line, LineConsumer consumer) {
+        int end = line.length();
+        while (end > 0 && line.charAt(end - 1) == ';') {
+            end--;
+        }
+
+        int first = line.indexOf(';');
+        if (first < 0 || first >= end) {
+            return;
+        }
+        int second = line.indexOf(';', first + 1);
+        if (second < 0 || second + 1 >= end) {
+            return;
+        }
+        int third = line.indexOf(';', second + 1);
+        if (third >= 0 && third < end) {
+            return;
+        }
+
+        String author = line.substring(0, first).trim();
+        String title = line.substring(first + 1, second).trim();
+        boolean available = line.substring(second + 1, end).trim().equalsIgnoreCase("true");
+
+        consumer.accept(author, title, available);
+    }
+
+    /**
+     * Escreve um catálogo completo num ficheiro de livros.
+     * Em modo durável, escreve primeiro num ficheiro temporário, sincroniza-o com o disco e só depois
+     * o coloca no lugar do original, para que uma falha a meio nunca deixe o ficheiro incompleto.
+     *
+     * @param file O ficheiro de livros.
+     * @param authors Array com os nomes dos autores.
+     * @param books Array bidimensional com os livros de cada autor.
+     * @param journalSequence Número do último registo do journal incluído, ou -1 para não escrever cabeçalho.
+     * @param durable Se a escrita deve ser atómica e sincronizada com o disco.
+     * @throws IOException Se ocorrer um erro ao escrever no ficheiro.
+     */
+    static void write(File file, String[] authors, Book[][] books, long journalSequence, boolean durable) throws IOException {
+        File target = durable ? new File(file.getPath() + ".tmp") : file;
+
+        try (FileOutputStream output = new FileOutputStream(target);
+             BufferedWriter writer = new BufferedWriter(new OutputStreamWriter(output))) {
+            if (journalSequence >= 0) {
+                writer.write(JOURNAL_HEADER + journalSequence + "\n");
+            }
+            for (int i = 0; i < authors.length; i++) {
+                for (Book book : books[i]) {
+                    writer.write(authors[i] + ";" + book.getTitle() + ";" + book.isAvailable() + "\n");
+                }
+            }
+            writer.flush();
+            if (durable) {
+                output.getFD().sync();
+            }
+        }
+
+        if (durable) {
+            Files.move(target.toPath(), file.toPath(), StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+        }
+    }
+
+    /**
+     * Obtém os livros de todos os autores de uma versão do catálogo.
+     *
+     * @param snapshot A versão do catálogo.
+     * @return Array bidimensional com os livros de cada autor.
+     */
+    static Book[][] booksOf(CatalogSnapshot snapshot) {
+        Book[][] books = new Book[snapshot.authorCount()][];
+        for (int i = 0; i < books.length; i++) {
+            books[i] = snapshot.segment(i);
+        }
+        return books;
+    }
+}
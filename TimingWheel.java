@@ -0,0 +1,196 @@
+import java.util.function.Consumer;
+
+/**
+ * Roda de temporizadores hierárquica: agenda, cancela e dispara temporizadores em tempo constante,
+ * qualquer que seja o número de temporizadores pendentes.
+ * <p>
+ * O tempo avança em ticks de duração fixa. A roda tem quatro níveis de 64 posições: o nível 0 tem uma posição
+ * por tick, e cada nível seguinte cobre 64 vezes mais tempo por posição (até 64^4 ticks, cerca de 194 dias
+ * com ticks de um segundo). Cada temporizador fica numa lista duplamente ligada da posição correspondente ao
+ * seu prazo, por isso agendar e cancelar são O(1). Quando o nível 0 dá uma volta, a posição seguinte do nível 1
+ * é distribuída pelo nível 0, e assim sucessivamente; cada temporizador desce no máximo três vezes antes de
+ * disparar. Avançar a roda só visita as posições dos ticks que passaram, nunca os temporizadores que ainda
+ * não chegaram ao prazo.
+ * <p>
+ * Os temporizadores são objetos de uma subclasse de {@link Timer}, por isso não é criado nenhum objeto por
+ * cada temporizador agendado. A roda não é thread-safe; quem a usa por várias threads tem de a proteger.
+ *
+ * @param <T> O tipo dos temporizadores.
+ */
+public class TimingWheel<T extends TimingWheel.Timer> {
+
+    private static final int LEVELS = 4;
+    private static final int SLOT_BITS = 6;
+    private static final int SLOTS = 1 << SLOT_BITS;  // Posições por nível
+    private static final long HORIZON = 1L << (LEVELS * SLOT_BITS);  // Ticks cobertos pelos quatro níveis
+
+    /**
+     * Temporizador agendado numa TimingWheel. As subclasses acrescentam os dados do evento.
+     */
+    public static class Timer {
+        private long deadline;   // Tick em que dispara
+        private int slot = -1;   // Posição na roda (nível * SLOTS + posição), ou -1 se não estiver agendado
+        private Timer previous;
+        private Timer next;
+
+        /**
+         * Indica se o temporizador está agendado numa roda.
+         *
+         * @return true se estiver agendado e ainda não tiver disparado nem sido cancelado.
+         */
+        public boolean isScheduled() {
+            return slot != -1;
+        }
+    }
+
+    private final long tickMillis;
+    private final Timer[] slots = new Timer[LEVELS * SLOTS];  // Primeiro temporizador de cada posição
+    private long currentTick;  // Último tick processado
+    private int size;
+
+    /**
+     * Construtor da classe TimingWheel.
+     *
+     * @param tickMillis Duração de cada tick em milissegundos.
+     * @param startMillis Instante inicial, em milissegundos.
+     */
+    public TimingWheel(long tickMillis, long startMillis) {
+        if (tickMillis <= 0) {
+            throw new IllegalArgumentException("Duração de tick inválida: " + tickMillis);
+        }
+        this.tickMillis = tickMillis;
+        this.currentTick = startMillis / tickMillis;
+    }
+
+    /**
+     * Agenda um temporizador. Se já estiver agendado, passa a ter o novo prazo.
+     * Um prazo que já passou dispara no tick seguinte.
+     *
+     * @param timer O temporizador.
+     * @param deadlineMillis O instante em que deve disparar, em milissegundos; dispara no primeiro tick
+     *                       que não seja anterior a este instante.
+     */
+    public void schedule(T timer, long deadlineMillis) {
+        if (timer.isScheduled()) {
+            unlink(timer);
+        } else {
+            size++;
+        }
+        Timer entry = timer;
+        entry.deadline = Math.floorDiv(deadlineMillis, tickMillis) + (Math.floorMod(deadlineMillis, tickMillis) != 0 ? 1 : 0);
+        place(entry, currentTick + 1);
+    }
+
+    /**
+     * Cancela um temporizador.
+     *
+     * @param timer O temporizador.
+     * @return true se estava agendado.
+     */
+    public boolean cancel(T timer) {
+        if (!timer.isScheduled()) {
+            return false;
+        }
+        unlink(timer);
+        size--;
+        return true;
+    }
+
+    /**
+     * Avança a roda até um instante, disparando por ordem todos os temporizadores com prazo até lá.
+     * O consumidor pode voltar a agendar o temporizador que recebe.
+     *
+     * @param nowMillis O instante atual, em milissegundos.
+     * @param expired Recebe cada temporizador que disparou, já retirado da roda.
+     * @return O número de temporizadores disparados.
+     */
+    @SuppressWarnings("unchecked")
+    public int advanceTo(long nowMillis, Consumer<? super T> expired) {
+        long target = Math.floorDiv(nowMillis, tickMillis);
+        int fired = 0;
+        while (currentTick < target) {
+            long tick = ++currentTick;
+            // Desce os níveis superiores cujo período começa neste tick, do mais alto para o mais baixo
+            for (int level = LEVELS - 1; level > 0; level--) {
+                if ((tick & ((1L << (level * SLOT_BITS)) - 1)) == 0) {
+                    int slot = level * SLOTS + (int) ((tick >>> (level * SLOT_BITS)) & (SLOTS - 1));
+                    Timer timer = slots[slot];
+                    slots[slot] = null;
+                    while (timer != null) {
+                        Timer following = timer.next;
+                        place(timer, tick);
+                        timer = following;
+                    }
+                }
+            }
+
+            int slot = (int) (tick & (SLOTS - 1));
+            Timer timer = slots[slot];
+            slots[slot] = null;
+            while (timer != null) {
+                Timer following = timer.next;
+                timer.slot = -1;
+                timer.previous = null;
+                timer.next = null;
+                size--;
+                fired++;
+                expired.accept((T) timer);
+                timer = following;
+            }
+        }
+        return fired;
+    }
+
+    /**
+     * Retorna o número de temporizadores agendados.
+     *
+     * @return O número de temporizadores.
+     */
+    public int size() {
+        return size;
+    }
+
+    /**
+     * Coloca um temporizador na posição do nível mais baixo que cobre o tempo que falta até ao seu prazo.
+     *
+     * @param earliest O primeiro tick em que pode disparar: o tick atual, se a sua posição ainda vai ser
+     *                 processada, ou o seguinte.
+     */
+    private void place(Timer timer, long earliest) {
+        long deadline = Math.max(timer.deadline, earliest);
+        long delta = Math.min(deadline - currentTick, HORIZON - 1);
+        int level = 0;
+        while (delta >= 1L << ((level + 1) * SLOT_BITS)) {
+            level++;
+        }
+        // Um prazo para lá do último nível fica na posição mais distante e volta a descer quando esta for atingida
+        long position = currentTick + delta;
+        int slot = level * SLOTS + (int) ((position >>> (level * SLOT_BITS)) & (SLOTS - 1));
+
+        Timer head = slots[slot];
+        timer.slot = slot;
+        timer.previous = null;
+        timer.next = head;
+        if (head != null) {
+            head.previous = timer;
+        }
+        slots[slot] = timer;
+    }
+
+    /**
+     * Retira um temporizador da lista da sua posição.
+     */
+    private void unlink(Timer timer) {
+        if (timer.previous != null) {
+            timer.previous.next = timer.next;
+        } else {
+            slots[timer.slot] = timer.next;
+        }
+        if (timer.next != null) {
+            timer.next.previous = timer.previous;
+        }
+        timer.slot = -1;
+        timer.previous = null;
+        timer.next = null;
+    }
+}
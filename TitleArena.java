@@ -0,0 +1,192 @@
+import java.nio.charset.StandardCharsets;
+import java.util.Arrays;
+
+/**
+ * Área partilhada onde os títulos dos livros de modo compacto (CompactBook) ficam guardados em UTF-8.
+ * <p>
+ * Os títulos são acrescentados em páginas de 1 MiB, cada um precedido do seu comprimento, e são identificados
+ * por um int com a página e a posição dentro dela. Em vez de um objeto String e do seu array por livro
+ * (cerca de 40 bytes mais 1 a 2 bytes por carácter), cada título ocupa apenas os seus bytes UTF-8 e 1 a 3 bytes
+ * de comprimento. Em troca, {@link #get} cria uma String nova a cada chamada; comparar um título com
+ * {@link #matches} não cria objetos.
+ * <p>
+ * A área só cresce: o espaço dos títulos de livros removidos só é recuperado quando o catálogo é recarregado.
+ * Acrescentar títulos tem de ser feito por uma thread de cada vez (a biblioteca fá-lo com o lock de escrita);
+ * ler não usa locks, desde que a referência tenha sido obtida depois de o título ser acrescentado.
+ */
+public class TitleArena {
+
+    private static final int PAGE_BITS = 20;
+    private static final int PAGE_SIZE = 1 << PAGE_BITS;  // Bytes por página
+    private static final int MAX_PAGES = 1 << (31 - PAGE_BITS);
+
+    private volatile byte[][] pages = new byte[4][];
+    private int pageCount;
+    private int position = PAGE_SIZE;  // Posição livre na última página; cheia até ser criada a primeira
+    private long bytesUsed;
+
+    /**
+     * Acrescenta um título.
+     *
+     * @param title O título; surrogates isolados, que não existem em UTF-8, são guardados como '?'.
+     * @return A referência do título.
+     * @throws IllegalArgumentException Se o título não couber numa página.
+     * @throws IllegalStateException Se a área já tiver atingido o tamanho máximo (2 GiB).
+     */
+    public int add(String title) {
+        byte[] encoded = null;
+        int length = title.length();
+        for (int i = 0; i < title.length(); i++) {
+            if (title.charAt(i) >= 0x80) {
+                encoded = title.getBytes(StandardCharsets.UTF_8);
+                length = encoded.length;
+                break;
+            }
+        }
+        int size = varIntSize(length) + length;
+        if (size > PAGE_SIZE) {
+            throw new IllegalArgumentException("Título demasiado longo: " + length + " bytes.");
+        }
+
+        if (position + size > PAGE_SIZE) {
+            newPage();
+        }
+        byte[] page = pages[pageCount - 1];
+        int start = position;
+        int p = start;
+        for (int v = length; ; v >>>= 7) {
+            if (v < 0x80) {
+                page[p++] = (byte) v;
+                break;
+            }
+            page[p++] = (byte) (v & 0x7f | 0x80);
+        }
+        if (encoded != null) {
+            System.arraycopy(encoded, 0, page, p, length);
+        } else {
+            for (int i = 0; i < length; i++) {
+                page[p + i] = (byte) title.charAt(i);
+            }
+        }
+        position = start + size;
+        bytesUsed += size;
+        pages = pages;  // Publica os bytes escritos a quem ler a referência por outra thread
+        return (pageCount - 1) << PAGE_BITS | start;
+    }
+
+    /**
+     * Retorna um título.
+     *
+     * @param ref A referência retornada por {@link #add}.
+     * @return Uma String nova com o título.
+     */
+    public String get(int ref) {
+        byte[] page = pages[ref >>> PAGE_BITS];
+        int p = ref & (PAGE_SIZE - 1);
+        int length = 0;
+        for (int shift = 0; ; shift += 7) {
+            byte b = page[p++];
+            length |= (b & 0x7f) << shift;
+            if (b >= 0) {
+                break;
+            }
+        }
+        return new String(page, p, length, StandardCharsets.UTF_8);
+    }
+
+    /**
+     * Compara um título guardado com uma String, descodificando o UTF-8 à medida, sem criar objetos.
+     *
+     * @param ref A referência retornada por {@link #add}.
+     * @param title O título a comparar.
+     * @return true se forem iguais.
+     */
+    public boolean matches(int ref, String title) {
+        byte[] page = pages[ref >>> PAGE_BITS];
+        int p = ref & (PAGE_SIZE - 1);
+        int length = 0;
+        for (int shift = 0; ; shift += 7) {
+            byte b = page[p++];
+            length |= (b & 0x7f) << shift;
+            if (b >= 0) {
+                break;
+            }
+        }
+        // Cada carácter ocupa pelo menos um byte em UTF-8
+        if (title.length() > length) {
+            return false;
+        }
+
+        int end = p + length;
+        int i = 0;
+        while (p < end) {
+            int b = page[p] & 0xff;
+            int codePoint;
+            if (b < 0x80) {
+                codePoint = b;
+                p++;
+            } else if (b < 0xe0) {
+                codePoint = (b & 0x1f) << 6 | page[p + 1] & 0x3f;
+                p += 2;
+            } else if (b < 0xf0) {
+                codePoint = (b & 0x0f) << 12 | (page[p + 1] & 0x3f) << 6 | page[p + 2] & 0x3f;
+                p += 3;
+            } else {
+                codePoint = (b & 0x07) << 18 | (page[p + 1] & 0x3f) << 12 | (page[p + 2] & 0x3f) << 6
+                        | page[p + 3] & 0x3f;
+                p += 4;
+            }
+            if (i >= title.length() || title.codePointAt(i) != codePoint) {
+                return false;
+            }
+            i += Character.charCount(codePoint);
+        }
+        return i == title.length();
+    }
+
+    /**
+     * Retorna o número de bytes ocupados pelos títulos, incluindo os dos livros já removidos.
+     *
+     * @return Os bytes ocupados.
+     */
+    public long bytesUsed() {
+        return bytesUsed;
+    }
+
+    /**
+     * Retorna o número de bytes reservados pelas páginas.
+     *
+     * @return Os bytes reservados.
+     */
+    public long capacity() {
+        return (long) pageCount * PAGE_SIZE;
+    }
+
+    /**
+     * Cria uma página nova; o resto da página anterior fica por usar.
+     */
+    private void newPage() {
+        if (pageCount == MAX_PAGES) {
+            throw new IllegalStateException("A área de títulos está cheia.");
+        }
+        byte[][] current = pages;
+        if (pageCount == current.length) {
+            current = Arrays.copyOf(current, Math.min(pageCount * 2, MAX_PAGES));
+        }
+        current[pageCount++] = new byte[PAGE_SIZE];
+        pages = current;
+        position = 0;
+    }
+
+    /**
+     * Calcula o número de bytes usados para guardar um comprimento (7 bits por byte).
+     */
+    private static int varIntSize(int value) {
+        int size = 1;
+        while (value >= 0x80) {
+            value >>>= 7;
+            size++;
+        }
+        return size;
+    }
+}
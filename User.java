@@ -1,3 +1,7 @@
+import java.io.IOException;
+import java.util.List;
+import java.util.concurrent.CompletableFuture;
+
 /**
  * Classe abstrata que representa um utilizador do sistema de biblioteca.
  * Contém métodos comuns para listar autores e obter livros de um autor específico.
@@ -6,17 +10,45 @@ public abstract class User {
 
     /**
      * Atributo que guarda a instância da biblioteca associada ao utilizador.
-     * Permite que o utilizador acesse as funcionalidades da biblioteca.
+     * Permite que o utilizador acesse as funcionalidades da biblioteca, local ou num servidor.
+     */
+    protected final LibraryService library;
+
+    /**
+     * Operações da biblioteca executadas fora da thread que as pede, para não bloquear a interface gráfica
+     * enquanto os livros são guardados.
+     */
+    protected final AsyncLibrary asyncLibrary;
+
+    /**
+     * Índice de pesquisa do catálogo, criado na primeira pesquisa.
+     */
+    private SearchIndex searchIndex;
+
+    /**
+     * Número máximo de resultados de uma pesquisa.
      */
-    protected final Library library;
+    private static final int SEARCH_LIMIT = 200;
 
     /**
      * Construtor da classe User. Inicializa a biblioteca associada ao utilizador.
      *
      * @param library A biblioteca associada ao utilizador.
      */
-    protected User(Library library) {
+    protected User(LibraryService library) {
+        this(library, new AsyncLibrary(library));
+    }
+
+    /**
+     * Construtor da classe User que partilha as operações assíncronas com outros utilizadores,
+     * como os utilizadores servidos por uma AsyncLibrary criada com {@link AsyncLibrary#concurrent}.
+     *
+     * @param library A biblioteca associada ao utilizador.
+     * @param asyncLibrary As operações assíncronas sobre a mesma biblioteca.
+     */
+    protected User(LibraryService library, AsyncLibrary asyncLibrary) {
         this.library = library;
+        this.asyncLibrary = asyncLibrary;
     }
 
     /**
@@ -38,13 +70,72 @@ public abstract class User {
     }
 
     /**
-     * Método que retorna os livros de um autor específico.
-     * Utiliza o índice do autor na lista de autores da biblioteca para obter os livros correspondentes.
+     * Método que retorna os livros de um autor, procurando-o pelo nome.
+     *
+     * @param author O nome do autor.
+     * @return Um array de livros do autor especificado, vazio se o autor não existir.
+     */
+    protected Book[] getBooksByAuthor(String author) {
+        return library.getBooksByAuthor(author);
+    }
+
+    /**
+     * Método que obtém os livros de um autor na thread de I/O, sem bloquear quem os pede.
+     *
+     * @param author O nome do autor.
+     * @return Um future com os livros do autor, vazio se o autor não existir.
+     */
+    protected CompletableFuture<Book[]> loadBooksByAuthor(String author) {
+        return asyncLibrary.getBooksByAuthor(author);
+    }
+
+    /**
+     * Método que regista um objeto que passa a ser avisado das alterações ao catálogo da biblioteca,
+     * como os modelos das listas da interface gráfica.
+     *
+     * @param listener O objeto a avisar.
+     */
+    protected void addLibraryListener(LibraryListener listener) {
+        library.addListener(listener);
+    }
+
+    /**
+     * Método que procura livros pelo título ou pelo autor, à medida que o utilizador escreve.
+     * A última palavra pode estar incompleta; se não houver resultados, aceita palavras com erros de escrita.
+     * A pesquisa é feita na thread de I/O, porque a primeira cria o índice com todos os livros do catálogo.
+     *
+     * @param query O texto escrito pelo utilizador.
+     * @return Um future com os livros encontrados.
+     */
+    protected CompletableFuture<List<Book>> searchBooks(String query) {
+        return asyncLibrary.query(() -> {
+            SearchIndex index = searchIndex();
+            List<Book> found = index.complete(query, SEARCH_LIMIT);
+            if (found.isEmpty()) {
+                found = index.fuzzySearch(query, 2, SEARCH_LIMIT);
+            }
+            return found;
+        });
+    }
+
+    /**
+     * Retorna o índice de pesquisa, criando-o e registando-o na biblioteca na primeira chamada.
+     */
+    private synchronized SearchIndex searchIndex() {
+        if (searchIndex == null) {
+            searchIndex = new SearchIndex();
+            library.addListener(searchIndex);
+        }
+        return searchIndex;
+    }
+
+    /**
+     * Método que termina a sessão do utilizador, esperando que as operações pendentes sejam guardadas
+     * e fechando a biblioteca.
      *
-     * @param authorIndex O índice do autor na lista de autores.
-     * @return Um array de livros do autor especificado.
+     * @throws IOException Se ocorrer um erro ao fechar os ficheiros da biblioteca.
      */
-    protected Book[] getBooksByAuthor(int authorIndex) {
-        return library.getBooksByAuthor(authorIndex);
+    public void close() throws IOException {
+        asyncLibrary.close();
     }
 }
@@ -0,0 +1,1677 @@
+import java.io.BufferedWriter;
+import java.io.File;
+import java.io.FileWriter;
+import java.io.IOException;
+import java.io.PrintWriter;
+import java.lang.management.GarbageCollectorMXBean;
+import java.lang.management.ManagementFactory;
+import java.lang.ref.Reference;
+import java.net.InetAddress;
+import java.net.InetSocketAddress;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.StandardOpenOption;
+import java.time.Duration;
+import java.time.Instant;
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.Random;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicIntegerArray;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.locks.ReentrantLock;
+import javax.management.Notification;
+import javax.management.NotificationEmitter;
+import javax.management.NotificationListener;
+import javax.management.openmbean.CompositeData;
+import com.sun.management.GarbageCollectionNotificationInfo;
+
+/**
+ * Classe com medições simples de desempenho da biblioteca.
+ * Gera catálogos sintéticos de vários tamanhos e mostra no terminal os tempos obtidos.
+ * Fica no módulo de benchmarks, fora do jar da aplicação: depois de {@code mvn -B -f benchmarks/pom.xml package},
+ * corre com {@code java -cp benchmarks/target/benchmarks.jar LibraryBenchmark [medições]}.
+ */
+public class LibraryBenchmark {
+
+    /**
+     * Número de pesquisas feitas em cada medição.
+     */
+    private static final int LOOKUPS = 200_000;
+
+    /**
+     * Número de registos escritos por cada thread na medição das escritas no journal.
+     */
+    private static final int COMMITS_PER_THREAD = 500;
+
+    /**
+     * Número de requisições tentadas por cada thread no teste de carga concorrente.
+     */
+    private static final int REQUESTS_PER_THREAD = 2_000;
+
+    /**
+     * Método principal que executa as medições.
+     *
+     * @param args Nomes das medições a executar ("lookup", "commit", "stress", "open", "import", "search", "server", "users", "metrics", "snapshot", "footprint", "gc", "loans", "holdings", "transfer", "pages", "cache"); sem argumentos, executa todas.
+     * @throws Exception Se ocorrer um erro durante uma medição.
+     */
+    public static void main(String[] args) throws Exception {
+        // As mensagens de carregamento, escritas noutra thread, misturar-se-iam com as tabelas
+        if (System.getProperty("library.log.level") == null) {
+            LibraryLog.setLevel(LibraryLog.Level.WARNING);
+        }
+        List<String> selected = List.of(args);
+        if (selected.isEmpty() || selected.contains("lookup")) {
+            lookupBenchmark();
+        }
+        if (selected.isEmpty() || selected.contains("commit")) {
+            commitBenchmark();
+        }
+        if (selected.isEmpty() || selected.contains("stress")) {
+            stressBenchmark();
+        }
+        if (selected.isEmpty() || selected.contains("open")) {
+            openBenchmark();
+        }
+        if (selected.isEmpty() || selected.contains("import")) {
+            importBenchmark();
+        }
+        if (selected.isEmpty() || selected.contains("search")) {
+            searchBenchmark();
+        }
+        if (selected.isEmpty() || selected.contains("server")) {
+            serverBenchmark();
+        }
+        if (selected.isEmpty() || selected.contains("users")) {
+            usersBenchmark();
+        }
+        if (selected.isEmpty() || selected.contains("metrics")) {
+            metricsBenchmark();
+        }
+        if (selected.isEmpty() || selected.contains("snapshot")) {
+            snapshotBenchmark();
+        }
+        if (selected.isEmpty() || selected.contains("footprint")) {
+            footprintBenchmark();
+        }
+        if (selected.isEmpty() || selected.contains("gc")) {
+            gcBenchmark();
+        }
+        if (selected.isEmpty() || selected.contains("loans")) {
+            loansBenchmark();
+        }
+        if (selected.isEmpty() || selected.contains("holdings")) {
+            holdingsBenchmark();
+        }
+        if (selected.isEmpty() || selected.contains("transfer")) {
+            transferBenchmark();
+        }
+        if (selected.isEmpty() || selected.contains("pages")) {
+            pagesBenchmark();
+        }
+        if (selected.isEmpty() || selected.contains("cache")) {
+            cacheBenchmark();
+        }
+    }
+
+    /**
+     * Compara a latência da pesquisa linear por autor e título com a pesquisa através do CatalogIndex,
+     * para catálogos com tamanhos entre mil e um milhão de livros.
+     */
+    private static void lookupBenchmark() {
+        System.out.println("Pesquisa (autor, título): latência média por pesquisa");
+        System.out.printf("%10s %10s %15s %15s%n", "livros", "autores", "linear (ns)", "índice (ns)");
+
+        for (int size = 1_000; size <= 1_000_000; size *= 10) {
+            int authorCount = (int) Math.sqrt(size);
+            int booksPerAuthor = size / authorCount;
+
+            String[] authors = new String[authorCount];
+            Book[][] books = new Book[authorCount][booksPerAuthor];
+            for (int i = 0; i < authorCount; i++) {
+                authors[i] = "Autor " + i;
+                for (int j = 0; j < booksPerAuthor; j++) {
+                    books[i][j] = new Book("Livro " + i + "-" + j, true);
+                    books[i][j].setAuthor(authors[i]);
+                }
+            }
+
+            CatalogIndex index = new CatalogIndex();
+            index.rebuild(authors, books);
+
+            // Pesquisas sobre pares (autor, título) escolhidos de forma pseudoaleatória
+            String[] queryAuthors = new String[1024];
+            String[] queryTitles = new String[1024];
+            java.util.Random random = new java.util.Random(42);
+            for (int q = 0; q < queryAuthors.length; q++) {
+                int a = random.nextInt(authorCount);
+                int b = random.nextInt(booksPerAuthor);
+                queryAuthors[q] = new String(authors[a]);
+                queryTitles[q] = new String(books[a][b].getTitle());
+            }
+
+            // Aquecimento de ambas as versões antes de medir
+            linearLookups(authors, books, queryAuthors, queryTitles, LOOKUPS / 10);
+            indexedLookups(index, queryAuthors, queryTitles, LOOKUPS / 10);
+
+            long linearNanos = linearLookups(authors, books, queryAuthors, queryTitles, LOOKUPS);
+            long indexNanos = indexedLookups(index, queryAuthors, queryTitles, LOOKUPS);
+
+            System.out.printf("%10d %10d %15.1f %15.1f%n", size, authorCount,
+                    (double) linearNanos / LOOKUPS, (double) indexNanos / LOOKUPS);
+        }
+    }
+
+    /**
+     * Executa pesquisas lineares, tal como a biblioteca fazia antes do índice.
+     *
+     * @return O tempo total em nanossegundos.
+     */
+    private static long linearLookups(String[] authors, Book[][] books, String[] queryAuthors, String[] queryTitles, int lookups) {
+        int found = 0;
+        long start = System.nanoTime();
+        for (int q = 0; q < lookups; q++) {
+            String author = queryAuthors[q & (queryAuthors.length - 1)];
+            String title = queryTitles[q & (queryTitles.length - 1)];
+            for (int i = 0; i < authors.length; i++) {
+                if (authors[i].equals(author)) {
+                    for (Book book : books[i]) {
+                        if (book.getTitle().equals(title)) {
+                            found++;
+                            break;
+                        }
+                    }
+                    break;
+                }
+            }
+        }
+        long elapsed = System.nanoTime() - start;
+        check(found, lookups);
+        return elapsed;
+    }
+
+    /**
+     * Executa pesquisas através do índice do catálogo.
+     *
+     * @return O tempo total em nanossegundos.
+     */
+    private static long indexedLookups(CatalogIndex index, String[] queryAuthors, String[] queryTitles, int lookups) {
+        int found = 0;
+        long start = System.nanoTime();
+        for (int q = 0; q < lookups; q++) {
+            if (index.findBook(queryAuthors[q & (queryAuthors.length - 1)], queryTitles[q & (queryTitles.length - 1)]) != null) {
+                found++;
+            }
+        }
+        long elapsed = System.nanoTime() - start;
+        check(found, lookups);
+        return elapsed;
+    }
+
+    /**
+     * Confirma que todas as pesquisas encontraram o livro, para que a medição não seja descartada pelo JIT.
+     */
+    private static void check(int found, int expected) {
+        if (found != expected) {
+            throw new IllegalStateException("Pesquisas encontradas: " + found + " de " + expected);
+        }
+    }
+
+    /**
+     * Compara o débito de escritas no journal com uma sincronização do disco por operação
+     * e com as sincronizações agrupadas pelo GroupCommitWriter, para vários números de threads.
+     *
+     * @throws Exception Se ocorrer um erro ao escrever no ficheiro temporário.
+     */
+    private static void commitBenchmark() throws Exception {
+        System.out.println();
+        System.out.println("Escritas no journal: operações por segundo (sincronizações feitas)");
+        System.out.printf("%10s %25s %25s%n", "threads", "uma por operação", "agrupadas");
+
+        File file = File.createTempFile("journal-benchmark", ".journal");
+        file.deleteOnExit();
+
+        for (int threads = 1; threads <= 64; threads *= 4) {
+            try (FileChannel channel = FileChannel.open(file.toPath(), StandardOpenOption.WRITE, StandardOpenOption.TRUNCATE_EXISTING)) {
+                AtomicInteger syncs = new AtomicInteger();
+                Object lock = new Object();
+                long start = System.nanoTime();
+                runThreads(threads, () -> {
+                    synchronized (lock) {
+                        ByteBuffer record = sampleRecord();
+                        while (record.hasRemaining()) {
+                            channel.write(record);
+                        }
+                        channel.force(false);
+                        syncs.incrementAndGet();
+                    }
+                });
+                String perOperation = throughput(threads, System.nanoTime() - start, syncs.get());
+
+                channel.truncate(0);
+                syncs.set(0);
+                GroupCommitWriter writer = new GroupCommitWriter(records -> {
+                    ByteBuffer[] buffers = records.toArray(new ByteBuffer[0]);
+                    long remaining = 0;
+                    for (ByteBuffer buffer : buffers) {
+                        remaining += buffer.remaining();
+                    }
+                    while (remaining > 0) {
+                        remaining -= channel.write(buffers);
+                    }
+                    channel.force(false);
+                    syncs.incrementAndGet();
+                }, JournalCatalogStore.DEFAULT_MAX_BATCH_SIZE, JournalCatalogStore.DEFAULT_MAX_WAIT_MILLIS, "benchmark-writer");
+                start = System.nanoTime();
+                runThreads(threads, () -> {
+                    CompletableFuture<Void> done = writer.submit(sampleRecord());
+                    GroupCommitWriter.await(done);
+                });
+                String grouped = throughput(threads, System.nanoTime() - start, syncs.get());
+                writer.close();
+
+                System.out.printf("%10d %25s %25s%n", threads, perOperation, grouped);
+            }
+        }
+    }
+
+    /**
+     * Teste de carga em que muitas threads requisitam e devolvem os mesmos poucos livros de uma biblioteca partilhada.
+     * Cada livro tem um contador de quantas threads o têm requisitado; se alguma vez passar de 1,
+     * o mesmo livro foi emprestado duas vezes e o teste falha.
+     *
+     * @throws Exception Se ocorrer um erro na biblioteca ou se um livro for emprestado duas vezes.
+     */
+    private static void stressBenchmark() throws Exception {
+        System.out.println();
+        System.out.println("Requisições concorrentes sobre uma biblioteca partilhada");
+
+        int authorCount = 8;
+        int booksPerAuthor = 4;
+        File file = File.createTempFile("library-stress", ".books");
+        file.deleteOnExit();
+        new File(file.getPath() + ".journal").deleteOnExit();
+        try (PrintWriter writer = new PrintWriter(file)) {
+            for (int i = 0; i < authorCount; i++) {
+                for (int j = 0; j < booksPerAuthor; j++) {
+                    writer.println("Autor " + i + ";Livro " + j + ";true");
+                }
+            }
+        }
+
+        Library library = new Library(new JournalCatalogStore(file.getPath()));
+        AtomicIntegerArray holders = new AtomicIntegerArray(authorCount * booksPerAuthor);
+        AtomicInteger lent = new AtomicInteger();
+        AtomicInteger doubleLent = new AtomicInteger();
+        ConcurrentLinkedQueue<Throwable> failures = new ConcurrentLinkedQueue<>();
+
+        int threads = 32;
+        long start = System.nanoTime();
+        List<Thread> workers = new ArrayList<>();
+        for (int t = 0; t < threads; t++) {
+            Random random = new Random(t);
+            Thread worker = new Thread(() -> {
+                try {
+                    for (int i = 0; i < REQUESTS_PER_THREAD; i++) {
+                        int a = random.nextInt(authorCount);
+                        int b = random.nextInt(booksPerAuthor);
+                        int slot = a * booksPerAuthor + b;
+                        if (library.requestBook("Autor " + a, "Livro " + b).isSuccess()) {
+                            lent.incrementAndGet();
+                            if (holders.incrementAndGet(slot) > 1) {
+                                doubleLent.incrementAndGet();
+                            }
+                            holders.decrementAndGet(slot);
+                            LibraryResult returned = library.returnBook("Autor " + a, "Livro " + b);
+                            if (!returned.isSuccess()) {
+                                throw new IllegalStateException("Devolução recusada: " + returned.message());
+                            }
+                        }
+                    }
+                } catch (IOException e) {
+                    throw new RuntimeException(e);
+                }
+            });
+            worker.setUncaughtExceptionHandler((thread, e) -> failures.add(e));
+            workers.add(worker);
+            worker.start();
+        }
+        for (Thread worker : workers) {
+            worker.join();
+        }
+        long elapsed = System.nanoTime() - start;
+        library.close();
+
+        // Um erro numa thread não pode passar despercebido: o teste falha, com os erros das threads como suprimidos
+        if (!failures.isEmpty()) {
+            IllegalStateException failure = new IllegalStateException(failures.size() + " threads terminaram com erro.");
+            for (Throwable e : failures) {
+                failure.addSuppressed(e);
+            }
+            throw failure;
+        }
+
+        System.out.printf("%d threads, %d tentativas, %d empréstimos, %.0f tentativas/s, empréstimos duplicados: %d%n",
+                threads, threads * REQUESTS_PER_THREAD, lent.get(),
+                threads * REQUESTS_PER_THREAD / (elapsed / 1e9), doubleLent.get());
+        if (doubleLent.get() > 0) {
+            throw new IllegalStateException("O mesmo livro foi emprestado a mais do que uma thread.");
+        }
+
+        // No fim todos os livros têm de estar disponíveis, também depois de recarregar o journal
+        Library reloaded = new Library(new JournalCatalogStore(file.getPath()));
+        for (int i = 0; i < reloaded.getAuthors().length; i++) {
+            for (Book book : reloaded.getBooksByAuthor(i)) {
+                if (!book.isAvailable()) {
+                    throw new IllegalStateException("Livro por devolver após recarregar: " + book.getTitle());
+                }
+            }
+        }
+        reloaded.close();
+    }
+
+    /**
+     * Compara o tempo de abertura de um catálogo no ficheiro de texto e no formato binário mapeado em memória.
+     *
+     * @throws Exception Se ocorrer um erro ao escrever ou ler os ficheiros temporários.
+     */
+    private static void openBenchmark() throws Exception {
+        System.out.println();
+        System.out.println("Abertura do catálogo: tempo em milissegundos");
+        System.out.printf("%10s %15s %15s%n", "livros", "texto", "binário");
+
+        for (int size = 10_000; size <= 1_000_000; size *= 10) {
+            File text = writeSyntheticCatalog(size);
+            File binary = new File(text.getPath() + ".bin");
+            binary.deleteOnExit();
+            MappedCatalogStore.convert(text.getPath(), binary.getPath());
+
+            long start = System.nanoTime();
+            Library fromText = new Library(new TextCatalogStore(text.getPath()));
+            long textNanos = System.nanoTime() - start;
+
+            start = System.nanoTime();
+            Library fromBinary = new Library(new MappedCatalogStore(binary.getPath()));
+            long binaryNanos = System.nanoTime() - start;
+            fromBinary.close();
+
+            check(fromBinary.countAvailableBooks(), fromText.countAvailableBooks());
+            System.out.printf("%10d %15.1f %15.1f%n", size, textNanos / 1e6, binaryNanos / 1e6);
+        }
+    }
+
+    /**
+     * Mede o carregamento paralelo de um ficheiro de livros grande com 1 até N threads, sendo N o número de processadores,
+     * e confirma que o resultado é sempre igual ao do carregamento com uma só thread.
+     *
+     * @throws Exception Se ocorrer um erro ao ler o ficheiro ou se os resultados forem diferentes.
+     */
+    private static void importBenchmark() throws Exception {
+        int size = 2_000_000;
+        File file = writeSyntheticCatalog(size);
+        int processors = Runtime.getRuntime().availableProcessors();
+
+        System.out.println();
+        System.out.printf("Carregamento paralelo de %d livros (%d MB), %d processadores%n", size, file.length() >> 20, processors);
+        System.out.printf("%10s %15s %15s%n", "threads", "tempo (ms)", "livros/s");
+
+        List<Integer> threadCounts = new ArrayList<>();
+        for (int threads = 1; threads < processors; threads *= 2) {
+            threadCounts.add(threads);
+        }
+        threadCounts.add(processors);
+
+        CatalogBuilder reference = null;
+        for (int threads : threadCounts) {
+            // Primeira leitura para aquecimento, segunda para medir
+            ParallelCatalogLoader.load(file, threads);
+            long start = System.nanoTime();
+            CatalogBuilder builder = ParallelCatalogLoader.load(file, threads);
+            long elapsed = System.nanoTime() - start;
+
+            if (reference == null) {
+                reference = builder;
+            } else if (!sameCatalog(reference, builder)) {
+                throw new IllegalStateException("O carregamento com " + threads + " threads deu um resultado diferente.");
+            }
+            System.out.printf("%10d %15.1f %15.0f%n", threads, elapsed / 1e6, size / (elapsed / 1e9));
+        }
+    }
+
+    /**
+     * Verifica se dois catálogos têm os mesmos autores e os mesmos títulos, pela mesma ordem.
+     */
+    private static boolean sameCatalog(CatalogBuilder first, CatalogBuilder second) {
+        if (!Arrays.equals(first.authors(), second.authors())) {
+            return false;
+        }
+        Book[][] firstBooks = first.books();
+        Book[][] secondBooks = second.books();
+        for (int i = 0; i < firstBooks.length; i++) {
+            if (firstBooks[i].length != secondBooks[i].length) {
+                return false;
+            }
+            for (int j = 0; j < firstBooks[i].length; j++) {
+                if (!firstBooks[i][j].getTitle().equals(secondBooks[i][j].getTitle())) {
+                    return false;
+                }
+            }
+        }
+        return true;
+    }
+
+    /**
+     * Mede o tempo de indexar um catálogo de um milhão de livros no SearchIndex e a latência das pesquisas exata,
+     * por prefixo e aproximada, comparando com uma procura do texto em todos os títulos.
+     *
+     * @throws Exception Se ocorrer um erro ao escrever ou ler o ficheiro temporário.
+     */
+    private static void searchBenchmark() throws Exception {
+        int size = 1_000_000;
+        File file = writeSyntheticCatalog(size);
+        Library library = new Library(new TextCatalogStore(file.getPath()));
+
+        SearchIndex index = new SearchIndex();
+        long start = System.nanoTime();
+        library.addListener(index);
+        long indexNanos = System.nanoTime() - start;
+
+        System.out.println();
+        System.out.printf("Pesquisa em %d livros (indexados em %.0f ms): latência média por pesquisa%n", size, indexNanos / 1e6);
+        System.out.printf("%-28s %15s %15s %10s%n", "pesquisa", "índice (us)", "varrimento (us)", "livros");
+
+        String[] authors = library.getAuthors();
+        List<Book> all = new ArrayList<>(size);
+        for (int i = 0; i < authors.length; i++) {
+            all.addAll(Arrays.asList(library.getBooksByAuthor(i)));
+        }
+
+        String[][] queries = {
+                {"exata", "livro 123456", "123456"},
+                {"prefixo", "autor 345 livro 1234", "1234"},
+                {"aproximada", "livor atuor 123456", "123456"},
+        };
+        for (String[] query : queries) {
+            int runs = 2_000;
+            List<Book> found = List.of();
+            for (int warmup = 0; warmup < 2; warmup++) {
+                start = System.nanoTime();
+                for (int r = 0; r < runs; r++) {
+                    found = switch (query[0]) {
+                        case "exata" -> index.search(query[1], 100);
+                        case "prefixo" -> index.complete(query[1], 100);
+                        default -> index.fuzzySearch(query[1], 2, 100);
+                    };
+                }
+            }
+            long indexed = (System.nanoTime() - start) / runs;
+
+            // Procura ingénua: o texto em todos os títulos, sem índice
+            int scanRuns = 5;
+            int matches = 0;
+            start = System.nanoTime();
+            for (int r = 0; r < scanRuns; r++) {
+                for (Book book : all) {
+                    if (book.getTitle().toLowerCase().contains(query[2])) {
+                        matches++;
+                    }
+                }
+            }
+            long scanned = (System.nanoTime() - start) / scanRuns;
+            if (matches == 0 || found.isEmpty()) {
+                throw new IllegalStateException("Pesquisa sem resultados: " + query[1]);
+            }
+
+            System.out.printf("%-28s %15.1f %15.1f %10d%n", query[0] + " \"" + query[1] + "\"", indexed / 1e3, scanned / 1e3, found.size());
+        }
+        library.close();
+    }
+
+    /**
+     * Escreve um ficheiro de livros sintético num ficheiro temporário.
+     *
+     * @param size Número de livros do catálogo.
+     * @return O ficheiro criado.
+     * @throws IOException Se ocorrer um erro ao escrever o ficheiro.
+     */
+    static File writeSyntheticCatalog(int size) throws IOException {
+        File file = File.createTempFile("library-catalog", ".books");
+        file.deleteOnExit();
+        int authorCount = (int) Math.sqrt(size);
+        try (PrintWriter writer = new PrintWriter(new BufferedWriter(new FileWriter(file)))) {
+            for (int i = 0; i < size; i++) {
+                writer.println("Autor " + (i % authorCount) + ";Livro " + i + ";" + (i % 3 != 0));
+            }
+        }
+        return file;
+    }
+
+    /**
+     * Mede o débito e a latência de um LibraryServer local com cada vez mais clientes ligados,
+     * usando o LibraryLoadGenerator sobre um catálogo de cem mil livros guardado num journal.
+     * No fim, verifica que todos os livros requisitados pelos clientes foram devolvidos.
+     *
+     * @throws Exception Se ocorrer um erro no servidor, nos clientes ou se ficar algum livro por devolver.
+     */
+    private static void serverBenchmark() throws Exception {
+        System.out.println();
+        System.out.println("Servidor em localhost: pedidos (listar, requisitar, devolver) de vários clientes");
+        System.out.printf("%10s %12s %12s %12s %12s %8s%n", "clientes", "pedidos/s", "p50 (µs)", "p99 (µs)", "p99.9 (µs)", "erros");
+
+        File file = writeSyntheticCatalog(100_000);
+        new File(file.getPath() + ".journal").deleteOnExit();
+        Library library = new Library(new JournalCatalogStore(file.getPath()));
+        int availableBefore = library.countAvailableBooks();
+
+        LibraryServer server = new LibraryServer(library,
+                new InetSocketAddress(InetAddress.getLoopbackAddress(), 0), Runtime.getRuntime().availableProcessors() * 2);
+        server.start();
+        try {
+            for (int clients = 1; clients <= 64; clients *= 4) {
+                printLoadResult(clients, LibraryLoadGenerator.run("localhost", server.getPort(), clients, 2_000));
+            }
+        } finally {
+            server.close();
+        }
+
+        int availableAfter = library.countAvailableBooks();
+        library.close();
+        if (availableAfter != availableBefore) {
+            throw new IllegalStateException("Livros por devolver após a carga: " + (availableBefore - availableAfter));
+        }
+    }
+
+    /**
+     * Mede o débito e os percentis de latência de milhares de utilizadores simulados (estudantes e professores)
+     * a usar ao mesmo tempo uma biblioteca partilhada, com cada operação numa virtual thread, se disponível.
+     * No fim, verifica que todos os livros foram devolvidos e que os livros adicionados foram removidos.
+     *
+     * @throws Exception Se ocorrer um erro na biblioteca ou se o catálogo não voltar ao estado inicial.
+     */
+    private static void usersBenchmark() throws Exception {
+        System.out.println();
+        System.out.println("Utilizadores simulados sobre uma biblioteca partilhada ("
+                + (LibraryThreads.virtualThreadsAvailable() ? "virtual threads" : "threads normais, sem virtual threads") + ")");
+        System.out.printf("%10s %12s %12s %12s %12s %8s%n", "utiliz.", "pedidos/s", "p50 (µs)", "p99 (µs)", "p99.9 (µs)", "erros");
+
+        File file = writeSyntheticCatalog(100_000);
+        new File(file.getPath() + ".journal").deleteOnExit();
+        Library library = new Library(new JournalCatalogStore(file.getPath()));
+        int availableBefore = library.countAvailableBooks();
+        int authorsBefore = library.getAuthors().length;
+
+        for (int users = 10; users <= 10_000; users *= 10) {
+            printLoadResult(users, LibraryLoadGenerator.runUsers(library, users, 3_000));
+        }
+
+        int availableAfter = library.countAvailableBooks();
+        int authorsAfter = library.getAuthors().length;
+        library.close();
+        if (availableAfter != availableBefore || authorsAfter != authorsBefore) {
+            throw new IllegalStateException("O catálogo não voltou ao estado inicial: " + availableAfter + " livros disponíveis ("
+                    + availableBefore + " antes), " + authorsAfter + " autores (" + authorsBefore + " antes).");
+        }
+    }
+
+    /**
+     * Mede o custo das métricas nas operações mais rápidas da biblioteca, comparando uma biblioteca sem métricas
+     * com outra com métricas ativas sobre o mesmo catálogo de cem mil livros. Cada ronda alterna as duas,
+     * para que o aquecimento da JVM não favoreça nenhuma. No fim, mostra o relatório das métricas ativas.
+     *
+     * @throws Exception Se ocorrer um erro na biblioteca ou se as métricas não contarem todas as operações.
+     */
+    private static void metricsBenchmark() throws Exception {
+        System.out.println();
+        System.out.println("Custo das métricas (ns por operação, melhor de 5 rondas)");
+        System.out.printf("%-32s %12s %12s%n", "operação", "sem métricas", "com métricas");
+
+        File file = writeSyntheticCatalog(100_000);
+        new File(file.getPath() + ".journal").deleteOnExit();
+        LibraryMetrics metrics = new LibraryMetrics();
+        Library plain = new Library(new JournalCatalogStore(file.getPath()));
+        Library measured = new Library(new JournalCatalogStore(file.getPath()), metrics);
+        String[] authors = plain.getAuthors();
+
+        long[] lookups = {Long.MAX_VALUE, Long.MAX_VALUE};
+        long[] requests = {Long.MAX_VALUE, Long.MAX_VALUE};
+        int lookupCount = LOOKUPS;
+        int requestCount = 2_000;
+        for (int round = 0; round < 5; round++) {
+            Library[] libraries = {plain, measured};
+            for (int l = 0; l < 2; l++) {
+                Library library = libraries[l];
+                long start = System.nanoTime();
+                int found = 0;
+                for (int q = 0; q < lookupCount; q++) {
+                    if (library.getBooksByAuthor(authors[q % authors.length]).length > 0) {
+                        found++;
+                    }
+                }
+                lookups[l] = Math.min(lookups[l], (System.nanoTime() - start) / lookupCount);
+                check(found, lookupCount);
+
+                // Requisições de livros disponíveis (i % 3 != 0) e indisponíveis, cada uma devolvida se conseguida
+                start = System.nanoTime();
+                for (int i = 0; i < requestCount; i++) {
+                    String author = "Autor " + (i % authors.length);
+                    String title = "Livro " + i;
+                    if (library.requestBook(author, title).isSuccess()) {
+                        library.returnBook(author, title);
+                    }
+                }
+                requests[l] = Math.min(requests[l], (System.nanoTime() - start) / requestCount);
+            }
+        }
+        System.out.printf("%-32s %12d %12d%n", "getBooksByAuthor", lookups[0], lookups[1]);
+        System.out.printf("%-32s %12d %12d%n", "requestBook + returnBook", requests[0], requests[1]);
+
+        plain.close();
+        measured.close();
+        long expectedLookups = 5L * lookupCount;
+        if (metrics.count(LibraryMetrics.Operation.LOOKUP) != expectedLookups
+                || metrics.count(LibraryMetrics.Operation.REQUEST) != 5L * requestCount) {
+            throw new IllegalStateException("As métricas não contaram todas as operações:\n" + metrics.getReport());
+        }
+        System.out.println(metrics.getReport());
+    }
+
+    /**
+     * Mede a latência das listagens por autor com e sem uma thread a adicionar e remover livros ao mesmo tempo.
+     * As listagens leem a CatalogSnapshot atual, por isso não devem esperar pelas escritas no journal.
+     * Cada leitura confirma que a versão obtida é consistente: todos os livros de cada autor são desse autor.
+     *
+     * @throws Exception Se ocorrer um erro na biblioteca ou se uma leitura vir uma versão inconsistente.
+     */
+    private static void snapshotBenchmark() throws Exception {
+        System.out.println();
+        System.out.println("Listagens por autor (4 threads) com escritas concorrentes");
+        System.out.printf("%-16s %12s %12s %12s %12s %10s%n", "escritas", "leituras/s", "p50 (µs)", "p99 (µs)", "p99.9 (µs)", "versões");
+
+        File file = writeSyntheticCatalog(100_000);
+        new File(file.getPath() + ".journal").deleteOnExit();
+        Library library = new Library(new JournalCatalogStore(file.getPath()));
+        String[] authors = library.getAuthors();
+
+        for (boolean writing : new boolean[]{false, true}) {
+            long versionBefore = library.snapshot().version();
+            LatencyHistogram latencies = new LatencyHistogram();
+            AtomicInteger inconsistent = new AtomicInteger();
+            long deadline = System.nanoTime() + 2_000_000_000L;
+            List<Thread> threads = new ArrayList<>();
+            for (int t = 0; t < 4; t++) {
+                Random random = new Random(t);
+                threads.add(new Thread(() -> {
+                    while (System.nanoTime() < deadline) {
+                        String author = authors[random.nextInt(authors.length)];
+                        long before = System.nanoTime();
+                        Book[] books = library.getBooksByAuthor(author);
+                        latencies.record(System.nanoTime() - before);
+                        for (Book book : books) {
+                            if (!book.getAuthor().equals(author)) {
+                                inconsistent.incrementAndGet();
+                            }
+                        }
+                    }
+                }));
+            }
+            if (writing) {
+                threads.add(new Thread(() -> {
+                    Random random = new Random(-1);
+                    try {
+                        for (int i = 0; System.nanoTime() < deadline; i++) {
+                            String author = authors[random.nextInt(authors.length)];
+                            library.addBook(author, "Livro temporário " + i);
+                            library.removeBook(author, "Livro temporário " + i);
+                        }
+                    } catch (IOException e) {
+                        throw new RuntimeException(e);
+                    }
+                }));
+            }
+            long start = System.nanoTime();
+            for (Thread thread : threads) {
+                thread.start();
+            }
+            for (Thread thread : threads) {
+                thread.join();
+            }
+            long elapsed = System.nanoTime() - start;
+
+            System.out.printf("%-16s %12.0f %12.1f %12.1f %12.1f %10d%n", writing ? "add + remove" : "nenhuma",
+                    latencies.count() / (elapsed / 1e9), latencies.percentile(0.5) / 1e3,
+                    latencies.percentile(0.99) / 1e3, latencies.percentile(0.999) / 1e3,
+                    library.snapshot().version() - versionBefore);
+            if (inconsistent.get() > 0) {
+                throw new IllegalStateException("Listagens inconsistentes: " + inconsistent.get());
+            }
+        }
+        library.close();
+    }
+
+    /**
+     * Compara a memória ocupada por catálogos de cem mil e de um milhão de livros com os livros normais
+     * e em modo compacto, medindo o heap usado depois de uma recolha de lixo, antes e depois de carregar.
+     * Verifica também que o catálogo compacto tem os mesmos livros e que as operações o encontram.
+     *
+     * @throws Exception Se ocorrer um erro ao ler os catálogos ou se os dois modos não coincidirem.
+     */
+    private static void footprintBenchmark() throws Exception {
+        System.out.println();
+        System.out.println("Memória ocupada pelo catálogo");
+        System.out.printf("%10s %10s %12s %12s %14s %14s%n", "livros", "modo", "heap (MB)", "bytes/livro", "títulos (MB)", "carregar (ms)");
+
+        for (int size = 100_000; size <= 1_000_000; size *= 10) {
+            File file = writeSyntheticCatalog(size);
+            Library[] libraries = new Library[2];
+            for (int mode = 0; mode < 2; mode++) {
+                boolean compact = mode == 1;
+                long before = usedHeap();
+                long start = System.nanoTime();
+                Library library = new Library(new TextCatalogStore(file.getPath()), LibraryMetrics.DISABLED, compact);
+                long elapsed = System.nanoTime() - start;
+                long used = usedHeap() - before;
+
+                String titles = compact ? String.format("%.1f", library.getCompactStorage().titles().bytesUsed() / 1e6) : "-";
+                System.out.printf("%10d %10s %12.1f %12.1f %14s %14.1f%n", size, compact ? "compacto" : "normal",
+                        used / 1e6, used / (double) size, titles, elapsed / 1e6);
+                libraries[mode] = library;
+            }
+
+            Library normal = libraries[0];
+            Library compact = libraries[1];
+            String[] authors = normal.getAuthors();
+            if (!Arrays.equals(authors, compact.getAuthors())) {
+                throw new IllegalStateException("Autores diferentes no modo compacto.");
+            }
+            for (String author : authors) {
+                Book[] expected = normal.getBooksByAuthor(author);
+                Book[] actual = compact.getBooksByAuthor(author);
+                for (int i = 0; i < expected.length; i++) {
+                    if (!expected[i].getTitle().equals(actual[i].getTitle()) || !actual[i].getAuthor().equals(author)
+                            || expected[i].isAvailable() != actual[i].isAvailable()) {
+                        throw new IllegalStateException("Livro diferente no modo compacto: " + actual[i]);
+                    }
+                }
+            }
+            String author = authors[0];
+            String title = compact.getAvailableBooksByAuthor(0)[0].getTitle();
+            if (compact.requestBook(author, title) != LibraryResult.SUCCESS
+                    || compact.requestBook(author, title) != LibraryResult.UNAVAILABLE
+                    || compact.returnBook(author, title) != LibraryResult.SUCCESS) {
+                throw new IllegalStateException("Operações erradas no modo compacto.");
+            }
+        }
+    }
+
+    /**
+     * Compara as pausas do garbage collector com o catálogo no heap (Library com JournalCatalogStore)
+     * e fora do heap (OffHeapLibrary), sobre os mesmos dois milhões de livros, durante uma carga contínua
+     * de requisições e devoluções de utilizadores simulados. Mostra as pausas durante a carga e a duração
+     * de uma recolha completa no fim, que percorre todos os objetos vivos.
+     *
+     * @throws Exception Se ocorrer um erro na biblioteca ou se o catálogo não voltar ao estado inicial.
+     */
+    private static void gcBenchmark() throws Exception {
+        System.out.println();
+        System.out.println("Pausas do garbage collector durante a carga ("
+                + ManagementFactory.getGarbageCollectorMXBeans().stream().map(GarbageCollectorMXBean::getName).toList() + ")");
+        System.out.printf("%10s %10s %10s %10s %10s %10s %12s %12s %12s%n", "modelo", "pedidos/s", "pausas",
+                "p50 (ms)", "p99 (ms)", "máx. (ms)", "total (ms)", "completa (ms)", "heap (MB)");
+
+        File file = writeSyntheticCatalog(2_000_000);
+        File journal = new File(file.getPath() + ".journal");
+        journal.deleteOnExit();
+        for (int mode = 0; mode < 2; mode++) {
+            boolean offHeap = mode == 1;
+            journal.delete();
+            long before = usedHeap();
+            LibraryService library = offHeap ? new OffHeapLibrary(file.getPath())
+                    : new Library(new JournalCatalogStore(file.getPath()));
+            long heap = usedHeap() - before;
+            int authorsBefore = library.getAuthors().length;
+
+            LibraryLoadGenerator.runUsers(library, 100, 2_000);  // Aquecimento
+            GcPauses pauses = GcPauses.start();
+            LibraryLoadGenerator.Result result = LibraryLoadGenerator.runUsers(library, 100, 10_000);
+            pauses.stop();
+            GcPauses full = GcPauses.start();
+            System.gc();
+            full.stop();
+
+            LatencyHistogram durations = pauses.durations();
+            System.out.printf("%10s %10.0f %10d %10.1f %10.1f %10.1f %12.1f %12.1f %12.1f%n",
+                    offHeap ? "fora heap" : "heap", result.throughput(), durations.count(),
+                    durations.percentile(0.5) / 1e6, durations.percentile(0.99) / 1e6, durations.max() / 1e6,
+                    pauses.total() / 1e6, full.total() / 1e6, heap / 1e6);
+
+            int authorsAfter = library.getAuthors().length;
+            library.close();
+            if (result.errors() > 0 || authorsAfter != authorsBefore) {
+                throw new IllegalStateException("Carga com " + result.errors() + " erros e " + authorsAfter
+                        + " autores (" + authorsBefore + " antes).");
+            }
+        }
+    }
+
+    /**
+     * Simula um mês de empréstimos com um ManualClock: regista empréstimos ao longo de uma semana, devolve metade
+     * antes do prazo e avança o relógio hora a hora, medindo o custo de cada avanço do LoanLedger. Para comparação,
+     * mede também o custo de encontrar os prazos de cada hora percorrendo todos os empréstimos.
+     * Verifica que cada empréstimo não devolvido teve exatamente um lembrete e um aviso de atraso.
+     *
+     * @throws Exception Se os avisos não corresponderem aos empréstimos.
+     */
+    private static void loansBenchmark() throws Exception {
+        System.out.println();
+        System.out.println("Prazos de empréstimos com a TimingWheel (um mês simulado, avanços de uma hora)");
+        System.out.printf("%10s %14s %14s %14s %14s %16s %10s%n", "empréstimos", "requisitar (ns)", "devolver (ns)",
+                "avanço p50 (ms)", "avanço máx (ms)", "varrimento (ms)", "avisos");
+
+        for (int count = 200_000; count <= 2_000_000; count *= 10) {
+            ManualClock clock = new ManualClock(Instant.parse("2026-01-01T00:00:00Z"));
+            LoanLedger ledger = new LoanLedger(clock, LoanLedger.DEFAULT_LOAN_PERIOD, LoanLedger.DEFAULT_REMINDER);
+            AtomicLong reminders = new AtomicLong();
+            AtomicLong overdue = new AtomicLong();
+            ledger.addListener(new LoanListener() {
+                @Override
+                public void loanReminder(Loan loan) {
+                    reminders.incrementAndGet();
+                }
+
+                @Override
+                public void loanOverdue(Loan loan) {
+                    overdue.incrementAndGet();
+                }
+            });
+
+            // Um empréstimo a cada poucos segundos ao longo de uma semana
+            long spacing = Duration.ofDays(7).toMillis() / count;
+            long[] dueTimes = new long[count];
+            long start = System.nanoTime();
+            for (int i = 0; i < count; i++) {
+                dueTimes[i] = ledger.checkout("estudante-" + (i % 5_000), "Autor " + (i % 1_000), "Livro " + i)
+                        .getDueTime().toEpochMilli();
+                clock.advance(Duration.ofMillis(spacing));
+            }
+            long checkoutNanos = (System.nanoTime() - start) / count;
+
+            start = System.nanoTime();
+            for (int i = 0; i < count; i += 2) {
+                ledger.checkin("Autor " + (i % 1_000), "Livro " + i);
+                dueTimes[i] = Long.MAX_VALUE;
+            }
+            long checkinNanos = (System.nanoTime() - start) / (count / 2);
+
+            LatencyHistogram steps = new LatencyHistogram();
+            long scanNanos = 0;
+            long matched = 0;
+            for (int hour = 0; hour < 30 * 24; hour++) {
+                long from = clock.millis();
+                clock.advance(Duration.ofHours(1));
+                long before = System.nanoTime();
+                ledger.advance();
+                steps.record(System.nanoTime() - before);
+
+                // Alternativa sem a roda: percorrer todos os empréstimos à procura dos prazos desta hora
+                long to = clock.millis();
+                before = System.nanoTime();
+                for (long due : dueTimes) {
+                    if (due > from && due <= to) {
+                        matched++;
+                    }
+                }
+                scanNanos += System.nanoTime() - before;
+            }
+
+            System.out.printf("%10d %14d %14d %14.3f %14.3f %16.3f %10d%n", count, checkoutNanos, checkinNanos,
+                    steps.percentile(0.5) / 1e6, steps.max() / 1e6, scanNanos / 1e6 / (30 * 24),
+                    reminders.get() + overdue.get());
+            int expected = count / 2;
+            if (reminders.get() != expected || overdue.get() != expected || ledger.overdueCount() != expected
+                    || matched != expected) {
+                throw new IllegalStateException("Avisos errados: " + reminders.get() + " lembretes e " + overdue.get()
+                        + " atrasos para " + expected + " empréstimos.");
+            }
+        }
+    }
+
+    /**
+     * Disputa de poucos títulos muito procurados: milhares de requisitantes pedem ao mesmo tempo um exemplar
+     * de um de quatro títulos com oito exemplares cada, esperam na fila de reservas se não houver nenhum
+     * e devolvem-no logo a seguir. Compara o Holding, que requisita com um compare-and-set e entrega os exemplares
+     * devolvidos à fila sem locks, com uma versão equivalente protegida por um lock. Mostra o débito e o tempo
+     * até obter um exemplar, e verifica que no fim todos os exemplares voltaram à prateleira.
+     * Depois repete a disputa através da própria Library ({@link #libraryHoldingsBenchmark}).
+     *
+     * @throws Exception Se uma thread for interrompida ou se faltarem exemplares no fim.
+     */
+    private static void holdingsBenchmark() throws Exception {
+        System.out.println();
+        System.out.println("Disputa de exemplares de 4 títulos com 8 exemplares cada ("
+                + (LibraryThreads.virtualThreadsAvailable() ? "virtual threads" : "threads normais, sem virtual threads") + ")");
+        System.out.printf("%12s %10s %14s %12s %12s %12s%n", "fila", "requisit.", "requisições/s", "p50 (µs)",
+                "p99 (µs)", "p99.9 (µs)");
+
+        for (int requesters = 100; requesters <= 4_000; requesters *= requesters == 100 ? 10 : 4) {
+            for (int mode = 0; mode < 2; mode++) {
+                boolean lockFree = mode == 0;
+                CopyQueue[] titles = new CopyQueue[4];
+                for (int t = 0; t < titles.length; t++) {
+                    titles[t] = lockFree ? new LockFreeCopies(8) : new LockedCopies(8);
+                }
+
+                LatencyHistogram waits = new LatencyHistogram();
+                long start = System.nanoTime();
+                long deadline = start + 3_000_000_000L;
+                List<Thread> threads = new ArrayList<>();
+                for (int r = 0; r < requesters; r++) {
+                    String borrower = "estudante-" + r;
+                    Random random = new Random(r);
+                    threads.add(LibraryThreads.start("requester-" + r, () -> {
+                        while (System.nanoTime() < deadline) {
+                            CopyQueue title = titles[random.nextInt(titles.length)];
+                            long before = System.nanoTime();
+                            title.checkout(borrower);
+                            waits.record(System.nanoTime() - before);
+                            title.giveBack();
+                        }
+                    }));
+                }
+                for (Thread thread : threads) {
+                    thread.join();
+                }
+                long elapsed = System.nanoTime() - start;
+
+                System.out.printf("%12s %10d %14.0f %12.1f %12.1f %12.1f%n", lockFree ? "sem locks" : "com lock",
+                        requesters, waits.count() / (elapsed / 1e9), waits.percentile(0.5) / 1e3,
+                        waits.percentile(0.99) / 1e3, waits.percentile(0.999) / 1e3);
+                for (CopyQueue title : titles) {
+                    if (!title.allOnShelf()) {
+                        throw new IllegalStateException("Há exemplares que não voltaram à prateleira.");
+                    }
+                }
+            }
+        }
+
+        libraryHoldingsBenchmark();
+    }
+
+    /**
+     * A mesma disputa através da Library, guardada num JournalCatalogStore: cada thread requisita
+     * ({@link Library#requestBook}, repetindo se não houver exemplar) ou reserva ({@link Library#holdBook})
+     * um exemplar de um de quatro títulos com oito exemplares, e devolve-o logo a seguir. Inclui a espera
+     * pelo lock do autor, o compare-and-set do Holding e a escrita no journal quando sai ou volta o último exemplar.
+     * Verifica que nunca há mais requisições diretas ativas do que exemplares, que todas as devoluções são aceites,
+     * que no fim todos os exemplares estão na prateleira sem empréstimos por terminar, e que o número de exemplares
+     * é o mesmo depois de recarregar.
+     *
+     * @throws Exception Se ocorrer um erro na biblioteca ou se alguma verificação falhar.
+     */
+    private static void libraryHoldingsBenchmark() throws Exception {
+        int titleCount = 4;
+        int copies = 8;
+        int threads = 64;
+        File file = File.createTempFile("library-holdings", ".books");
+        file.deleteOnExit();
+        new File(file.getPath() + ".journal").deleteOnExit();
+        new File(file.getPath() + ".copies").deleteOnExit();
+        try (PrintWriter writer = new PrintWriter(file)) {
+            for (int t = 0; t < titleCount; t++) {
+                writer.println("Autor " + t + ";Livro " + t + ";true");
+            }
+        }
+
+        System.out.println();
+        System.out.println("Disputa dos mesmos exemplares através da Library, com journal (" + threads + " threads)");
+        System.out.printf("%12s %14s %12s %12s %12s%n", "operação", "operações/s", "p50 (µs)", "p99 (µs)", "p99.9 (µs)");
+
+        Library library = new Library(new JournalCatalogStore(file.getPath()));
+        for (int t = 0; t < titleCount; t++) {
+            library.setCopies("Autor " + t, "Livro " + t, copies);
+        }
+
+        for (int mode = 0; mode < 2; mode++) {
+            boolean hold = mode == 1;
+            AtomicIntegerArray out = new AtomicIntegerArray(titleCount);  // Requisições diretas ativas por título
+            AtomicInteger overLent = new AtomicInteger();
+            ConcurrentLinkedQueue<Throwable> failures = new ConcurrentLinkedQueue<>();
+            LatencyHistogram latencies = new LatencyHistogram();
+
+            long start = System.nanoTime();
+            long deadline = start + 2_000_000_000L;
+            List<Thread> workers = new ArrayList<>();
+            for (int w = 0; w < threads; w++) {
+                String borrower = "estudante-" + w;
+                Random random = new Random(w);
+                Thread worker = new Thread(() -> {
+                    try {
+                        while (System.nanoTime() < deadline) {
+                            int t = random.nextInt(titleCount);
+                            String author = "Autor " + t;
+                            String title = "Livro " + t;
+                            long before = System.nanoTime();
+                            LibraryResult result = hold
+                                    ? library.holdBook(author, title, borrower)
+                                    : library.requestBook(author, title, borrower);
+                            latencies.record(System.nanoTime() - before);
+                            if (result == LibraryResult.UNAVAILABLE && !hold) {
+                                continue;
+                            }
+                            if (result != LibraryResult.SUCCESS && result != LibraryResult.ON_HOLD) {
+                                throw new IllegalStateException("Requisição recusada: " + result.message());
+                            }
+                            // Uma reserva recebe um exemplar devolvido por outra thread, que a devolução seguinte repõe
+                            if (result == LibraryResult.SUCCESS) {
+                                if (out.incrementAndGet(t) > copies) {
+                                    overLent.incrementAndGet();
+                                }
+                                out.decrementAndGet(t);
+                            }
+                            LibraryResult returned = library.returnBook(author, title);
+                            if (!returned.isSuccess()) {
+                                throw new IllegalStateException("Devolução recusada: " + returned.message());
+                            }
+                        }
+                    } catch (IOException e) {
+                        throw new RuntimeException(e);
+                    }
+                }, "holder-" + w);
+                worker.setUncaughtExceptionHandler((thread, e) -> failures.add(e));
+                workers.add(worker);
+                worker.start();
+            }
+            for (Thread worker : workers) {
+                worker.join();
+            }
+            long elapsed = System.nanoTime() - start;
+
+            if (!failures.isEmpty()) {
+                IllegalStateException failure = new IllegalStateException(failures.size() + " threads terminaram com erro.");
+                for (Throwable e : failures) {
+                    failure.addSuppressed(e);
+                }
+                throw failure;
+            }
+            System.out.printf("%12s %14.0f %12.1f %12.1f %12.1f%n", hold ? "holdBook" : "requestBook",
+                    latencies.count() / (elapsed / 1e9), latencies.percentile(0.5) / 1e3,
+                    latencies.percentile(0.99) / 1e3, latencies.percentile(0.999) / 1e3);
+            if (overLent.get() > 0) {
+                throw new IllegalStateException("Houve mais requisições ativas do que exemplares.");
+            }
+            for (int t = 0; t < titleCount; t++) {
+                Holding holding = library.getHolding("Autor " + t, "Livro " + t);
+                if (holding == null || holding.onShelf() != copies || holding.waiting() != 0
+                        || !library.findBook("Autor " + t, "Livro " + t).isAvailable()) {
+                    throw new IllegalStateException("Há exemplares que não voltaram à prateleira: Livro " + t);
+                }
+            }
+            if (library.getLoanLedger().size() != 0) {
+                throw new IllegalStateException(library.getLoanLedger().size() + " empréstimos por terminar.");
+            }
+        }
+        library.close();
+
+        Library reloaded = new Library(new JournalCatalogStore(file.getPath()));
+        for (int t = 0; t < titleCount; t++) {
+            Holding holding = reloaded.getHolding("Autor " + t, "Livro " + t);
+            if (holding == null || holding.copies() != copies || holding.onShelf() != copies) {
+                throw new IllegalStateException("Exemplares perdidos ao recarregar: Livro " + t);
+            }
+        }
+        reloaded.close();
+    }
+
+    /**
+     * Importa um ficheiro de aquisições com duzentos mil livros, em CSV e em JSON, para uma biblioteca guardada
+     * num ficheiro de texto, com uma escrita por lote, e compara com adicionar os livros um a um, que reescreve
+     * o ficheiro em cada livro. O ficheiro tem linhas repetidas, livros que já estão no catálogo e linhas inválidas.
+     * Depois exporta o catálogo nos dois formatos e confirma que importar a exportação para uma biblioteca vazia
+     * dá o mesmo número de livros.
+     *
+     * @throws Exception Se ocorrer um erro nos ficheiros ou se as contagens não forem as esperadas.
+     */
+    private static void transferBenchmark() throws Exception {
+        int rows = 200_000;
+        int base = 10_000;
+        System.out.println();
+        System.out.printf("Importação e exportação de %d linhas para um catálogo de %d livros%n", rows, base);
+        System.out.printf("%-22s %10s %12s %14s %12s %10s %10s%n", "operação", "linhas", "tempo (ms)", "linhas/s",
+                "adicionados", "repetidos", "inválidos");
+
+        // Cada décima linha repete a anterior, cada vigésima é um livro do catálogo e cada centésima não tem título
+        File csv = File.createTempFile("library-acquisitions", ".csv");
+        File json = File.createTempFile("library-acquisitions", ".json");
+        csv.deleteOnExit();
+        json.deleteOnExit();
+        int expectedAdded = 0;
+        try (PrintWriter csvOut = new PrintWriter(new BufferedWriter(new FileWriter(csv)));
+             PrintWriter jsonOut = new PrintWriter(new BufferedWriter(new FileWriter(json)))) {
+            csvOut.println("autor,título,disponível");
+            jsonOut.println("[");
+            for (int i = 0; i < rows; i++) {
+                int volume = i % 10 == 9 ? i - 1 : i;
+                String author = "Autor " + (volume % 100);
+                String title = i % 100 == 99 ? "" : i % 20 == 19 ? "Livro " + i % base : "Aquisição, volume " + volume;
+                if (i % 100 != 99 && i % 20 != 19 && i % 10 != 9) {
+                    expectedAdded++;
+                }
+                if (i % 20 == 19) {
+                    author = "Autor " + (i % base) % (int) Math.sqrt(base);
+                }
+                csvOut.println(author + ",\"" + title + "\"," + (i % 3 != 0));
+                jsonOut.println((i > 0 ? "," : "") + "{\"author\": \"" + author + "\", \"title\": \"" + title
+                        + "\", \"available\": " + (i % 3 != 0) + "}");
+            }
+            jsonOut.println("]");
+        }
+
+        for (File acquisitions : new File[]{csv, json}) {
+            File file = writeSyntheticCatalog(base);
+            Library library = new Library(new TextCatalogStore(file.getPath()));
+            CatalogTransfer.Report report = CatalogTransfer.importBooks(library, acquisitions, CatalogTransfer.Progress.NONE);
+            printTransfer("importar " + CatalogTransfer.Format.of(acquisitions), report);
+            if (report.added() != expectedAdded || report.invalid() != rows / 100) {
+                throw new IllegalStateException("Importação com contagens inesperadas: " + report);
+            }
+
+            // Importar outra vez não acrescenta nada
+            report = CatalogTransfer.importBooks(library, acquisitions, CatalogTransfer.Progress.NONE);
+            printTransfer("importar outra vez", report);
+            if (report.added() != 0) {
+                throw new IllegalStateException("A segunda importação acrescentou livros: " + report);
+            }
+
+            int total = 0;
+            for (String author : library.getAuthors()) {
+                total += library.getBooksByAuthor(author).length;
+            }
+            File exported = File.createTempFile("library-export", "." + CatalogTransfer.Format.of(acquisitions).name().toLowerCase());
+            exported.deleteOnExit();
+            report = CatalogTransfer.exportBooks(library, exported, CatalogTransfer.Progress.NONE);
+            printTransfer("exportar " + CatalogTransfer.Format.of(exported), report);
+
+            File copy = File.createTempFile("library-copy", ".books");
+            copy.deleteOnExit();
+            Library reimported = new Library(new TextCatalogStore(copy.getPath()));
+            report = CatalogTransfer.importBooks(reimported, exported, CatalogTransfer.Progress.NONE);
+            if (report.rows() != total || report.added() != total || reimported.countAvailableBooks() != library.countAvailableBooks()) {
+                throw new IllegalStateException("A exportação não tem os " + total + " livros do catálogo: " + report);
+            }
+            reimported.close();
+            library.close();
+        }
+
+        // Um livro de cada vez, com o ficheiro reescrito em cada adição
+        File file = writeSyntheticCatalog(base);
+        Library library = new Library(new TextCatalogStore(file.getPath()));
+        int single = 500;
+        long start = System.nanoTime();
+        for (int i = 0; i < single; i++) {
+            library.addBook("Autor " + (i % 100), "Aquisição avulsa " + i);
+        }
+        long elapsed = System.nanoTime() - start;
+        System.out.printf("%-22s %10d %12.1f %14.0f %12d %10s %10s%n", "addBook um a um", single, elapsed / 1e6,
+                single / (elapsed / 1e9), single, "-", "-");
+        library.close();
+    }
+
+    /**
+     * Mede o custo de guardar requisições e devoluções em catálogos de dez mil a um milhão de livros: o ficheiro
+     * de texto, reescrito em cada alteração, o catálogo binário mapeado, que só escreve um byte mas não sincroniza,
+     * e o PagedCatalogStore, que escreve apenas as páginas alteradas, sincronizando em cada alteração ou a cada 100 ms.
+     * Depois simula uma escrita interrompida a meio e confirma que o catálogo paginado recupera a cópia anterior
+     * da página.
+     *
+     * @throws Exception Se ocorrer um erro nos ficheiros ou se a recuperação não der o estado esperado.
+     */
+    private static void pagesBenchmark() throws Exception {
+        System.out.println();
+        System.out.println("Requisições e devoluções guardadas: latência média por alteração");
+        System.out.printf("%10s %-26s %10s %14s %16s%n", "livros", "persistência", "alterações", "latência (us)",
+                "páginas/alteração");
+
+        for (int size = 10_000; size <= 1_000_000; size *= 10) {
+            File text = writeSyntheticCatalog(size);
+            File paged = new File(text.getPath() + ".pages");
+            File binary = new File(text.getPath() + ".bin");
+            paged.deleteOnExit();
+            binary.deleteOnExit();
+            new File(paged.getPath() + ".tmp").deleteOnExit();
+            new File(binary.getPath() + ".tmp").deleteOnExit();
+            PagedCatalogStore.convert(text.getPath(), paged.getPath());
+            MappedCatalogStore.convert(text.getPath(), binary.getPath());
+
+            for (int mode = 0; mode < 4; mode++) {
+                PagedCatalogStore pagedStore = mode >= 2 ? new PagedCatalogStore(paged.getPath(), mode == 2 ? 0 : 100) : null;
+                CatalogStore store = switch (mode) {
+                    case 0 -> new TextCatalogStore(text.getPath());
+                    case 1 -> new MappedCatalogStore(binary.getPath(), false);
+                    default -> pagedStore;
+                };
+                String name = switch (mode) {
+                    case 0 -> "texto (reescrito)";
+                    case 1 -> "binário mapeado (sem sync)";
+                    case 2 -> "páginas, sync imediato";
+                    default -> "páginas, a cada 100 ms";
+                };
+                int changes = mode == 0 ? Math.max(4, 2_000_000 / size) : mode == 2 ? 2_000 : 200_000;
+
+                Library library = new Library(store);
+                String[] authors = library.getAuthors();
+                long start = System.nanoTime();
+                for (int i = 0; i < changes / 2; i++) {
+                    String author = authors[i % authors.length];
+                    Book[] books = library.getBooksByAuthor(author);
+                    Book book = books[(i / authors.length) % books.length];
+                    if (book.isAvailable()) {
+                        library.requestBook(author, book.getTitle());
+                        library.returnBook(author, book.getTitle());
+                    } else {
+                        library.returnBook(author, book.getTitle());
+                        library.requestBook(author, book.getTitle());
+                    }
+                }
+                long elapsed = System.nanoTime() - start;
+                library.close();
+
+                String pages = pagedStore != null ? String.format("%.4f", pagedStore.getPagesWritten() / (double) changes) : "-";
+                System.out.printf("%10d %-26s %10d %14.1f %16s%n", size, name, changes, elapsed / 1e3 / changes, pages);
+            }
+        }
+
+        checkPageRecovery();
+    }
+
+    /**
+     * Guarda duas requisições na mesma página de um catálogo paginado, estraga a cópia mais recente da página,
+     * como uma escrita interrompida a meio, e confirma que o catálogo volta a abrir com a cópia anterior.
+     * Com as duas cópias estragadas, o carregamento tem de falhar.
+     */
+    private static void checkPageRecovery() throws Exception {
+        int size = 100_000;
+        File text = writeSyntheticCatalog(size);
+        File paged = new File(text.getPath() + ".pages");
+        paged.deleteOnExit();
+        new File(paged.getPath() + ".tmp").deleteOnExit();
+        PagedCatalogStore.convert(text.getPath(), paged.getPath());
+
+        Library library = new Library(new PagedCatalogStore(paged.getPath(), 0));
+        String author = library.getAuthors()[0];
+        Book[] books = library.getBooksByAuthor(author);
+        Book first = books[1];   // Os primeiros livros do primeiro autor estão todos na página 0
+        Book second = books[2];
+        if (library.requestBook(author, first.getTitle()) != LibraryResult.SUCCESS
+                || library.requestBook(author, second.getTitle()) != LibraryResult.SUCCESS) {
+            throw new IllegalStateException("Os livros da verificação deviam estar disponíveis.");
+        }
+        library.close();
+
+        // Cada página tem duas cópias de 4 KB no fim do ficheiro; a última escrita da página 0 foi a sua segunda cópia
+        int pageCount = (size + 4088 * 8 - 1) / (4088 * 8);
+        long pagesOffset = paged.length() - pageCount * 2L * 4096;
+        try (FileChannel channel = FileChannel.open(paged.toPath(), StandardOpenOption.WRITE)) {
+            channel.write(ByteBuffer.wrap(new byte[2048]), pagesOffset + 4096 + 1024);
+        }
+
+        Library reopened = new Library(new PagedCatalogStore(paged.getPath(), 0));
+        boolean firstAvailable = find(reopened, author, first.getTitle()).isAvailable();
+        boolean secondAvailable = find(reopened, author, second.getTitle()).isAvailable();
+        reopened.close();
+        if (firstAvailable || !secondAvailable) {
+            throw new IllegalStateException("A página estragada não foi recuperada da cópia anterior.");
+        }
+        System.out.println("Escrita interrompida de uma página: recuperada a cópia anterior da página.");
+
+        try (FileChannel channel = FileChannel.open(paged.toPath(), StandardOpenOption.WRITE)) {
+            channel.write(ByteBuffer.wrap(new byte[2048]), pagesOffset + 1024);
+        }
+        try {
+            // A Library terminaria o processo; o erro é lançado antes de o catálogo ser instalado nesta
+            File empty = File.createTempFile("library-empty", ".books");
+            empty.deleteOnExit();
+            new PagedCatalogStore(paged.getPath(), 0).load(new Library(new TextCatalogStore(empty.getPath())));
+            throw new IllegalStateException("Um catálogo com as duas cópias de uma página estragadas foi aceite.");
+        } catch (IOException e) {
+            System.out.println("Duas cópias estragadas: " + e.getMessage());
+        }
+    }
+
+    /**
+     * Mede os pedidos dos livros de um autor num catálogo de um milhão de livros (mil autores com mil livros cada),
+     * com os autores escolhidos por uma distribuição de Zipf, como os autores mais procurados de uma biblioteca real,
+     * e 1% de requisições e devoluções pelo meio. Compara a Library e a OffHeapLibrary sem cache e com uma
+     * CachedLibrary de vários pesos máximos, e mostra a taxa de acertos, os despejos e as invalidações.
+     * No fim, confirma que um livro adicionado ou removido através da cache aparece logo na procura por título.
+     *
+     * @throws Exception Se ocorrer um erro nos ficheiros ou se a cache mostrar uma lista desatualizada.
+     */
+    private static void cacheBenchmark() throws Exception {
+        int operations = 200_000;
+        File file = writeSyntheticCatalog(1_000_000);
+        new File(file.getPath() + ".journal").deleteOnExit();
+
+        // Autores por ordem de popularidade, com probabilidade proporcional a 1 / posição
+        Random random = new Random(42);
+        double[] cumulative = new double[1_000];
+        double sum = 0;
+        for (int rank = 0; rank < cumulative.length; rank++) {
+            sum += 1.0 / (rank + 1);
+            cumulative[rank] = sum;
+        }
+        int[] picks = new int[operations];
+        for (int i = 0; i < operations; i++) {
+            int rank = Arrays.binarySearch(cumulative, random.nextDouble() * sum);
+            picks[i] = rank >= 0 ? rank : -rank - 1;
+        }
+
+        System.out.println();
+        System.out.printf("Livros por autor, %d pedidos com autores de Zipf e 1%% de requisições%n", operations);
+        System.out.printf("%-18s %14s %12s %12s %10s %10s %14s%n", "biblioteca", "cache", "média (µs)", "p99 (µs)",
+                "acertos", "despejos", "invalidações");
+
+        for (int kind = 0; kind < 2; kind++) {
+            LibraryService library = kind == 0 ? new Library(new JournalCatalogStore(file.getPath()))
+                    : new OffHeapLibrary(file.getPath());
+            String name = kind == 0 ? "Library" : "OffHeapLibrary";
+            String[] authors = library.getAuthors();
+
+            for (long maxWeight : new long[]{0, 50_000, 200_000}) {
+                CachedLibrary cached = maxWeight > 0 ? new CachedLibrary(library, maxWeight) : null;
+                LibraryService service = cached != null ? cached : library;
+                LatencyHistogram latencies = new LatencyHistogram();
+                Random writes = new Random(7);
+                for (int pass = 0; pass < 2; pass++) {
+                    for (int i = 0; i < operations; i++) {
+                        String author = authors[picks[i]];
+                        long start = System.nanoTime();
+                        Book[] books = service.getBooksByAuthor(author);
+                        if (pass == 1) {
+                            latencies.record(System.nanoTime() - start);
+                        }
+                        if (writes.nextInt(100) == 0) {
+                            Book book = books[writes.nextInt(books.length)];
+                            if (book.isAvailable()) {
+                                service.requestBook(author, book.getTitle());
+                            } else {
+                                service.returnBook(author, book.getTitle());
+                            }
+                        }
+                    }
+                }
+
+                System.out.printf("%-18s %14s %12.1f %12.1f %10s %10s %14s%n", name,
+                        cached != null ? maxWeight + " livros" : "sem cache", latencies.mean() / 1e3,
+                        latencies.percentile(0.99) / 1e3,
+                        cached != null ? String.format("%.1f%%", cached.getHitRate() * 100) : "-",
+                        cached != null ? String.valueOf(cached.getEvictions()) : "-",
+                        cached != null ? String.valueOf(cached.getInvalidations()) : "-");
+                if (cached != null) {
+                    library.removeListener(cached);
+                }
+            }
+
+            // O mapa por título já criado tem de sair da cache com a entrada do autor
+            CachedLibrary cached = new CachedLibrary(library);
+            String author = authors[0];
+            cached.findBook(author, "Livro acabado de chegar");
+            cached.addBook(author, "Livro acabado de chegar");
+            Book added = cached.findBook(author, "Livro acabado de chegar");
+            cached.removeBook(author, "Livro acabado de chegar");
+            if (added == null || cached.findBook(author, "Livro acabado de chegar") != null) {
+                throw new IllegalStateException("A cache mostrou uma lista desatualizada.");
+            }
+            cached.close();
+        }
+    }
+
+    /**
+     * Procura um livro de um autor pelo título.
+     */
+    private static Book find(Library library, String author, String title) {
+        for (Book book : library.getBooksByAuthor(author)) {
+            if (book.getTitle().equals(title)) {
+                return book;
+            }
+        }
+        throw new IllegalStateException("Livro não encontrado: " + title);
+    }
+
+    /**
+     * Escreve uma linha da tabela da medição "transfer".
+     */
+    private static void printTransfer(String operation, CatalogTransfer.Report report) {
+        System.out.printf("%-22s %10d %12.1f %14.0f %12d %10d %10d%n", operation, report.rows(),
+                report.elapsedNanos() / 1e6, report.rowsPerSecond(), report.added(), report.duplicates(), report.invalid());
+    }
+
+    /**
+     * Exemplares de um título disputados na medição "holdings".
+     */
+    private interface CopyQueue {
+        /**
+         * Requisita um exemplar, esperando na fila se não houver nenhum.
+         */
+        void checkout(String borrower);
+
+        /**
+         * Devolve um exemplar, entregando-o à primeira reserva se houver alguma.
+         */
+        void giveBack();
+
+        /**
+         * Indica se todos os exemplares estão na prateleira e ninguém está à espera.
+         */
+        boolean allOnShelf();
+    }
+
+    /**
+     * Exemplares geridos por um Holding, sem locks.
+     */
+    private static final class LockFreeCopies implements CopyQueue {
+        private final Holding holding;
+
+        LockFreeCopies(int copies) {
+            holding = new Holding(copies, copies);
+        }
+
+        @Override
+        public void checkout(String borrower) {
+            Holding.Hold hold = holding.checkoutOrHold(borrower);
+            if (hold != null) {
+                hold.granted().join();
+            }
+        }
+
+        @Override
+        public void giveBack() {
+            holding.returnCopy();
+        }
+
+        @Override
+        public boolean allOnShelf() {
+            return holding.onShelf() == holding.copies() && holding.waiting() == 0;
+        }
+    }
+
+    /**
+     * Os mesmos exemplares com um contador e uma fila protegidos por um lock, para comparação.
+     */
+    private static final class LockedCopies implements CopyQueue {
+        private final ReentrantLock lock = new ReentrantLock();
+        private final ArrayDeque<CompletableFuture<Void>> queue = new ArrayDeque<>();
+        private final int copies;
+        private int onShelf;
+
+        LockedCopies(int copies) {
+            this.copies = copies;
+            this.onShelf = copies;
+        }
+
+        @Override
+        public void checkout(String borrower) {
+            CompletableFuture<Void> granted;
+            lock.lock();
+            try {
+                if (onShelf > 0) {
+                    onShelf--;
+                    return;
+                }
+                granted = new CompletableFuture<>();
+                queue.add(granted);
+            } finally {
+                lock.unlock();
+            }
+            granted.join();
+        }
+
+        @Override
+        public void giveBack() {
+            CompletableFuture<Void> next;
+            lock.lock();
+            try {
+                next = queue.poll();
+                if (next == null) {
+                    onShelf++;
+                    return;
+                }
+            } finally {
+                lock.unlock();
+            }
+            next.complete(null);
+        }
+
+        @Override
+        public boolean allOnShelf() {
+            lock.lock();
+            try {
+                return onShelf == copies && queue.isEmpty();
+            } finally {
+                lock.unlock();
+            }
+        }
+    }
+
+    /**
+     * Recolhe a duração das pausas do garbage collector através das notificações dos GarbageCollectorMXBean.
+     * As notificações dos coletores concorrentes, que não param a aplicação, são ignoradas.
+     */
+    private static final class GcPauses implements NotificationListener {
+
+        private final LatencyHistogram durations = new LatencyHistogram();
+        private final AtomicLong total = new AtomicLong();
+
+        /**
+         * Começa a recolher as pausas de todos os coletores.
+         */
+        static GcPauses start() {
+            GcPauses pauses = new GcPauses();
+            for (GarbageCollectorMXBean collector : ManagementFactory.getGarbageCollectorMXBeans()) {
+                ((NotificationEmitter) collector).addNotificationListener(pauses, null, null);
+            }
+            return pauses;
+        }
+
+        /**
+         * Deixa de recolher pausas, depois de receber as notificações ainda por entregar.
+         */
+        void stop() throws Exception {
+            Thread.sleep(200);
+            for (GarbageCollectorMXBean collector : ManagementFactory.getGarbageCollectorMXBeans()) {
+                ((NotificationEmitter) collector).removeNotificationListener(this);
+            }
+        }
+
+        @Override
+        public void handleNotification(Notification notification, Object handback) {
+            if (!notification.getType().equals(GarbageCollectionNotificationInfo.GARBAGE_COLLECTION_NOTIFICATION)) {
+                return;
+            }
+            GarbageCollectionNotificationInfo info = GarbageCollectionNotificationInfo.from((CompositeData) notification.getUserData());
+            if (info.getGcName().contains("Concurrent") || info.getGcAction().contains("concurrent")) {
+                return;
+            }
+            long nanos = info.getGcInfo().getDuration() * 1_000_000;
+            durations.record(nanos);
+            total.addAndGet(nanos);
+        }
+
+        LatencyHistogram durations() {
+            return durations;
+        }
+
+        long total() {
+            return total.get();
+        }
+    }
+
+    /**
+     * Retorna o heap usado depois de pedir várias recolhas de lixo.
+     */
+    private static long usedHeap() throws InterruptedException {
+        for (int i = 0; i < 4; i++) {
+            System.gc();
+            Thread.sleep(50);
+        }
+        return ManagementFactory.getMemoryMXBean().getHeapMemoryUsage().getUsed();
+    }
+
+    /**
+     * Mostra uma linha da tabela de resultados do gerador de carga.
+     */
+    private static void printLoadResult(int clients, LibraryLoadGenerator.Result result) {
+        LatencyHistogram latencies = result.latencies();
+        System.out.printf("%10d %12.0f %12.1f %12.1f %12.1f %8d%n", clients, result.throughput(),
+                latencies.percentile(0.5) / 1e3, latencies.percentile(0.99) / 1e3, latencies.percentile(0.999) / 1e3,
+                result.errors());
+    }
+
+    /**
+     * Operação de escrita executada pelas threads da medição.
+     */
+    @FunctionalInterface
+    private interface WriteOperation {
+        void run() throws IOException;
+    }
+
+    /**
+     * Executa a operação COMMITS_PER_THREAD vezes em cada uma das threads e espera que todas terminem.
+     */
+    private static void runThreads(int threads, WriteOperation operation) throws InterruptedException {
+        List<Thread> workers = new ArrayList<>();
+        for (int t = 0; t < threads; t++) {
+            Thread worker = new Thread(() -> {
+                try {
+                    for (int i = 0; i < COMMITS_PER_THREAD; i++) {
+                        operation.run();
+                    }
+                } catch (IOException e) {
+                    throw new RuntimeException(e);
+                }
+            });
+            workers.add(worker);
+            worker.start();
+        }
+        for (Thread worker : workers) {
+            worker.join();
+        }
+    }
+
+    /**
+     * Cria um registo com o tamanho típico de um registo do journal.
+     */
+    private static ByteBuffer sampleRecord() {
+        return ByteBuffer.wrap(new byte[64]);
+    }
+
+    /**
+     * Formata o débito obtido e o número de sincronizações.
+     */
+    private static String throughput(int threads, long nanos, int syncs) {
+        double perSecond = (double) threads * COMMITS_PER_THREAD / (nanos / 1e9);
+        return String.format("%.0f (%d)", perSecond, syncs);
+    }
+}
@@ -0,0 +1,121 @@
+import benchmark.LibraryOperations;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.file.Files;
+
+/**
+ * Classe que liga os benchmarks JMH, no pacote "benchmark", à classe Library, no pacote por omissão.
+ * Cada método chama diretamente o método com o mesmo nome da biblioteca.
+ */
+public class LibraryBenchmarkTarget implements LibraryOperations {
+
+    private File textFile;      // Ficheiro de livros sintético
+    private String storeType;   // Forma de persistência usada
+    private int authorCount;    // Número de autores do catálogo sintético
+    private Library library;
+
+    @Override
+    public void createCatalog(int size, String storeType) throws IOException {
+        this.storeType = storeType;
+        this.authorCount = (int) Math.sqrt(size);
+
+        // As mensagens de carregamento de cada abertura iriam misturar-se com os resultados do JMH
+        LibraryLog.setLevel(LibraryLog.Level.WARNING);
+
+        textFile = LibraryBenchmark.writeSyntheticCatalog(size);
+        if (storeType.equals("binary")) {
+            MappedCatalogStore.convert(textFile.getPath(), binaryPath());
+        }
+    }
+
+    @Override
+    public void deleteCatalog() throws IOException {
+        String path = textFile.getPath();
+        for (String name : new String[]{path, path + ".tmp", path + ".journal", path + ".journal.tmp", binaryPath(), binaryPath() + ".tmp"}) {
+            Files.deleteIfExists(new File(name).toPath());
+        }
+    }
+
+    @Override
+    public void load() throws IOException {
+        new Library(createStore()).close();
+    }
+
+    @Override
+    public void open() {
+        library = new Library(createStore());
+    }
+
+    @Override
+    public void close() throws IOException {
+        library.close();
+        library = null;
+    }
+
+    @Override
+    public int authorCount() {
+        return authorCount;
+    }
+
+    @Override
+    public String author(int book) {
+        return "Autor " + (book % authorCount);
+    }
+
+    @Override
+    public String title(int book) {
+        return "Livro " + book;
+    }
+
+    @Override
+    public boolean initiallyAvailable(int book) {
+        return book % 3 != 0;
+    }
+
+    @Override
+    public void addBook(String author, String title) throws IOException {
+        library.addBook(author, title);
+    }
+
+    @Override
+    public void removeBook(String author, String title) throws IOException {
+        library.removeBook(author, title);
+    }
+
+    @Override
+    public boolean requestBook(String author, String title) throws IOException {
+        return library.requestBook(author, title).isSuccess();
+    }
+
+    @Override
+    public void returnBook(String author, String title) throws IOException {
+        library.returnBook(author, title);
+    }
+
+    @Override
+    public Object[] getBooksByAuthor(int authorIndex) {
+        return library.getBooksByAuthor(authorIndex);
+    }
+
+    @Override
+    public void saveBooksToFile() throws IOException {
+        library.saveBooksToFile();
+    }
+
+    /**
+     * Cria a forma de persistência escolhida para os ficheiros do catálogo.
+     */
+    private CatalogStore createStore() {
+        return switch (storeType) {
+            case "text" -> new TextCatalogStore(textFile.getPath());
+            case "journal" -> new JournalCatalogStore(textFile.getPath());
+            case "binary" -> new MappedCatalogStore(binaryPath());
+            default -> throw new IllegalArgumentException("Persistência desconhecida: " + storeType);
+        };
+    }
+
+    private String binaryPath() {
+        return textFile.getPath() + ".bin";
+    }
+}
@@ -0,0 +1,219 @@
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Random;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.function.Supplier;
+
+/**
+ * Gerador de carga para a biblioteca, que mostra o débito e os percentis de latência (p50, p99 e p99.9).
+ * <ul>
+ *     <li>{@link #run}: vários clientes ligados a um LibraryServer; cada um escolhe autores ao acaso, lista os seus
+ *     livros, requisita um deles e, se conseguir, devolve-o logo a seguir.</li>
+ *     <li>{@link #runUsers}: milhares de utilizadores simulados no mesmo processo, cada um na sua thread (virtual,
+ *     se disponível), a usar Student e Teacher sobre uma biblioteca partilhada. Por cada cem utilizadores,
+ *     um é professor e adiciona e remove livros; os outros requisitam e devolvem.</li>
+ * </ul>
+ * Cada utilizador ou cliente faz um pedido de cada vez, sem pausas, por isso com mais utilizadores do que a
+ * biblioteca consegue atender a latência inclui o tempo à espera de vez.
+ */
+public class LibraryLoadGenerator {
+
+    /**
+     * Resultado de uma execução do gerador de carga.
+     *
+     * @param operations Número de pedidos feitos por todos os clientes.
+     * @param errors Número de pedidos que falharam.
+     * @param nanos Duração da execução em nanossegundos.
+     * @param latencies Latências dos pedidos bem-sucedidos.
+     */
+    public record Result(long operations, long errors, long nanos, LatencyHistogram latencies) {
+
+        /**
+         * Pedidos por segundo.
+         */
+        public double throughput() {
+            return operations / (nanos / 1e9);
+        }
+    }
+
+    /**
+     * Método principal do gerador de carga contra um servidor.
+     *
+     * @param args Anfitrião, porta, número de clientes e duração em segundos (por omissão localhost 7070 16 10).
+     * @throws Exception Se não for possível ligar ao servidor.
+     */
+    public static void main(String[] args) throws Exception {
+        String host = args.length > 0 ? args[0] : "localhost";
+        int port = args.length > 1 ? Integer.parseInt(args[1]) : LibraryProtocol.DEFAULT_PORT;
+        int clients = args.length > 2 ? Integer.parseInt(args[2]) : 16;
+        int seconds = args.length > 3 ? Integer.parseInt(args[3]) : 10;
+
+        Result result = run(host, port, clients, seconds * 1000L);
+        System.out.printf("%d clientes, %d pedidos, %d erros, %.0f pedidos/s, %s%n", clients, result.operations(),
+                result.errors(), result.throughput(), result.latencies().summary());
+    }
+
+    /**
+     * Executa a carga de vários clientes contra um servidor durante o tempo indicado.
+     *
+     * @param host Nome ou endereço do servidor.
+     * @param port Porta do servidor.
+     * @param clients Número de clientes em paralelo, cada um com a sua ligação e a sua thread.
+     * @param durationMillis Duração da carga em milissegundos.
+     * @return O resultado da execução.
+     * @throws IOException Se não for possível ligar ao servidor.
+     * @throws InterruptedException Se a thread for interrompida à espera dos clientes.
+     */
+    public static Result run(String host, int port, int clients, long durationMillis)
+            throws IOException, InterruptedException {
+        String[] authors;
+        try (RemoteLibrary probe = new RemoteLibrary(host, port)) {
+            authors = probe.getAuthors();
+        }
+        if (authors.length == 0) {
+            throw new IOException("O servidor não tem livros.");
+        }
+
+        List<RemoteLibrary> connections = new ArrayList<>();
+        for (int c = 0; c < clients; c++) {
+            connections.add(new RemoteLibrary(host, port));
+        }
+
+        LatencyHistogram latencies = new LatencyHistogram();
+        AtomicLong errors = new AtomicLong();
+        long start = System.nanoTime();
+        long deadline = start + durationMillis * 1_000_000;
+        List<Thread> threads = new ArrayList<>();
+        for (int c = 0; c < clients; c++) {
+            RemoteLibrary library = connections.get(c);
+            Random random = new Random(c);
+            threads.add(LibraryThreads.start("library-load-" + c, () -> {
+                while (System.nanoTime() < deadline) {
+                    String author = authors[random.nextInt(authors.length)];
+                    try {
+                        long before = System.nanoTime();
+                        Book[] books = library.getBooksByAuthor(author);
+                        long after = System.nanoTime();
+                        latencies.record(after - before);
+                        if (books.length == 0) {
+                            continue;
+                        }
+
+                        String title = books[random.nextInt(books.length)].getTitle();
+                        before = after;
+                        LibraryResult requested = library.requestBook(author, title);
+                        after = System.nanoTime();
+                        latencies.record(after - before);
+
+                        if (requested.isSuccess()) {
+                            before = after;
+                            library.returnBook(author, title);
+                            latencies.record(System.nanoTime() - before);
+                        }
+                    } catch (IOException | RuntimeException e) {
+                        errors.incrementAndGet();
+                    }
+                }
+            }));
+        }
+        for (Thread thread : threads) {
+            thread.join();
+        }
+        long elapsed = System.nanoTime() - start;
+
+        for (RemoteLibrary library : connections) {
+            library.close();
+        }
+        return new Result(latencies.count(), errors.get(), elapsed, latencies);
+    }
+
+    /**
+     * Executa a carga de muitos utilizadores simulados sobre uma biblioteca deste processo durante o tempo indicado.
+     * Cada operação de Student ou Teacher corre numa thread própria de uma AsyncLibrary partilhada,
+     * e a latência medida vai do pedido até ao fim da operação, incluindo a escrita em disco.
+     * No fim, todos os livros requisitados foram devolvidos e todos os livros adicionados foram removidos.
+     *
+     * @param library A biblioteca partilhada, com pelo menos um livro.
+     * @param users Número de utilizadores simulados.
+     * @param durationMillis Duração da carga em milissegundos.
+     * @return O resultado da execução.
+     * @throws InterruptedException Se a thread for interrompida à espera dos utilizadores.
+     */
+    public static Result runUsers(LibraryService library, int users, long durationMillis) throws InterruptedException {
+        String[] authors = library.getAuthors();
+        AsyncLibrary requests = AsyncLibrary.concurrent(library, Math.min(users, 256));
+
+        LatencyHistogram latencies = new LatencyHistogram();
+        AtomicLong errors = new AtomicLong();
+        long start = System.nanoTime();
+        long deadline = start + durationMillis * 1_000_000;
+        List<Thread> threads = new ArrayList<>();
+        for (int u = 0; u < users; u++) {
+            Random random = new Random(u);
+            Runnable user = u % 100 == 0
+                    ? teacherLoop(new Teacher(library, requests), "Autor de carga " + u, deadline, latencies, errors)
+                    : studentLoop(new Student(library, requests, "estudante-" + u), authors, random, deadline, latencies, errors);
+            threads.add(LibraryThreads.start("library-user-" + u, user));
+        }
+        for (Thread thread : threads) {
+            thread.join();
+        }
+        long elapsed = System.nanoTime() - start;
+
+        requests.shutdown();  // A biblioteca continua aberta; pertence a quem a criou
+        return new Result(latencies.count(), errors.get(), elapsed, latencies);
+    }
+
+    /**
+     * Utilizador que requisita um livro ao acaso e, se conseguir, devolve-o.
+     */
+    private static Runnable studentLoop(Student student, String[] authors, Random random, long deadline,
+                                        LatencyHistogram latencies, AtomicLong errors) {
+        return () -> {
+            while (System.nanoTime() < deadline) {
+                Book[] books = student.getBooksByAuthor(authors[random.nextInt(authors.length)]);
+                if (books.length == 0) {
+                    continue;
+                }
+                Book book = books[random.nextInt(books.length)];
+                LibraryResult requested = timed(() -> student.requestBook(book), latencies, errors);
+                if (requested != null && requested.isSuccess()) {
+                    timed(() -> student.returnBook(book), latencies, errors);
+                }
+            }
+        };
+    }
+
+    /**
+     * Utilizador que adiciona um livro novo e depois o remove.
+     */
+    private static Runnable teacherLoop(Teacher teacher, String author, long deadline,
+                                        LatencyHistogram latencies, AtomicLong errors) {
+        return () -> {
+            int next = 0;
+            while (System.nanoTime() < deadline) {
+                String title = "Livro de carga " + next++;
+                timed(() -> teacher.addBook(author, title), latencies, errors);
+                timed(() -> teacher.removeBook(author, title), latencies, errors);
+            }
+        };
+    }
+
+    /**
+     * Pede uma operação, espera que termine e regista a sua latência, ou conta um erro.
+     */
+    private static <T> T timed(Supplier<CompletableFuture<T>> operation, LatencyHistogram latencies,
+                               AtomicLong errors) {
+        long before = System.nanoTime();
+        try {
+            T result = operation.get().join();
+            latencies.record(System.nanoTime() - before);
+            return result;
+        } catch (RuntimeException e) {
+            errors.incrementAndGet();
+            return null;
+        }
+    }
+}
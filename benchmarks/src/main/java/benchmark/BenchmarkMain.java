@@ -0,0 +1,56 @@
+package benchmark;
+
+import org.openjdk.jmh.results.format.ResultFormatType;
+import org.openjdk.jmh.runner.Runner;
+import org.openjdk.jmh.runner.options.ChainedOptionsBuilder;
+import org.openjdk.jmh.runner.options.CommandLineOptions;
+import org.openjdk.jmh.runner.options.OptionsBuilder;
+
+/**
+ * Classe principal do benchmarks.jar.
+ * Aceita as mesmas opções que o JMH ("-p size=1000", "-t 8", "-l", ...), mas, se não for indicado outro formato
+ * nem outro ficheiro, escreve os resultados em JSON no ficheiro "jmh-result.json", para serem comparados entre versões.
+ * <p>
+ * Exemplos:
+ * <pre>
+ * java -jar benchmarks/target/benchmarks.jar
+ * java -jar benchmarks/target/benchmarks.jar SingleThreadBenchmark -p size=100,10000 -p store=journal
+ * java -jar benchmarks/target/benchmarks.jar ContendedBenchmark -t 16 -rff contended.json
+ * </pre>
+ */
+public class BenchmarkMain {
+
+    /**
+     * Ficheiro onde os resultados são escritos por omissão.
+     */
+    private static final String DEFAULT_RESULT_FILE = "jmh-result.json";
+
+    /**
+     * Método principal que executa os benchmarks escolhidos.
+     *
+     * @param args Opções do JMH.
+     * @throws Exception Se as opções não forem válidas ou se um benchmark falhar.
+     */
+    public static void main(String[] args) throws Exception {
+        CommandLineOptions options = new CommandLineOptions(args);
+        if (options.shouldHelp()) {
+            options.showHelp();
+            return;
+        }
+
+        ChainedOptionsBuilder builder = new OptionsBuilder().parent(options);
+        if (!options.getResultFormat().hasValue()) {
+            builder.resultFormat(ResultFormatType.JSON);
+            if (!options.getResult().hasValue()) {
+                builder.result(DEFAULT_RESULT_FILE);
+            }
+        }
+
+        Runner runner = new Runner(builder.build());
+        if (options.shouldList()) {
+            runner.list();
+        } else {
+            runner.run();
+        }
+    }
+}
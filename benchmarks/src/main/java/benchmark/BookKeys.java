@@ -0,0 +1,80 @@
+package benchmark;
+
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.infra.ThreadParams;
+
+import java.util.Random;
+
+/**
+ * Livros usados por uma thread de um benchmark, escolhidos de forma pseudoaleatória antes da medição.
+ * Cada thread usa só livros disponíveis da sua própria partição do catálogo, por isso requisitar e devolver
+ * nunca falha por causa de outra thread; as threads continuam a disputar os locks dos autores e do catálogo.
+ */
+@State(Scope.Thread)
+public class BookKeys {
+
+    /**
+     * Número de livros escolhidos por thread (potência de 2, para o índice ser calculado com uma máscara).
+     */
+    private static final int KEYS = 1024;
+
+    private final String[] authors = new String[KEYS];
+    private final String[] titles = new String[KEYS];
+    private final int[] authorIndexes = new int[KEYS];
+    private int next;
+
+    private String newTitlePrefix;  // Prefixo dos títulos acrescentados por esta thread
+    private long added;             // Número de livros acrescentados por esta thread
+
+    String author;       // Autor do livro atual
+    String title;        // Título do livro atual
+    int authorIndex;     // Posição de um autor qualquer
+
+    @Setup(Level.Trial)
+    public void setUp(LibraryState state, ThreadParams threads) {
+        LibraryOperations library = state.library;
+        int threadIndex = threads.getThreadIndex();
+        int threadCount = threads.getThreadCount();
+        Random random = new Random(42 + threadIndex);
+
+        // Cada thread fica com um intervalo contínuo de livros, que contém livros de vários autores
+        int first = (int) ((long) state.size * threadIndex / threadCount);
+        int last = (int) ((long) state.size * (threadIndex + 1) / threadCount);
+        if (last - first < 3) {
+            throw new IllegalStateException("Catálogo demasiado pequeno para " + threadCount + " threads.");
+        }
+
+        int count = 0;
+        while (count < KEYS) {
+            int book = first + random.nextInt(last - first);
+            if (library.initiallyAvailable(book)) {
+                authors[count] = library.author(book);
+                titles[count] = library.title(book);
+                authorIndexes[count] = random.nextInt(library.authorCount());
+                count++;
+            }
+        }
+        newTitlePrefix = "Livro novo " + threadIndex + "-";
+    }
+
+    /**
+     * Passa para o próximo livro da lista.
+     */
+    void nextBook() {
+        int key = next++ & (KEYS - 1);
+        author = authors[key];
+        title = titles[key];
+        authorIndex = authorIndexes[key];
+    }
+
+    /**
+     * Passa para o próximo livro da lista, mas com um título novo, que ainda não existe no catálogo.
+     */
+    void nextNewBook() {
+        nextBook();
+        title = newTitlePrefix + added++;
+    }
+}
@@ -0,0 +1,37 @@
+package benchmark;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.Group;
+import org.openjdk.jmh.annotations.GroupThreads;
+import org.openjdk.jmh.annotations.Threads;
+
+import java.io.IOException;
+
+/**
+ * Operações da biblioteca executadas por várias threads ao mesmo tempo, que disputam os locks dos autores
+ * e do catálogo e as escritas na persistência. O número de threads pode ser alterado com "-t".
+ * <p>
+ * O grupo "readWrite" junta leitores de listas de autores com threads que requisitam e devolvem livros,
+ * como acontece quando vários utilizadores consultam o catálogo enquanto outros fazem requisições.
+ */
+@Threads(4)
+public class ContendedBenchmark extends LibraryOperationsBenchmark {
+
+    @Benchmark
+    @Group("readWrite")
+    @GroupThreads(3)
+    public Object[] readWriteGetBooksByAuthor(LibraryState state, BookKeys keys) {
+        keys.nextBook();
+        return state.library.getBooksByAuthor(keys.authorIndex);
+    }
+
+    @Benchmark
+    @Group("readWrite")
+    @GroupThreads(1)
+    public boolean readWriteRequestAndReturnBook(LibraryState state, BookKeys keys) throws IOException {
+        keys.nextBook();
+        boolean requested = state.library.requestBook(keys.author, keys.title);
+        state.library.returnBook(keys.author, keys.title);
+        return requested;
+    }
+}
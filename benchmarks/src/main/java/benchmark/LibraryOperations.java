@@ -0,0 +1,128 @@
+package benchmark;
+
+import java.io.IOException;
+
+/**
+ * Interface com as operações da biblioteca usadas pelos benchmarks.
+ * <p>
+ * As classes da biblioteca estão no pacote por omissão, que não pode ser importado por classes de outros pacotes,
+ * e o JMH não aceita benchmarks no pacote por omissão. Por isso, os benchmarks usam esta interface, implementada
+ * pela classe LibraryBenchmarkTarget (no pacote por omissão), que é criada por reflexão em {@link #create()}.
+ * <p>
+ * O catálogo sintético tem o livro número i com o título "Livro i", do autor número i % nº de autores,
+ * tal como o ficheiro gerado por LibraryBenchmark.
+ */
+public interface LibraryOperations {
+
+    /**
+     * Nome da classe que implementa esta interface, no pacote por omissão.
+     */
+    String TARGET_CLASS = "LibraryBenchmarkTarget";
+
+    /**
+     * Cria a implementação da interface que usa a classe Library.
+     *
+     * @return Uma nova instância de LibraryBenchmarkTarget.
+     * @throws ReflectiveOperationException Se a classe não existir ou não puder ser criada.
+     */
+    static LibraryOperations create() throws ReflectiveOperationException {
+        return Class.forName(TARGET_CLASS).asSubclass(LibraryOperations.class).getDeclaredConstructor().newInstance();
+    }
+
+    /**
+     * Escreve um catálogo sintético em ficheiros temporários, no formato da persistência indicada.
+     * Enquanto o catálogo existir, as mensagens que a biblioteca escreve no terminal são descartadas.
+     *
+     * @param size Número de livros do catálogo.
+     * @param storeType Forma de persistência: "text", "journal" ou "binary".
+     * @throws IOException Se ocorrer um erro ao escrever os ficheiros.
+     */
+    void createCatalog(int size, String storeType) throws IOException;
+
+    /**
+     * Apaga os ficheiros do catálogo e volta a mostrar as mensagens da biblioteca no terminal.
+     *
+     * @throws IOException Se ocorrer um erro ao apagar os ficheiros.
+     */
+    void deleteCatalog() throws IOException;
+
+    /**
+     * Carrega o catálogo numa biblioteca nova e fecha-a logo a seguir.
+     *
+     * @throws IOException Se ocorrer um erro ao ler ou fechar os ficheiros.
+     */
+    void load() throws IOException;
+
+    /**
+     * Abre a biblioteca usada pelas restantes operações.
+     */
+    void open();
+
+    /**
+     * Fecha a biblioteca aberta por {@link #open()}.
+     *
+     * @throws IOException Se ocorrer um erro ao fechar os ficheiros.
+     */
+    void close() throws IOException;
+
+    /**
+     * Retorna o número de autores do catálogo sintético.
+     *
+     * @return O número de autores.
+     */
+    int authorCount();
+
+    /**
+     * Retorna o nome do autor de um livro do catálogo sintético.
+     *
+     * @param book O número do livro.
+     * @return O nome do autor.
+     */
+    String author(int book);
+
+    /**
+     * Retorna o título de um livro do catálogo sintético.
+     *
+     * @param book O número do livro.
+     * @return O título.
+     */
+    String title(int book);
+
+    /**
+     * Verifica se um livro do catálogo sintético começa disponível.
+     *
+     * @param book O número do livro.
+     * @return true se o livro começa disponível, false caso contrário.
+     */
+    boolean initiallyAvailable(int book);
+
+    /**
+     * Chama Library.addBook na biblioteca aberta.
+     */
+    void addBook(String author, String title) throws IOException;
+
+    /**
+     * Chama Library.removeBook na biblioteca aberta.
+     */
+    void removeBook(String author, String title) throws IOException;
+
+    /**
+     * Chama Library.requestBook na biblioteca aberta.
+     */
+    boolean requestBook(String author, String title) throws IOException;
+
+    /**
+     * Chama Library.returnBook na biblioteca aberta.
+     */
+    void returnBook(String author, String title) throws IOException;
+
+    /**
+     * Chama Library.getBooksByAuthor na biblioteca aberta.
+     */
+    Object[] getBooksByAuthor(int authorIndex);
+
+    /**
+     * Chama Library.saveBooksToFile na biblioteca aberta.
+     */
+    void saveBooksToFile() throws IOException;
+}
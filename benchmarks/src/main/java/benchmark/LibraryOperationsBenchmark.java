@@ -0,0 +1,140 @@
+package benchmark;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+
+import java.io.IOException;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Benchmarks das operações da biblioteca sobre um catálogo já carregado.
+ * As subclasses escolhem o número de threads; cada operação é medida isoladamente, e o que é preciso para a
+ * repetir (acrescentar o livro a remover, devolver o livro requisitado, ...) é feito fora da medição,
+ * para que o catálogo mantenha o mesmo tamanho e os mesmos livros disponíveis durante todo o benchmark.
+ */
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(value = 1, jvmArgsAppend = "-Xmx8g")
+public abstract class LibraryOperationsBenchmark {
+
+    /**
+     * Livro escolhido para uma medição. Os estados guardam o autor e o título do livro, em vez de os benchmarks
+     * os lerem de BookKeys, porque o JMH cria instâncias diferentes de um estado de thread para o benchmark
+     * e para cada estado que dele depende.
+     */
+    public abstract static class ChosenBook {
+        String author;
+        String title;
+
+        void choose(BookKeys keys) {
+            keys.nextBook();
+            author = keys.author;
+            title = keys.title;
+        }
+
+        void chooseNew(BookKeys keys) {
+            keys.nextNewBook();
+            author = keys.author;
+            title = keys.title;
+        }
+    }
+
+    /**
+     * Livro novo a acrescentar; é removido depois de cada medição.
+     */
+    @State(Scope.Thread)
+    public static class BookToAdd extends ChosenBook {
+        @Setup(Level.Invocation)
+        public void setUp(BookKeys keys) {
+            chooseNew(keys);
+        }
+
+        @TearDown(Level.Invocation)
+        public void tearDown(LibraryState state) throws IOException {
+            state.library.removeBook(author, title);
+        }
+    }
+
+    /**
+     * Livro a remover; é acrescentado antes de cada medição.
+     */
+    @State(Scope.Thread)
+    public static class BookToRemove extends ChosenBook {
+        @Setup(Level.Invocation)
+        public void setUp(LibraryState state, BookKeys keys) throws IOException {
+            chooseNew(keys);
+            state.library.addBook(author, title);
+        }
+    }
+
+    /**
+     * Livro disponível a requisitar; é devolvido depois de cada medição.
+     */
+    @State(Scope.Thread)
+    public static class BookToRequest extends ChosenBook {
+        @Setup(Level.Invocation)
+        public void setUp(BookKeys keys) {
+            choose(keys);
+        }
+
+        @TearDown(Level.Invocation)
+        public void tearDown(LibraryState state) throws IOException {
+            state.library.returnBook(author, title);
+        }
+    }
+
+    /**
+     * Livro a devolver; é requisitado antes de cada medição.
+     */
+    @State(Scope.Thread)
+    public static class BookToReturn extends ChosenBook {
+        @Setup(Level.Invocation)
+        public void setUp(LibraryState state, BookKeys keys) throws IOException {
+            choose(keys);
+            state.library.requestBook(author, title);
+        }
+    }
+
+    @Benchmark
+    public void addBook(LibraryState state, BookToAdd book) throws IOException {
+        state.library.addBook(book.author, book.title);
+    }
+
+    @Benchmark
+    public void removeBook(LibraryState state, BookToRemove book) throws IOException {
+        state.library.removeBook(book.author, book.title);
+    }
+
+    @Benchmark
+    public boolean requestBook(LibraryState state, BookToRequest book) throws IOException {
+        return state.library.requestBook(book.author, book.title);
+    }
+
+    @Benchmark
+    public void returnBook(LibraryState state, BookToReturn book) throws IOException {
+        state.library.returnBook(book.author, book.title);
+    }
+
+    @Benchmark
+    public Object[] getBooksByAuthor(LibraryState state, BookKeys keys) {
+        keys.nextBook();
+        return state.library.getBooksByAuthor(keys.authorIndex);
+    }
+
+    @Benchmark
+    public void saveBooksToFile(LibraryState state) throws IOException {
+        state.library.saveBooksToFile();
+    }
+}
@@ -0,0 +1,43 @@
+package benchmark;
+
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+
+/**
+ * Estado partilhado por todas as threads de um benchmark: uma biblioteca aberta sobre um catálogo sintético.
+ * O tamanho do catálogo e a forma de persistência são parâmetros do JMH, que podem ser escolhidos com "-p".
+ */
+@State(Scope.Benchmark)
+public class LibraryState {
+
+    /**
+     * Número de livros do catálogo, de 10^2 a 10^7.
+     */
+    @Param({"100", "1000", "10000", "100000", "1000000", "10000000"})
+    public int size;
+
+    /**
+     * Forma de persistência da biblioteca: ficheiro de texto, journal ou catálogo binário.
+     */
+    @Param({"text", "journal", "binary"})
+    public String store;
+
+    LibraryOperations library;
+
+    @Setup(Level.Trial)
+    public void setUp() throws Exception {
+        library = LibraryOperations.create();
+        library.createCatalog(size, store);
+        library.open();
+    }
+
+    @TearDown(Level.Trial)
+    public void tearDown() throws Exception {
+        library.close();
+        library.deleteCatalog();
+    }
+}
@@ -0,0 +1,61 @@
+package benchmark;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+
+import java.io.IOException;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Benchmark do carregamento completo do catálogo (Library.loadBooks, chamado pelo construtor da biblioteca).
+ * Cada operação abre uma biblioteca nova sobre os mesmos ficheiros e fecha-a.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Warmup(iterations = 2, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(value = 1, jvmArgsAppend = "-Xmx8g")
+public class LoadBenchmark {
+
+    /**
+     * Número de livros do catálogo, de 10^2 a 10^7.
+     */
+    @Param({"100", "1000", "10000", "100000", "1000000", "10000000"})
+    public int size;
+
+    /**
+     * Forma de persistência da biblioteca: ficheiro de texto, journal ou catálogo binário.
+     */
+    @Param({"text", "journal", "binary"})
+    public String store;
+
+    private LibraryOperations library;
+
+    @Setup(Level.Trial)
+    public void setUp() throws Exception {
+        library = LibraryOperations.create();
+        library.createCatalog(size, store);
+    }
+
+    @TearDown(Level.Trial)
+    public void tearDown() throws IOException {
+        library.deleteCatalog();
+    }
+
+    @Benchmark
+    public void loadBooks() throws IOException {
+        library.load();
+    }
+}
@@ -0,0 +1,10 @@
+package benchmark;
+
+import org.openjdk.jmh.annotations.Threads;
+
+/**
+ * Operações da biblioteca executadas por uma só thread, sem disputa de locks.
+ */
+@Threads(1)
+public class SingleThreadBenchmark extends LibraryOperationsBenchmark {
+}